@@ -1,6 +1,5 @@
 package spim.algorithm;
 
-import ij.ImageStack;
 import ij.process.ImageProcessor;
 
 import org.apache.commons.math3.geometry.euclidean.threed.Vector3D;
@@ -115,8 +114,8 @@ public abstract class AbstractAntiDrift implements AntiDrift
 		latest.writeDiff(first, zratio, offset, center, outputDir);
 	}
 
-	protected ImageProcessor refImage, lastMIP;
-	protected Vector3D refXY;
-	protected Vector3D lastXY;
-	protected ImageStack stack;
+	/**
+	 * The centre of mass of the first and the latest stack.
+	 */
+	protected Vector3D refCentroid, lastCentroid;
 }
@@ -10,7 +10,9 @@ public interface AntiDrift
 {
 	enum Type {
 		CenterOfMass,
-		PhaseCorrelation
+		PhaseCorrelation,
+		// Binned estimate refined at full resolution with a subpixel peak
+		MultiScalePhaseCorrelation
 	}
 	/**
 	 * Start new stack.
@@ -0,0 +1,181 @@
+package spim.algorithm;
+
+import ij.process.ImageProcessor;
+import org.apache.commons.math3.geometry.euclidean.threed.Vector3D;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * Description: Intensity-weighted centre of mass of a stack in X, Y and Z,
+ * accumulated while its slices arrive. Every slice adds its weighted sums to
+ * a few running totals, so no slice is kept and the memory does not depend on
+ * the size of the stack. The rows of a slice are split into bands which are
+ * summed in parallel on the pool of the StackProjector. An optional
+ * background is subtracted from every pixel, pixels at or below it do not
+ * count.
+ *
+ * Author: HongKee Moon (moon@mpi-cbg.de), Scientific Computing Facility
+ * Organization: MPI-CBG Dresden
+ * Date: October 2026
+ */
+public class CentroidAccumulator
+{
+	private static final int MIN_ROWS_PER_BAND = 64;
+
+	private final double background;
+
+	private int width = -1;
+	private int height;
+	private int depth;
+	private double sum, sumX, sumY, sumZ;
+
+	/**
+	 * @param background the intensity subtracted from every pixel, 0 for none
+	 */
+	public CentroidAccumulator( double background )
+	{
+		this.background = background;
+	}
+
+	public CentroidAccumulator()
+	{
+		this( 0 );
+	}
+
+	/**
+	 * @return the number of slices added
+	 */
+	public int getDepth()
+	{
+		return depth;
+	}
+
+	/**
+	 * Adds the next slice, which is only read during the call.
+	 *
+	 * @param ip an 8-bit, 16-bit or float slice
+	 */
+	public synchronized void addSlice( ImageProcessor ip )
+	{
+		final Object pixels = ip.getPixels();
+		if ( !( pixels instanceof byte[] || pixels instanceof short[] || pixels instanceof float[] ) )
+			throw new IllegalArgumentException( "Only 8-bit, 16-bit and float slices are supported" );
+
+		if ( width < 0 )
+		{
+			width = ip.getWidth();
+			height = ip.getHeight();
+		}
+		else if ( ip.getWidth() != width || ip.getHeight() != height )
+		{
+			throw new IllegalArgumentException( "" + ip.getWidth() + "x" + ip.getHeight()
+					+ " is incompatible with previously recorded " + width + "x" + height );
+		}
+
+		final int bands = Math.max( 1, Math.min( Runtime.getRuntime().availableProcessors(), height / MIN_ROWS_PER_BAND ) );
+		final int rowsPerBand = ( height + bands - 1 ) / bands;
+
+		// sum, sumX and sumY of every band, the caller takes the last band itself
+		final double[][] partial = new double[ bands ][ 3 ];
+		final List< CompletableFuture< Void > > futures = new ArrayList<>( bands - 1 );
+		for ( int b = 0; b < bands - 1; b++ )
+		{
+			final int band = b;
+			futures.add( CompletableFuture.runAsync( () ->
+					accumulate( pixels, band * rowsPerBand, Math.min( height, ( band + 1 ) * rowsPerBand ), partial[ band ] ),
+					StackProjector.pool() ) );
+		}
+		accumulate( pixels, ( bands - 1 ) * rowsPerBand, height, partial[ bands - 1 ] );
+		CompletableFuture.allOf( futures.toArray( new CompletableFuture[ 0 ] ) ).join();
+
+		double slice = 0;
+		for ( double[] p : partial )
+		{
+			slice += p[ 0 ];
+			sumX += p[ 1 ];
+			sumY += p[ 2 ];
+		}
+		sum += slice;
+		sumZ += slice * depth;
+		depth++;
+	}
+
+	private void accumulate( final Object pixels, final int fromRow, final int toRow, final double[] out )
+	{
+		final float bg = ( float ) background;
+		double s = 0, sx = 0, sy = 0;
+		for ( int y = fromRow; y < toRow; y++ )
+		{
+			// The row is summed first, X needs one multiplication per pixel and Y one per row
+			double row = 0, rowX = 0;
+			final int offset = y * width;
+			if ( pixels instanceof short[] )
+			{
+				final short[] p = ( short[] ) pixels;
+				for ( int x = 0; x < width; x++ )
+				{
+					final float v = ( p[ offset + x ] & 0xffff ) - bg;
+					if ( v > 0 )
+					{
+						row += v;
+						rowX += v * x;
+					}
+				}
+			}
+			else if ( pixels instanceof byte[] )
+			{
+				final byte[] p = ( byte[] ) pixels;
+				for ( int x = 0; x < width; x++ )
+				{
+					final float v = ( p[ offset + x ] & 0xff ) - bg;
+					if ( v > 0 )
+					{
+						row += v;
+						rowX += v * x;
+					}
+				}
+			}
+			else
+			{
+				final float[] p = ( float[] ) pixels;
+				for ( int x = 0; x < width; x++ )
+				{
+					final float v = p[ offset + x ] - bg;
+					if ( v > 0 )
+					{
+						row += v;
+						rowX += v * x;
+					}
+				}
+			}
+			s += row;
+			sx += rowX;
+			sy += row * y;
+		}
+		out[ 0 ] = s;
+		out[ 1 ] = sx;
+		out[ 2 ] = sy;
+	}
+
+	/**
+	 * @return the centre of mass in pixels and slices, null if no intensity was added
+	 */
+	public synchronized Vector3D getCentroid()
+	{
+		if ( sum <= 0 )
+			return null;
+		return new Vector3D( sumX / sum, sumY / sum, sumZ / sum );
+	}
+
+	/**
+	 * Starts a new stack.
+	 */
+	public synchronized void reset()
+	{
+		width = -1;
+		depth = 0;
+		sum = sumX = sumY = sumZ = 0;
+	}
+}
@@ -1,14 +1,29 @@
 package spim.algorithm;
 
-import ij.ImageStack;
 import ij.process.*;
 import org.apache.commons.math3.geometry.euclidean.threed.Vector3D;
 
-import java.awt.image.ColorModel;
+import spim.util.PixelBufferPool;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 
 
 /**
  * The DefaultAntiDrift class provides PhaseCorrelation method for AntiDrift.
+ * The CenterOfMass type streams the slices into a CentroidAccumulator, which
+ * estimates the drift in X, Y and Z without keeping the stack.
+ *
+ * The submit and offer methods run the anti-drift of a position in the
+ * background. Its tasks run one after the other on a shared pool, so the
+ * positions proceed concurrently, and the offset of a stack is delivered by
+ * the future returned from submitNewStack(). A stack which lost slices to a
+ * full queue is not measured: its offset is zero and it never becomes the
+ * reference of the position.
  */
 public class DefaultAntiDrift extends AbstractAntiDrift
 {
@@ -18,22 +33,101 @@ public class DefaultAntiDrift extends AbstractAntiDrift
 	 */
 	private final double sigma;
 	private final AntiDrift.Type type;
+	// Centre of mass of the current stack and the background it subtracts
+	private CentroidAccumulator centroid;
+	private volatile double background;
+	// Bins and blurs the slices of the phase correlations
+	private final SlicePreprocessor preprocessor;
+
+	// Slices queued for the background task, further slices wait for room up to SLICE_WAIT_MS and are then dropped
+	private static final int MAX_SLICES_IN_FLIGHT = 64;
+	private static final long SLICE_WAIT_MS = 500;
+
+	private static ExecutorService pool;
+
+	private static synchronized ExecutorService pool()
+	{
+		if ( pool == null )
+		{
+			final AtomicInteger count = new AtomicInteger();
+			pool = Executors.newFixedThreadPool( Math.max( 2, Runtime.getRuntime().availableProcessors() / 2 ), r -> {
+				Thread thread = new Thread( r, "uOpenSPIM-anti-drift-" + count.incrementAndGet() );
+				thread.setDaemon( true );
+				return thread;
+			} );
+		}
+		return pool;
+	}
+
+	// The last queued task, the next one runs after it
+	private CompletableFuture<Void> tail = CompletableFuture.completedFuture( null );
+	private CompletableFuture<Vector3D> offset = CompletableFuture.completedFuture( Vector3D.ZERO );
+	private final Semaphore inFlight = new Semaphore( MAX_SLICES_IN_FLIGHT );
+	private final AtomicInteger dropped = new AtomicInteger();
 
 	public DefaultAntiDrift(double sigmaValue)
+	{
+		this(sigmaValue, Type.PhaseCorrelation);
+	}
+
+	/**
+	 * Instantiates a new DefaultAntiDrift class using one of the phase correlations.
+	 * Only the subpixel MultiScalePhaseCorrelation bins the slices, by the default
+	 * binning of the sigma. The PhaseCorrelation finds whole pixels of the slices,
+	 * so it keeps their full resolution.
+	 *
+	 * @param sigmaValue the sigma of the blur of the slices
+	 * @param type PhaseCorrelation or MultiScalePhaseCorrelation
+	 */
+	public DefaultAntiDrift(double sigmaValue, AntiDrift.Type type)
+	{
+		this(sigmaValue, type, defaultBinning( sigmaValue, type ));
+	}
+
+	/**
+	 * Instantiates a new DefaultAntiDrift class using one of the phase correlations
+	 * on binned slices. The shifts are reported in pixels of the slices.
+	 *
+	 * @param sigmaValue the sigma of the blur of the slices
+	 * @param type PhaseCorrelation or MultiScalePhaseCorrelation
+	 * @param binning the binning of the slices before the blur, 1 for none
+	 */
+	public DefaultAntiDrift(double sigmaValue, AntiDrift.Type type, int binning)
 	{
 		sigma = sigmaValue;
-		this.type = Type.PhaseCorrelation;
+		this.type = type;
+		preprocessor = new SlicePreprocessor( binning, sigmaValue );
 		setLastCorrection( Vector3D.ZERO );
 	}
 
+	/**
+	 * @return the binning used by the DefaultAntiDrift of the sigma and type
+	 */
+	public static int defaultBinning(double sigmaValue, AntiDrift.Type type)
+	{
+		return type == Type.MultiScalePhaseCorrelation ? SlicePreprocessor.defaultBinning( sigmaValue ) : 1;
+	}
+
 	public DefaultAntiDrift() {
 		sigma = 0;
 		type = Type.CenterOfMass;
+		preprocessor = null;
+	}
+
+	/**
+	 * Sets the background intensity of the CenterOfMass type, pixels at or below it
+	 * do not count. Applies from the next stack on.
+	 *
+	 * @param background the background, 0 for none
+	 */
+	public void setBackground(double background) {
+		this.background = background;
 	}
 
 	public void reset()
 	{
 		first = null;
+		refCentroid = null;
 	}
 
 	@Override public void startNewStack()
@@ -43,38 +137,151 @@ public class DefaultAntiDrift extends AbstractAntiDrift
 		if(first == null)
 			first = latest;
 
-		stack = null;
+		centroid = type == Type.CenterOfMass ? new CentroidAccumulator( background ) : null;
 	}
 
 	@Override public void addXYSlice( ImageProcessor ip )
 	{
-		ImageProcessor copy = ip.duplicate();
-
 		switch (type) {
 			case CenterOfMass:
-				if(stack == null) stack = new ImageStack( ip.getWidth(), ip.getHeight() );
-				stack.addSlice( copy );
+				// The slice is folded into the running sums and not kept
+				centroid.addSlice( ip );
 				break;
 			case PhaseCorrelation:
-				copy.blurGaussian( sigma );
-				latest.addXYSlice( copy );
+			case MultiScalePhaseCorrelation:
+				// The slice is binned and blurred into a pooled float plane,
+				// Projections only reads it during the call
+				try( PixelBufferPool.Buffer buffer = preprocessor.process( ip ) ) {
+					latest.addXYSlice( buffer.toProcessor( preprocessor.getWidth( ip.getWidth() ),
+							preprocessor.getHeight( ip.getHeight() ) ) );
+				}
 				break;
 		}
 	}
 
+	/**
+	 * Queues a new stack for the background task. Called before the slices of
+	 * the stack are offered.
+	 *
+	 * @return the future of the offset of the stack, completed once the stack is finished
+	 */
+	public synchronized CompletableFuture<Vector3D> submitNewStack()
+	{
+		offset = new CompletableFuture<>();
+		enqueue( this::startNewStack );
+		return offset;
+	}
+
+	/**
+	 * Queues a XY slice for the background task without copying it. The slice
+	 * must not be changed afterwards. While too many slices are queued, the
+	 * caller waits for the background task up to SLICE_WAIT_MS.
+	 *
+	 * @param ip the ip
+	 * @return false if the slice is dropped, the stack then gives no offset
+	 * @throws InterruptedException if interrupted while waiting
+	 */
+	public boolean offerXYSlice( final ImageProcessor ip ) throws InterruptedException
+	{
+		if ( !inFlight.tryAcquire( SLICE_WAIT_MS, TimeUnit.MILLISECONDS ) )
+		{
+			dropped.incrementAndGet();
+			return false;
+		}
+
+		enqueue( () -> {
+			try
+			{
+				addXYSlice( ip );
+			}
+			finally
+			{
+				inFlight.release();
+			}
+		} );
+		return true;
+	}
+
+	/**
+	 * Queues the end of the stack for the background task.
+	 *
+	 * @return the future of the offset of the stack
+	 */
+	public synchronized CompletableFuture<Vector3D> submitFinishStack()
+	{
+		final CompletableFuture<Vector3D> result = offset;
+		// Counted now, the slices of the next stack may be offered before this task runs
+		final int n = dropped.getAndSet( 0 );
+		enqueue( () -> {
+			if ( n > 0 )
+			{
+				// An incomplete stack would give a wrong offset, and a wrong reference for the following stacks
+				ij.IJ.log( type + "-Anti-drift dropped " + n + " slices which it could not keep up with, the stack is not used" );
+				if ( first == latest )
+					first = null;
+				result.complete( updateOffset( Vector3D.ZERO ) );
+				return;
+			}
+
+			try
+			{
+				result.complete( updateOffset( finishStack() ) );
+			}
+			catch ( RuntimeException e )
+			{
+				// The position is not moved rather than by a stale offset
+				ij.IJ.log( type + "-Anti-drift failed: " + e );
+				result.complete( updateOffset( Vector3D.ZERO ) );
+			}
+		} );
+		return result;
+	}
+
+	/**
+	 * @return the future of the offset of the last submitted stack
+	 */
+	public synchronized CompletableFuture<Vector3D> getOffset()
+	{
+		return offset;
+	}
+
+	private synchronized void enqueue( final Runnable task )
+	{
+		tail = tail.handleAsync( ( v, e ) -> {
+			try
+			{
+				task.run();
+			}
+			catch ( RuntimeException ex )
+			{
+				ij.IJ.log( type + "-Anti-drift failed: " + ex );
+			}
+			return null;
+		}, pool() );
+	}
+
 	@Override public Vector3D finishStack()
 	{
 		Vector3D suggested = null;
 
 		switch (type) {
 			case CenterOfMass:
-				lastMIP = generateMIP(stack);
-				addMIPImage(lastMIP);
+				lastCentroid = centroid.getCentroid();
+				if(lastCentroid == null) {
+					// An empty or black stack leaves the position as it is
+					suggested = Vector3D.ZERO;
+					break;
+				}
+				if(refCentroid == null)
+					refCentroid = lastCentroid;
 				// TODO: Check the inverse X, Y for XY Stage
-				suggested = new Vector3D(lastXY.getX() - refXY.getX(), lastXY.getY() - refXY.getY(), 0f);
+				suggested = lastCentroid.subtract(refCentroid);
 				break;
 			case PhaseCorrelation:
-				suggested = latest.correlateAndAverage(first);
+				suggested = unbin( latest.correlateAndAverage(first) );
+				break;
+			case MultiScalePhaseCorrelation:
+				suggested = unbin( latest.correlateAndAverageSubpixel(first) );
 				break;
 		}
 
@@ -84,7 +291,15 @@ public class DefaultAntiDrift extends AbstractAntiDrift
 		return suggested;
 	}
 
-	private Vector3D updatedOffset = Vector3D.ZERO;
+	// The projections are binned in X and Y, not in Z
+	private Vector3D unbin( Vector3D shift )
+	{
+		final int binning = preprocessor.getBinning();
+		return new Vector3D( shift.getX() * binning, shift.getY() * binning, shift.getZ() );
+	}
+
+	// Set by the background task, read by the acquisition once the offset future is done
+	private volatile Vector3D updatedOffset = Vector3D.ZERO;
 
 	@Override public Vector3D updateOffset( Vector3D correction )
 	{
@@ -107,141 +322,10 @@ public class DefaultAntiDrift extends AbstractAntiDrift
 		return this.type;
 	}
 
-	public ImageProcessor getLastMIP() {
-		return lastMIP;
-	}
-
-	private void addMIPImage(ImageProcessor ip) {
-
-		ImageStatistics stat = ip.getStatistics();
-//		ImageStatistics stat = ImageStatistics.getStatistics(ip, 1043199, (Calibration)null);
-		lastXY = new Vector3D(stat.xCenterOfMass, stat.yCenterOfMass, 0f);
-
-		if(refImage == null) {
-			refImage = ip.duplicate();
-			refXY = lastXY;
-		}
-	}
-
-	private ImageProcessor generateMIP(ImageStack stack) {
-		if (null != stack) {
-			ImageProcessor img = stack.getProcessor(1);
-
-			int bitDepth = img.getBitDepth();
-			int width = img.getWidth();
-			int height = img.getHeight();
-			int bytesPerPixel = img.getBitDepth() / 8;
-			int numComponents = img.getNChannels();
-
-			if (bytesPerPixel == 1) {
-				// Create new array
-				float[] newPixels = new float[width * height];
-				byte[] newPixelsFinal = new byte[width * height];
-
-				float currentValue;
-				float actualValue;
-
-				// Init the new array
-				for (int i = 0; i < newPixels.length; i++) {
-					newPixels[i] = 0;
-				}
-
-				// Iterate over all frames
-				for (int i = 1; i <= stack.size(); i++) {
-
-					// Get current frame pixels
-					img = stack.getProcessor(i);
-					byte[] imgPixels = (byte[]) img.getPixels();
-
-					// Iterate over all pixels
-					for (int index = 0; index < newPixels.length; index++) {
-						currentValue = (float) (int) (imgPixels[index] & 0xffff);
-						actualValue = (float) newPixels[index];
-						newPixels[index] = (float) Math.max(currentValue, actualValue);
-					}
-				}
-
-				// Convert to short
-				for (int index = 0; index < newPixels.length; index++) {
-					newPixelsFinal[index] = (byte) newPixels[index];
-				}
-
-				return new ByteProcessor(width, height, newPixelsFinal);
-
-			} else if (bytesPerPixel == 2) {
-
-				// Create new array
-				float[] newPixels = new float[width * height];
-				short[] newPixelsFinal = new short[width * height];
-
-				float currentValue;
-				float actualValue;
-
-				// Init the new array
-				for (int i = 0; i < newPixels.length; i++) {
-					newPixels[i] = 0;
-				}
-
-
-				// Iterate over all frames
-				for (int i = 1; i <= stack.size(); i++) {
-
-					// Get current frame pixels
-					img = stack.getProcessor(i);
-					short[] imgPixels = (short[]) img.getPixels();
-
-					// Iterate over all pixels
-					for (int index = 0; index < newPixels.length; index++) {
-						currentValue = (float) (int) (imgPixels[index] & 0xffff);
-						actualValue = (float) newPixels[index];
-						newPixels[index] = (float) Math.max(currentValue, actualValue);
-					}
-				}
-
-				// Convert to short
-				for (int index = 0; index < newPixels.length; index++) {
-					newPixelsFinal[index] = (short) newPixels[index];
-				}
-
-				return new ShortProcessor(width, height, newPixelsFinal, ColorModel.getRGBdefault());
-			} else if (bytesPerPixel == 4) {
-
-				// Create new array
-				float[] newPixels = new float[width * height];
-				int[] newPixelsFinal = new int[width * height];
-
-				float currentValue;
-				float actualValue;
-
-				// Init the new array
-				for (int i = 0; i < newPixels.length; i++) {
-					newPixels[i] = 0;
-				}
-
-
-				// Iterate over all frames
-				for (int i = 1; i <= stack.size(); i++) {
-
-					// Get current frame pixels
-					img = stack.getProcessor(i);
-					short[] imgPixels = (short[]) img.getPixels();
-
-					// Iterate over all pixels
-					for (int index = 0; index < newPixels.length; index++) {
-						currentValue = (float) (int) (imgPixels[index] & 0xffff);
-						actualValue = (float) newPixels[index];
-						newPixels[index] = (float) Math.max(currentValue, actualValue);
-					}
-				}
-
-				// Convert to short
-				for (int index = 0; index < newPixels.length; index++) {
-					newPixelsFinal[index] = (short) newPixels[index];
-				}
-
-				return new ColorProcessor(width, height, newPixelsFinal);
-			}
-		}
-		return null;
+	/**
+	 * @return the preprocessing of the slices, null for the CenterOfMass type
+	 */
+	public SlicePreprocessor getPreprocessor() {
+		return preprocessor;
 	}
 }
@@ -1,7 +1,6 @@
 package spim.algorithm;
 
 import ij.ImagePlus;
-import ij.process.FloatProcessor;
 import ij.process.ImageProcessor;
 
 import java.io.File;
@@ -13,53 +12,29 @@ import java.io.File;
  */
 public class MaxProjections
 {
-	private FloatProcessor xy;
-	int d = 0;
+	private StackProjector projector;
 
 	public void addXYSlice( ImageProcessor ip )
 	{
-		if ( !( ip instanceof FloatProcessor ) )
+		if ( projector == null )
 		{
-			ip = ( FloatProcessor ) ip.convertToFloat();
+			projector = new StackProjector( ip.getWidth(), ip.getHeight(), 1, StackProjector.Type.MAX );
 		}
 
-		final int w = ip.getWidth();
-		final int h = ip.getHeight();
-		final float[] pixels = ( float[] ) ip.getPixels();
-
-		if ( xy == null )
-		{
-			d = 1;
-			xy = ( FloatProcessor ) ip.duplicate();
-		}
-		else
-		{
-			if ( w != xy.getWidth() || h != xy.getHeight() )
-			{
-				new IllegalArgumentException( "" + w + "x" + h
-						+ " is incompatible with previously recorded "
-						+ xy.getWidth() + "x" + xy.getHeight() );
-			}
-
-			d = d + 1;
-
-			final float[] xyPixels = ( float[] ) xy.getPixels();
-			for ( int i = 0; i < w * h; i++ )
-			{
-				xyPixels[ i ] = ( xyPixels[ i ] * ( d - 1 ) + pixels[ i ] ) / d;
-			}
-		}
+		projector.addSlice( StackProjector.isSupported( ip ) ? ip : ip.convertToFloat() );
 	}
 
 	public void reset()
 	{
-		xy = null;
-		d = 0;
+		projector = null;
 	}
 
+	/**
+	 * @return the maximum of the slices in their own type, null before the first one
+	 */
 	public ImageProcessor getProcessor()
 	{
-		return xy;
+		return projector == null ? null : projector.getProcessor( StackProjector.Type.MAX );
 	}
 
 	private static int normalize( float value, double min, double max )
@@ -73,6 +48,6 @@ public class MaxProjections
 
 	public void write( File file )
 	{
-		ij.IJ.save( new ImagePlus( "MaxProject", xy ), file.getAbsolutePath() );
+		ij.IJ.save( new ImagePlus( "MaxProject", getProcessor() ), file.getAbsolutePath() );
 	}
 }
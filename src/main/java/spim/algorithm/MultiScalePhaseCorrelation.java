@@ -0,0 +1,332 @@
+package spim.algorithm;
+
+import ij.process.FloatProcessor;
+
+/**
+ * Description: Coarse-to-fine phase correlation of two projections with a
+ * subpixel result. The shift is first estimated on projections binned to at
+ * most COARSE_SIZE pixels per side. It is then refined at full resolution in
+ * a FINE_SIZE window around the sample, whose phase correlation peak is
+ * located to a fraction of a pixel by a parabolic fit through its neighbours.
+ * The cross power spectrum is only partially whitened and low-pass filtered,
+ * which keeps the peak smooth enough for the fit and robust against noise.
+ * Both steps transform only small power-of-two images, so the runtime hardly
+ * depends on the size of the sensor.
+ *
+ * The shift has the sign of PhaseCorrelation: image1(x) = image2(x - shift).
+ * It is searched within half of the binned field of view.
+ *
+ * Author: HongKee Moon (moon@mpi-cbg.de), Scientific Computing Facility
+ * Organization: MPI-CBG Dresden
+ * Date: October 2026
+ */
+public class MultiScalePhaseCorrelation
+{
+	// Largest side of the binned projections of the coarse estimate
+	static final int COARSE_SIZE = 256;
+	// Largest side of the full resolution window of the refinement
+	static final int FINE_SIZE = 256;
+	// Refinements of the full resolution window
+	static final int FINE_PASSES = 2;
+	// Partial whitening of the cross power spectrum, 1 is the classic phase correlation.
+	// Full whitening lifts the noise of the high frequencies which pulls the peak towards zero.
+	static final double SPECTRUM_EXPONENT = 0.3;
+	// Sigma of the gaussian low pass of the cross power spectrum in cycles per pixel
+	static final double LOW_PASS_SIGMA = 0.1;
+	// Sides below this are not correlated
+	static final int MIN_SIZE = 8;
+
+	/**
+	 * Estimates the shift of image1 relative to image2. Images of different
+	 * sizes are compared in their common top-left region.
+	 *
+	 * @param image1 the image, for instance the latest projection
+	 * @param image2 the reference image
+	 * @return the shift in pixels of image1, null if the images are too small
+	 */
+	public static double[] getShift( final FloatProcessor image1, final FloatProcessor image2 )
+	{
+		final int w = Math.min( image1.getWidth(), image2.getWidth() );
+		final int h = Math.min( image1.getHeight(), image2.getHeight() );
+		if ( w < MIN_SIZE || h < MIN_SIZE )
+		{
+			ij.IJ.log( "The projections of " + w + "x" + h + " are too small for the phase correlation" );
+			return null;
+		}
+
+		final float[] pixels1 = ( float[] ) image1.getPixels();
+		final float[] pixels2 = ( float[] ) image2.getPixels();
+		final int stride1 = image1.getWidth();
+		final int stride2 = image2.getWidth();
+
+		//
+		// coarse estimate on the binned images
+		//
+		final int bx = ( w + COARSE_SIZE - 1 ) / COARSE_SIZE;
+		final int by = ( h + COARSE_SIZE - 1 ) / COARSE_SIZE;
+		final int wb = w / bx;
+		final int hb = h / by;
+		final float[] binned1 = bin( pixels1, stride1, bx, by, wb, hb );
+		final float[] binned2 = bin( pixels2, stride2, bx, by, wb, hb );
+
+		final double[] coarse = correlate( binned1, wb, binned2, wb, 0, 0, 0, 0, wb, hb, false );
+		final int shiftX = ( int ) coarse[ 0 ] * bx;
+		final int shiftY = ( int ) coarse[ 1 ] * by;
+
+		//
+		// refinement in a full resolution window around the sample
+		//
+		final int fw = Math.min( FINE_SIZE, Integer.highestOneBit( w ) );
+		final int fh = Math.min( FINE_SIZE, Integer.highestOneBit( h ) );
+		final double[] center = centroid( binned1, wb, hb );
+		final int x1 = clamp( ( int ) Math.round( ( center[ 0 ] + 0.5 ) * bx - fw / 2.0 ), 0, w - fw );
+		final int y1 = clamp( ( int ) Math.round( ( center[ 1 ] + 0.5 ) * by - fh / 2.0 ), 0, h - fh );
+		double[] shift = { shiftX, shiftY };
+		for ( int pass = 0; pass < FINE_PASSES; pass++ )
+		{
+			// The windows are aligned by the integer part, which leaves only a subpixel residual in the last pass
+			final int x2 = clamp( x1 - ( int ) Math.round( shift[ 0 ] ), 0, w - fw );
+			final int y2 = clamp( y1 - ( int ) Math.round( shift[ 1 ] ), 0, h - fh );
+			final double[] fine = correlate( pixels1, stride1, pixels2, stride2, x1, y1, x2, y2, fw, fh, true );
+			shift = new double[] { x1 - x2 + fine[ 0 ], y1 - y2 + fine[ 1 ] };
+		}
+		return shift;
+	}
+
+	private static int clamp( final int value, final int min, final int max )
+	{
+		return Math.max( min, Math.min( max, value ) );
+	}
+
+	// Averages bx * by blocks, the remainder of the image is dropped
+	static float[] bin( final float[] pixels, final int stride, final int bx, final int by, final int wb, final int hb )
+	{
+		final float[] binned = new float[ wb * hb ];
+		final float scale = 1f / ( bx * by );
+		for ( int y = 0; y < hb * by; y++ )
+		{
+			final int row = ( y / by ) * wb;
+			for ( int x = 0, i = y * stride; x < wb * bx; x++, i++ )
+				binned[ row + x / bx ] += pixels[ i ];
+		}
+		for ( int i = 0; i < binned.length; i++ )
+			binned[ i ] *= scale;
+		return binned;
+	}
+
+	// Centre of the intensity above the mean, the middle of the image if there is none
+	static double[] centroid( final float[] pixels, final int w, final int h )
+	{
+		double mean = 0;
+		for ( float v : pixels )
+			mean += v;
+		mean /= pixels.length;
+
+		double sum = 0, sx = 0, sy = 0;
+		for ( int y = 0, i = 0; y < h; y++ )
+		{
+			for ( int x = 0; x < w; x++, i++ )
+			{
+				final double v = pixels[ i ] - mean;
+				if ( v > 0 )
+				{
+					sum += v;
+					sx += v * x;
+					sy += v * y;
+				}
+			}
+		}
+
+		if ( sum == 0 )
+			return new double[] { ( w - 1 ) / 2.0, ( h - 1 ) / 2.0 };
+		return new double[] { sx / sum, sy / sum };
+	}
+
+	/**
+	 * Phase correlation of a w x h window of two images. The windows are
+	 * tapered by a Hann window and zero-padded to a power of two.
+	 *
+	 * @return the shift of the first window, with a subpixel part if asked for
+	 */
+	static double[] correlate( final float[] pixels1, final int stride1, final float[] pixels2, final int stride2,
+			final int x1, final int y1, final int x2, final int y2, final int w, final int h, final boolean subpixel )
+	{
+		final int n = nextPowerOfTwo( w );
+		final int m = nextPowerOfTwo( h );
+		final double[] hannX = hann( w );
+		final double[] hannY = hann( h );
+
+		final double[] re1 = new double[ n * m ], im1 = new double[ n * m ];
+		final double[] re2 = new double[ n * m ], im2 = new double[ n * m ];
+		taper( pixels1, stride1, x1, y1, w, h, hannX, hannY, re1, n );
+		taper( pixels2, stride2, x2, y2, w, h, hannX, hannY, re2, n );
+
+		fft2d( re1, im1, n, m, false );
+		fft2d( re2, im2, n, m, false );
+
+		// cross power spectrum F1 * conj(F2) / |F1 * conj(F2)|^SPECTRUM_EXPONENT with a gaussian low pass
+		final double[] lowPassX = lowPass( n );
+		final double[] lowPassY = lowPass( m );
+		for ( int i = 0; i < n * m; i++ )
+		{
+			final double re = re1[ i ] * re2[ i ] + im1[ i ] * im2[ i ];
+			final double im = im1[ i ] * re2[ i ] - re1[ i ] * im2[ i ];
+			final double length = Math.sqrt( re * re + im * im );
+			if ( length > 1e-12 )
+			{
+				final double weight = lowPassX[ i % n ] * lowPassY[ i / n ] / Math.pow( length, SPECTRUM_EXPONENT );
+				re1[ i ] = re * weight;
+				im1[ i ] = im * weight;
+			}
+			else
+			{
+				re1[ i ] = 0;
+				im1[ i ] = 0;
+			}
+		}
+
+		fft2d( re1, im1, n, m, true );
+
+		int peak = 0;
+		for ( int i = 1; i < n * m; i++ )
+			if ( re1[ i ] > re1[ peak ] )
+				peak = i;
+
+		final int px = peak % n;
+		final int py = peak / n;
+		double dx = px < n / 2 ? px : px - n;
+		double dy = py < m / 2 ? py : py - m;
+
+		if ( subpixel )
+		{
+			dx += vertex( re1[ ( ( px + n - 1 ) % n ) + py * n ], re1[ peak ], re1[ ( ( px + 1 ) % n ) + py * n ] );
+			dy += vertex( re1[ px + ( ( py + m - 1 ) % m ) * n ], re1[ peak ], re1[ px + ( ( py + 1 ) % m ) * n ] );
+		}
+
+		return new double[] { dx, dy };
+	}
+
+	// Offset of the vertex of the parabola through (-1, left), (0, center) and (1, right)
+	static double vertex( final double left, final double center, final double right )
+	{
+		final double curvature = left - 2 * center + right;
+		if ( curvature >= 0 )
+			return 0;
+		return Math.max( -0.5, Math.min( 0.5, ( left - right ) / ( 2 * curvature ) ) );
+	}
+
+	// Weights of the frequencies of a transform of the given size
+	private static double[] lowPass( final int size )
+	{
+		final double[] weights = new double[ size ];
+		for ( int i = 0; i < size; i++ )
+		{
+			final double f = ( i < size / 2 ? i : i - size ) / ( double ) size / LOW_PASS_SIGMA;
+			weights[ i ] = Math.exp( -f * f / 2 );
+		}
+		return weights;
+	}
+
+	private static int nextPowerOfTwo( final int value )
+	{
+		final int p = Integer.highestOneBit( value );
+		return p == value ? p : p << 1;
+	}
+
+	private static double[] hann( final int size )
+	{
+		final double[] window = new double[ size ];
+		for ( int i = 0; i < size; i++ )
+			window[ i ] = 0.5 - 0.5 * Math.cos( 2 * Math.PI * ( i + 0.5 ) / size );
+		return window;
+	}
+
+	// Copies the window without its mean, tapered, into the top-left corner of the padded image
+	private static void taper( final float[] pixels, final int stride, final int x0, final int y0, final int w, final int h,
+			final double[] hannX, final double[] hannY, final double[] out, final int n )
+	{
+		double mean = 0;
+		for ( int y = 0; y < h; y++ )
+			for ( int x = 0, i = x0 + ( y0 + y ) * stride; x < w; x++, i++ )
+				mean += pixels[ i ];
+		mean /= ( double ) w * h;
+
+		for ( int y = 0; y < h; y++ )
+			for ( int x = 0, i = x0 + ( y0 + y ) * stride; x < w; x++, i++ )
+				out[ x + y * n ] = ( pixels[ i ] - mean ) * hannX[ x ] * hannY[ y ];
+	}
+
+	// The inverse is not scaled, only the position of the peak is used
+	static void fft2d( final double[] re, final double[] im, final int n, final int m, final boolean inverse )
+	{
+		final double[] rowRe = new double[ Math.max( n, m ) ];
+		final double[] rowIm = new double[ Math.max( n, m ) ];
+
+		for ( int y = 0; y < m; y++ )
+		{
+			System.arraycopy( re, y * n, rowRe, 0, n );
+			System.arraycopy( im, y * n, rowIm, 0, n );
+			fft( rowRe, rowIm, n, inverse );
+			System.arraycopy( rowRe, 0, re, y * n, n );
+			System.arraycopy( rowIm, 0, im, y * n, n );
+		}
+
+		for ( int x = 0; x < n; x++ )
+		{
+			for ( int y = 0; y < m; y++ )
+			{
+				rowRe[ y ] = re[ x + y * n ];
+				rowIm[ y ] = im[ x + y * n ];
+			}
+			fft( rowRe, rowIm, m, inverse );
+			for ( int y = 0; y < m; y++ )
+			{
+				re[ x + y * n ] = rowRe[ y ];
+				im[ x + y * n ] = rowIm[ y ];
+			}
+		}
+	}
+
+	// In-place radix-2 transform of the first n values
+	static void fft( final double[] re, final double[] im, final int n, final boolean inverse )
+	{
+		for ( int i = 1, j = 0; i < n; i++ )
+		{
+			int bit = n >> 1;
+			for ( ; ( j & bit ) != 0; bit >>= 1 )
+				j ^= bit;
+			j ^= bit;
+			if ( i < j )
+			{
+				double t = re[ i ]; re[ i ] = re[ j ]; re[ j ] = t;
+				t = im[ i ]; im[ i ] = im[ j ]; im[ j ] = t;
+			}
+		}
+
+		for ( int length = 2; length <= n; length <<= 1 )
+		{
+			final double angle = ( inverse ? 2 : -2 ) * Math.PI / length;
+			final double wr = Math.cos( angle );
+			final double wi = Math.sin( angle );
+			final int half = length >> 1;
+			for ( int i = 0; i < n; i += length )
+			{
+				double cr = 1, ci = 0;
+				for ( int k = 0; k < half; k++ )
+				{
+					final int a = i + k;
+					final int b = a + half;
+					final double vr = re[ b ] * cr - im[ b ] * ci;
+					final double vi = re[ b ] * ci + im[ b ] * cr;
+					re[ b ] = re[ a ] - vr;
+					im[ b ] = im[ a ] - vi;
+					re[ a ] += vr;
+					im[ a ] += vi;
+					final double t = cr * wr - ci * wi;
+					ci = cr * wi + ci * wr;
+					cr = t;
+				}
+			}
+		}
+	}
+}
@@ -27,6 +27,7 @@
 package spim.algorithm;
 
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collections;
 import java.util.concurrent.atomic.AtomicInteger;
 
@@ -72,6 +73,88 @@ public class PhaseCorrelation<T extends RealType<T>, S extends RealType<S>> impl
 	String errorMessage = "";
 	int numThreads;
 	long processingTime;
+	Reference<S> reference;
+
+	/**
+	 * The normalised complex conjugate spectrum of a reference image. It is
+	 * computed once and correlated with any number of images of the same size,
+	 * so only the spectrum of the moving image is computed for each of them.
+	 * It is not modified by the correlation and can be shared between threads.
+	 */
+	public static class Reference<S extends RealType<S>>
+	{
+		final Img<S> image;
+		final int[] dimensions;
+		final float normalizationThreshold;
+		final FourierTransform<S, ComplexFloatType> fft;
+		final Img<ComplexFloatType> spectrum;
+
+		Reference( final Img<S> image, final int[] dimensions, final float normalizationThreshold,
+				final FourierTransform<S, ComplexFloatType> fft, final Img<ComplexFloatType> spectrum )
+		{
+			this.image = image;
+			this.dimensions = dimensions;
+			this.normalizationThreshold = normalizationThreshold;
+			this.fft = fft;
+			this.spectrum = spectrum;
+		}
+
+		public Img<S> getImage() { return image; }
+
+		boolean fits( final int[] maxDim, final float threshold )
+		{
+			return Arrays.equals( dimensions, maxDim ) && normalizationThreshold == threshold;
+		}
+	}
+
+	/**
+	 * Computes the spectrum of a reference image with the default normalization threshold.
+	 *
+	 * @param image the reference image, which must not be modified afterwards
+	 * @return the reference, or null if its Fourier transform failed
+	 */
+	public static <S extends RealType<S>> Reference<S> prepareReference( final Img<S> image )
+	{
+		final int[] dimensions = new int[ image.numDimensions() ];
+		for ( int d = 0; d < dimensions.length; ++d )
+			dimensions[ d ] = (int) image.dimension( d );
+
+		final FourierTransform<S, ComplexFloatType> fft;
+		try {
+			fft = new FourierTransform<S, ComplexFloatType>( image, new ComplexFloatType() );
+		} catch (final IncompatibleTypeException e) {
+			e.printStackTrace();
+			return null;
+		}
+		configure( fft );
+		fft.setExtendedOriginalImageSize( dimensions );
+
+		if ( !fft.checkInput() || !fft.process() )
+			return null;
+
+		final float normalizationThreshold = 1E-5f;
+		final Img<ComplexFloatType> spectrum = fft.getResult();
+		normalizeAndConjugateComplexImage( spectrum, normalizationThreshold );
+
+		return new Reference<S>( image, dimensions, normalizationThreshold, fft, spectrum );
+	}
+
+	private static void configure( final FourierTransform<?, ComplexFloatType> fft )
+	{
+		fft.setRelativeImageExtension( 0.1f );
+		fft.setRelativeFadeOutDistance( 0.1f );
+		fft.setRearrangement( Rearrangement.UNCHANGED );
+	}
+
+	/**
+	 * Correlates an image with a prepared reference. An image of another size
+	 * falls back to transforming both images.
+	 */
+	public PhaseCorrelation( final Img<T> image1, final Reference<S> reference )
+	{
+		this( image1, reference.image );
+		this.reference = reference;
+	}
 
 	public PhaseCorrelation( final Img<T> image1, final Img<S> image2, final int numPeaks, final boolean verifyWithCrossCorrelation )
 	{
@@ -134,6 +217,9 @@ public class PhaseCorrelation<T extends RealType<T>, S extends RealType<S>> impl
 			// get the maximal dimensions of both images
 			final int[] maxDim = getMaxDim( image1, image2 );
 
+			if ( reference != null && reference.fits( maxDim, normalizationThreshold ) )
+				return processWithReference( maxDim );
+
 			// compute fourier transforms
 			final FourierTransform<T, ComplexFloatType> fft1;
 			final FourierTransform<S, ComplexFloatType> fft2;
@@ -144,12 +230,8 @@ public class PhaseCorrelation<T extends RealType<T>, S extends RealType<S>> impl
 				e.printStackTrace();
 				return false;
 			}
-			fft1.setRelativeImageExtension( 0.1f );
-			fft2.setRelativeImageExtension( 0.1f );
-			fft1.setRelativeFadeOutDistance( 0.1f );
-			fft2.setRelativeFadeOutDistance( 0.1f );
-			fft1.setRearrangement( Rearrangement.UNCHANGED );
-			fft2.setRearrangement( Rearrangement.UNCHANGED );
+			configure( fft1 );
+			configure( fft2 );
 
 			boolean sizeFound = false;
 
@@ -208,51 +290,88 @@ public class PhaseCorrelation<T extends RealType<T>, S extends RealType<S>> impl
 			//
 			multiplyInPlace( fftImage1, fftImage2 );
 
-			//
-			// invert fftImage1 which contains the phase correlation spectrum
-			//
-			final InverseFourierTransform<FloatType, ComplexFloatType> invFFT;
-			try {
-				invFFT = new InverseFourierTransform<FloatType, ComplexFloatType>( fftImage1, fft1, new FloatType() );
-			} catch (final Exception e) {
-				e.printStackTrace();
-				return false;
-			}
-			//invFFT.setInPlaceTransform( true );
-			invFFT.setCropBackToOriginalSize( false );
+			return invertAndExtractPeaks( fftImage1, fft1, fft2 );
 
-			if ( !invFFT.checkInput() || !invFFT.process() )
-			{
-				errorMessage = "Inverse Fourier Transform of failed: " + invFFT.getErrorMessage();
-				return false;
-			}
+		} finally {
+			processingTime = System.currentTimeMillis() - startTime;
+		}
+	}
 
-			invPCM = invFFT.getResult();
+	/**
+	 * Only the moving image is transformed, the spectrum of the reference is reused.
+	 */
+	private boolean processWithReference( final int[] maxDim )
+	{
+		final FourierTransform<T, ComplexFloatType> fft1;
+		try {
+			fft1 = new FourierTransform<T, ComplexFloatType>( image1, new ComplexFloatType() );
+		} catch (final IncompatibleTypeException e) {
+			e.printStackTrace();
+			return false;
+		}
+		configure( fft1 );
+		fft1.setExtendedOriginalImageSize( maxDim );
+		fft1.setNumThreads( getNumThreads() );
 
-			/*
-		invPCM.getDisplay().setMinMax();
-		invPCM.setName("invPCM");
-		ImageJFunctions.copyToImagePlus( invPCM ).show();
-			 */
+		if ( !fft1.checkInput() || !fft1.process() )
+		{
+			errorMessage = "Fourier Transform of failed: fft1=" + fft1.getErrorMessage();
+			return false;
+		}
 
-			//
-			// extract the peaks
-			//
-			phaseCorrelationPeaks = extractPhaseCorrelationPeaks( invPCM, numPeaks, fft1, fft2 );
+		final Img<ComplexFloatType> fftImage1 = fft1.getResult();
+		normalizeComplexImage( fftImage1, normalizationThreshold );
+
+		// The reference spectrum is only read
+		multiplyInPlace( fftImage1, reference.spectrum );
+
+		return invertAndExtractPeaks( fftImage1, fft1, reference.fft );
+	}
 
-			if ( !verifyWithCrossCorrelation )
-				return true;
+	private boolean invertAndExtractPeaks( final Img<ComplexFloatType> fftImage1,
+			final FourierTransform<T, ComplexFloatType> fft1, final FourierTransform<S, ComplexFloatType> fft2 )
+	{
+		//
+		// invert fftImage1 which contains the phase correlation spectrum
+		//
+		final InverseFourierTransform<FloatType, ComplexFloatType> invFFT;
+		try {
+			invFFT = new InverseFourierTransform<FloatType, ComplexFloatType>( fftImage1, fft1, new FloatType() );
+		} catch (final Exception e) {
+			e.printStackTrace();
+			return false;
+		}
+		//invFFT.setInPlaceTransform( true );
+		invFFT.setCropBackToOriginalSize( false );
+
+		if ( !invFFT.checkInput() || !invFFT.process() )
+		{
+			errorMessage = "Inverse Fourier Transform of failed: " + invFFT.getErrorMessage();
+			return false;
+		}
 
-			verifyWithCrossCorrelation( phaseCorrelationPeaks, Intervals.dimensionsAsLongArray( invPCM ), image1, image2 );
+		invPCM = invFFT.getResult();
 
-			if ( !keepInvFFT )
-				invPCM = null;
+		/*
+	invPCM.getDisplay().setMinMax();
+	invPCM.setName("invPCM");
+	ImageJFunctions.copyToImagePlus( invPCM ).show();
+		 */
 
+		//
+		// extract the peaks
+		//
+		phaseCorrelationPeaks = extractPhaseCorrelationPeaks( invPCM, numPeaks, fft1, fft2 );
+
+		if ( !verifyWithCrossCorrelation )
 			return true;
 
-		} finally {
-			processingTime = System.currentTimeMillis() - startTime;
-		}
+		verifyWithCrossCorrelation( phaseCorrelationPeaks, Intervals.dimensionsAsLongArray( invPCM ), image1, image2 );
+
+		if ( !keepInvFFT )
+			invPCM = null;
+
+		return true;
 	}
 
 	private static void setCoordinateRecursive( final int dimension, final int numDimensions, final int[] location, final boolean[][] result )
@@ -9,65 +9,92 @@ import net.imglib2.type.numeric.real.FloatType;
 import org.apache.commons.math3.geometry.euclidean.threed.Vector3D;
 
 import java.io.File;
+import java.util.EnumSet;
 
 /**
  * Created by moon on 5/11/15.
  */
 public class Projections {
+	// Depth of the outputs before the first stack tells its own
+	private static final int DEFAULT_DEPTH = 64;
+
+	private final int expectedDepth;
+	private StackProjector projector;
+	// Read from the projector when a slice has been added since
 	private FloatProcessor xy, xz, zy;
+	private boolean dirty;
+	// Spectra of xy, xz and zy when these projections are the reference of a correlation
+	private PhaseCorrelation.Reference<FloatType>[] references;
+
+	public Projections() {
+		this(DEFAULT_DEPTH);
+	}
+
+	/**
+	 * @param expectedDepth the number of slices the outputs are allocated for
+	 */
+	public Projections(int expectedDepth) {
+		this.expectedDepth = expectedDepth;
+	}
 
 	public void addXYSlice(ImageProcessor ip) {
-		if (!(ip instanceof FloatProcessor)) {
-			ip = (FloatProcessor)ip.convertToFloat();
+		if (projector == null) {
+			projector = new StackProjector(ip.getWidth(), ip.getHeight(), expectedDepth,
+					EnumSet.of(StackProjector.Type.MEAN), true);
 		}
 
-		final int w = ip.getWidth();
-		final int h = ip.getHeight();
-		final int d;
-		final float[] pixels = (float[])ip.getPixels();
-
-		if (xy == null) {
-			d = 1;
-			xy = (FloatProcessor)ip.duplicate();
-			xz = new FloatProcessor(xy.getWidth(), 1);
-			zy = new FloatProcessor(1, xy.getHeight());
-		} else {
-			if (w != xy.getWidth() || h != xy.getHeight()) {
-				new IllegalArgumentException("" + w + "x" + h
-						+ " is incompatible with previously recorded "
-						+ xy.getWidth() + "x" + xy.getHeight());
-			}
+		// 8-bit and 16-bit slices are projected without converting them
+		if (StackProjector.isSupported(ip))
+			projector.addSlice(ip);
+		else
+			projector.addSlice(ip.convertToFloat());
+		dirty = true;
+	}
 
-			xz = extend(xz, 0, 1);
-			zy = extend(zy, 1, 0);
-			d = xz.getHeight();
+	private void update() {
+		if (!dirty)
+			return;
+		xy = (FloatProcessor) projector.getProcessor(StackProjector.Type.MEAN);
+		xz = projector.getXZ();
+		zy = projector.getZY();
+		references = null;
+		dirty = false;
+	}
 
-			final float[] xyPixels = (float[])xy.getPixels();
-			for (int i = 0; i < w * h; i++) {
-				xyPixels[i] = (xyPixels[i] * (d - 1) + pixels[i]) / d;
-			}
+	/**
+	 * The spectra are computed on the first correlation against these
+	 * projections and kept for the following ones.
+	 */
+	@SuppressWarnings("unchecked")
+	private synchronized PhaseCorrelation.Reference<FloatType>[] getReferences() {
+		update();
+		if (references == null) {
+			references = new PhaseCorrelation.Reference[] {
+					PhaseCorrelation.prepareReference(wrap(xy)),
+					PhaseCorrelation.prepareReference(wrap(xz)),
+					PhaseCorrelation.prepareReference(wrap(zy))
+			};
 		}
+		return references;
+	}
 
-		final float[] xzPixels = (float[])xz.getPixels();
-		for (int x = 0; x < w; x++) {
-			float sum = 0;
-			for (int y = 0; y < h; y++) {
-				sum += pixels[x + y * w];
-			}
-			xzPixels[x + (d - 1) * w] = sum / h;
-		}
+	FloatProcessor getXY() {
+		update();
+		return xy;
+	}
 
-		final float[] zyPixels = (float[])zy.getPixels();
-		for (int y = 0; y < h; y++) {
-			float sum = 0;
-			for (int x = 0; x < w; x++) {
-				sum += pixels[x + y * w];
-			}
-			zyPixels[(d - 1) + y * d] = sum / w;
-		}
+	FloatProcessor getXZ() {
+		update();
+		return xz;
+	}
+
+	FloatProcessor getZY() {
+		update();
+		return zy;
 	}
 
 	public double largestDimension() {
+		update();
 		double d = 0;
 
 		if(xy.getWidth() > d)
@@ -87,6 +114,7 @@ public class Projections {
 	}
 
 	public void show() {
+		update();
 		new ImagePlus("XY", xy).show();
 		new ImagePlus("XZ", xz).show();
 		new ImagePlus("ZY", zy).show();
@@ -98,14 +126,15 @@ public class Projections {
 	}
 
 	public ColorProcessor getDiff(final Projections other, double scale, double zratio, Vector3D dv, Vector3D center) {
+		update();
 		final int w = (int) (xy.getWidth()*scale);
 		final int h = (int) (xy.getHeight()*scale);
 		final int d = (int) (xz.getHeight()*zratio*scale);
 
 		return makePanel(
-				drawCrosshair(getDiff(xy, other.xy, dv.getX(), dv.getY()), w, h, center.getX(), center.getY()),
-				drawCrosshair(getDiff(xz, other.xz, dv.getX(), dv.getZ()), w, d, center.getX(), center.getZ()),
-				drawCrosshair(getDiff(zy, other.zy, dv.getZ(), dv.getY()), d, h, center.getZ(), center.getY())
+				drawCrosshair(getDiff(xy, other.getXY(), dv.getX(), dv.getY()), w, h, center.getX(), center.getY()),
+				drawCrosshair(getDiff(xz, other.getXZ(), dv.getX(), dv.getZ()), w, d, center.getX(), center.getZ()),
+				drawCrosshair(getDiff(zy, other.getZY(), dv.getZ(), dv.getY()), d, h, center.getZ(), center.getY())
 		);
 	}
 
@@ -177,8 +206,10 @@ public class Projections {
 		return ImagePlusAdapter.wrapFloat( new ImagePlus( "", fp ) );
 	}
 
-	private static long[] correlate(final FloatProcessor first, final FloatProcessor second) {
-		PhaseCorrelation<FloatType, FloatType> pc = new PhaseCorrelation<FloatType, FloatType>(wrap(first), wrap(second));
+	private static long[] correlate(final FloatProcessor first, final PhaseCorrelation.Reference<FloatType> second, final FloatProcessor fallback) {
+		final PhaseCorrelation<FloatType, FloatType> pc = second != null ?
+				new PhaseCorrelation<FloatType, FloatType>(wrap(first), second) :
+				new PhaseCorrelation<FloatType, FloatType>(wrap(first), wrap(fallback));
 
 		if(!pc.checkInput()) {
 			ij.IJ.log(pc.getErrorMessage());
@@ -195,9 +226,31 @@ public class Projections {
 	}
 
 	public Vector3D correlateAndAverage(final Projections other) {
-		long[] xyc = correlate(xy, other.xy);
-		long[] xzc = correlate(xz, other.xz);
-		long[] zyc = correlate(zy, other.zy);
+		update();
+		final PhaseCorrelation.Reference<FloatType>[] refs = other.getReferences();
+		long[] xyc = correlate(xy, refs[0], other.getXY());
+		long[] xzc = correlate(xz, refs[1], other.getXZ());
+		long[] zyc = correlate(zy, refs[2], other.getZY());
+
+		if(xyc == null || xzc == null || zyc == null)
+			return Vector3D.ZERO;
+
+		return new Vector3D(xyc[0] + xzc[0], xyc[1] + zyc[1],
+				xzc[1] + zyc[0]).scalarMultiply(0.5D);
+	}
+
+	/**
+	 * Like correlateAndAverage(), with the coarse-to-fine subpixel estimate of
+	 * MultiScalePhaseCorrelation.
+	 *
+	 * @param other the reference projections
+	 * @return the shift of these projections in pixels and slices
+	 */
+	public Vector3D correlateAndAverageSubpixel(final Projections other) {
+		update();
+		double[] xyc = MultiScalePhaseCorrelation.getShift(xy, other.getXY());
+		double[] xzc = MultiScalePhaseCorrelation.getShift(xz, other.getXZ());
+		double[] zyc = MultiScalePhaseCorrelation.getShift(zy, other.getZY());
 
 		if(xyc == null || xzc == null || zyc == null)
 			return Vector3D.ZERO;
@@ -212,15 +265,9 @@ public class Projections {
 		return (int)((value - min) * 256 / (max - min));
 	}
 
-	private static FloatProcessor extend(final FloatProcessor fp, int dx, int dy) {
-		final FloatProcessor result = new FloatProcessor(fp.getWidth() + dx, fp.getHeight() + dy);
-		new FloatBlitter(result).copyBits(fp, 0, 0, Blitter.COPY);
-		return result;
-	}
-
 	public static Projections get(final ImagePlus imp) {
 		final ImageStack stack = imp.getStack();
-		final Projections p = new Projections();
+		final Projections p = new Projections(stack.getSize());
 
 		for (int i = 1; i <= stack.getSize(); i++)
 			p.addXYSlice(stack.getProcessor(i));
@@ -229,6 +276,7 @@ public class Projections {
 	}
 
 	public Vector3D getCenter() {
+		update();
 		return new Vector3D(xy.getWidth() / 2.0, xy.getHeight() / 2.0, xz.getHeight() / 2.0);
 	}
 }
@@ -0,0 +1,237 @@
+package spim.algorithm;
+
+import ij.process.ImageProcessor;
+import spim.util.PixelBufferPool;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * Description: Preprocessing of the anti-drift slices before they are
+ * projected. A slice is binned first, straight from its 8-bit, 16-bit or float
+ * pixels, and then blurred by a separable gaussian with the sigma scaled to
+ * the binned pixels. The blur only removes what the binning would not resolve
+ * anyway, so binning by less than the sigma keeps the drift estimate while the
+ * blur and the projections handle a fraction of the pixels. Both passes run in
+ * row bands on the pool of the StackProjector.
+ *
+ * Author: HongKee Moon (moon@mpi-cbg.de), Scientific Computing Facility
+ * Organization: MPI-CBG Dresden
+ * Date: October 2026
+ */
+public class SlicePreprocessor
+{
+	// Binned pixels per sigma kept by the default binning
+	private static final double PIXELS_PER_SIGMA = 2.5;
+	private static final double KERNEL_RADIUS_SIGMAS = 3.5;
+	private static final int MIN_ROWS_PER_BAND = 16;
+
+	private interface Band
+	{
+		void run( int fromRow, int toRow );
+	}
+
+	private final int binning;
+	private final double sigma;
+	// Centre and one side of the normalized kernel, null without blur
+	private final float[] kernel;
+
+	/**
+	 * @param binning the binning in X and Y
+	 * @param sigma the sigma of the blur in pixels of the slice, 0 for none
+	 */
+	public SlicePreprocessor( int binning, double sigma )
+	{
+		if ( binning < 1 )
+			throw new IllegalArgumentException( "The binning must be at least 1, not " + binning );
+		this.binning = binning;
+		this.sigma = sigma;
+		this.kernel = sigma > 0 ? kernel( sigma / binning ) : null;
+	}
+
+	/**
+	 * @param sigma the sigma of the blur in pixels of the slice
+	 * @return the largest binning which leaves PIXELS_PER_SIGMA binned pixels per sigma
+	 */
+	public static int defaultBinning( double sigma )
+	{
+		return Math.max( 1, ( int ) ( sigma / PIXELS_PER_SIGMA ) );
+	}
+
+	private static float[] kernel( final double sigma )
+	{
+		final int radius = Math.max( 1, ( int ) Math.ceil( KERNEL_RADIUS_SIGMAS * sigma ) );
+		final float[] kernel = new float[ radius + 1 ];
+		double sum = 0;
+		for ( int i = 0; i <= radius; i++ )
+		{
+			kernel[ i ] = ( float ) Math.exp( -0.5 * i * i / ( sigma * sigma ) );
+			sum += i == 0 ? kernel[ i ] : 2 * kernel[ i ];
+		}
+		for ( int i = 0; i <= radius; i++ )
+			kernel[ i ] /= sum;
+		return kernel;
+	}
+
+	public int getBinning()
+	{
+		return binning;
+	}
+
+	public double getSigma()
+	{
+		return sigma;
+	}
+
+	/**
+	 * @return the width of a preprocessed slice, the remainder of the binning is dropped
+	 */
+	public int getWidth( int width )
+	{
+		return width / binning;
+	}
+
+	public int getHeight( int height )
+	{
+		return height / binning;
+	}
+
+	public int getPlaneLength( int width, int height )
+	{
+		return getWidth( width ) * getHeight( height );
+	}
+
+	/**
+	 * Bins and blurs a slice, which is only read during the call.
+	 *
+	 * @param ip the slice
+	 * @return the pooled float plane of getWidth() x getHeight(), released by the caller
+	 */
+	public PixelBufferPool.Buffer process( ImageProcessor ip )
+	{
+		final Object pixels = StackProjector.isSupported( ip ) ? ip.getPixels() : ip.convertToFloat().getPixels();
+		final int width = ip.getWidth();
+		final int w = getWidth( width );
+		final int h = getHeight( ip.getHeight() );
+		if ( w == 0 || h == 0 )
+			throw new IllegalArgumentException( "The slice of " + width + "x" + ip.getHeight() + " is smaller than the binning " + binning );
+
+		final PixelBufferPool pool = PixelBufferPool.getInstance();
+		final PixelBufferPool.Buffer output = pool.borrow( PixelBufferPool.Type.FLOAT, w * h );
+		final float[] out = ( float[] ) output.getPixels();
+
+		if ( kernel == null )
+		{
+			parallel( h, ( from, to ) -> bin( pixels, width, out, w, from, to ) );
+			return output;
+		}
+
+		// The binned rows are blurred along X into the temporary plane, then along Y back into the output
+		try ( PixelBufferPool.Buffer temporary = pool.borrow( PixelBufferPool.Type.FLOAT, w * h ) )
+		{
+			final float[] tmp = ( float[] ) temporary.getPixels();
+			parallel( h, ( from, to ) -> {
+				bin( pixels, width, out, w, from, to );
+				blurRows( out, tmp, w, from, to );
+			} );
+			parallel( h, ( from, to ) -> blurColumns( tmp, out, w, h, from, to ) );
+		}
+		return output;
+	}
+
+	// The caller takes the last band itself
+	private static void parallel( final int rows, final Band band )
+	{
+		final int bands = Math.max( 1, Math.min( Runtime.getRuntime().availableProcessors(), rows / MIN_ROWS_PER_BAND ) );
+		final int rowsPerBand = ( rows + bands - 1 ) / bands;
+		final List< CompletableFuture< Void > > futures = new ArrayList<>( bands - 1 );
+		for ( int b = 0; b < bands - 1; b++ )
+		{
+			final int from = b * rowsPerBand;
+			final int to = Math.min( rows, from + rowsPerBand );
+			futures.add( CompletableFuture.runAsync( () -> band.run( from, to ), StackProjector.pool() ) );
+		}
+		band.run( ( bands - 1 ) * rowsPerBand, rows );
+		CompletableFuture.allOf( futures.toArray( new CompletableFuture[ 0 ] ) ).join();
+	}
+
+	// Averages binning x binning blocks into the binned rows from..to
+	private void bin( final Object pixels, final int width, final float[] out, final int w, final int fromRow, final int toRow )
+	{
+		final float scale = 1f / ( binning * binning );
+		for ( int y = fromRow; y < toRow; y++ )
+		{
+			final int row = y * w;
+			for ( int x = 0; x < w; x++ )
+				out[ row + x ] = 0;
+
+			for ( int dy = 0; dy < binning; dy++ )
+			{
+				final int offset = ( y * binning + dy ) * width;
+				if ( pixels instanceof short[] )
+				{
+					final short[] p = ( short[] ) pixels;
+					for ( int x = 0, i = offset; x < w; x++ )
+						for ( int dx = 0; dx < binning; dx++, i++ )
+							out[ row + x ] += p[ i ] & 0xffff;
+				}
+				else if ( pixels instanceof byte[] )
+				{
+					final byte[] p = ( byte[] ) pixels;
+					for ( int x = 0, i = offset; x < w; x++ )
+						for ( int dx = 0; dx < binning; dx++, i++ )
+							out[ row + x ] += p[ i ] & 0xff;
+				}
+				else
+				{
+					final float[] p = ( float[] ) pixels;
+					for ( int x = 0, i = offset; x < w; x++ )
+						for ( int dx = 0; dx < binning; dx++, i++ )
+							out[ row + x ] += p[ i ];
+				}
+			}
+
+			for ( int x = 0; x < w; x++ )
+				out[ row + x ] *= scale;
+		}
+	}
+
+	// The edge pixels are repeated beyond the border
+	private void blurRows( final float[] in, final float[] out, final int w, final int fromRow, final int toRow )
+	{
+		final int radius = kernel.length - 1;
+		for ( int y = fromRow; y < toRow; y++ )
+		{
+			final int row = y * w;
+			for ( int x = 0; x < w; x++ )
+			{
+				float sum = kernel[ 0 ] * in[ row + x ];
+				for ( int k = 1; k <= radius; k++ )
+					sum += kernel[ k ] * ( in[ row + Math.max( 0, x - k ) ] + in[ row + Math.min( w - 1, x + k ) ] );
+				out[ row + x ] = sum;
+			}
+		}
+	}
+
+	// Row by row, so every pass reads whole rows of the input
+	private void blurColumns( final float[] in, final float[] out, final int w, final int h, final int fromRow, final int toRow )
+	{
+		final int radius = kernel.length - 1;
+		for ( int y = fromRow; y < toRow; y++ )
+		{
+			final int row = y * w;
+			for ( int x = 0; x < w; x++ )
+				out[ row + x ] = kernel[ 0 ] * in[ row + x ];
+
+			for ( int k = 1; k <= radius; k++ )
+			{
+				final int above = Math.max( 0, y - k ) * w;
+				final int below = Math.min( h - 1, y + k ) * w;
+				final float weight = kernel[ k ];
+				for ( int x = 0; x < w; x++ )
+					out[ row + x ] += weight * ( in[ above + x ] + in[ below + x ] );
+			}
+		}
+	}
+}
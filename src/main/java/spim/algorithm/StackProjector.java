@@ -0,0 +1,433 @@
+package spim.algorithm;
+
+import ij.process.ByteProcessor;
+import ij.process.FloatProcessor;
+import ij.process.ImageProcessor;
+import ij.process.ShortProcessor;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.EnumSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Description: Projections of a stack computed in one pass while its slices
+ * arrive. The maximum, minimum, mean, sum and standard deviation along Z and
+ * the orthogonal XZ and ZY mean views are updated together from 8-bit, 16-bit
+ * or float slices without converting them, and the rows of a slice are split
+ * into bands which run in parallel on a shared pool. The outputs are allocated
+ * once for the expected depth and doubled if more slices arrive.
+ *
+ * Author: HongKee Moon (moon@mpi-cbg.de), Scientific Computing Facility
+ * Organization: MPI-CBG Dresden
+ * Date: October 2026
+ */
+public class StackProjector
+{
+	public enum Type
+	{
+		MAX, MIN, MEAN, SUM, STD
+	}
+
+	private static final int MIN_ROWS_PER_BAND = 64;
+
+	private static ExecutorService pool;
+
+	// Shared with the other accumulators of the package
+	static synchronized ExecutorService pool()
+	{
+		if ( pool == null )
+		{
+			final AtomicInteger count = new AtomicInteger();
+			pool = Executors.newFixedThreadPool( Math.max( 2, Runtime.getRuntime().availableProcessors() ), r -> {
+				Thread thread = new Thread( r, "uOpenSPIM-projection-" + count.incrementAndGet() );
+				thread.setDaemon( true );
+				return thread;
+			} );
+		}
+		return pool;
+	}
+
+	private final int width;
+	private final int height;
+	private final boolean orthogonal;
+	private final boolean extrema;
+	private final boolean sums;
+	private final boolean squares;
+	private final int bands;
+	private final int rowsPerBand;
+
+	// Set by the first slice, byte[], short[] or float[]
+	private Class<?> pixelType;
+	private int depth;
+	private int capacity;
+
+	// Integer input keeps its extrema in int[], float input in float[]
+	private int[] maxInt, minInt;
+	private float[] maxFloat, minFloat;
+	private double[] sum, sumSquares;
+	// [z * width + x] and [z * height + y], the ZY view is transposed when it is read
+	private float[] xz, zy;
+	private double[][] bandColumns;
+	private int[][] bandRows;
+
+	/**
+	 * @param width the width of the slices
+	 * @param height the height of the slices
+	 * @param depth the expected number of slices
+	 * @param types the projections along Z
+	 * @param orthogonal true to compute the XZ and ZY views as well
+	 */
+	public StackProjector( int width, int height, int depth, Set< Type > types, boolean orthogonal )
+	{
+		this.width = width;
+		this.height = height;
+		this.capacity = Math.max( 1, depth );
+		this.orthogonal = orthogonal;
+		this.extrema = types.contains( Type.MAX ) || types.contains( Type.MIN );
+		this.sums = types.contains( Type.MEAN ) || types.contains( Type.SUM ) || types.contains( Type.STD );
+		this.squares = types.contains( Type.STD );
+
+		this.bands = Math.max( 1, Math.min( Runtime.getRuntime().availableProcessors(), height / MIN_ROWS_PER_BAND ) );
+		this.rowsPerBand = ( height + bands - 1 ) / bands;
+
+		if ( sums )
+			sum = new double[ width * height ];
+		if ( squares )
+			sumSquares = new double[ width * height ];
+		if ( orthogonal )
+		{
+			xz = new float[ width * capacity ];
+			zy = new float[ height * capacity ];
+			bandColumns = new double[ bands ][ width ];
+		}
+		bandRows = new int[ bands ][];
+	}
+
+	public StackProjector( int width, int height, int depth, Type... types )
+	{
+		this( width, height, depth, types.length == 0 ? EnumSet.noneOf( Type.class ) : EnumSet.copyOf( Arrays.asList( types ) ), false );
+	}
+
+	public int getWidth()
+	{
+		return width;
+	}
+
+	public int getHeight()
+	{
+		return height;
+	}
+
+	/**
+	 * @return the number of slices added
+	 */
+	public int getDepth()
+	{
+		return depth;
+	}
+
+	/**
+	 * Starts a new stack of the same size, keeping the allocated outputs.
+	 */
+	public synchronized void reset()
+	{
+		depth = 0;
+		if ( sums )
+			Arrays.fill( sum, 0 );
+		if ( squares )
+			Arrays.fill( sumSquares, 0 );
+		if ( maxInt != null )
+		{
+			Arrays.fill( maxInt, Integer.MIN_VALUE );
+			Arrays.fill( minInt, Integer.MAX_VALUE );
+		}
+		if ( maxFloat != null )
+		{
+			Arrays.fill( maxFloat, Float.NEGATIVE_INFINITY );
+			Arrays.fill( minFloat, Float.POSITIVE_INFINITY );
+		}
+	}
+
+	/**
+	 * @return true if the pixels of the processor are projected as they are
+	 */
+	public static boolean isSupported( ImageProcessor ip )
+	{
+		final Object pixels = ip.getPixels();
+		return pixels instanceof byte[] || pixels instanceof short[] || pixels instanceof float[];
+	}
+
+	public void addSlice( ImageProcessor ip )
+	{
+		if ( ip.getWidth() != width || ip.getHeight() != height )
+			throw new IllegalArgumentException( "" + ip.getWidth() + "x" + ip.getHeight()
+					+ " is incompatible with previously recorded " + width + "x" + height );
+		addSlice( ip.getPixels() );
+	}
+
+	/**
+	 * Adds the next slice, which is only read during the call.
+	 *
+	 * @param pixels the byte[], short[] or float[] of width * height pixels
+	 */
+	public synchronized void addSlice( Object pixels )
+	{
+		if ( !( pixels instanceof byte[] || pixels instanceof short[] || pixels instanceof float[] ) )
+			throw new IllegalArgumentException( "Only 8-bit, 16-bit and float slices can be projected" );
+		if ( pixelType == null )
+			allocate( pixels.getClass() );
+		else if ( pixels.getClass() != pixelType )
+			throw new IllegalArgumentException( "The slice type " + pixels.getClass().getSimpleName()
+					+ " differs from " + pixelType.getSimpleName() );
+
+		if ( orthogonal && depth == capacity )
+		{
+			capacity *= 2;
+			xz = Arrays.copyOf( xz, width * capacity );
+			zy = Arrays.copyOf( zy, height * capacity );
+		}
+
+		final int z = depth;
+		if ( bands == 1 )
+		{
+			project( pixels, 0, z );
+		}
+		else
+		{
+			// The caller takes the last band itself
+			final List< CompletableFuture< Void > > futures = new ArrayList<>( bands - 1 );
+			for ( int b = 0; b < bands - 1; b++ )
+			{
+				final int band = b;
+				futures.add( CompletableFuture.runAsync( () -> project( pixels, band, z ), pool() ) );
+			}
+			project( pixels, bands - 1, z );
+			CompletableFuture.allOf( futures.toArray( new CompletableFuture[ 0 ] ) ).join();
+		}
+
+		if ( orthogonal )
+		{
+			final int offset = z * width;
+			for ( int x = 0; x < width; x++ )
+			{
+				double s = 0;
+				for ( int b = 0; b < bands; b++ )
+					s += bandColumns[ b ][ x ];
+				xz[ offset + x ] = ( float ) ( s / height );
+			}
+		}
+		depth++;
+	}
+
+	private void allocate( Class< ? > type )
+	{
+		pixelType = type;
+		if ( !extrema )
+			return;
+
+		if ( type == float[].class )
+		{
+			maxFloat = new float[ width * height ];
+			minFloat = new float[ width * height ];
+			Arrays.fill( maxFloat, Float.NEGATIVE_INFINITY );
+			Arrays.fill( minFloat, Float.POSITIVE_INFINITY );
+		}
+		else
+		{
+			maxInt = new int[ width * height ];
+			minInt = new int[ width * height ];
+			Arrays.fill( maxInt, Integer.MIN_VALUE );
+			Arrays.fill( minInt, Integer.MAX_VALUE );
+		}
+	}
+
+	private void project( Object pixels, int band, int z )
+	{
+		final int y0 = band * rowsPerBand;
+		final int y1 = Math.min( height, y0 + rowsPerBand );
+		final double[] columns = orthogonal ? bandColumns[ band ] : null;
+		if ( columns != null )
+			Arrays.fill( columns, 0 );
+
+		if ( pixels instanceof float[] )
+		{
+			final float[] src = ( float[] ) pixels;
+			for ( int y = y0; y < y1; y++ )
+				projectRow( src, y * width, y, z, columns );
+		}
+		else
+		{
+			// Unsigned values of a row, converted once and used by every projection
+			if ( bandRows[ band ] == null )
+				bandRows[ band ] = new int[ width ];
+			final int[] row = bandRows[ band ];
+			for ( int y = y0; y < y1; y++ )
+			{
+				final int o = y * width;
+				if ( pixels instanceof short[] )
+				{
+					final short[] src = ( short[] ) pixels;
+					for ( int x = 0; x < width; x++ )
+						row[ x ] = src[ o + x ] & 0xffff;
+				}
+				else
+				{
+					final byte[] src = ( byte[] ) pixels;
+					for ( int x = 0; x < width; x++ )
+						row[ x ] = src[ o + x ] & 0xff;
+				}
+				projectRow( row, o, y, z, columns );
+			}
+		}
+	}
+
+	private void projectRow( int[] row, int o, int y, int z, double[] columns )
+	{
+		if ( extrema )
+		{
+			for ( int x = 0; x < width; x++ )
+			{
+				maxInt[ o + x ] = Math.max( maxInt[ o + x ], row[ x ] );
+				minInt[ o + x ] = Math.min( minInt[ o + x ], row[ x ] );
+			}
+		}
+		if ( sums )
+		{
+			for ( int x = 0; x < width; x++ )
+				sum[ o + x ] += row[ x ];
+		}
+		if ( squares )
+		{
+			for ( int x = 0; x < width; x++ )
+				sumSquares[ o + x ] += ( double ) row[ x ] * row[ x ];
+		}
+		if ( columns != null )
+		{
+			long rowSum = 0;
+			for ( int x = 0; x < width; x++ )
+			{
+				columns[ x ] += row[ x ];
+				rowSum += row[ x ];
+			}
+			zy[ z * height + y ] = ( float ) rowSum / width;
+		}
+	}
+
+	private void projectRow( float[] src, int o, int y, int z, double[] columns )
+	{
+		if ( extrema )
+		{
+			for ( int x = 0; x < width; x++ )
+			{
+				maxFloat[ o + x ] = Math.max( maxFloat[ o + x ], src[ o + x ] );
+				minFloat[ o + x ] = Math.min( minFloat[ o + x ], src[ o + x ] );
+			}
+		}
+		if ( sums )
+		{
+			for ( int x = 0; x < width; x++ )
+				sum[ o + x ] += src[ o + x ];
+		}
+		if ( squares )
+		{
+			for ( int x = 0; x < width; x++ )
+				sumSquares[ o + x ] += ( double ) src[ o + x ] * src[ o + x ];
+		}
+		if ( columns != null )
+		{
+			double rowSum = 0;
+			for ( int x = 0; x < width; x++ )
+			{
+				columns[ x ] += src[ o + x ];
+				rowSum += src[ o + x ];
+			}
+			zy[ z * height + y ] = ( float ) ( rowSum / width );
+		}
+	}
+
+	/**
+	 * @param type the projection, which must have been requested
+	 * @return a new processor, of the slice type for MAX and MIN and float otherwise
+	 */
+	public synchronized ImageProcessor getProcessor( Type type )
+	{
+		if ( depth == 0 )
+			throw new IllegalStateException( "No slice was added" );
+
+		final int n = width * height;
+		switch ( type )
+		{
+			case MAX:
+			case MIN:
+				if ( !extrema )
+					throw new IllegalStateException( type + " was not requested" );
+				if ( pixelType == float[].class )
+					return new FloatProcessor( width, height, ( type == Type.MAX ? maxFloat : minFloat ).clone() );
+
+				final int[] extremum = type == Type.MAX ? maxInt : minInt;
+				if ( pixelType == short[].class )
+				{
+					final short[] out = new short[ n ];
+					for ( int i = 0; i < n; i++ )
+						out[ i ] = ( short ) extremum[ i ];
+					return new ShortProcessor( width, height, out, null );
+				}
+				final byte[] out = new byte[ n ];
+				for ( int i = 0; i < n; i++ )
+					out[ i ] = ( byte ) extremum[ i ];
+				return new ByteProcessor( width, height, out );
+			default:
+				if ( !sums || ( type == Type.STD && !squares ) )
+					throw new IllegalStateException( type + " was not requested" );
+
+				final float[] values = new float[ n ];
+				for ( int i = 0; i < n; i++ )
+				{
+					switch ( type )
+					{
+						case SUM:
+							values[ i ] = ( float ) sum[ i ];
+							break;
+						case MEAN:
+							values[ i ] = ( float ) ( sum[ i ] / depth );
+							break;
+						default:
+							// Sample standard deviation, as in the ImageJ Z projection
+							values[ i ] = depth < 2 ? 0 :
+									( float ) Math.sqrt( Math.max( 0, ( sumSquares[ i ] - sum[ i ] * sum[ i ] / depth ) / ( depth - 1 ) ) );
+					}
+				}
+				return new FloatProcessor( width, height, values );
+		}
+	}
+
+	/**
+	 * @return the mean over Y of every slice, width x depth
+	 */
+	public synchronized FloatProcessor getXZ()
+	{
+		if ( !orthogonal )
+			throw new IllegalStateException( "The orthogonal views were not requested" );
+		return new FloatProcessor( width, depth, Arrays.copyOf( xz, width * depth ) );
+	}
+
+	/**
+	 * @return the mean over X of every slice, depth x height
+	 */
+	public synchronized FloatProcessor getZY()
+	{
+		if ( !orthogonal )
+			throw new IllegalStateException( "The orthogonal views were not requested" );
+		final float[] out = new float[ depth * height ];
+		for ( int z = 0; z < depth; z++ )
+			for ( int y = 0; y < height; y++ )
+				out[ z + y * depth ] = zy[ z * height + y ];
+		return new FloatProcessor( depth, height, out );
+	}
+}
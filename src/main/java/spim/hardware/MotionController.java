@@ -0,0 +1,166 @@
+package spim.hardware;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.micromanager.internal.utils.ReportingUtils;
+
+/**
+ * Description: Headless motion of the sample stage. The X, Y, Z and theta
+ * axes are commanded concurrently through the SPIMSetup, one task per device,
+ * so the two axes of an XY stage are set in order. A move only waits for the
+ * devices it commanded and an axis already at its target is not commanded.
+ * Reached positions are published to the listeners on their own thread, so a
+ * user interface never holds up the motion.
+ *
+ * Author: HongKee Moon (moon@mpi-cbg.de), Scientific Computing Facility
+ * Organization: MPI-CBG Dresden
+ * Date: October 2026
+ */
+public class MotionController implements AutoCloseable {
+	public enum Axis {
+		X, Y, Z, THETA
+	}
+
+	public interface Listener {
+		/**
+		 * Called on the notification thread after the axis has stopped.
+		 *
+		 * @param axis the axis which moved
+		 * @param position the position read back from the device
+		 */
+		void positionChanged(Axis axis, double position);
+	}
+
+	private static final class Move {
+		final Axis axis;
+		final Stage stage;
+		final double target;
+
+		Move(Axis axis, Stage stage, double target) {
+			this.axis = axis;
+			this.stage = stage;
+			this.target = target;
+		}
+	}
+
+	private final SPIMSetup setup;
+	private final ExecutorService motionPool;
+	private final ExecutorService notifier;
+	private final List<Listener> listeners = new CopyOnWriteArrayList<>();
+
+	public MotionController(SPIMSetup setup) {
+		this.setup = setup;
+		this.motionPool = Executors.newCachedThreadPool(daemonThreadFactory("uOpenSPIM-motion"));
+		this.notifier = Executors.newSingleThreadExecutor(daemonThreadFactory("uOpenSPIM-motion-notifier"));
+	}
+
+	public void addListener(Listener listener) {
+		listeners.add(listener);
+	}
+
+	public void removeListener(Listener listener) {
+		listeners.remove(listener);
+	}
+
+	/**
+	 * Moves the stage to the position. Null parameters mean no change.
+	 *
+	 * @param x New position of the X stage
+	 * @param y New position of the Y stage
+	 * @param z New position of the Z stage
+	 * @param theta New position of the theta stage
+	 * @return the future completed when every commanded device has stopped,
+	 * with the longest wait for a device after its command in ns
+	 */
+	public CompletableFuture<Long> moveTo(Double x, Double y, Double z, Double theta) {
+		// The axes of one device are set and waited for by the same task
+		final Map<String, List<Move>> devices = new LinkedHashMap<>();
+		add(devices, Axis.X, setup.getXStage(), x);
+		add(devices, Axis.Y, setup.getYStage(), y);
+		add(devices, Axis.Z, setup.getZStage(), z);
+		add(devices, Axis.THETA, setup.getThetaStage(), theta);
+
+		CompletableFuture<Long> longestWait = CompletableFuture.completedFuture(0L);
+		for (List<Move> moves : devices.values())
+			longestWait = longestWait.thenCombine(CompletableFuture.supplyAsync(() -> run(moves), motionPool), Math::max);
+
+		return longestWait;
+	}
+
+	/**
+	 * Moves the stage and waits until it has stopped.
+	 *
+	 * @return the longest wait for a device after its command in ns
+	 * @see #moveTo(Double, Double, Double, Double)
+	 */
+	public long moveAndWait(Double x, Double y, Double z, Double theta) {
+		return moveTo(x, y, z, theta).join();
+	}
+
+	private static void add(Map<String, List<Move>> devices, Axis axis, Stage stage, Double target) {
+		if (target == null || stage == null)
+			return;
+
+		devices.computeIfAbsent(stage.getLabel(), k -> new ArrayList<>(2)).add(new Move(axis, stage, target));
+	}
+
+	private long run(List<Move> moves) {
+		final List<Move> moved = new ArrayList<>(moves.size());
+		for (Move move : moves) {
+			// Positions within half a motor step are not commanded again
+			if (Math.abs(move.stage.getPosition() - move.target) < move.stage.getStepSize() / 2)
+				continue;
+
+			move.stage.setPosition(move.target);
+			moved.add(move);
+		}
+
+		if (moved.isEmpty())
+			return 0;
+
+		final long waitStart = System.nanoTime();
+		moved.get(0).stage.waitFor();
+		final long waitNs = System.nanoTime() - waitStart;
+
+		if (!listeners.isEmpty())
+			notifier.execute(() -> publish(moved));
+		return waitNs;
+	}
+
+	private void publish(List<Move> moved) {
+		for (Move move : moved) {
+			final double position = move.stage.getPosition();
+			for (Listener listener : listeners) {
+				try {
+					listener.positionChanged(move.axis, position);
+				} catch (RuntimeException e) {
+					ReportingUtils.logError(e, "Motion listener failed for " + move.axis);
+				}
+			}
+		}
+	}
+
+	@Override
+	public void close() {
+		motionPool.shutdown();
+		notifier.shutdown();
+	}
+
+	private static ThreadFactory daemonThreadFactory(final String prefix) {
+		final AtomicInteger count = new AtomicInteger();
+		return r -> {
+			Thread thread = new Thread(r, prefix + "-" + count.incrementAndGet());
+			thread.setDaemon(true);
+			return thread;
+		};
+	}
+}
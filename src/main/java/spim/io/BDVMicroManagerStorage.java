@@ -33,25 +33,21 @@ import mpicbg.spim.data.sequence.TimePoint;
 import mpicbg.spim.data.sequence.TimePoints;
 import net.haesleinhuepf.clij.clearcl.ClearCLBuffer;
 import net.haesleinhuepf.clijx.CLIJx;
-import net.imglib2.Cursor;
 import net.imglib2.FinalDimensions;
 import net.imglib2.RandomAccessibleInterval;
 import net.imglib2.img.Img;
 import net.imglib2.img.display.imagej.ImageJFunctions;
-import net.imglib2.img.imageplus.ImagePlusImg;
-import net.imglib2.img.imageplus.ImagePlusImgs;
 import net.imglib2.realtransform.AffineTransform3D;
-import net.imglib2.type.NativeType;
-import net.imglib2.type.numeric.NumericType;
 import net.imglib2.type.numeric.integer.UnsignedByteType;
 import net.imglib2.type.numeric.integer.UnsignedShortType;
-import net.imglib2.view.IntervalView;
 import net.imglib2.view.Views;
 import org.janelia.saalfeldlab.n5.DataType;
 import org.janelia.saalfeldlab.n5.DatasetAttributes;
+import org.janelia.saalfeldlab.n5.Compression;
 import org.janelia.saalfeldlab.n5.GzipCompression;
 import org.janelia.saalfeldlab.n5.N5FSReader;
 import org.janelia.saalfeldlab.n5.N5FSWriter;
+import org.janelia.saalfeldlab.n5.N5Reader;
 import org.janelia.saalfeldlab.n5.imglib2.N5Utils;
 import org.micromanager.PropertyMap;
 import org.micromanager.PropertyMaps;
@@ -85,7 +81,6 @@ import java.util.Map;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ExecutionException;
 import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Executors;
 
 import static bdv.img.n5.BdvN5Format.DATA_TYPE_KEY;
 import static bdv.img.n5.BdvN5Format.DOWNSAMPLING_FACTORS_KEY;
@@ -95,7 +90,7 @@ import static bdv.img.n5.BdvN5Format.DOWNSAMPLING_FACTORS_KEY;
  * Organization: MPI-CBG Dresden
  * Date: August 2022
  */
-public class BDVMicroManagerStorage implements Storage {
+public class BDVMicroManagerStorage implements Storage, CodecSwitchable {
 	private static final HashSet<String> ALLOWED_AXES = new HashSet<String>(
 			Arrays.asList(Coords.CHANNEL, Coords.T, Coords.Z,
 					Coords.STAGE_POSITION, "view"));
@@ -106,6 +101,8 @@ public class BDVMicroManagerStorage implements Storage {
 	private boolean firstElement_;
 	private boolean amLoading_;
 	private HashMap<Integer, Writer> metadataStreams_;
+	// Coords, file name and metadata of the planes, see MetadataIndex
+	private MetadataIndex metadataIndex_;
 	private boolean isDatasetWritable_;
 	private SummaryMetadata summaryMetadata_ = (new DefaultSummaryMetadata.Builder()).build();
 	private ConcurrentHashMap<Coords, String> coordsToFilename_;
@@ -122,13 +119,15 @@ public class BDVMicroManagerStorage implements Storage {
 	int height;
 	N5FSWriter writer;
 	N5FSReader reader;
-	GzipCompression compression;
+	volatile Compression compression;
+	private volatile N5Codec codec_;
+	private volatile int codecLevel_;
 	ExecutorService exec;
+	BdvPyramidWriter pyramidWriter;
 	ImageStack[] imageStacks;
 	private HashMap<Coords, String> coordsMetadata_ = new HashMap<>();
 	private HashMap<String, ImageProcessor> cache_ = new HashMap<>();
 	private HashMap<Integer, Boolean> timeFinished_ = new HashMap<>();
-	private HashMap<String, RandomAccessibleInterval> impMap_ = new HashMap<>();
 	private HashMap<String, String> datasetList_ = new HashMap<>();
 
 
@@ -137,7 +136,13 @@ public class BDVMicroManagerStorage implements Storage {
 	private ArrayList< ViewRegistration > registrations = new ArrayList< ViewRegistration >();
 
 	public BDVMicroManagerStorage(DefaultDatastore store, String directory, String prefix, int channels, int timeSeqs, boolean newDataSet, boolean fusionChannel) throws IOException {
+		this(store, directory, prefix, channels, timeSeqs, newDataSet, fusionChannel, N5Codec.GZIP, N5Codec.GZIP.getDefaultLevel());
+	}
+
+	public BDVMicroManagerStorage(DefaultDatastore store, String directory, String prefix, int channels, int timeSeqs, boolean newDataSet, boolean fusionChannel, N5Codec codec, int codecLevel) throws IOException {
 		store_ = store;
+		codec_ = codec;
+		codecLevel_ = codecLevel;
 		dir_ = directory;
 		prefix_ = prefix;
 
@@ -182,7 +187,9 @@ public class BDVMicroManagerStorage implements Storage {
 
 		reader = new N5FSReader( dir_ + "/" + prefix_ + ".n5" );
 		compression = new GzipCompression();
-		exec = Executors.newFixedThreadPool(10);
+		exec = IOScheduler.getInstance().getBlockPool();
+
+		metadataIndex_ = MetadataIndex.open(dir_, prefix_);
 
 		for (int positionIndex = 0; positionIndex < positions.size();
 			 ++positionIndex) {
@@ -199,6 +206,14 @@ public class BDVMicroManagerStorage implements Storage {
 									data.get(PropertyKey.SUMMARY.key())));
 				}
 
+				if (metadataIndex_ != null) {
+					// The metadata of the planes is read when they are asked for
+					for (MetadataIndex.Record record : metadataIndex_.getRecords()) {
+						loadImage(record.getCoords(), record.getFileName());
+					}
+					continue;
+				}
+
 				// We have two methods to recover the image coordinates from the
 				// metadata. The old 1.4 method uses a "FrameKey" key that holds
 				// the time, channel, and Z indices specifically, and stows all
@@ -230,21 +245,7 @@ public class BDVMicroManagerStorage implements Storage {
 					else if (key.startsWith("Metadata-")) { // Possibly "Metadata-*"
 						// Not a key we can extract useful information from.
 						coordsMetadata_.put(coords, entry.getValue().getAsJsonObject().toString());
-
-						try {
-							// TODO: omitting pixel type information.
-//							if (!(new File(dir_ + "/" + fileName)).exists()) {
-//								ReportingUtils.logError("For key " + key + " tried to find file at " + fileName + " but it did not exist");
-//							}
-							// This will update our internal records without touching
-							// the disk, as amLoading_ is true.
-							coordsToFilename_.put(coords, fileName);
-							datasetList_.put(fileName, fileName);
-							Image image = getImage(coords);
-							putImage(image);
-						} catch (Exception ex) {
-							ReportingUtils.showError(ex);
-						}
+						loadImage(coords, fileName);
 					}
 				}
 			} catch (NumberFormatException ex) {
@@ -254,6 +255,22 @@ public class BDVMicroManagerStorage implements Storage {
 		amLoading_ = false;
 	}
 
+	@SuppressWarnings("Duplicates")
+	private void loadImage(Coords coords, String fileName) {
+		timeFinished_.put(coords.getT(), true);
+		try {
+			// TODO: omitting pixel type information.
+			// This will update our internal records without touching
+			// the disk, as amLoading_ is true.
+			coordsToFilename_.put(coords, fileName);
+			datasetList_.put(fileName, fileName);
+			Image image = getImage(coords);
+			putImage(image);
+		} catch (Exception ex) {
+			ReportingUtils.showError(ex);
+		}
+	}
+
 	@Override
 	public void freeze() throws IOException {
 		closeMetadataStreams();
@@ -292,6 +309,10 @@ public class BDVMicroManagerStorage implements Storage {
 
 		isDatasetWritable_ = false;
 
+		if(pyramidWriter != null) {
+			pyramidWriter.close();
+		}
+
 		if(writer != null) {
 			writer.close();
 
@@ -468,9 +489,6 @@ public class BDVMicroManagerStorage implements Storage {
 			String pathName = BdvN5Format.getPathName(setupId);
 			if (writer != null) {
 				writer.createGroup( pathName );
-
-				final int[][] factors = { {1, 1, 1} };
-				writer.setAttribute( pathName, DOWNSAMPLING_FACTORS_KEY, factors );
 				writer.setAttribute( pathName, DATA_TYPE_KEY, bytesPerPixel == 1 ? DataType.UINT8 : DataType.UINT16 );
 
 				final double pixelSizeUm = image.getMetadata().getPixelSizeUm();
@@ -492,6 +510,10 @@ public class BDVMicroManagerStorage implements Storage {
 				final ExportMipmapInfo autoMipmapSettings = ProposeMipmaps.proposeMipmaps( new BasicViewSetup( 0, "", size, voxelSize ) );
 				perSetupExportMipmapInfo.put(setupId, autoMipmapSettings );
 
+				// All the proposed levels are announced upfront, the lower ones
+				// are filled in by the pyramid writer after the stack is saved.
+				writer.setAttribute( pathName, DOWNSAMPLING_FACTORS_KEY, autoMipmapSettings.getExportResolutions() );
+
 				double zUnit = 1.524d;
 				if (pixelSizeUm != 0d) {
 					zUnit = zStepSize / pixelSizeUm;
@@ -526,6 +548,7 @@ public class BDVMicroManagerStorage implements Storage {
 				writer.createDataset(dataset, attributes);
 				final int[] downsamplingFactor = {1, 1, 1};
 				writer.setAttribute( dataset, DOWNSAMPLING_FACTORS_KEY, downsamplingFactor );
+				pyramidWriter.createLevels(setupId, time, dimensions, attributes.getDataType(), perSetupExportMipmapInfo.get(setupId));
 			}
 			datasetList_.put(dataset, dataset);
 
@@ -553,6 +576,7 @@ public class BDVMicroManagerStorage implements Storage {
 						} catch (Exception e) {
 							e.printStackTrace();
 						}
+						pyramidWriter.submit(setupId, time, imageStacks[channel], perSetupExportMipmapInfo.get(setupId));
 					}
 				}
 
@@ -561,6 +585,7 @@ public class BDVMicroManagerStorage implements Storage {
 				if(fusionChannel_ && coords.getC() % 2 == 1)
 				{
 					int nChannels = coords.getC();
+					ImagePlus fused = null;
 					for(int i = 0; i < 2; i++) {
 						CLIJx clijx = CLIJx.getInstance();
 						ClearCLBuffer gpu_input1 = clijx.push(new ImagePlus("gpu_input", imageStacks[nChannels]));
@@ -583,6 +608,7 @@ public class BDVMicroManagerStorage implements Storage {
 						// uncomment the below if you want to see the result
 						ImagePlus imp_output = clijx.pull(gpu_output);
 						imp_output.setTitle("t=" + time + "/angle=" + angle);
+						fused = imp_output;
 						// imp_output.getProcessor().resetMinAndMax();
 						// imp_output.show();
 
@@ -612,6 +638,10 @@ public class BDVMicroManagerStorage implements Storage {
 							}
 						}
 					}
+
+					if (writer != null && fused != null) {
+						pyramidWriter.submit(setupId, time, fused.getStack(), perSetupExportMipmapInfo.get(setupId));
+					}
 				}
 				if(coords.getC() == channels - 1) {
 					// Save SpimData format for N5 storage
@@ -625,6 +655,9 @@ public class BDVMicroManagerStorage implements Storage {
 			}
 
 			if(coords.getC() == image.getMetadata().getUserData().getInteger("Channels", 1) - 1) {
+				if (writer != null) {
+					N5BlockCache.getInstance().invalidate(n5Root(), dataset);
+				}
 				timeFinished_.put(time, true);
 			}
 		}
@@ -714,7 +747,6 @@ public class BDVMicroManagerStorage implements Storage {
 			}
 
 			imageStacks[coords.getC()].addSlice(ip);
-			coordsMetadata_.put(coords, metadataJSON);
 		} catch (IllegalArgumentException ex) {
 			ReportingUtils.logError(ex);
 		}
@@ -768,14 +800,32 @@ public class BDVMicroManagerStorage implements Storage {
 		PropertyKey.IJ_TYPE.storeInGsonObject(formatPmap, jo);
 		PropertyKey.PIXEL_TYPE.storeInGsonObject(formatPmap, jo);
 		jo.add("StorageType", new JsonPrimitive(StorageType.BDV.name()));
+		jo.add("Compression", new JsonPrimitive(codec_.name()));
+		jo.add("CompressionLevel", new JsonPrimitive(codecLevel_));
 		Gson gson = new GsonBuilder().disableHtmlEscaping().
 				setPrettyPrinting().create();
 		writeJSONMetadata(pos, gson.toJson(jo), "Summary");
+		metadataIndex_ = MetadataIndex.create(dir_, prefix_);
 
 		// Writer
 		writer = new N5FSWriter( dir_ + "/" + prefix_ + ".n5" );
-		compression = new GzipCompression();
-		exec = Executors.newFixedThreadPool(10);
+		compression = codec_.create(codecLevel_);
+		exec = IOScheduler.getInstance().getBlockPool();
+		pyramidWriter = new BdvPyramidWriter(writer, compression);
+	}
+
+	@Override
+	public N5Codec getCodec() {
+		return codec_;
+	}
+
+	@Override
+	public void switchCodec(N5Codec codec, int level) {
+		codecLevel_ = level;
+		codec_ = codec;
+		compression = codec.create(level);
+		if (pyramidWriter != null) pyramidWriter.setCompression(compression);
+		ReportingUtils.logMessage("BDV storage switched to " + codec + " for the next stacks");
 	}
 
 	@SuppressWarnings("Duplicates")
@@ -816,23 +866,8 @@ public class BDVMicroManagerStorage implements Storage {
 	private void writeFrameMetadata(final Image image, final String metadataJSON,
 									final String fileName) {
 		try {
-			String coords = image.getCoords().toString();
-			String coordsKey = "Coords-" + coords;
-
-			// Use 0 for situations where there's no index information.
-//			int pos = Math.max(0, image.getCoords().getStagePosition());
-			int pos = 0;
-			JsonObject jo = new JsonObject();
-			NonPropertyMapJSONFormats.coords().addToGson(jo,
-					((DefaultCoords) image.getCoords()).toPropertyMap());
-			jo.add("FileName", new JsonPrimitive(fileName));
-
-			Gson gson = new GsonBuilder().disableHtmlEscaping().
-					setPrettyPrinting().create();
-			writeJSONMetadata(pos, gson.toJson(jo), coordsKey);
-
-			String mdKey = "Metadata-" + coords;
-			writeJSONMetadata(pos, metadataJSON, mdKey);
+			// The Summary stays in the JSON, the planes go to the binary index
+			metadataIndex_.append(image.getCoords(), fileName, image.getCoords().getZ(), metadataJSON);
 		} catch (Exception ex) {
 			ReportingUtils.logError(ex);
 		}
@@ -847,8 +882,6 @@ public class BDVMicroManagerStorage implements Storage {
 			return null;
 		}
 
-		String dataset = coordsToFilename_.get(coords);
-
 		int c = coords.getC();
 		int z = coords.getZ();
 		int t = coords.getT();
@@ -863,85 +896,56 @@ public class BDVMicroManagerStorage implements Storage {
 			}
 		}
 
-		if(!impMap_.containsKey(dataset)) {
-			try {
-				RandomAccessibleInterval rai = (writer != null) ? N5Utils.open(writer, dataset) : N5Utils.open(reader, dataset);
-				impMap_.put(dataset, rai);
-			} catch (IOException e) {
-				e.printStackTrace();
-			}
-		}
-
 		return makeDefaultImage(coords, getProcessor(coords));
 	}
 
 	@SuppressWarnings("Duplicates")
-	< T extends NumericType< T > & NativeType< T >> ImageProcessor getProcessor(Coords coords) {
-
+	ImageProcessor getProcessor(Coords coords) {
 		String dataset = coordsToFilename_.get(coords);
+		N5Reader n5 = (writer != null) ? writer : reader;
 
-		int z = coords.getZ();
-
-		RandomAccessibleInterval<T> rai = impMap_.get(dataset);
-
-		DatasetAttributes attributes = null;
+		final Object pixels;
+		final long[] dims;
+		final DataType dataType;
 		try {
-			if(writer != null)
-				attributes = writer.getDatasetAttributes(dataset);
-			else if(reader != null)
-				attributes = reader.getDatasetAttributes(dataset);
+			N5BlockCache blockCache = N5BlockCache.getInstance();
+			DatasetAttributes attributes = blockCache.getAttributes(n5, n5Root(), dataset);
+			dims = attributes.getDimensions();
+			dataType = attributes.getDataType();
+			// x, y, z
+			pixels = blockCache.readPlane(n5, n5Root(), dataset, new long[] {0, 0, coords.getZ()}, 2);
 		} catch (IOException e) {
-			e.printStackTrace();
+			ReportingUtils.logError(e, "Failed to read " + coords + " from " + dataset);
+			return null;
 		}
 
-		final long[] dims = attributes.getDimensions();
-		final long[] dimensions = new long[] {dims[0], dims[1], 1};
-
-		final ImagePlusImg<T, ?> impImg;
-		switch (attributes.getDataType()) {
+		final int w = (int) dims[0];
+		final int h = (int) dims[1];
+		switch (dataType) {
 			case UINT8:
-				impImg = (ImagePlusImg) ImagePlusImgs.unsignedBytes(dimensions);
-				break;
 			case INT8:
-				impImg = (ImagePlusImg)ImagePlusImgs.bytes(dimensions);
-				break;
+				return new ByteProcessor(w, h, (byte[]) pixels);
 			case UINT16:
-				impImg = (ImagePlusImg)ImagePlusImgs.unsignedShorts(dimensions);
-				break;
 			case INT16:
-				impImg = (ImagePlusImg)ImagePlusImgs.shorts(dimensions);
-				break;
-			case UINT32:
-				impImg = (ImagePlusImg)ImagePlusImgs.unsignedInts(dimensions);
-				break;
-			case INT32:
-				impImg = (ImagePlusImg)ImagePlusImgs.ints(dimensions);
-				break;
+				return new ShortProcessor(w, h, (short[]) pixels, null);
 			case FLOAT32:
-				impImg = (ImagePlusImg) ImagePlusImgs.floats(dimensions);
-				break;
+				return new FloatProcessor(w, h, (float[]) pixels);
 			default:
-				System.err.println("Data type " + attributes.getDataType() + " not supported in ImageJ.");
+				System.err.println("Data type " + dataType + " not supported in ImageJ.");
 				return null;
 		}
+	}
 
-		//long[] dimensions = new long[] {width, height, depth};
-		long[] offset = new long[dims.length];
-		offset[2] = z;
-		dims[2] = 1;
-
-		IntervalView v = Views.offsetInterval(rai, offset, dims);
-
-		final Cursor<T> cursor = v.cursor();
-		final Cursor<T> impCursor = impImg.cursor();
-
-		while(cursor.hasNext()) {
-			cursor.fwd();
-			impCursor.fwd();
-			impCursor.get().set(cursor.get());
-		}
+	private String n5Root() {
+		return dir_ + "/" + prefix_ + ".n5";
+	}
 
-		return impImg.getImagePlus().getProcessor();
+	private String getMetadataJSON(Coords coords) {
+		// Datasets written before the plane index keep the metadata in the JSON
+		String metadataJSON = coordsMetadata_.get(coords);
+		if (metadataJSON == null && metadataIndex_ != null)
+			metadataJSON = metadataIndex_.readMetadata(coords);
+		return metadataJSON;
 	}
 
 	@SuppressWarnings("Duplicates")
@@ -949,7 +953,7 @@ public class BDVMicroManagerStorage implements Storage {
 		Metadata metadata;
 
 		try {
-			String metadataJSON = coordsMetadata_.get(coords);
+			String metadataJSON = getMetadataJSON(coords);
 			metadata = DefaultMetadata.fromPropertyMap(
 					NonPropertyMapJSONFormats.metadata().
 							fromJSON(metadataJSON));
@@ -1077,6 +1081,6 @@ public class BDVMicroManagerStorage implements Storage {
 
 	@Override
 	public void close() throws IOException {
-		// We don't maintain any state that needs to be cleaned up.
+		if (metadataIndex_ != null) metadataIndex_.close();
 	}
 }
@@ -0,0 +1,318 @@
+package spim.io;
+
+import bdv.export.ExportMipmapInfo;
+import bdv.img.n5.BdvN5Format;
+import ij.ImageStack;
+import org.janelia.saalfeldlab.n5.ByteArrayDataBlock;
+import org.janelia.saalfeldlab.n5.Compression;
+import org.janelia.saalfeldlab.n5.DataBlock;
+import org.janelia.saalfeldlab.n5.DataType;
+import org.janelia.saalfeldlab.n5.DatasetAttributes;
+import org.janelia.saalfeldlab.n5.N5Writer;
+import org.janelia.saalfeldlab.n5.ShortArrayDataBlock;
+import org.micromanager.internal.utils.ReportingUtils;
+import spim.util.PixelBufferPool;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import static bdv.img.n5.BdvN5Format.DOWNSAMPLING_FACTORS_KEY;
+
+/**
+ * Description: Writes the lower resolution levels of a BDV N5 setup/timepoint
+ * in the background once its full resolution stack is complete.
+ * Every level is box-averaged from the previous one in memory, so the full
+ * resolution is never read back from the disk. The levels of one stack are
+ * computed on a writer lane, while the z ranges and the blocks of each level
+ * are processed in parallel on the shared block pool. The planes of the levels
+ * and the block arrays are borrowed from the PixelBufferPool.
+ *
+ * Author: HongKee Moon (moon@mpi-cbg.de), Scientific Computing Facility
+ * Organization: MPI-CBG Dresden
+ * Date: October 2026
+ */
+public class BdvPyramidWriter {
+	private final N5Writer writer;
+	private volatile Compression compression;
+	private final ExecutorService blockPool;
+	private final ExecutorService lane;
+
+	public BdvPyramidWriter(N5Writer writer, Compression compression) {
+		this.writer = writer;
+		this.compression = compression;
+		this.blockPool = IOScheduler.getInstance().getBlockPool();
+		this.lane = IOScheduler.getInstance().newLane("uOpenSPIM-BDV-pyramid");
+	}
+
+	/**
+	 * @param compression the compression of the datasets created from now on
+	 */
+	public void setCompression(Compression compression) {
+		this.compression = compression;
+	}
+
+	/**
+	 * Creates the datasets of the levels below the full resolution with their
+	 * BDV attributes, so that the layout is complete before the data arrives.
+	 *
+	 * @param setupId the setup id
+	 * @param timepoint the timepoint
+	 * @param dimensions the dimensions of the full resolution
+	 * @param dataType the data type
+	 * @param mipmapInfo the mipmap levels of the setup
+	 * @throws IOException the io exception
+	 */
+	public void createLevels(int setupId, int timepoint, long[] dimensions, DataType dataType, ExportMipmapInfo mipmapInfo) throws IOException {
+		final int[][] resolutions = mipmapInfo.getExportResolutions();
+		final int[][] subdivisions = mipmapInfo.getSubdivisions();
+
+		long[] dims = dimensions.clone();
+		for (int level = 1; level < resolutions.length; level++) {
+			dims = levelDimensions(dims, relativeFactors(resolutions, level));
+
+			final String dataset = BdvN5Format.getPathName(setupId, timepoint, level);
+			writer.createDataset(dataset, new DatasetAttributes(dims, subdivisions[level], dataType, compression));
+			writer.setAttribute(dataset, DOWNSAMPLING_FACTORS_KEY, resolutions[level]);
+		}
+	}
+
+	/**
+	 * Queues the computation of the lower levels from the full resolution stack.
+	 *
+	 * @param setupId the setup id
+	 * @param timepoint the timepoint
+	 * @param stack the full resolution stack, which must not be modified afterwards
+	 * @param mipmapInfo the mipmap levels of the setup
+	 * @return the future of the pyramid
+	 */
+	public Future<?> submit(final int setupId, final int timepoint, final ImageStack stack, final ExportMipmapInfo mipmapInfo) {
+		return lane.submit(() -> {
+			try {
+				writePyramid(setupId, timepoint, stack, mipmapInfo);
+			} catch (IOException | InterruptedException | ExecutionException e) {
+				ReportingUtils.logError(e, "Failed to write the pyramid of setup " + setupId + " timepoint " + timepoint);
+			}
+		});
+	}
+
+	/**
+	 * Waits until all the queued pyramids are written and stops the lane.
+	 */
+	public void close() {
+		lane.shutdown();
+		try {
+			lane.awaitTermination(Long.MAX_VALUE, TimeUnit.MILLISECONDS);
+		} catch (InterruptedException e) {
+			ReportingUtils.logError(e, "Interrupted while waiting for the pyramids to be written");
+		}
+	}
+
+	private void writePyramid(int setupId, int timepoint, ImageStack stack, ExportMipmapInfo mipmapInfo) throws IOException, InterruptedException, ExecutionException {
+		final int[][] resolutions = mipmapInfo.getExportResolutions();
+		if (resolutions.length < 2)
+			return;
+
+		final boolean unsignedByte = stack.getPixels(1) instanceof byte[];
+		if (!unsignedByte && !(stack.getPixels(1) instanceof short[])) {
+			ReportingUtils.logError("The pyramid supports only 8-bit and 16-bit stacks, setup " + setupId + " is skipped");
+			return;
+		}
+		long[] dims = new long[] {stack.getWidth(), stack.getHeight(), stack.getSize()};
+		final PixelBufferPool pool = PixelBufferPool.getInstance();
+
+		// Unsigned values of the full resolution, one array per plane
+		short[][] planes = new short[stack.getSize()][];
+		// The pooled planes of the level the next one is computed from
+		PixelBufferPool.Buffer[] held = new PixelBufferPool.Buffer[planes.length];
+		try {
+			for (int z = 0; z < planes.length; z++) {
+				final Object pixels = stack.getPixels(z + 1);
+				if (unsignedByte) {
+					final byte[] bytes = (byte[]) pixels;
+					held[z] = pool.borrow(PixelBufferPool.Type.SHORT, bytes.length);
+					final short[] plane = (short[]) held[z].getPixels();
+					for (int i = 0; i < bytes.length; i++)
+						plane[i] = (short) (bytes[i] & 0xff);
+					planes[z] = plane;
+				} else {
+					planes[z] = (short[]) pixels;
+				}
+			}
+
+			for (int level = 1; level < resolutions.length; level++) {
+				final int[] factors = relativeFactors(resolutions, level);
+				final long[] outDims = levelDimensions(dims, factors);
+
+				final PixelBufferPool.Buffer[] buffers = downsample(pool, planes, (int) dims[0], (int) dims[1], outDims, factors);
+				release(held);
+				held = buffers;
+				planes = new short[buffers.length][];
+				for (int z = 0; z < planes.length; z++)
+					planes[z] = (short[]) buffers[z].getPixels();
+
+				final String dataset = BdvN5Format.getPathName(setupId, timepoint, level);
+				writeBlocks(pool, dataset, writer.getDatasetAttributes(dataset), planes, outDims, unsignedByte);
+
+				dims = outDims;
+			}
+		} finally {
+			release(held);
+		}
+	}
+
+	private static void release(PixelBufferPool.Buffer[] buffers) {
+		for (PixelBufferPool.Buffer buffer : buffers)
+			if (buffer != null)
+				buffer.release();
+	}
+
+	private PixelBufferPool.Buffer[] downsample(final PixelBufferPool pool, final short[][] in, final int inWidth, final int inHeight,
+												final long[] outDims, final int[] f) throws InterruptedException, ExecutionException {
+		final int outWidth = (int) outDims[0];
+		final int outHeight = (int) outDims[1];
+		final PixelBufferPool.Buffer[] out = new PixelBufferPool.Buffer[(int) outDims[2]];
+
+		final List<Future<?>> futures = new ArrayList<>();
+		for (int oz = 0; oz < out.length; oz++) {
+			final int z = oz;
+			futures.add(blockPool.submit(() -> {
+				// Every pixel of the pooled plane is overwritten, it is kept in out[] to be released on failure
+				final PixelBufferPool.Buffer buffer = pool.borrow(PixelBufferPool.Type.SHORT, outWidth * outHeight);
+				out[z] = buffer;
+				final short[] plane = (short[]) buffer.getPixels();
+				// A dimension smaller than its factor keeps a single pixel
+				final int nz = Math.min(f[2], in.length - z * f[2]);
+				for (int oy = 0; oy < outHeight; oy++) {
+					final int ny = Math.min(f[1], inHeight - oy * f[1]);
+					for (int ox = 0; ox < outWidth; ox++) {
+						final int nx = Math.min(f[0], inWidth - ox * f[0]);
+						final int count = nx * ny * nz;
+						long sum = 0;
+						for (int dz = 0; dz < nz; dz++) {
+							final short[] src = in[z * f[2] + dz];
+							for (int dy = 0; dy < ny; dy++) {
+								final int offset = (oy * f[1] + dy) * inWidth + ox * f[0];
+								for (int dx = 0; dx < nx; dx++)
+									sum += src[offset + dx] & 0xffff;
+							}
+						}
+						plane[oy * outWidth + ox] = (short) ((sum + count / 2) / count);
+					}
+				}
+			}));
+		}
+
+		boolean done = false;
+		try {
+			waitFor(futures);
+			done = true;
+			return out;
+		} finally {
+			if (!done) {
+				// The planes borrowed by the tasks go back to the pool once none of them runs anymore
+				cancelAndWait(futures);
+				release(out);
+			}
+		}
+	}
+
+	private void writeBlocks(final PixelBufferPool pool, final String dataset, final DatasetAttributes attributes, final short[][] planes,
+							 final long[] dims, final boolean unsignedByte) throws InterruptedException, ExecutionException {
+		final int[] blockSize = attributes.getBlockSize();
+		final int width = (int) dims[0];
+
+		final List<Future<?>> futures = new ArrayList<>();
+		for (long bz = 0; bz * blockSize[2] < dims[2]; bz++) {
+			for (long by = 0; by * blockSize[1] < dims[1]; by++) {
+				for (long bx = 0; bx * blockSize[0] < dims[0]; bx++) {
+					final long[] gridPosition = new long[] {bx, by, bz};
+					futures.add(blockPool.submit(() -> {
+						final int[] size = new int[3];
+						final int[] min = new int[3];
+						for (int d = 0; d < 3; d++) {
+							min[d] = (int) gridPosition[d] * blockSize[d];
+							size[d] = (int) Math.min(blockSize[d], dims[d] - min[d]);
+						}
+
+						final int n = size[0] * size[1] * size[2];
+						// The block is serialized by writeBlock, so its array goes back to the pool right after
+						final PixelBufferPool.Buffer buffer = pool.borrow(unsignedByte ? PixelBufferPool.Type.BYTE : PixelBufferPool.Type.SHORT, n);
+						final short[] shorts = unsignedByte ? null : (short[]) buffer.getPixels();
+						final byte[] bytes = unsignedByte ? (byte[]) buffer.getPixels() : null;
+						int i = 0;
+						for (int z = 0; z < size[2]; z++) {
+							final short[] plane = planes[min[2] + z];
+							for (int y = 0; y < size[1]; y++) {
+								final int offset = (min[1] + y) * width + min[0];
+								if (unsignedByte) {
+									for (int x = 0; x < size[0]; x++)
+										bytes[i++] = (byte) plane[offset + x];
+								} else {
+									System.arraycopy(plane, offset, shorts, i, size[0]);
+									i += size[0];
+								}
+							}
+						}
+
+						final DataBlock<?> block = unsignedByte ?
+								new ByteArrayDataBlock(size, gridPosition, bytes) :
+								new ShortArrayDataBlock(size, gridPosition, shorts);
+						try {
+							writer.writeBlock(dataset, attributes, block);
+						} catch (IOException e) {
+							ReportingUtils.logError(e, "Failed to write the block " + gridPosition[0] + "," + gridPosition[1] + "," + gridPosition[2] + " of " + dataset);
+						} finally {
+							buffer.release();
+						}
+					}));
+				}
+			}
+		}
+		waitFor(futures);
+	}
+
+	private static void waitFor(List<Future<?>> futures) throws InterruptedException, ExecutionException {
+		for (Future<?> future : futures)
+			future.get();
+	}
+
+	private static void cancelAndWait(List<Future<?>> futures) {
+		for (Future<?> future : futures)
+			future.cancel(false);
+		boolean interrupted = false;
+		for (Future<?> future : futures) {
+			while (true) {
+				try {
+					future.get();
+					break;
+				} catch (InterruptedException e) {
+					interrupted = true;
+				} catch (ExecutionException | CancellationException e) {
+					break;
+				}
+			}
+		}
+		if (interrupted)
+			Thread.currentThread().interrupt();
+	}
+
+	private static int[] relativeFactors(int[][] resolutions, int level) {
+		final int[] factors = new int[resolutions[level].length];
+		for (int d = 0; d < factors.length; d++)
+			factors[d] = Math.max(1, resolutions[level][d] / resolutions[level - 1][d]);
+		return factors;
+	}
+
+	private static long[] levelDimensions(long[] dims, int[] factors) {
+		final long[] levelDims = new long[dims.length];
+		for (int d = 0; d < dims.length; d++)
+			levelDims[d] = Math.max(1, dims[d] / factors[d]);
+		return levelDims;
+	}
+}
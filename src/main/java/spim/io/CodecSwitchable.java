@@ -0,0 +1,23 @@
+package spim.io;
+
+/**
+ * Description: A storage whose compression can be changed while it is written.
+ * The datasets created afterwards use the new codec, the ones already created
+ * keep theirs. Only a storage which creates a new N5 dataset for every stack,
+ * like the BDV one with a dataset per setup and time point, can implement it.
+ * A dataset spanning all time points records one compression for all of its
+ * blocks, so it must keep its codec for the whole run.
+ *
+ * Author: HongKee Moon (moon@mpi-cbg.de), Scientific Computing Facility
+ * Organization: MPI-CBG Dresden
+ * Date: October 2026
+ */
+public interface CodecSwitchable {
+	N5Codec getCodec();
+
+	/**
+	 * @param codec the codec of the next datasets
+	 * @param level the compression level
+	 */
+	void switchCodec(N5Codec codec, int level);
+}
@@ -0,0 +1,64 @@
+package spim.io;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Description: Shared I/O threads for the storages.
+ * The block pool encodes and writes N5 blocks for every open dataset, while
+ * each writer lane is a single thread keeping the order of its own submissions.
+ * All threads are daemons so that a dataset left open does not keep the JVM alive.
+ *
+ * Author: HongKee Moon (moon@mpi-cbg.de), Scientific Computing Facility
+ * Organization: MPI-CBG Dresden
+ * Date: October 2026
+ */
+public class IOScheduler {
+	private static IOScheduler instance;
+
+	private final ExecutorService blockPool;
+	private final AtomicInteger laneCount = new AtomicInteger();
+
+	private IOScheduler() {
+		final int threads = Math.max(2, Runtime.getRuntime().availableProcessors());
+		blockPool = Executors.newFixedThreadPool(threads, daemonThreadFactory("uOpenSPIM-io-block"));
+	}
+
+	public static synchronized IOScheduler getInstance() {
+		if (instance == null)
+			instance = new IOScheduler();
+		return instance;
+	}
+
+	/**
+	 * The pool used for encoding and writing the blocks of a dataset in parallel.
+	 * It is shared, so the callers must not shut it down.
+	 *
+	 * @return the block pool
+	 */
+	public ExecutorService getBlockPool() {
+		return blockPool;
+	}
+
+	/**
+	 * Creates a single-threaded lane which runs its tasks in submission order.
+	 * The owner shuts it down when it is done with it.
+	 *
+	 * @param name the name of the lane thread
+	 * @return the lane
+	 */
+	public ExecutorService newLane(String name) {
+		return Executors.newSingleThreadExecutor(daemonThreadFactory(name + "-" + laneCount.incrementAndGet()));
+	}
+
+	private static ThreadFactory daemonThreadFactory(final String prefix) {
+		final AtomicInteger count = new AtomicInteger();
+		return r -> {
+			Thread thread = new Thread(r, prefix + "-" + count.incrementAndGet());
+			thread.setDaemon(true);
+			return thread;
+		};
+	}
+}
@@ -0,0 +1,472 @@
+package spim.io;
+
+import com.google.gson.Gson;
+import com.google.gson.GsonBuilder;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParser;
+import com.google.gson.JsonPrimitive;
+import org.micromanager.data.Coords;
+import org.micromanager.data.internal.DefaultCoords;
+import org.micromanager.internal.propertymap.NonPropertyMapJSONFormats;
+import org.micromanager.internal.utils.ReportingUtils;
+
+import java.io.BufferedWriter;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.CRC32;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**
+ * Description: Append-only binary index of the planes of a dataset.
+ * It replaces the "Coords-" and "Metadata-" entries of prefix_metadata.txt,
+ * which keeps only the Summary. prefix_metadata.idx holds one record per plane
+ * (coords, file or dataset name, plane offset and the position of its metadata)
+ * and prefix_metadata.dat holds the plane metadata, deflated. The large members
+ * of the metadata, e.g. the scope data, are stored once and referenced by the
+ * planes sharing them. Every record carries a CRC32, so a torn tail left by a
+ * crash is detected and dropped when the index is opened again. The metadata is
+ * read only when a plane asks for it, and the legacy JSON can be exported.
+ *
+ * Author: HongKee Moon (moon@mpi-cbg.de), Scientific Computing Facility
+ * Organization: MPI-CBG Dresden
+ * Date: October 2026
+ */
+public class MetadataIndex {
+	private static final int INDEX_MAGIC = 0x4D4D5049; // "MMPI"
+	private static final int DATA_MAGIC = 0x4D4D504D; // "MMPM"
+	private static final int VERSION = 1;
+	private static final int HEADER_SIZE = 8;
+
+	// Members serialized larger than this are shared between the planes
+	private static final int SHARED_MEMBER_SIZE = 256;
+	private static final String REF_PREFIX = "@ref:";
+	private static final int MAX_SHARED_ENTRIES = 1024;
+
+	public static class Record {
+		private final Coords coords;
+		private final String fileName;
+		private final long offset;
+		private final long metadataOffset;
+
+		Record(Coords coords, String fileName, long offset, long metadataOffset) {
+			this.coords = coords;
+			this.fileName = fileName;
+			this.offset = offset;
+			this.metadataOffset = metadataOffset;
+		}
+
+		public Coords getCoords() {
+			return coords;
+		}
+
+		/**
+		 * @return the file or the dataset the plane is stored in
+		 */
+		public String getFileName() {
+			return fileName;
+		}
+
+		/**
+		 * @return the index of the plane inside its file or dataset
+		 */
+		public long getOffset() {
+			return offset;
+		}
+	}
+
+	private final RandomAccessFile index_;
+	private final RandomAccessFile data_;
+	private final boolean writable_;
+	private final List<Record> records_ = new ArrayList<>();
+	private final HashMap<Coords, Record> recordMap_ = new HashMap<>();
+
+	// serialized member -> offset of its blob, for the deduplication while writing
+	private final LinkedHashMap<String, Long> sharedOffsets_ = new LinkedHashMap<String, Long>(256, 0.75f, true) {
+		@Override
+		protected boolean removeEldestEntry(Map.Entry<String, Long> eldest) {
+			return size() > MAX_SHARED_ENTRIES;
+		}
+	};
+	// offset -> shared member, for the reading
+	private final LinkedHashMap<Long, JsonElement> sharedCache_ = new LinkedHashMap<Long, JsonElement>(256, 0.75f, true) {
+		@Override
+		protected boolean removeEldestEntry(Map.Entry<Long, JsonElement> eldest) {
+			return size() > MAX_SHARED_ENTRIES;
+		}
+	};
+
+	private MetadataIndex(RandomAccessFile index, RandomAccessFile data, boolean writable) {
+		index_ = index;
+		data_ = data;
+		writable_ = writable;
+	}
+
+	public static File indexFile(String dir, String prefix) {
+		return new File(dir, prefix + "_metadata.idx");
+	}
+
+	public static File dataFile(String dir, String prefix) {
+		return new File(dir, prefix + "_metadata.dat");
+	}
+
+	public static boolean exists(String dir, String prefix) {
+		return indexFile(dir, prefix).exists() && dataFile(dir, prefix).exists();
+	}
+
+	/**
+	 * Creates an empty index for a new dataset, replacing any previous one.
+	 *
+	 * @param dir the dataset directory
+	 * @param prefix the dataset prefix
+	 * @return the writable index
+	 * @throws IOException the io exception
+	 */
+	public static MetadataIndex create(String dir, String prefix) throws IOException {
+		RandomAccessFile index = new RandomAccessFile(indexFile(dir, prefix), "rw");
+		RandomAccessFile data = new RandomAccessFile(dataFile(dir, prefix), "rw");
+		index.setLength(0);
+		data.setLength(0);
+		index.writeInt(INDEX_MAGIC);
+		index.writeInt(VERSION);
+		data.writeInt(DATA_MAGIC);
+		data.writeInt(VERSION);
+		return new MetadataIndex(index, data, true);
+	}
+
+	/**
+	 * Opens the index of an existing dataset. The records after the first
+	 * incomplete or corrupted one are dropped, and cut off the file when it is
+	 * writable so that the index stays valid.
+	 *
+	 * @param dir the dataset directory
+	 * @param prefix the dataset prefix
+	 * @return the index, or null if the dataset has none
+	 * @throws IOException the io exception
+	 */
+	public static MetadataIndex open(String dir, String prefix) throws IOException {
+		if (!exists(dir, prefix))
+			return null;
+
+		final File indexFile = indexFile(dir, prefix);
+		final boolean canRepair = indexFile.canWrite();
+		RandomAccessFile index = new RandomAccessFile(indexFile, canRepair ? "rw" : "r");
+		RandomAccessFile data = new RandomAccessFile(dataFile(dir, prefix), "r");
+
+		MetadataIndex metadataIndex = new MetadataIndex(index, data, false);
+		try {
+			checkHeader(index, INDEX_MAGIC, indexFile);
+			checkHeader(data, DATA_MAGIC, dataFile(dir, prefix));
+			metadataIndex.readRecords(canRepair);
+		} catch (IOException e) {
+			metadataIndex.close();
+			throw e;
+		}
+		return metadataIndex;
+	}
+
+	private static void checkHeader(RandomAccessFile file, int magic, File path) throws IOException {
+		file.seek(0);
+		if (file.length() < HEADER_SIZE || file.readInt() != magic)
+			throw new IOException(path + " is not a plane metadata index");
+		final int version = file.readInt();
+		if (version > VERSION)
+			throw new IOException(path + " has the unsupported version " + version);
+	}
+
+	private void readRecords(boolean repair) throws IOException {
+		final long length = index_.length();
+		long position = HEADER_SIZE;
+		index_.seek(position);
+
+		while (position < length) {
+			final byte[] payload;
+			try {
+				payload = readFrame(index_, length - position);
+			} catch (EOFException e) {
+				break;
+			}
+			if (payload == null)
+				break;
+
+			DataInputStream in = new DataInputStream(new ByteArrayInputStream(payload));
+			final int axes = in.readUnsignedByte();
+			DefaultCoords.Builder builder = new DefaultCoords.Builder();
+			for (int i = 0; i < axes; i++)
+				builder.index(in.readUTF(), in.readInt());
+			final Record record = new Record(builder.build(), in.readUTF(), in.readLong(), in.readLong());
+
+			records_.add(record);
+			recordMap_.put(record.getCoords(), record);
+			position = index_.getFilePointer();
+		}
+
+		if (position < length) {
+			ReportingUtils.logMessage(String.format("Plane index: %d records recovered, %d bytes of an incomplete tail dropped",
+					records_.size(), length - position));
+			if (repair)
+				index_.setLength(position);
+		}
+	}
+
+	// Reads [length][payload][crc], returns null if the frame is torn or corrupted
+	private static byte[] readFrame(RandomAccessFile file, long available) throws IOException {
+		if (available < 8)
+			return null;
+		final int length = file.readInt();
+		if (length < 0 || length > available - 8)
+			return null;
+		final byte[] payload = new byte[length];
+		file.readFully(payload);
+		final int crc = file.readInt();
+		return crc == crc32(payload) ? payload : null;
+	}
+
+	private static void writeFrame(RandomAccessFile file, byte[] payload) throws IOException {
+		// One write per frame, so a crash can only tear the last one
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream(payload.length + 8);
+		DataOutputStream out = new DataOutputStream(bytes);
+		out.writeInt(payload.length);
+		out.write(payload);
+		out.writeInt(crc32(payload));
+		file.seek(file.length());
+		file.write(bytes.toByteArray());
+	}
+
+	private static int crc32(byte[] payload) {
+		CRC32 crc = new CRC32();
+		crc.update(payload);
+		return (int) crc.getValue();
+	}
+
+	/**
+	 * Appends a plane. The metadata is written before the record, so an index
+	 * record never refers to metadata which is not on the disk.
+	 *
+	 * @param coords the coords of the plane
+	 * @param fileName the file or the dataset the plane is stored in
+	 * @param offset the index of the plane inside its file or dataset
+	 * @param metadataJSON the metadata of the plane
+	 * @throws IOException the io exception
+	 */
+	public synchronized void append(Coords coords, String fileName, long offset, String metadataJSON) throws IOException {
+		if (!writable_)
+			throw new IOException("The plane index is opened for reading");
+
+		final long metadataOffset = writeMetadata(new JsonParser().parse(metadataJSON).getAsJsonObject());
+
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream(128);
+		DataOutputStream out = new DataOutputStream(bytes);
+		final List<String> axes = coords.getAxes();
+		out.writeByte(axes.size());
+		for (String axis : axes) {
+			out.writeUTF(axis);
+			out.writeInt(coords.getIndex(axis));
+		}
+		out.writeUTF(fileName);
+		out.writeLong(offset);
+		out.writeLong(metadataOffset);
+		writeFrame(index_, bytes.toByteArray());
+
+		final Record record = new Record(coords, fileName, offset, metadataOffset);
+		records_.add(record);
+		recordMap_.put(coords, record);
+	}
+
+	private long writeMetadata(JsonObject metadata) throws IOException {
+		JsonObject reduced = new JsonObject();
+		for (Map.Entry<String, JsonElement> member : metadata.entrySet()) {
+			final JsonElement value = member.getValue();
+			if (value.isJsonObject() || value.isJsonArray()) {
+				final String serialized = value.toString();
+				if (serialized.length() >= SHARED_MEMBER_SIZE) {
+					Long shared = sharedOffsets_.get(serialized);
+					if (shared == null) {
+						shared = writeBlob(serialized);
+						sharedOffsets_.put(serialized, shared);
+					}
+					reduced.add(REF_PREFIX + member.getKey(), new JsonPrimitive(shared));
+					continue;
+				}
+			}
+			reduced.add(member.getKey(), value);
+		}
+		return writeBlob(reduced.toString());
+	}
+
+	private long writeBlob(String json) throws IOException {
+		final byte[] raw = json.getBytes(StandardCharsets.UTF_8);
+		Deflater deflater = new Deflater(Deflater.BEST_SPEED);
+		deflater.setInput(raw);
+		deflater.finish();
+		ByteArrayOutputStream out = new ByteArrayOutputStream(raw.length / 4 + 64);
+		final byte[] buf = new byte[8192];
+		while (!deflater.finished()) {
+			out.write(buf, 0, deflater.deflate(buf));
+		}
+		deflater.end();
+
+		final long offset = data_.length();
+		writeFrame(data_, out.toByteArray());
+		return offset;
+	}
+
+	private String readBlob(long offset) throws IOException {
+		data_.seek(offset);
+		final byte[] payload = readFrame(data_, data_.length() - offset);
+		if (payload == null)
+			throw new IOException("The plane metadata at " + offset + " is corrupted");
+
+		Inflater inflater = new Inflater();
+		inflater.setInput(payload);
+		ByteArrayOutputStream out = new ByteArrayOutputStream(payload.length * 4);
+		final byte[] buf = new byte[8192];
+		try {
+			while (!inflater.finished()) {
+				final int n = inflater.inflate(buf);
+				if (n == 0 && (inflater.needsInput() || inflater.needsDictionary()))
+					throw new IOException("The plane metadata at " + offset + " is truncated");
+				out.write(buf, 0, n);
+			}
+		} catch (DataFormatException e) {
+			throw new IOException("The plane metadata at " + offset + " is corrupted", e);
+		} finally {
+			inflater.end();
+		}
+		return new String(out.toByteArray(), StandardCharsets.UTF_8);
+	}
+
+	public synchronized boolean contains(Coords coords) {
+		return recordMap_.containsKey(coords);
+	}
+
+	public synchronized List<Record> getRecords() {
+		return Collections.unmodifiableList(new ArrayList<>(records_));
+	}
+
+	/**
+	 * Reads the metadata of a plane from the disk.
+	 *
+	 * @param coords the coords of the plane
+	 * @return the metadata JSON, or null if the plane is not in the index
+	 */
+	public synchronized String readMetadata(Coords coords) {
+		final Record record = recordMap_.get(coords);
+		if (record == null)
+			return null;
+
+		try {
+			final JsonObject reduced = new JsonParser().parse(readBlob(record.metadataOffset)).getAsJsonObject();
+			JsonObject metadata = new JsonObject();
+			for (Map.Entry<String, JsonElement> member : reduced.entrySet()) {
+				final String key = member.getKey();
+				if (key.startsWith(REF_PREFIX)) {
+					final long offset = member.getValue().getAsLong();
+					JsonElement shared = sharedCache_.get(offset);
+					if (shared == null) {
+						shared = new JsonParser().parse(readBlob(offset));
+						sharedCache_.put(offset, shared);
+					}
+					metadata.add(key.substring(REF_PREFIX.length()), shared);
+				} else {
+					metadata.add(key, member.getValue());
+				}
+			}
+			return metadata.toString();
+		} catch (IOException | RuntimeException e) {
+			ReportingUtils.logError(e, "Failed to read the metadata of " + coords);
+			return null;
+		}
+	}
+
+	/**
+	 * Writes the index in the legacy prefix_metadata.txt JSON layout. The keys
+	 * are those the storages wrote before the index: "Coords-" + file name when
+	 * every plane has its own file, as in the single plane TIFF series, and
+	 * "Coords-" + coords when the planes share stack files. Both carry the
+	 * FileName, and each "Metadata-" entry follows its "Coords-" entry.
+	 *
+	 * @param out the writer
+	 * @param summary the Summary entry
+	 * @throws IOException the io exception
+	 */
+	public void exportLegacyJson(Writer out, JsonElement summary) throws IOException {
+		Gson gson = new GsonBuilder().disableHtmlEscaping().setPrettyPrinting().create();
+
+		final List<Record> records = getRecords();
+		final HashMap<String, Integer> planesPerFile = new HashMap<>();
+		for (Record record : records)
+			planesPerFile.merge(record.getFileName(), 1, Integer::sum);
+
+		out.write("{\n");
+		out.write("\"Summary\": ");
+		out.write(gson.toJson(summary));
+		for (Record record : records) {
+			final String key = planesPerFile.get(record.getFileName()) == 1 ?
+					record.getFileName() : record.getCoords().toString();
+
+			JsonObject jo = new JsonObject();
+			NonPropertyMapJSONFormats.coords().addToGson(jo,
+					((DefaultCoords) record.getCoords()).toPropertyMap());
+			jo.add("FileName", new JsonPrimitive(record.getFileName()));
+			out.write(",\n" + gson.toJson("Coords-" + key) + ": ");
+			out.write(gson.toJson(jo));
+
+			final String metadata = readMetadata(record.getCoords());
+			out.write(",\n" + gson.toJson("Metadata-" + key) + ": ");
+			out.write(metadata == null ? "{}" : gson.toJson(new JsonParser().parse(metadata)));
+		}
+		out.write("\n}\n");
+	}
+
+	/**
+	 * Exports a dataset to the legacy JSON, for the tools reading only prefix_metadata.txt.
+	 *
+	 * @param dir the dataset directory
+	 * @param prefix the dataset prefix
+	 * @param target the JSON file to write
+	 * @throws IOException the io exception
+	 */
+	public static void exportLegacyMetadata(String dir, String prefix, File target) throws IOException {
+		JsonObject data = StorageOpener.readJSONMetadata(dir, "", prefix);
+		if (data == null || !data.has("Summary"))
+			throw new IOException("Unable to read the summary of " + prefix + " in " + dir);
+
+		MetadataIndex metadataIndex = open(dir, prefix);
+		if (metadataIndex == null)
+			throw new IOException("No plane index for " + prefix + " in " + dir);
+
+		try (Writer out = new BufferedWriter(new FileWriter(target))) {
+			metadataIndex.exportLegacyJson(out, data.get("Summary"));
+		} finally {
+			metadataIndex.close();
+		}
+		ReportingUtils.logMessage("Exported the plane index of " + prefix + " to " + target);
+	}
+
+	public synchronized void close() {
+		try {
+			index_.close();
+			data_.close();
+		} catch (IOException e) {
+			ReportingUtils.logError(e);
+		}
+	}
+}
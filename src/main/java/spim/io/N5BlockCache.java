@@ -0,0 +1,295 @@
+package spim.io;
+
+import org.janelia.saalfeldlab.n5.DataBlock;
+import org.janelia.saalfeldlab.n5.DataType;
+import org.janelia.saalfeldlab.n5.DatasetAttributes;
+import org.janelia.saalfeldlab.n5.N5Reader;
+import org.micromanager.internal.utils.ReportingUtils;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Description: Block cache for reading planes from N5 datasets.
+ * The decompressed blocks are kept in a LRU map bounded by bytes and shared by
+ * all the N5 and BDV storages, and the dataset attributes are cached as well.
+ * A plane is assembled by copying the rows of the cached blocks directly into
+ * a primitive array. When the planes of a dataset are requested one after the
+ * other along Z, the next block in that direction is loaded in the background.
+ *
+ * Author: HongKee Moon (moon@mpi-cbg.de), Scientific Computing Facility
+ * Organization: MPI-CBG Dresden
+ * Date: October 2026
+ */
+public class N5BlockCache {
+	private static N5BlockCache instance;
+
+	private static final class Key {
+		final String root;
+		final String dataset;
+		final long[] gridPosition;
+		final int hash;
+
+		Key(String root, String dataset, long[] gridPosition) {
+			this.root = root;
+			this.dataset = dataset;
+			this.gridPosition = gridPosition;
+			this.hash = 31 * (31 * root.hashCode() + dataset.hashCode()) + Arrays.hashCode(gridPosition);
+		}
+
+		@Override
+		public boolean equals(Object o) {
+			if (!(o instanceof Key)) return false;
+			Key k = (Key) o;
+			return hash == k.hash && root.equals(k.root) && dataset.equals(k.dataset) && Arrays.equals(gridPosition, k.gridPosition);
+		}
+
+		@Override
+		public int hashCode() {
+			return hash;
+		}
+	}
+
+	private static final class Entry {
+		final DataBlock<?> block;
+		final long bytes;
+
+		Entry(DataBlock<?> block, long bytes) {
+			this.block = block;
+			this.bytes = bytes;
+		}
+	}
+
+	private final long maxBytes;
+	private long bytes = 0;
+	private final LinkedHashMap<Key, Entry> blocks = new LinkedHashMap<>(256, 0.75f, true);
+	private final ConcurrentHashMap<String, DatasetAttributes> attributes = new ConcurrentHashMap<>();
+	private final ConcurrentHashMap<String, long[]> lastPosition = new ConcurrentHashMap<>();
+	private final Map<Key, Boolean> prefetching = new ConcurrentHashMap<>();
+
+	public N5BlockCache(long maxBytes) {
+		this.maxBytes = maxBytes;
+	}
+
+	/**
+	 * The cache shared by the storages, bounded by an eighth of the maximum heap.
+	 *
+	 * @return the shared cache
+	 */
+	public static synchronized N5BlockCache getInstance() {
+		if (instance == null)
+			instance = new N5BlockCache(Runtime.getRuntime().maxMemory() / 8);
+		return instance;
+	}
+
+	public DatasetAttributes getAttributes(N5Reader n5, String root, String dataset) throws IOException {
+		final String key = root + "/" + dataset;
+		DatasetAttributes datasetAttributes = attributes.get(key);
+		if (datasetAttributes == null) {
+			datasetAttributes = n5.getDatasetAttributes(dataset);
+			if (datasetAttributes != null)
+				attributes.put(key, datasetAttributes);
+		}
+		return datasetAttributes;
+	}
+
+	/**
+	 * Returns the block from the cache or reads it.
+	 *
+	 * @return the block, or null if it is not written yet
+	 */
+	public DataBlock<?> getBlock(N5Reader n5, String root, String dataset, long[] gridPosition) throws IOException {
+		final Key key = new Key(root, dataset, gridPosition.clone());
+		synchronized (this) {
+			Entry entry = blocks.get(key);
+			if (entry != null)
+				return entry.block;
+		}
+
+		final DatasetAttributes datasetAttributes = getAttributes(n5, root, dataset);
+		final DataBlock<?> block = n5.readBlock(dataset, datasetAttributes, key.gridPosition);
+		// Missing blocks are not cached, they may be written later.
+		if (block != null)
+			put(key, new Entry(block, sizeOf(block, datasetAttributes.getDataType())));
+		return block;
+	}
+
+	private synchronized void put(Key key, Entry entry) {
+		final Entry old = blocks.put(key, entry);
+		if (old != null)
+			bytes -= old.bytes;
+		bytes += entry.bytes;
+
+		final Iterator<Map.Entry<Key, Entry>> it = blocks.entrySet().iterator();
+		while (bytes > maxBytes && it.hasNext()) {
+			final Map.Entry<Key, Entry> eldest = it.next();
+			if (eldest.getKey().equals(key))
+				continue;
+			bytes -= eldest.getValue().bytes;
+			it.remove();
+		}
+	}
+
+	private static long sizeOf(DataBlock<?> block, DataType dataType) {
+		switch (dataType) {
+			case UINT8: case INT8: return block.getNumElements();
+			case UINT16: case INT16: return block.getNumElements() * 2L;
+			case UINT64: case INT64: case FLOAT64: return block.getNumElements() * 8L;
+			default: return block.getNumElements() * 4L;
+		}
+	}
+
+	/**
+	 * Drops the cached blocks and the attributes of the dataset.
+	 */
+	public synchronized void invalidate(String root, String dataset) {
+		attributes.remove(root + "/" + dataset);
+		final Iterator<Map.Entry<Key, Entry>> it = blocks.entrySet().iterator();
+		while (it.hasNext()) {
+			final Map.Entry<Key, Entry> entry = it.next();
+			if (entry.getKey().root.equals(root) && entry.getKey().dataset.equals(dataset)) {
+				bytes -= entry.getValue().bytes;
+				it.remove();
+			}
+		}
+	}
+
+	/**
+	 * Drops the cached block after it has been (re)written.
+	 */
+	public synchronized void invalidateBlock(String root, String dataset, long[] gridPosition) {
+		final Entry entry = blocks.remove(new Key(root, dataset, gridPosition));
+		if (entry != null)
+			bytes -= entry.bytes;
+	}
+
+	/**
+	 * Copies the XY plane at the given position into a primitive array.
+	 *
+	 * @param n5 the reader
+	 * @param root the root of the container, used as part of the cache key
+	 * @param dataset the dataset
+	 * @param position the position of the plane, the first two entries are ignored
+	 * @param zAxis the Z axis of the dataset, used for the read-ahead
+	 * @return byte[], short[], int[], long[], float[] or double[] depending on the data type
+	 * @throws IOException the io exception
+	 */
+	public Object readPlane(N5Reader n5, String root, String dataset, long[] position, int zAxis) throws IOException {
+		final DatasetAttributes datasetAttributes = getAttributes(n5, root, dataset);
+		final long[] dims = datasetAttributes.getDimensions();
+		final int[] blockSize = datasetAttributes.getBlockSize();
+		final int width = (int) dims[0];
+		final int height = (int) dims[1];
+
+		final Object plane = newArray(datasetAttributes.getDataType(), width * height);
+
+		final long[] gridPosition = new long[dims.length];
+		final int[] local = new int[dims.length];
+		for (int d = 2; d < dims.length; d++) {
+			gridPosition[d] = position[d] / blockSize[d];
+			local[d] = (int) (position[d] - gridPosition[d] * blockSize[d]);
+		}
+
+		for (int by = 0; by * blockSize[1] < height; by++) {
+			for (int bx = 0; bx * blockSize[0] < width; bx++) {
+				gridPosition[0] = bx;
+				gridPosition[1] = by;
+
+				final DataBlock<?> block = getBlock(n5, root, dataset, gridPosition);
+				if (block == null)
+					continue;
+
+				final int[] size = block.getSize();
+
+				// Offset of the plane inside the block
+				int offset = 0;
+				int stride = size[0] * size[1];
+				for (int d = 2; d < dims.length; d++) {
+					offset += local[d] * stride;
+					stride *= size[d];
+				}
+
+				// Some writers store the edge blocks with the full block size
+				final int rows = Math.min(size[1], height - by * blockSize[1]);
+				final int columns = Math.min(size[0], width - bx * blockSize[0]);
+				for (int y = 0; y < rows; y++) {
+					System.arraycopy(block.getData(), offset + y * size[0],
+							plane, (by * blockSize[1] + y) * width + bx * blockSize[0], columns);
+				}
+			}
+		}
+
+		readAhead(n5, root, dataset, position, zAxis, datasetAttributes);
+
+		return plane;
+	}
+
+	private void readAhead(final N5Reader n5, final String root, final String dataset, final long[] position, final int zAxis, final DatasetAttributes datasetAttributes) {
+		if (zAxis < 0 || zAxis >= position.length)
+			return;
+
+		final long[] previous = lastPosition.put(root + "/" + dataset, position.clone());
+		if (previous == null || previous.length != position.length)
+			return;
+
+		// Sequential scrubbing moves one plane along Z with everything else fixed
+		final long step = position[zAxis] - previous[zAxis];
+		if (Math.abs(step) != 1)
+			return;
+		for (int d = 2; d < position.length; d++) {
+			if (d != zAxis && position[d] != previous[d])
+				return;
+		}
+
+		final long[] dims = datasetAttributes.getDimensions();
+		final int[] blockSize = datasetAttributes.getBlockSize();
+		final long nextGridZ = position[zAxis] / blockSize[zAxis] + step;
+		if (nextGridZ < 0 || nextGridZ * blockSize[zAxis] >= dims[zAxis])
+			return;
+
+		for (int by = 0; by * blockSize[1] < dims[1]; by++) {
+			for (int bx = 0; bx * blockSize[0] < dims[0]; bx++) {
+				final long[] gridPosition = new long[position.length];
+				gridPosition[0] = bx;
+				gridPosition[1] = by;
+				for (int d = 2; d < position.length; d++)
+					gridPosition[d] = position[d] / blockSize[d];
+				gridPosition[zAxis] = nextGridZ;
+
+				final Key key = new Key(root, dataset, gridPosition);
+				synchronized (this) {
+					if (blocks.containsKey(key))
+						continue;
+				}
+				if (prefetching.putIfAbsent(key, Boolean.TRUE) != null)
+					continue;
+
+				IOScheduler.getInstance().getBlockPool().submit(() -> {
+					try {
+						getBlock(n5, root, dataset, gridPosition);
+					} catch (IOException e) {
+						ReportingUtils.logError(e, "Failed to read ahead " + dataset);
+					} finally {
+						prefetching.remove(key);
+					}
+				});
+			}
+		}
+	}
+
+	private static Object newArray(DataType dataType, int length) {
+		switch (dataType) {
+			case UINT8: case INT8: return new byte[length];
+			case UINT16: case INT16: return new short[length];
+			case UINT32: case INT32: return new int[length];
+			case UINT64: case INT64: return new long[length];
+			case FLOAT32: return new float[length];
+			case FLOAT64: return new double[length];
+			default: throw new IllegalArgumentException("Data type " + dataType + " is not supported");
+		}
+	}
+}
@@ -0,0 +1,137 @@
+package spim.io;
+
+import org.janelia.saalfeldlab.n5.Bzip2Compression;
+import org.janelia.saalfeldlab.n5.Compression;
+import org.janelia.saalfeldlab.n5.GzipCompression;
+import org.janelia.saalfeldlab.n5.Lz4Compression;
+import org.janelia.saalfeldlab.n5.RawCompression;
+import org.janelia.saalfeldlab.n5.XzCompression;
+
+import java.lang.reflect.Constructor;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Description: Compression codecs for the N5 and BDV storages.
+ * Zstandard and Blosc are provided by the optional n5-zstandard and n5-blosc
+ * modules and are only offered when they are found on the classpath.
+ *
+ * Author: HongKee Moon (moon@mpi-cbg.de), Scientific Computing Facility
+ * Organization: MPI-CBG Dresden
+ * Date: October 2026
+ */
+public enum N5Codec {
+	RAW("Raw", 0, 0, 0),
+	GZIP("Gzip", 1, 9, 6),
+	BZIP2("Bzip2", 1, 9, 9),
+	LZ4("LZ4", 0, 0, 0),
+	XZ("Xz", 0, 9, 6),
+	ZSTD("Zstandard", 1, 22, 3),
+	BLOSC("Blosc (LZ4 + shuffle)", 0, 9, 5);
+
+	private static final String ZSTD_CLASS = "org.janelia.saalfeldlab.n5.zstandard.ZstandardCompression";
+	private static final String BLOSC_CLASS = "org.janelia.saalfeldlab.n5.blosc.BloscCompression";
+
+	// Blosc byte shuffle filter
+	private static final int BLOSC_SHUFFLE = 1;
+
+	private final String label;
+	private final int minLevel;
+	private final int maxLevel;
+	private final int defaultLevel;
+
+	N5Codec(String label, int minLevel, int maxLevel, int defaultLevel) {
+		this.label = label;
+		this.minLevel = minLevel;
+		this.maxLevel = maxLevel;
+		this.defaultLevel = defaultLevel;
+	}
+
+	public int getMinLevel() {
+		return minLevel;
+	}
+
+	public int getMaxLevel() {
+		return maxLevel;
+	}
+
+	public int getDefaultLevel() {
+		return defaultLevel;
+	}
+
+	/**
+	 * Whether the codec has a level to choose from.
+	 */
+	public boolean hasLevel() {
+		return minLevel != maxLevel;
+	}
+
+	public boolean isAvailable() {
+		switch (this) {
+			case ZSTD: return findClass(ZSTD_CLASS) != null;
+			case BLOSC: return findClass(BLOSC_CLASS) != null;
+			default: return true;
+		}
+	}
+
+	/**
+	 * Creates the compression with the given level, clamped to the range of the codec.
+	 *
+	 * @param level the compression level
+	 * @return the compression
+	 */
+	public Compression create(int level) {
+		final int l = Math.max(minLevel, Math.min(maxLevel, level));
+
+		switch (this) {
+			case RAW: return new RawCompression();
+			case GZIP: return new GzipCompression(l);
+			case BZIP2: return new Bzip2Compression(l);
+			case LZ4: return new Lz4Compression();
+			case XZ: return new XzCompression(l);
+			case ZSTD: return newInstance(ZSTD_CLASS, new Class[] {int.class}, l);
+			case BLOSC: return newInstance(BLOSC_CLASS, new Class[] {String.class, int.class, int.class, int.class, int.class},
+					"lz4", l, BLOSC_SHUFFLE, 0, 1);
+		}
+		throw new IllegalStateException("Unknown codec " + this);
+	}
+
+	public Compression create() {
+		return create(defaultLevel);
+	}
+
+	@Override
+	public String toString() {
+		return label;
+	}
+
+	public static List<N5Codec> available() {
+		List<N5Codec> list = new ArrayList<>();
+		for (N5Codec codec : values()) {
+			if (codec.isAvailable())
+				list.add(codec);
+		}
+		return list;
+	}
+
+	private static Class<?> findClass(String name) {
+		try {
+			return Class.forName(name);
+		} catch (ClassNotFoundException | LinkageError e) {
+			return null;
+		}
+	}
+
+	private static Compression newInstance(String className, Class[] types, Object... args) {
+		final Class<?> clazz = findClass(className);
+		if (clazz == null)
+			throw new IllegalStateException(className + " is not on the classpath");
+
+		try {
+			Constructor<?> constructor = clazz.getConstructor(types);
+			return (Compression) constructor.newInstance(args);
+		} catch (ReflectiveOperationException e) {
+			throw new IllegalStateException("Failed to create " + className, e);
+		}
+	}
+}
@@ -0,0 +1,176 @@
+package spim.io;
+
+import org.janelia.saalfeldlab.n5.Compression;
+import org.janelia.saalfeldlab.n5.DataType;
+import org.janelia.saalfeldlab.n5.DatasetAttributes;
+import org.janelia.saalfeldlab.n5.DefaultBlockWriter;
+import org.janelia.saalfeldlab.n5.ShortArrayDataBlock;
+import org.micromanager.internal.utils.ReportingUtils;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Description: Compresses a sample stack with every available codec in the
+ * same way the N5 writer does, so that a codec can be picked per experiment
+ * from the acquisition panel. The JMH benchmark N5CodecBenchmark in the tests
+ * measures the codecs from the command line.
+ *
+ * Author: HongKee Moon (moon@mpi-cbg.de), Scientific Computing Facility
+ * Organization: MPI-CBG Dresden
+ * Date: October 2026
+ */
+public class N5CodecComparison {
+
+	public static class Result {
+		final N5Codec codec;
+		final int level;
+		final long rawBytes;
+		final long compressedBytes;
+		final long nanos;
+
+		Result(N5Codec codec, int level, long rawBytes, long compressedBytes, long nanos) {
+			this.codec = codec;
+			this.level = level;
+			this.rawBytes = rawBytes;
+			this.compressedBytes = compressedBytes;
+			this.nanos = nanos;
+		}
+
+		public N5Codec getCodec() {
+			return codec;
+		}
+
+		public int getLevel() {
+			return level;
+		}
+
+		public double getMegaBytesPerSecond() {
+			return rawBytes / 1e6 / (nanos / 1e9);
+		}
+
+		public double getRatio() {
+			return compressedBytes == 0 ? 0 : (double) rawBytes / compressedBytes;
+		}
+
+		@Override
+		public String toString() {
+			return String.format("%-24s level %2d : %8.1f MB/s, ratio %5.2f",
+					codec, level, getMegaBytesPerSecond(), getRatio());
+		}
+	}
+
+	private static class CountingOutputStream extends OutputStream {
+		long count = 0;
+
+		@Override
+		public void write(int b) {
+			count++;
+		}
+
+		@Override
+		public void write(byte[] b, int off, int len) {
+			count += len;
+		}
+	}
+
+	/**
+	 * Generates a 16-bit stack with a few Gaussian blobs on a noisy background,
+	 * which compresses similar to a light-sheet stack.
+	 *
+	 * @param width the width
+	 * @param height the height
+	 * @param depth the depth
+	 * @return the planes
+	 */
+	public static short[][] createSampleStack(int width, int height, int depth) {
+		final Random random = new Random(42);
+		final int blobs = 20;
+		final double[][] centers = new double[blobs][];
+		for (int i = 0; i < blobs; i++) {
+			centers[i] = new double[] {random.nextDouble() * width, random.nextDouble() * height,
+					random.nextDouble() * depth, 4 + random.nextDouble() * 12};
+		}
+
+		final short[][] planes = new short[depth][width * height];
+		for (int z = 0; z < depth; z++) {
+			final short[] plane = planes[z];
+			for (int y = 0; y < height; y++) {
+				for (int x = 0; x < width; x++) {
+					double value = 100 + random.nextGaussian() * 5;
+					for (double[] c : centers) {
+						final double dx = x - c[0], dy = y - c[1], dz = z - c[2];
+						final double d2 = dx * dx + dy * dy + dz * dz;
+						if (d2 < 9 * c[3] * c[3])
+							value += 2000 * Math.exp(-d2 / (2 * c[3] * c[3]));
+					}
+					plane[y * width + x] = (short) Math.max(0, Math.min(65535, (int) value));
+				}
+			}
+		}
+		return planes;
+	}
+
+	/**
+	 * Compresses the stack as one block with the given codec.
+	 *
+	 * @param planes the planes of the stack
+	 * @param width the width
+	 * @param height the height
+	 * @param codec the codec
+	 * @param level the compression level
+	 * @param repeats the number of timed repetitions after one warm-up
+	 * @return the result
+	 * @throws IOException the io exception
+	 */
+	public static Result run(short[][] planes, int width, int height, N5Codec codec, int level, int repeats) throws IOException {
+		final int depth = planes.length;
+		final short[] data = new short[width * height * depth];
+		for (int z = 0; z < depth; z++) {
+			System.arraycopy(planes[z], 0, data, z * width * height, width * height);
+		}
+
+		final int[] blockSize = new int[] {width, height, depth};
+		final Compression compression = codec.create(level);
+		final DatasetAttributes attributes = new DatasetAttributes(
+				new long[] {width, height, depth}, blockSize, DataType.UINT16, compression);
+		final ShortArrayDataBlock block = new ShortArrayDataBlock(blockSize, new long[] {0, 0, 0}, data);
+
+		// Warm-up
+		CountingOutputStream out = new CountingOutputStream();
+		DefaultBlockWriter.writeBlock(out, attributes, block);
+
+		long nanos = 0;
+		for (int i = 0; i < repeats; i++) {
+			out = new CountingOutputStream();
+			final long start = System.nanoTime();
+			DefaultBlockWriter.writeBlock(out, attributes, block);
+			nanos += System.nanoTime() - start;
+		}
+
+		return new Result(codec, level, (long) data.length * 2 * repeats, out.count * repeats, nanos);
+	}
+
+	/**
+	 * Runs every available codec with its default level on the stack.
+	 *
+	 * @param planes the planes of the stack
+	 * @param width the width
+	 * @param height the height
+	 * @return the results
+	 */
+	public static List<Result> runAll(short[][] planes, int width, int height) {
+		List<Result> results = new ArrayList<>();
+		for (N5Codec codec : N5Codec.available()) {
+			try {
+				results.add(run(planes, width, height, codec, codec.getDefaultLevel(), 3));
+			} catch (IOException | RuntimeException e) {
+				ReportingUtils.logError(e, "Compression test of " + codec + " failed");
+			}
+		}
+		return results;
+	}
+}
@@ -5,17 +5,11 @@ import com.google.gson.*;
 import ij.ImagePlus;
 import ij.ImageStack;
 import ij.process.*;
-import net.imglib2.Cursor;
 import net.imglib2.RandomAccessibleInterval;
 import net.imglib2.img.Img;
 import net.imglib2.img.display.imagej.ImageJFunctions;
-import net.imglib2.img.imageplus.ImagePlusImg;
-import net.imglib2.img.imageplus.ImagePlusImgs;
-import net.imglib2.type.NativeType;
-import net.imglib2.type.numeric.NumericType;
 import net.imglib2.type.numeric.integer.UnsignedByteType;
 import net.imglib2.type.numeric.integer.UnsignedShortType;
-import net.imglib2.view.IntervalView;
 import net.imglib2.view.Views;
 import org.janelia.saalfeldlab.n5.*;
 import org.janelia.saalfeldlab.n5.imglib2.N5Utils;
@@ -31,7 +25,7 @@ import java.util.*;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ExecutionException;
 import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
 
 /**
  * Description: N5 Storage for µOpenSPIM
@@ -51,6 +45,8 @@ public class N5MicroManagerStorage implements Storage {
 	private boolean firstElement_;
 	private boolean amLoading_;
 	private HashMap<Integer, Writer> metadataStreams_;
+	// Coords, file name and metadata of the planes, see MetadataIndex
+	private MetadataIndex metadataIndex_;
 	private boolean isDatasetWritable_;
 	private SummaryMetadata summaryMetadata_ = (new DefaultSummaryMetadata.Builder()).build();
 	private ConcurrentHashMap<Coords, String> coordsToFilename_;
@@ -60,21 +56,40 @@ public class N5MicroManagerStorage implements Storage {
 	private Image firstImage_;
 	private final int timesteps_;
 
+	// Upper bound of the Z block size. Planes are kept on the heap only until
+	// a full block depth has arrived for a channel, so this also bounds the
+	// memory held per channel.
+	private static final int MAX_BLOCK_DEPTH = 64;
+
 	int width;
 	int height;
 	N5FSWriter writer;
 	N5FSReader reader;
-	GzipCompression compression;
+	Compression compression;
+	private final N5Codec codec_;
+	private final int codecLevel_;
 	ExecutorService exec;
-	ImageStack[] imageStacks;
+	// Writes the finished slabs in order while the next planes are arriving
+	ExecutorService slabWriter;
+	// The planes of the slab of every channel, in Z order
+	List<LinkedHashMap<Coords, ImageProcessor>> slabs;
+	int[] slabStart;
+	int blockDepth;
 	private HashMap<Coords, String> coordsMetadata_ = new HashMap<>();
-	private HashMap<String, ImageProcessor> cache_ = new HashMap<>();
-	private HashMap<Integer, Boolean> timeFinished_ = new HashMap<>();
-	private HashMap<String, RandomAccessibleInterval> impMap_ = new HashMap<>();
+	// The planes which are not written yet, every Coords names its dataset
+	private ConcurrentHashMap<Coords, ImageProcessor> cache_ = new ConcurrentHashMap<>();
+	// Whether the last slab of a time point of a dataset is written, see timeKey()
+	private ConcurrentHashMap<String, Boolean> timeFinished_ = new ConcurrentHashMap<>();
 	private HashMap<String, String> datasetList_ = new HashMap<>();
 
 	public N5MicroManagerStorage(DefaultDatastore store, String directory, String prefix, int timeSeqs, boolean newDataSet) throws IOException {
+		this(store, directory, prefix, timeSeqs, newDataSet, N5Codec.GZIP, N5Codec.GZIP.getDefaultLevel());
+	}
+
+	public N5MicroManagerStorage(DefaultDatastore store, String directory, String prefix, int timeSeqs, boolean newDataSet, N5Codec codec, int codecLevel) throws IOException {
 		store_ = store;
+		codec_ = codec;
+		codecLevel_ = codecLevel;
 		dir_ = directory;
 		prefix_ = prefix;
 
@@ -117,7 +132,9 @@ public class N5MicroManagerStorage implements Storage {
 
 		reader = new N5FSReader( dir_ + "/" + prefix_ + ".n5" );
 		compression = new GzipCompression();
-		exec = Executors.newFixedThreadPool(10);
+		exec = IOScheduler.getInstance().getBlockPool();
+
+		metadataIndex_ = MetadataIndex.open(dir_, prefix_);
 
 		for (int positionIndex = 0; positionIndex < positions.size();
 			 ++positionIndex) {
@@ -134,6 +151,14 @@ public class N5MicroManagerStorage implements Storage {
 									data.get(PropertyKey.SUMMARY.key())));
 				}
 
+				if (metadataIndex_ != null) {
+					// The metadata of the planes is read when they are asked for
+					for (MetadataIndex.Record record : metadataIndex_.getRecords()) {
+						loadImage(record.getCoords(), record.getFileName());
+					}
+					continue;
+				}
+
 				// We have two methods to recover the image coordinates from the
 				// metadata. The old 1.4 method uses a "FrameKey" key that holds
 				// the time, channel, and Z indices specifically, and stows all
@@ -160,26 +185,12 @@ public class N5MicroManagerStorage implements Storage {
 
 						coords = DefaultCoords.fromPropertyMap(
 								NonPropertyMapJSONFormats.coords().fromGson(jsonObject));
-						timeFinished_.put(coords.getT(), true);
+						timeFinished_.put(timeKey(fileName, coords.getT()), true);
 					}
 					else if (key.startsWith("Metadata-")) { // Possibly "Metadata-*"
 						// Not a key we can extract useful information from.
 						coordsMetadata_.put(coords, entry.getValue().getAsJsonObject().toString());
-
-						try {
-							// TODO: omitting pixel type information.
-//							if (!(new File(dir_ + "/" + fileName)).exists()) {
-//								ReportingUtils.logError("For key " + key + " tried to find file at " + fileName + " but it did not exist");
-//							}
-							// This will update our internal records without touching
-							// the disk, as amLoading_ is true.
-							coordsToFilename_.put(coords, fileName);
-							datasetList_.put(fileName, fileName);
-							Image image = getImage(coords);
-							putImage(image);
-						} catch (Exception ex) {
-							ReportingUtils.showError(ex);
-						}
+						loadImage(coords, fileName);
 					}
 				}
 			} catch (NumberFormatException ex) {
@@ -189,6 +200,22 @@ public class N5MicroManagerStorage implements Storage {
 		amLoading_ = false;
 	}
 
+	@SuppressWarnings("Duplicates")
+	private void loadImage(Coords coords, String fileName) {
+		timeFinished_.put(timeKey(fileName, coords.getT()), true);
+		try {
+			// TODO: omitting pixel type information.
+			// This will update our internal records without touching
+			// the disk, as amLoading_ is true.
+			coordsToFilename_.put(coords, fileName);
+			datasetList_.put(fileName, fileName);
+			Image image = getImage(coords);
+			putImage(image);
+		} catch (Exception ex) {
+			ReportingUtils.showError(ex);
+		}
+	}
+
 	@Override
 	public void freeze() throws IOException {
 		closeMetadataStreams();
@@ -227,6 +254,15 @@ public class N5MicroManagerStorage implements Storage {
 
 		isDatasetWritable_ = false;
 
+		if(slabWriter != null) {
+			slabWriter.shutdown();
+			try {
+				slabWriter.awaitTermination(Long.MAX_VALUE, TimeUnit.MILLISECONDS);
+			} catch (InterruptedException e) {
+				ReportingUtils.logError(e, "Interrupted while waiting for the N5 slabs to be written");
+			}
+		}
+
 		if(writer != null) {
 			writer.close();
 		}
@@ -244,6 +280,10 @@ public class N5MicroManagerStorage implements Storage {
 		return String.format("/Volumes/DataSet" + posString);
 	}
 
+	private static String timeKey(String dataset, int time) {
+		return dataset + "/t=" + time;
+	}
+
 	@SuppressWarnings("Duplicates")
 	@Override
 	public void putImage(Image image) throws IOException {
@@ -308,66 +348,12 @@ public class N5MicroManagerStorage implements Storage {
 		Coords coords = image.getCoords();
 //		System.out.println(image.getMetadata());
 
-		if(coords.getC() == image.getMetadata().getUserData().getInteger("Channels", 1) - 1 &&
+		if(amLoading_ && coords.getC() == image.getMetadata().getUserData().getInteger("Channels", 1) - 1 &&
 				coords.getZ() == image.getMetadata().getUserData().getInteger("Slices", 1) - 1) {
-
-			int width = image.getWidth();
-			int height = image.getHeight();
-			int bytesPerPixel = image.getBytesPerPixel();
-			int channels = image.getMetadata().getUserData().getInteger("Channels", 1);
-			int depth = image.getMetadata().getUserData().getInteger("Slices", 1);
-
-
-			long[] dimensions = new long[] {width, height, channels, depth, timesteps_};
-			int[] blockSize = new int[] {width / 2, height / 2, 1, depth / 2, 1};
-
-			final DatasetAttributes attributes = new DatasetAttributes(
-					dimensions,
-					blockSize,
-					bytesPerPixel == 1 ? DataType.UINT8 : DataType.UINT16,
-					compression);
-
-			String datasetName = makeDatasetName(coords);
-
-			if (writer != null) writer.createDataset(datasetName, attributes);
-			datasetList_.put(datasetName, datasetName);
-
-			int time = coords.getT();
-			int angle = coords.getP();
-			final long[] gridPosition = new long[5];
-			gridPosition[4] = time;
-
-			RandomAccessibleInterval source;
-
-			if(!amLoading_) {
-				for (int ch = 0; ch < channels; ch++) {
-					gridPosition[2] = ch;
-					if (bytesPerPixel == 1) {
-						final Img rai = ImageJFunctions.<UnsignedByteType>wrap(new ImagePlus("t=" + time + "/angle=" + angle, imageStacks[ch]));
-						source = Views.addDimension(Views.zeroMin(rai), 0, 0);
-					} else {
-						final Img rai = ImageJFunctions.<UnsignedShortType>wrap(new ImagePlus("t=" + time + "/angle=" + angle, imageStacks[ch]));
-						source = Views.addDimension(Views.zeroMin(rai), 0, 0);
-					}
-
-					source = Views.addDimension(source, 0, 0);
-					source = Views.moveAxis(source, 2, 3);
-
-					if (writer != null) {
-						try {
-							N5Utils.saveBlock(source, writer, datasetName, gridPosition, exec);
-						} catch (InterruptedException e) {
-							e.printStackTrace();
-						} catch (ExecutionException e) {
-							e.printStackTrace();
-						} catch (Exception e) {
-							e.printStackTrace();
-						}
-					}
-				}
-			}
-
-			timeFinished_.put(time, true);
+			// While writing, the slab writer marks the time point as finished
+			// once its last slab is on disk (see saveImageFile).
+			datasetList_.put(dataset, dataset);
+			timeFinished_.put(timeKey(dataset, coords.getT()), true);
 		}
 
 		if (!coordsToFilename_.containsKey(coords)) {
@@ -435,32 +421,111 @@ public class N5MicroManagerStorage implements Storage {
 
 			Coords coords = image.getCoords();
 
-			cache_.put(coords.getZ() + "" + coords.getC(), ip);
+			cache_.put(coords, ip);
 			int ch = coords.getC();
-			int pos = coords.getP();
 			int plane = coords.getZ();
 			int time = coords.getT();
 
 			Metadata m = image.getMetadata();
-
+			int channels = m.getUserData().getInteger("Channels", 1);
+			int depth = m.getUserData().getInteger("Slices", 1);
 
 			if(ch == 0 && plane == 0) {
-				timeFinished_.put(time, false);
-				int channels = m.getUserData().getInteger("Channels", 1);
+				timeFinished_.put(timeKey(tiffFileName, time), false);
+
+				blockDepth = Math.max(1, Math.min(depth / 2, MAX_BLOCK_DEPTH));
 
-				imageStacks = new ImageStack[channels];
+				long[] dimensions = new long[] {width, height, channels, depth, timesteps_};
+				int[] blockSize = new int[] {Math.max(1, width / 2), Math.max(1, height / 2), 1, blockDepth, 1};
+
+				final DatasetAttributes attributes = new DatasetAttributes(
+						dimensions,
+						blockSize,
+						bytesPerPixel == 1 ? DataType.UINT8 : DataType.UINT16,
+						compression);
+
+				if (writer != null) writer.createDataset(tiffFileName, attributes);
+				datasetList_.put(tiffFileName, tiffFileName);
+
+				slabs = new ArrayList<>(channels);
+				slabStart = new int[channels];
 				for(int i = 0; i < channels; i++) {
-					imageStacks[i] = new ImageStack(width, height);
+					slabs.add(new LinkedHashMap<>());
 				}
 			}
 
-			imageStacks[coords.getC()].addSlice(ip);
-			coordsMetadata_.put(coords, metadataJSON);
+			slabs.get(ch).put(coords, ip);
+
+			// Hand the slab over to the writer as soon as one block depth has
+			// arrived (or the stack is complete), and keep filling a new one.
+			if(slabs.get(ch).size() == blockDepth || plane == depth - 1) {
+				final boolean lastSlab = ch == channels - 1 && plane == depth - 1;
+				writeSlab(tiffFileName, slabs.get(ch), width, height, bytesPerPixel, ch, slabStart[ch], time, lastSlab);
+				slabs.set(ch, new LinkedHashMap<>());
+				slabStart[ch] = plane + 1;
+			}
 		} catch (IllegalArgumentException ex) {
 			ReportingUtils.logError(ex);
 		}
 	}
 
+	private void writeSlab(final String datasetName, final Map<Coords, ImageProcessor> planes, final int width, final int height,
+						   final int bytesPerPixel, final int ch, final int zStart, final int time, final boolean lastSlab) {
+		final int gridZ = zStart / blockDepth;
+
+		slabWriter.submit(() -> {
+			final ImageStack slab = new ImageStack(width, height);
+			for (ImageProcessor ip : planes.values()) {
+				slab.addSlice(ip);
+			}
+			final ImagePlus imp = new ImagePlus("t=" + time + "/ch=" + ch + "/z=" + zStart, slab);
+			RandomAccessibleInterval source;
+			if (bytesPerPixel == 1) {
+				final Img rai = ImageJFunctions.<UnsignedByteType>wrap(imp);
+				source = Views.addDimension(Views.zeroMin(rai), 0, 0);
+			} else {
+				final Img rai = ImageJFunctions.<UnsignedShortType>wrap(imp);
+				source = Views.addDimension(Views.zeroMin(rai), 0, 0);
+			}
+
+			// A single plane slab is wrapped as x, y only
+			if (source.numDimensions() == 3) {
+				source = Views.addDimension(source, 0, 0);
+			}
+
+			// x, y, z, c, t -> x, y, c, z, t
+			source = Views.addDimension(source, 0, 0);
+			source = Views.moveAxis(source, 2, 3);
+
+			final long[] gridPosition = new long[] {0, 0, ch, gridZ, time};
+
+			if (writer != null) {
+				try {
+					N5Utils.saveBlock(source, writer, datasetName, gridPosition, exec);
+
+					final int[] blockSize = writer.getDatasetAttributes(datasetName).getBlockSize();
+					for (long by = 0; by * blockSize[1] < slab.getHeight(); by++) {
+						for (long bx = 0; bx * blockSize[0] < slab.getWidth(); bx++) {
+							N5BlockCache.getInstance().invalidateBlock(n5Root(), datasetName, new long[] {bx, by, ch, gridZ, time});
+						}
+					}
+				} catch (InterruptedException | ExecutionException | IOException e) {
+					ReportingUtils.logError(e, "Failed to write the slab t=" + time + " ch=" + ch + " z=" + zStart);
+				}
+			}
+
+			// The planes can be read back from the dataset from now on. A plane
+			// put again under the same coords in the meantime stays cached.
+			for (Map.Entry<Coords, ImageProcessor> plane : planes.entrySet()) {
+				cache_.remove(plane.getKey(), plane.getValue());
+			}
+
+			if (lastSlab) {
+				timeFinished_.put(timeKey(datasetName, time), true);
+			}
+		});
+	}
+
 	@SuppressWarnings("Duplicates")
 	private void openNewDataSet(Image image) throws Exception {
 		String posName = image.getMetadata().getPositionName("");
@@ -509,14 +574,18 @@ public class N5MicroManagerStorage implements Storage {
 		PropertyKey.IJ_TYPE.storeInGsonObject(formatPmap, jo);
 		PropertyKey.PIXEL_TYPE.storeInGsonObject(formatPmap, jo);
 		jo.add("StorageType", new JsonPrimitive(StorageType.N5.name()));
+		jo.add("Compression", new JsonPrimitive(codec_.name()));
+		jo.add("CompressionLevel", new JsonPrimitive(codecLevel_));
 		Gson gson = new GsonBuilder().disableHtmlEscaping().
 				setPrettyPrinting().create();
 		writeJSONMetadata(pos, gson.toJson(jo), "Summary");
+		metadataIndex_ = MetadataIndex.create(dir_, prefix_);
 
 		// Writer
 		writer = new N5FSWriter( dir_ + "/" + prefix_ + ".n5" );
-		compression = new GzipCompression();
-		exec = Executors.newFixedThreadPool(10);
+		compression = codec_.create(codecLevel_);
+		exec = IOScheduler.getInstance().getBlockPool();
+		slabWriter = IOScheduler.getInstance().newLane("uOpenSPIM-N5-slab");
 	}
 
 	@SuppressWarnings("Duplicates")
@@ -557,23 +626,8 @@ public class N5MicroManagerStorage implements Storage {
 	private void writeFrameMetadata(final Image image, final String metadataJSON,
 									final String fileName) {
 		try {
-			String coords = image.getCoords().toString();
-			String coordsKey = "Coords-" + coords;
-
-			// Use 0 for situations where there's no index information.
-//			int pos = Math.max(0, image.getCoords().getStagePosition());
-			int pos = 0;
-			JsonObject jo = new JsonObject();
-			NonPropertyMapJSONFormats.coords().addToGson(jo,
-					((DefaultCoords) image.getCoords()).toPropertyMap());
-			jo.add("FileName", new JsonPrimitive(fileName));
-
-			Gson gson = new GsonBuilder().disableHtmlEscaping().
-					setPrettyPrinting().create();
-			writeJSONMetadata(pos, gson.toJson(jo), coordsKey);
-
-			String mdKey = "Metadata-" + coords;
-			writeJSONMetadata(pos, metadataJSON, mdKey);
+			// The Summary stays in the JSON, the planes go to the binary index
+			metadataIndex_.append(image.getCoords(), fileName, image.getCoords().getZ(), metadataJSON);
 		} catch (Exception ex) {
 			ReportingUtils.logError(ex);
 		}
@@ -590,26 +644,12 @@ public class N5MicroManagerStorage implements Storage {
 
 		String dataset = coordsToFilename_.get(coords);
 
-		int c = coords.getC();
-		int z = coords.getZ();
-		int t = coords.getT();
-
-		if(!timeFinished_.get(t)) {
-			String key = z + "" + c;
-			if(cache_.containsKey(key)) {
-				ImagePlus imp = new ImagePlus(prefix_, cache_.get(key));
+		if(!timeFinished_.getOrDefault(timeKey(dataset, coords.getT()), true)) {
+			// The planes which are not written yet are still in the cache
+			ImageProcessor ip = cache_.get(coords);
+			if(ip != null) {
+				ImagePlus imp = new ImagePlus(prefix_, ip);
 				return makeDefaultImage(coords, imp.getProcessor());
-			} else {
-				return null;
-			}
-		}
-
-		if(!impMap_.containsKey(dataset)) {
-			try {
-				RandomAccessibleInterval rai = (writer != null) ? N5Utils.open(writer, dataset) : N5Utils.open(reader, dataset);
-				impMap_.put(dataset, rai);
-			} catch (IOException e) {
-				e.printStackTrace();
 			}
 		}
 
@@ -617,79 +657,52 @@ public class N5MicroManagerStorage implements Storage {
 	}
 
 	@SuppressWarnings("Duplicates")
-	< T extends NumericType< T > & NativeType< T > > ImageProcessor getProcessor(Coords coords) {
-
+	ImageProcessor getProcessor(Coords coords) {
 		String dataset = coordsToFilename_.get(coords);
+		N5Reader n5 = (writer != null) ? writer : reader;
 
-		int c = coords.getC();
-		int z = coords.getZ();
-		int t = coords.getT();
-
-		RandomAccessibleInterval<T> rai = impMap_.get(dataset);
-
-		DatasetAttributes attributes = null;
+		final Object pixels;
+		final long[] dims;
+		final DataType dataType;
 		try {
-			if(writer != null)
-				attributes = writer.getDatasetAttributes(dataset);
-			else if(reader != null)
-				attributes = reader.getDatasetAttributes(dataset);
+			N5BlockCache blockCache = N5BlockCache.getInstance();
+			DatasetAttributes attributes = blockCache.getAttributes(n5, n5Root(), dataset);
+			dims = attributes.getDimensions();
+			dataType = attributes.getDataType();
+			// x, y, c, z, t
+			pixels = blockCache.readPlane(n5, n5Root(), dataset, new long[] {0, 0, coords.getC(), coords.getZ(), coords.getT()}, 3);
 		} catch (IOException e) {
-			e.printStackTrace();
+			ReportingUtils.logError(e, "Failed to read " + coords + " from " + dataset);
+			return null;
 		}
 
-		final long[] dims = attributes.getDimensions();
-		final long[] dimensions = new long[] {dims[0], dims[1], 1};
-
-		final ImagePlusImg<T, ?> impImg;
-		switch (attributes.getDataType()) {
+		final int w = (int) dims[0];
+		final int h = (int) dims[1];
+		switch (dataType) {
 			case UINT8:
-				impImg = (ImagePlusImg)ImagePlusImgs.unsignedBytes(dimensions);
-				break;
 			case INT8:
-				impImg = (ImagePlusImg)ImagePlusImgs.bytes(dimensions);
-				break;
+				return new ByteProcessor(w, h, (byte[]) pixels);
 			case UINT16:
-				impImg = (ImagePlusImg)ImagePlusImgs.unsignedShorts(dimensions);
-				break;
 			case INT16:
-				impImg = (ImagePlusImg)ImagePlusImgs.shorts(dimensions);
-				break;
-			case UINT32:
-				impImg = (ImagePlusImg)ImagePlusImgs.unsignedInts(dimensions);
-				break;
-			case INT32:
-				impImg = (ImagePlusImg)ImagePlusImgs.ints(dimensions);
-				break;
+				return new ShortProcessor(w, h, (short[]) pixels, null);
 			case FLOAT32:
-				impImg = (ImagePlusImg) ImagePlusImgs.floats(dimensions);
-				break;
+				return new FloatProcessor(w, h, (float[]) pixels);
 			default:
-				System.err.println("Data type " + attributes.getDataType() + " not supported in ImageJ.");
+				System.err.println("Data type " + dataType + " not supported in ImageJ.");
 				return null;
 		}
+	}
 
-		//long[] dimensions = new long[] {width, height, channels, depth, timesteps_};
-		long[] offset = new long[dims.length];
-		offset[2] = c;
-		offset[3] = z;
-		offset[4] = t;
-
-		dims[2] = 1;
-		dims[3] = 1;
-		dims[4] = 1;
-
-		IntervalView v = Views.offsetInterval(rai, offset, dims);
-
-		final Cursor<T> cursor = v.cursor();
-		final Cursor<T> impCursor = impImg.cursor();
-
-		while(cursor.hasNext()) {
-			cursor.fwd();
-			impCursor.fwd();
-			impCursor.get().set(cursor.get());
-		}
+	private String n5Root() {
+		return dir_ + "/" + prefix_ + ".n5";
+	}
 
-		return impImg.getImagePlus().getProcessor();
+	private String getMetadataJSON(Coords coords) {
+		// Datasets written before the plane index keep the metadata in the JSON
+		String metadataJSON = coordsMetadata_.get(coords);
+		if (metadataJSON == null && metadataIndex_ != null)
+			metadataJSON = metadataIndex_.readMetadata(coords);
+		return metadataJSON;
 	}
 
 	@SuppressWarnings("Duplicates")
@@ -697,7 +710,7 @@ public class N5MicroManagerStorage implements Storage {
 		Metadata metadata;
 
 		try {
-			String metadataJSON = coordsMetadata_.get(coords);
+			String metadataJSON = getMetadataJSON(coords);
 			metadata = DefaultMetadata.fromPropertyMap(
 					NonPropertyMapJSONFormats.metadata().
 							fromJSON(metadataJSON));
@@ -825,6 +838,6 @@ public class N5MicroManagerStorage implements Storage {
 
 	@Override
 	public void close() throws IOException {
-		// We don't maintain any state that needs to be cleaned up.
+		if (metadataIndex_ != null) metadataIndex_.close();
 	}
 }
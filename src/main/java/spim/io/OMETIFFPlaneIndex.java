@@ -0,0 +1,216 @@
+package spim.io;
+
+import com.google.gson.JsonArray;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParser;
+import ij.process.ByteProcessor;
+import ij.process.ColorProcessor;
+import ij.process.FloatProcessor;
+import ij.process.ImageProcessor;
+import ij.process.ShortProcessor;
+import loci.common.DataTools;
+import loci.common.RandomAccessInputStream;
+import loci.formats.FormatException;
+import loci.formats.FormatTools;
+import loci.formats.tiff.IFD;
+import loci.formats.tiff.TiffParser;
+import org.micromanager.internal.utils.ReportingUtils;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileReader;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.Writer;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Description: Plane index of the OME-TIFF files of a dataset.
+ * When a file is closed, the IFD offsets reported by its writer are matched
+ * with the planes in the order they were written and appended to
+ * prefix_ifd_index.txt, one JSON line per file. A plane is then read by
+ * seeking straight to its IFD instead of parsing the OME-XML and the IFD chain
+ * again. The parsers of the recently used files are kept open.
+ *
+ * Author: HongKee Moon (moon@mpi-cbg.de), Scientific Computing Facility
+ * Organization: MPI-CBG Dresden
+ * Date: October 2026
+ */
+public class OMETIFFPlaneIndex {
+	private static final int MAX_OPEN_FILES = 8;
+
+	private final String dir_;
+	private final File indexFile_;
+	// file name -> (c, z) -> IFD offset
+	private final ConcurrentHashMap<String, Map<Long, Long>> offsets_ = new ConcurrentHashMap<>();
+	private final LinkedHashMap<String, TiffParser> parsers_ = new LinkedHashMap<>(16, 0.75f, true);
+
+	public OMETIFFPlaneIndex(String dir, String prefix) {
+		dir_ = dir;
+		indexFile_ = new File(dir, prefix + "_ifd_index.txt");
+	}
+
+	private static long key(int c, int z) {
+		return ((long) c << 32) | (z & 0xffffffffL);
+	}
+
+	/**
+	 * Loads the persisted index of an existing dataset.
+	 */
+	public void load() {
+		if (!indexFile_.exists())
+			return;
+
+		try (BufferedReader reader = new BufferedReader(new FileReader(indexFile_))) {
+			String line;
+			while ((line = reader.readLine()) != null) {
+				if (line.trim().isEmpty())
+					continue;
+				JsonObject jo = new JsonParser().parse(line).getAsJsonObject();
+				Map<Long, Long> planes = new ConcurrentHashMap<>();
+				for (com.google.gson.JsonElement e : jo.getAsJsonArray("Planes")) {
+					JsonArray plane = e.getAsJsonArray();
+					planes.put(key(plane.get(0).getAsInt(), plane.get(1).getAsInt()), plane.get(2).getAsLong());
+				}
+				offsets_.put(jo.get("FileName").getAsString(), planes);
+			}
+		} catch (IOException | RuntimeException e) {
+			// A damaged index only costs the fast path
+			ReportingUtils.logError(e, "Failed to read " + indexFile_);
+		}
+	}
+
+	/**
+	 * Adds a closed file with the IFD offsets of its writer.
+	 *
+	 * @param fileName the file name in the dataset directory
+	 * @param writeOrder the (c, z) of the planes in the order they were written
+	 * @param ifdOffsets the IFD offsets in the same order
+	 */
+	public void add(String fileName, List<int[]> writeOrder, long[] ifdOffsets) {
+		if (ifdOffsets.length != writeOrder.size()) {
+			ReportingUtils.logError(String.format("%s has %d IFDs for %d planes, it is read without the index",
+					fileName, ifdOffsets.length, writeOrder.size()));
+			return;
+		}
+
+		Map<Long, Long> planes = new ConcurrentHashMap<>();
+		JsonArray array = new JsonArray();
+		for (int i = 0; i < ifdOffsets.length; i++) {
+			final int[] cz = writeOrder.get(i);
+			planes.put(key(cz[0], cz[1]), ifdOffsets[i]);
+
+			JsonArray plane = new JsonArray();
+			plane.add(cz[0]);
+			plane.add(cz[1]);
+			plane.add(ifdOffsets[i]);
+			array.add(plane);
+		}
+		offsets_.put(fileName, planes);
+
+		JsonObject jo = new JsonObject();
+		jo.addProperty("FileName", fileName);
+		jo.add("Planes", array);
+		synchronized (indexFile_) {
+			try (Writer writer = new FileWriter(indexFile_, true)) {
+				writer.write(jo.toString() + "\n");
+			} catch (IOException e) {
+				ReportingUtils.logError(e, "Failed to write " + indexFile_);
+			}
+		}
+	}
+
+	/**
+	 * Reads the plane directly from its IFD.
+	 *
+	 * @return the processor, or null if the plane is not indexed
+	 */
+	public ImageProcessor read(String fileName, int c, int z) {
+		final Map<Long, Long> planes = offsets_.get(fileName);
+		if (planes == null)
+			return null;
+		final Long offset = planes.get(key(c, z));
+		if (offset == null)
+			return null;
+
+		try {
+			final TiffParser parser = getParser(fileName);
+			synchronized (parser) {
+				final IFD ifd = parser.getIFD(offset);
+				final int width = (int) ifd.getImageWidth();
+				final int height = (int) ifd.getImageLength();
+				final int bytesPerPixel = ifd.getBytesPerSample()[0];
+				final int samplesPerPixel = ifd.getSamplesPerPixel();
+				final int planeSize = width * height;
+
+				final byte[] buf = parser.getSamples(ifd, new byte[planeSize * bytesPerPixel * samplesPerPixel]);
+				if (samplesPerPixel == 3 && bytesPerPixel == 1) {
+					// The samples come back one channel after the other
+					final byte[] r = new byte[planeSize], g = new byte[planeSize], b = new byte[planeSize];
+					System.arraycopy(buf, 0, r, 0, planeSize);
+					System.arraycopy(buf, planeSize, g, 0, planeSize);
+					System.arraycopy(buf, 2 * planeSize, b, 0, planeSize);
+					final ColorProcessor cp = new ColorProcessor(width, height);
+					cp.setRGB(r, g, b);
+					return cp;
+				}
+				if (samplesPerPixel != 1)
+					return null;
+				switch (bytesPerPixel) {
+					case 1: return new ByteProcessor(width, height, buf);
+					case 2: return new ShortProcessor(width, height,
+							(short[]) DataTools.makeDataArray(buf, 2, false, ifd.isLittleEndian()), null);
+					case 4: return ifd.getPixelType() == FormatTools.FLOAT ?
+							new FloatProcessor(width, height,
+									(float[]) DataTools.makeDataArray(buf, 4, true, ifd.isLittleEndian())) :
+							null;
+					default: return null;
+				}
+			}
+		} catch (IOException | FormatException e) {
+			ReportingUtils.logError(e, "Failed to read the plane c=" + c + " z=" + z + " of " + fileName);
+			return null;
+		}
+	}
+
+	private TiffParser getParser(String fileName) throws IOException {
+		synchronized (parsers_) {
+			TiffParser parser = parsers_.get(fileName);
+			if (parser == null) {
+				parser = new TiffParser(new RandomAccessInputStream(new File(dir_, fileName).getAbsolutePath()));
+				// Detects BigTIFF and the byte order before seeking to the IFDs
+				parser.checkHeader();
+				parsers_.put(fileName, parser);
+
+				Iterator<Map.Entry<String, TiffParser>> it = parsers_.entrySet().iterator();
+				while (parsers_.size() > MAX_OPEN_FILES && it.hasNext()) {
+					TiffParser eldest = it.next().getValue();
+					it.remove();
+					synchronized (eldest) {
+						eldest.getStream().close();
+					}
+				}
+			}
+			return parser;
+		}
+	}
+
+	public void close() {
+		synchronized (parsers_) {
+			for (TiffParser parser : parsers_.values()) {
+				try {
+					synchronized (parser) {
+						parser.getStream().close();
+					}
+				} catch (IOException e) {
+					ReportingUtils.logError(e);
+				}
+			}
+			parsers_.clear();
+		}
+	}
+}
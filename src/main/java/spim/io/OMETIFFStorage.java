@@ -5,7 +5,6 @@ import com.google.gson.*;
 import ij.ImagePlus;
 import ij.process.*;
 import javafx.application.Platform;
-import loci.common.DataTools;
 import loci.common.DebugTools;
 import loci.common.services.DependencyException;
 import loci.common.services.ServiceException;
@@ -49,6 +48,8 @@ public class OMETIFFStorage implements Storage {
 	private boolean firstElement_;
 	private boolean amLoading_;
 	private HashMap<Integer, Writer> metadataStreams_;
+	// Coords, file name and metadata of the planes, see MetadataIndex
+	private MetadataIndex metadataIndex_;
 	private boolean isDatasetWritable_;
 	private SummaryMetadata summaryMetadata_ = (new DefaultSummaryMetadata.Builder()).build();
 	private ConcurrentHashMap<Coords, String> coordsToFilename_;
@@ -58,14 +59,26 @@ public class OMETIFFStorage implements Storage {
 	private Image firstImage_;
 
 
-	private IMetadata meta;
-	private IFormatWriter writer;
+	private OMETIFFStreamWriter writer;
+	// OME values of the planes of the file being written, turned into its OME-XML when it is closed
+	// The planes of every position, over all the files of the dataset
+	private final TreeMap<Integer, List<PlaneInfo>> planeInfos_ = new TreeMap<>();
+	private int sizeZ_ = 1, sizeC_ = 1, sizeT_ = 1;
+	private int samplesPerPixel_ = 1;
+	private double zStep_ = 1;
+	private PixelType pixelType_ = PixelType.UINT16;
 	private int zSize = 1, cSize = 1;
 	private HashMap<Coords, String> coordsMetadata_ = new HashMap<>();
 	private HashMap<String, Boolean> closedFile_ = new HashMap<>();
-	private HashMap<String, ImageProcessorReader> iprMap_ = new HashMap<>();
+	private LinkedHashMap<String, ImageProcessorReader> iprMap_ = new LinkedHashMap<>(16, 0.75f, true);
 	private HashMap<String, ImageProcessor> cache_ = new HashMap<>();
-	private int lastPosition = 0;
+
+	// Bio-Formats readers kept open for the files which are not indexed
+	private static final int MAX_OPEN_READERS = 4;
+	private final OMETIFFPlaneIndex planeIndex_;
+	// (c, z) of the planes of the file being written, in the order they are written
+	private String currentFile_;
+	private List<int[]> writeOrder_ = new ArrayList<>();
 
 	static {
 		DebugTools.enableLogging( "OFF" );
@@ -90,9 +103,11 @@ public class OMETIFFStorage implements Storage {
 		orderedChannelNames_ = new ArrayList<String>();
 		maxIndices_ = new DefaultCoords.Builder().build();
 		amLoading_ = false;
+		planeIndex_ = new OMETIFFPlaneIndex(dir_, prefix_);
 
 		// Note: this will throw an error if there is no existing data set
 		if (!isDatasetWritable_) {
+			planeIndex_.load();
 			openExistingDataSet();
 		}
 	}
@@ -113,6 +128,8 @@ public class OMETIFFStorage implements Storage {
 			throw new IOException("Unable to find dataset at " + dir_);
 		}
 
+		metadataIndex_ = MetadataIndex.open(dir_, prefix_);
+
 		for (int positionIndex = 0; positionIndex < positions.size();
 			 ++positionIndex) {
 			String position = positions.get(positionIndex);
@@ -128,6 +145,14 @@ public class OMETIFFStorage implements Storage {
 									data.get(PropertyKey.SUMMARY.key())));
 				}
 
+				if (metadataIndex_ != null) {
+					// The metadata of the planes is read when they are asked for
+					for (MetadataIndex.Record record : metadataIndex_.getRecords()) {
+						loadImage(record.getCoords(), record.getFileName());
+					}
+					continue;
+				}
+
 				// We have two methods to recover the image coordinates from the
 				// metadata. The old 1.4 method uses a "FrameKey" key that holds
 				// the time, channel, and Z indices specifically, and stows all
@@ -158,21 +183,7 @@ public class OMETIFFStorage implements Storage {
 					else if (key.startsWith("Metadata-")) { // Possibly "Metadata-*"
 						// Not a key we can extract useful information from.
 						coordsMetadata_.put(coords, entry.getValue().getAsJsonObject().toString());
-
-						try {
-							// TODO: omitting pixel type information.
-//							if (!(new File(dir_ + "/" + fileName)).exists()) {
-//								ReportingUtils.logError("For key " + key + " tried to find file at " + fileName + " but it did not exist");
-//							}
-							// This will update our internal records without touching
-							// the disk, as amLoading_ is true.
-							coordsToFilename_.put(coords, fileName);
-							closedFile_.put(fileName, true);
-							Image image = getImage(coords);
-							putImage(image);
-						} catch (Exception ex) {
-							ReportingUtils.showError(ex);
-						}
+						loadImage(coords, fileName);
 					}
 				}
 			} catch (NumberFormatException ex) {
@@ -182,12 +193,43 @@ public class OMETIFFStorage implements Storage {
 		amLoading_ = false;
 	}
 
+	@SuppressWarnings("Duplicates")
+	private void loadImage(Coords coords, String fileName) {
+		try {
+			// TODO: omitting pixel type information.
+			// This will update our internal records without touching
+			// the disk, as amLoading_ is true.
+			coordsToFilename_.put(coords, fileName);
+			closedFile_.put(fileName, true);
+			Image image = getImage(coords);
+			putImage(image);
+		} catch (Exception ex) {
+			ReportingUtils.showError(ex);
+		}
+	}
+
 	@Override
 	public void freeze() throws IOException {
 		closeMetadataStreams();
 		isDatasetWritable_ = false;
-		if(writer != null) {
-			writer.close();
+		closeCurrentFile();
+		writeCompanionFile();
+	}
+
+	private void indexCurrentFile(List<Long> ifdOffsets) {
+		if(currentFile_ != null) {
+			// A reader opened before the file was complete must not be reused
+			synchronized (iprMap_) {
+				ImageProcessorReader ipr = iprMap_.remove(dir_ + "/" + currentFile_);
+				if (ipr != null) closeReader(ipr);
+			}
+			long[] offsets = new long[ifdOffsets.size()];
+			for (int i = 0; i < offsets.length; i++) {
+				offsets[i] = ifdOffsets.get(i);
+			}
+			planeIndex_.add(currentFile_, writeOrder_, offsets);
+			currentFile_ = null;
+			writeOrder_ = new ArrayList<>();
 		}
 	}
 
@@ -290,7 +332,6 @@ public class OMETIFFStorage implements Storage {
 		} else {
 			ImageSizeChecker.checkImageSizes(firstImage_, image);
 		}
-		byte[] data;
 		try {
 			int width = image.getWidth();
 			int height = image.getHeight();
@@ -299,35 +340,38 @@ public class OMETIFFStorage implements Storage {
 			int numComponents = image.getNumComponents();
 
 			ImageProcessor ip;
+			Object data = pixels;
 			if (numComponents == 3 && bytesPerPixel == 4) {
-				// 32-bit RGB
+				// 32-bit RGB, stored as 8-bit RGB samples
 				int[] rgbPixels = new int[width * height];
+				byte[] rgb = new byte[width * height * 3];
 				byte[] rawPixels = (byte[]) pixels;
 				for (int i=0; i < width * height; i++) {
 					rgbPixels[i] = (rawPixels[4 * i + 3] << (Byte.SIZE * 3));
 					rgbPixels[i] |= (rawPixels[4 * i + 2] & 0xFF) << (Byte.SIZE * 2);
 					rgbPixels[i] |= (rawPixels[4 * i + 1] & 0xFF) << (Byte.SIZE * 1);
 					rgbPixels[i] |= (rawPixels[4 * i] & 0xFF);
+
+					rgb[3 * i] = rawPixels[4 * i + 2];
+					rgb[3 * i + 1] = rawPixels[4 * i + 1];
+					rgb[3 * i + 2] = rawPixels[4 * i];
 				}
 
-				data = DataTools.intsToBytes(rgbPixels, false);
+				data = rgb;
 				ip = new ColorProcessor(width, height, rgbPixels);
 			}
 			else if (numComponents == 1 && bytesPerPixel == 1) {
 				// Byte
-				data = (byte[]) pixels;
 				ip = new ByteProcessor(width, height);
 				ip.setPixels((byte[])pixels);
 			}
 			else if (numComponents == 1 && bytesPerPixel == 2) {
 				// Short
-				data = DataTools.shortsToBytes((short[])pixels, false);
 				ip = new ShortProcessor(width, height);
 				ip.setPixels((short[])pixels);
 			}
 			else if (numComponents == 1 && bytesPerPixel == 4) {
 				// Float
-				data = DataTools.floatsToBytes((float[])pixels, false);
 				ip = new FloatProcessor(width, height);
 				ip.setPixels((float[])pixels);
 			}
@@ -339,96 +383,192 @@ public class OMETIFFStorage implements Storage {
 				Coords coords = image.getCoords();
 
 				cache_.put(coords.getZ() + "" + coords.getC(), ip);
-				int pos = coords.getP();
-				int plane = coords.getZ();
-				int time = coords.getT();
 
 				Metadata m = image.getMetadata();
+				int channels = m.getUserData().getInteger("Channels", 1);
+				int slices = m.getUserData().getInteger("Slices", 1);
+
+				// Every time point and position has its own file
+				if(!tiffFileName.equals(currentFile_)) {
+					closeCurrentFile();
+
+					sizeC_ = channels;
+					sizeZ_ = slices;
+					sizeT_ = Math.max(sizeT_, coords.getT() + 1);
+					zStep_ = m.getUserData().getDouble("Z-Step-um", 1);
+					samplesPerPixel_ = numComponents == 3 ? 3 : 1;
+					pixelType_ = bytesPerPixel == 1 || numComponents == 3 ? PixelType.UINT8 : bytesPerPixel == 2 ? PixelType.UINT16 : PixelType.FLOAT;
+					writer = numComponents == 3 ?
+							new OMETIFFStreamWriter(new File(path, tiffFileName), width, height, 1, 3) :
+							new OMETIFFStreamWriter(new File(path, tiffFileName), width, height, bytesPerPixel);
+					currentFile_ = tiffFileName;
+				}
 
-				if(lastPosition != pos) doubleAnnotations = 0;
-				td = doubleAnnotations;
-
-				meta.setUUIDFileName( tiffFileName, pos, td );
-				meta.setUUIDValue( "urn:uuid:" + UUID.nameUUIDFromBytes( tiffFileName.getBytes() ).toString(), pos, td );
-
-				if(plane == 0) {
-					meta.setImageID(MetadataTools.createLSID("Image", pos), pos);
+				// The raw pixel array goes to the file as it is
+				writer.writePlane(data);
+				planeInfos_.computeIfAbsent(Math.max(0, coords.getP()), p -> new ArrayList<>())
+						.add(new PlaneInfo(coords, m, tiffFileName, writeOrder_.size()));
+				writeOrder_.add(new int[] {coords.getC(), coords.getZ()});
 
-					meta.setPixelsID(MetadataTools.createLSID("Pixels", 0), pos);
-					meta.setPixelsDimensionOrder(DimensionOrder.XYCZT, pos);
-					meta.setPixelsBinDataBigEndian(Boolean.FALSE, pos, 0);
-					meta.setPixelsType(image.getBytesPerPixel() == 1 ? ome.xml.model.enums.PixelType.UINT8 : PixelType.UINT16, pos);
-					meta.setUUID(meta.getUUIDValue(pos, plane));
+				// Finish the file with its OME-XML as soon as the stack is complete
+				if(coords.getC() == channels - 1 && coords.getZ() == slices - 1) {
+					closeCurrentFile();
 				}
+			} catch(IOException ioe) {
+				closeCurrentFile();
+				throw new Exception("Error writing OME-TIFF.", ioe);
+			}
 
-				meta.setTiffDataPlaneCount(new NonNegativeInteger( 1 ), pos, td);
-				meta.setTiffDataFirstT(new NonNegativeInteger( coords.getT() ), pos, td);
-				meta.setTiffDataFirstC(new NonNegativeInteger( coords.getC() ), pos, td);
-				meta.setTiffDataFirstZ(new NonNegativeInteger( coords.getZ() ), pos, td);
+		} catch (IllegalArgumentException ex) {
+			ReportingUtils.logError(ex);
+		}
+	}
 
-				meta.setChannelID( MetadataTools.createLSID( "Channel", coords.getC() ), pos, td );
-				meta.setChannelSamplesPerPixel( new PositiveInteger( 1 ), pos, td );
+	private static class PlaneInfo {
+		final int c, z, t, position;
+		final String fileName;
+		// The IFD of the plane within its file
+		final int ifd;
+		final double deltaT;
+		final Double exposure, x, y, zPosition;
+
+		PlaneInfo(Coords coords, Metadata m, String fileName, int ifd) {
+			c = coords.getC();
+			z = coords.getZ();
+			t = Math.max(0, coords.getT());
+			position = Math.max(0, coords.getP());
+			this.fileName = fileName;
+			this.ifd = ifd;
+			deltaT = m.getElapsedTimeMs(0);
+			exposure = m.getExposureMs();
+			x = m.getXPositionUm();
+			y = m.getYPositionUm();
+			zPosition = m.getZPositionUm();
+		}
+	}
 
-				meta.setPlanePositionX(new Length(m.getXPositionUm(), UNITS.REFERENCEFRAME), pos, plane);
-				meta.setPlanePositionY(new Length(m.getYPositionUm(), UNITS.REFERENCEFRAME), pos, plane);
-				meta.setPlanePositionZ(new Length(m.getZPositionUm(), UNITS.REFERENCEFRAME), pos, plane);
+	private void closeCurrentFile() {
+		if(writer == null) {
+			return;
+		}
+		try {
+			writer.close(buildBinaryOnlyXML(currentFile_));
+		} catch (IOException | DependencyException | ServiceException e) {
+			ReportingUtils.logError(e, "Failed to finish " + currentFile_);
+		}
+		indexCurrentFile(writer.getIfdOffsets());
+		writer = null;
+	}
 
-				meta.setPlaneTheC(new NonNegativeInteger(coords.getC()), pos, plane);
-				meta.setPlaneTheZ(new NonNegativeInteger(plane), pos, plane);
-				meta.setPlaneTheT(new NonNegativeInteger(time), pos, plane);
+	private String companionFileName() {
+		return prefix_ + ".companion.ome";
+	}
 
-				meta.setPlaneDeltaT(new Time(m.getElapsedTimeMs(0), UNITS.MS), pos, plane);
-				meta.setPlaneExposureTime(new Time(m.getExposureMs(), UNITS.MS), pos, plane);
+	private static String uuidOf(String fileName) {
+		return "urn:uuid:" + UUID.nameUUIDFromBytes( fileName.getBytes() ).toString();
+	}
 
-				// This is the placeholder for rotation angle
-				storeDouble(pos, plane, 0, "Theta", 0);
+	/**
+	 * Builds the OME-XML of a TIFF file of the dataset. It only names the file
+	 * and points to the companion file, which describes all the files together
+	 * once the dataset is frozen. The files stay small and are written once.
+	 */
+	private String buildBinaryOnlyXML(String fileName) throws DependencyException, ServiceException {
+		ServiceFactory factory = new ServiceFactory();
+		OMEXMLService service = factory.getInstance(OMEXMLService.class);
+		IMetadata meta = service.createOMEXMLMetadata();
+		meta.createRoot();
 
-				if(plane == 0) {
-					if(writer != null) {
-						writer.close();
-					}
-					meta.setPixelsSizeX(new PositiveInteger(image.getWidth()), pos);
-					meta.setPixelsSizeY(new PositiveInteger(image.getHeight()), pos);
-					meta.setPixelsSizeZ(new PositiveInteger(image.getMetadata().getUserData().getInteger("Slices", 1)), pos);
-					meta.setPixelsSizeC(new PositiveInteger(image.getMetadata().getUserData().getInteger("Channels", 1)), pos);
-
-					meta.setPixelsPhysicalSizeZ(FormatTools.getPhysicalSizeX(image.getMetadata().getUserData().getDouble("Z-Step-um", 1)), pos);
-					meta.setPixelsSizeT(new PositiveInteger(1), pos);
-					meta.setPixelsTimeIncrement(new Time( 1, UNITS.SECOND ), pos);
-
-					writer.setMetadataRetrieve(meta);
-					writer.changeOutputFile(new File(path, meta.getUUIDFileName(pos, td)).getAbsolutePath());
-					writer.setSeries(pos);
-				}
+		meta.setUUID(uuidOf(fileName));
+		meta.setBinaryOnlyMetadataFile(companionFileName());
+		meta.setBinaryOnlyUUID(uuidOf(companionFileName()));
 
-				writer.saveBytes(plane, data);
-				coordsMetadata_.put(coords, metadataJSON);
-			} catch(java.io.IOException ioe) {
-				if(writer != null)
-					writer.close();
-				throw new Exception("Error writing OME-TIFF.", ioe);
-			} catch (FormatException e) {
-				e.printStackTrace();
-			}
+		return service.getOMEXML(meta);
+	}
 
-		} catch (IllegalArgumentException ex) {
-			ReportingUtils.logError(ex);
+	/**
+	 * Writes the companion OME-XML of the dataset, with one image of
+	 * SizeC x SizeZ x SizeT planes per position. The TiffData of every plane
+	 * names the file by its UUID and the IFD of the plane within that file.
+	 */
+	private void writeCompanionFile() {
+		if (planeInfos_.isEmpty()) {
+			return;
+		}
+		try (Writer companion = new BufferedWriter(new FileWriter(new File(dir_, companionFileName())))) {
+			companion.write(buildCompanionXML());
+		} catch (IOException | DependencyException | ServiceException e) {
+			ReportingUtils.logError(e, "Failed to write " + companionFileName());
 		}
 	}
 
-	int td;
-
-	private int doubleAnnotations = 0;
 	@SuppressWarnings("Duplicates")
-	private int storeDouble(int image, int plane, int n, String name, double val) {
-		lastPosition = image;
-		String key = String.format("%d/%d/%d: %s", image, plane, n, name);
+	private String buildCompanionXML() throws DependencyException, ServiceException {
+		ServiceFactory factory = new ServiceFactory();
+		OMEXMLService service = factory.getInstance(OMEXMLService.class);
+		IMetadata meta = service.createOMEXMLMetadata();
+		meta.createRoot();
+
+		meta.setUUID(uuidOf(companionFileName()));
+		meta.setDatasetID(MetadataTools.createLSID("Dataset", 0), 0);
 
-		meta.setDoubleAnnotationID(key, doubleAnnotations);
-		meta.setDoubleAnnotationValue(val, doubleAnnotations);
-		meta.setPlaneAnnotationRef(key, image, plane, n);
+		int image = 0;
+		int annotation = 0;
+		for (Map.Entry<Integer, List<PlaneInfo>> entry : planeInfos_.entrySet()) {
+			final int pos = entry.getKey();
+			final List<PlaneInfo> planes = entry.getValue();
+
+			meta.setImageID(MetadataTools.createLSID("Image", image), image);
+			meta.setPixelsID(MetadataTools.createLSID("Pixels", image), image);
+			meta.setPixelsDimensionOrder(DimensionOrder.XYCZT, image);
+			meta.setPixelsBinDataBigEndian(Boolean.FALSE, image, 0);
+			meta.setPixelsType(pixelType_, image);
+			meta.setPixelsSizeX(new PositiveInteger(firstImage_.getWidth()), image);
+			meta.setPixelsSizeY(new PositiveInteger(firstImage_.getHeight()), image);
+			meta.setPixelsSizeZ(new PositiveInteger(sizeZ_), image);
+			meta.setPixelsSizeC(new PositiveInteger(sizeC_ * samplesPerPixel_), image);
+			meta.setPixelsSizeT(new PositiveInteger(sizeT_), image);
+			meta.setPixelsPhysicalSizeZ(FormatTools.getPhysicalSizeX(zStep_), image);
+			meta.setPixelsTimeIncrement(new Time( 1, UNITS.SECOND ), image);
+
+			for (int c = 0; c < sizeC_; c++) {
+				meta.setChannelID( MetadataTools.createLSID( "Channel", image, c ), image, c );
+				meta.setChannelSamplesPerPixel( new PositiveInteger( samplesPerPixel_ ), image, c );
+			}
 
-		return doubleAnnotations++;
+			for (int i = 0; i < planes.size(); i++) {
+				PlaneInfo p = planes.get(i);
+
+				meta.setTiffDataIFD(new NonNegativeInteger( p.ifd ), image, i);
+				meta.setTiffDataPlaneCount(new NonNegativeInteger( 1 ), image, i);
+				meta.setTiffDataFirstC(new NonNegativeInteger( p.c ), image, i);
+				meta.setTiffDataFirstZ(new NonNegativeInteger( p.z ), image, i);
+				meta.setTiffDataFirstT(new NonNegativeInteger( p.t ), image, i);
+				meta.setUUIDFileName( p.fileName, image, i );
+				meta.setUUIDValue( uuidOf(p.fileName), image, i );
+
+				meta.setPlaneTheC(new NonNegativeInteger(p.c), image, i);
+				meta.setPlaneTheZ(new NonNegativeInteger(p.z), image, i);
+				meta.setPlaneTheT(new NonNegativeInteger(p.t), image, i);
+
+				if (p.x != null) meta.setPlanePositionX(new Length(p.x, UNITS.REFERENCEFRAME), image, i);
+				if (p.y != null) meta.setPlanePositionY(new Length(p.y, UNITS.REFERENCEFRAME), image, i);
+				if (p.zPosition != null) meta.setPlanePositionZ(new Length(p.zPosition, UNITS.REFERENCEFRAME), image, i);
+
+				meta.setPlaneDeltaT(new Time(p.deltaT, UNITS.MS), image, i);
+				if (p.exposure != null) meta.setPlaneExposureTime(new Time(p.exposure, UNITS.MS), image, i);
+
+				// This is the placeholder for rotation angle
+				String key = String.format("%d/%d/%d: %s", pos, i, 0, "Theta");
+				meta.setDoubleAnnotationID(key, annotation);
+				meta.setDoubleAnnotationValue(0d, annotation);
+				meta.setPlaneAnnotationRef(key, image, i, 0);
+				annotation++;
+			}
+			image++;
+		}
+
+		return service.getOMEXML(meta);
 	}
 
 	@SuppressWarnings("Duplicates")
@@ -488,21 +628,7 @@ public class OMETIFFStorage implements Storage {
 		Gson gson = new GsonBuilder().disableHtmlEscaping().
 				setPrettyPrinting().create();
 		writeJSONMetadata(pos, gson.toJson(jo), "Summary");
-
-
-		meta = MetadataTools.createOMEXMLMetadata();
-		meta.createRoot();
-		meta.setDatasetID(MetadataTools.createLSID("Dataset", 0), 0);
-
-		String fileName = makeFilename(image.getCoords());
-
-		writer = new ImageWriter().getWriter(fileName);
-
-		writer.setWriteSequentially(true);
-		writer.setMetadataRetrieve(meta);
-		writer.setInterleaved(false);
-		writer.setValidBitsPerPixel(image.getMetadata().getBitDepth());
-		writer.setCompression("Uncompressed");
+		metadataIndex_ = MetadataIndex.create(dir_, prefix_);
 	}
 
 	@SuppressWarnings("Duplicates")
@@ -523,23 +649,8 @@ public class OMETIFFStorage implements Storage {
 	private void writeFrameMetadata(final Image image, final String metadataJSON,
 									final String fileName) {
 		try {
-			String coords = image.getCoords().toString();
-			String coordsKey = "Coords-" + coords;
-
-			// Use 0 for situations where there's no index information.
-//			int pos = Math.max(0, image.getCoords().getStagePosition());
-			int pos = 0;
-			JsonObject jo = new JsonObject();
-			NonPropertyMapJSONFormats.coords().addToGson(jo,
-					((DefaultCoords) image.getCoords()).toPropertyMap());
-			jo.add("FileName", new JsonPrimitive(fileName));
-
-			Gson gson = new GsonBuilder().disableHtmlEscaping().
-					setPrettyPrinting().create();
-			writeJSONMetadata(pos, gson.toJson(jo), coordsKey);
-
-			String mdKey = "Metadata-" + coords;
-			writeJSONMetadata(pos, metadataJSON, mdKey);
+			// The Summary stays in the JSON, the planes go to the binary index
+			metadataIndex_.append(image.getCoords(), fileName, image.getCoords().getZ(), metadataJSON);
 		} catch (Exception ex) {
 			ReportingUtils.logError(ex);
 		}
@@ -629,63 +740,71 @@ public class OMETIFFStorage implements Storage {
 			}
 		}
 
-		if(!iprMap_.containsKey(path) || coords.hasT() || coords.hasP()) {
-			ImageReader reader = getImageReader( path );
-			cSize = reader.getSizeC();
-			zSize = reader.getSizeZ();
-
-			iprMap_.put(path, new ImageProcessorReader(reader));
+		ImageProcessor indexed = planeIndex_.read(coordsToFilename_.get(coords), cLocal, zLocal);
+		if (indexed != null) {
+			return makeDefaultImage(coords, indexed);
 		}
 
-		ImageProcessorReader ipr = iprMap_.get(path);
+		ImageProcessor ip = null;
+		synchronized (iprMap_) {
+			if(!iprMap_.containsKey(path)) {
+				ImageReader reader = getImageReader( path );
 
-		try {
-			ipr.setId( path );
+				iprMap_.put(path, new ImageProcessorReader(reader));
 
-			int seriesIndex = Arrays.asList( ipr.getUsedFiles() ).indexOf( path );
-			if( seriesIndex != 0 )
-			{
-				if( seriesIndex < ipr.getSeriesCount() )
-				{
-					ipr.setSeries( seriesIndex );
+				Iterator<Map.Entry<String, ImageProcessorReader>> it = iprMap_.entrySet().iterator();
+				while (iprMap_.size() > MAX_OPEN_READERS && it.hasNext()) {
+					ImageProcessorReader eldest = it.next().getValue();
+					it.remove();
+					closeReader(eldest);
 				}
-				else
-					ipr.setSeries( ipr.getSeries() );
 			}
-		} catch (FormatException e) {
-			e.printStackTrace();
-		} catch (IOException e) {
-			e.printStackTrace();
-		}
 
-		int lZ = zLocal % zSize;
-		int lC = cLocal % cSize;
+			ImageProcessorReader ipr = iprMap_.get(path);
 
-		int index = 0;
-		int channel = 0;
+			// The companion file describes one series per position over all the time points
+			int seriesIndex = Math.max( 0, coords.getP() );
+			if( seriesIndex < ipr.getSeriesCount() )
+			{
+				ipr.setSeries( seriesIndex );
+			}
+			cSize = ipr.getSizeC();
+			zSize = ipr.getSizeZ();
 
-		if( ipr.getImageCount() == zSize * cSize )
-		{
-			// Add channel offset into index
-			index += lC;
-			// Add stack offset into index
-			index += lZ * cSize;
-		}
-		else
-		{
-			// Channel should be accessed by the image processor array
-			channel = lC;
-			// Add stack offset into index
-			index += lZ * cSize;
-		}
+			int lZ = zLocal % zSize;
+			int lC = cLocal % cSize;
 
-		//				System.out.println( "Tried to access index = " + index );
-		ImageProcessor ip = null;
-		try {
-			ip = ipr.openProcessors( index )[ channel ];
-		} catch (IllegalArgumentException | FormatException | ArrayIndexOutOfBoundsException | IOException e) {
-//			e.printStackTrace();
-			return null;
+			int index = 0;
+			int channel = 0;
+
+			if( ipr.getSizeT() > coords.getT() )
+			{
+				// Add time offset into index
+				index += coords.getT() * ( ipr.getImageCount() / ipr.getSizeT() );
+			}
+
+			if( ipr.getImageCount() == zSize * cSize * ipr.getSizeT() )
+			{
+				// Add channel offset into index
+				index += lC;
+				// Add stack offset into index
+				index += lZ * cSize;
+			}
+			else
+			{
+				// Channel should be accessed by the image processor array
+				channel = lC;
+				// Add stack offset into index
+				index += lZ * cSize;
+			}
+
+			//				System.out.println( "Tried to access index = " + index );
+			try {
+				ip = ipr.openProcessors( index )[ channel ];
+			} catch (IllegalArgumentException | FormatException | ArrayIndexOutOfBoundsException | IOException e) {
+//				e.printStackTrace();
+				return null;
+			}
 		}
 
 		ImagePlus imp = new ImagePlus(prefix_, ip);
@@ -703,12 +822,20 @@ public class OMETIFFStorage implements Storage {
 		}
 	}
 
+	private String getMetadataJSON(Coords coords) {
+		// Datasets written before the plane index keep the metadata in the JSON
+		String metadataJSON = coordsMetadata_.get(coords);
+		if (metadataJSON == null && metadataIndex_ != null)
+			metadataJSON = metadataIndex_.readMetadata(coords);
+		return metadataJSON;
+	}
+
 	@SuppressWarnings("Duplicates")
 	DefaultImage makeDefaultImage(Coords coords, ImageProcessor proc) {
 		Metadata metadata;
 
 		try {
-			String metadataJSON = coordsMetadata_.get(coords);
+			String metadataJSON = getMetadataJSON(coords);
 			metadata = DefaultMetadata.fromPropertyMap(
 					NonPropertyMapJSONFormats.metadata().
 							fromJSON(metadataJSON));
@@ -734,6 +861,10 @@ public class OMETIFFStorage implements Storage {
 			bytesPerPixel = 4;
 			numComponents = 3;
 		}
+		else if (proc instanceof FloatProcessor) {
+			bytesPerPixel = 4;
+			numComponents = 1;
+		}
 		else {
 			ReportingUtils.logError("Received an ImageProcessor of unrecognized type " + proc);
 			return null;
@@ -835,6 +966,21 @@ public class OMETIFFStorage implements Storage {
 
 	@Override
 	public void close() throws IOException {
-		// We don't maintain any state that needs to be cleaned up.
+		if (metadataIndex_ != null) metadataIndex_.close();
+		planeIndex_.close();
+		synchronized (iprMap_) {
+			for (ImageProcessorReader ipr : iprMap_.values()) {
+				closeReader(ipr);
+			}
+			iprMap_.clear();
+		}
+	}
+
+	private static void closeReader(ImageProcessorReader ipr) {
+		try {
+			ipr.close();
+		} catch (IOException e) {
+			ReportingUtils.logError(e);
+		}
 	}
 }
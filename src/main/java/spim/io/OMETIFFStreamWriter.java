@@ -0,0 +1,266 @@
+package spim.io;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Description: Streaming writer of little-endian, uncompressed BigTIFF files
+ * for the OME-TIFF storage. Planes are grayscale 8-bit, 16-bit or float, or
+ * 8-bit RGB with interleaved samples.
+ * Every plane is written as one strip followed by its IFD, in a single
+ * gathering write. The IFDs share a layout computed once per file, so only the
+ * strip offset and the next IFD offset change from plane to plane. The OME-XML
+ * is appended once when the file is closed, and the ImageDescription of the
+ * first IFD is pointed at it.
+ *
+ * Author: HongKee Moon (moon@mpi-cbg.de), Scientific Computing Facility
+ * Organization: MPI-CBG Dresden
+ * Date: October 2026
+ */
+public class OMETIFFStreamWriter {
+	private static final int BIGTIFF_HEADER_SIZE = 16;
+	private static final int ENTRY_SIZE = 20;
+
+	private static final short TYPE_ASCII = 2;
+	private static final short TYPE_SHORT = 3;
+	private static final short TYPE_LONG = 4;
+	private static final short TYPE_LONG8 = 16;
+
+	private static final int TAG_IMAGE_DESCRIPTION = 270;
+	private static final int TAG_STRIP_OFFSETS = 273;
+
+	private final File file;
+	private final FileChannel channel;
+	private final int width;
+	private final int height;
+	private final int bytesPerPixel;
+	private final int samplesPerPixel;
+	private final long planeBytes;
+	// The strip is padded to keep the IFDs on a word boundary
+	private final int padding;
+
+	private final ByteBuffer firstIfd;
+	private final ByteBuffer ifd;
+	private final int stripOffsetPosition;
+	private final int firstStripOffsetPosition;
+	private final int descriptionPosition;
+	private ByteBuffer planeBuffer;
+
+	private long position = BIGTIFF_HEADER_SIZE;
+	private long lastNextIfdPosition = -1;
+	private final List<Long> ifdOffsets = new ArrayList<>();
+
+	/**
+	 * Creates the file of grayscale planes and writes the BigTIFF header.
+	 *
+	 * @param file the file
+	 * @param width the width of the planes
+	 * @param height the height of the planes
+	 * @param bytesPerPixel 1 or 2 for unsigned integers, 4 for floats
+	 * @throws IOException the io exception
+	 */
+	public OMETIFFStreamWriter(File file, int width, int height, int bytesPerPixel) throws IOException {
+		this(file, width, height, bytesPerPixel, 1);
+	}
+
+	/**
+	 * Creates the file and writes the BigTIFF header.
+	 *
+	 * @param file the file
+	 * @param width the width of the planes
+	 * @param height the height of the planes
+	 * @param bytesPerSample 1 or 2 for unsigned integers, 4 for floats
+	 * @param samplesPerPixel 1 for grayscale, 3 for RGB with one byte per sample
+	 * @throws IOException the io exception
+	 */
+	public OMETIFFStreamWriter(File file, int width, int height, int bytesPerSample, int samplesPerPixel) throws IOException {
+		if (bytesPerSample != 1 && bytesPerSample != 2 && bytesPerSample != 4)
+			throw new IllegalArgumentException("Unsupported bytes per pixel: " + bytesPerSample);
+		if (samplesPerPixel != 1 && !(samplesPerPixel == 3 && bytesPerSample == 1))
+			throw new IllegalArgumentException("Unsupported " + samplesPerPixel + " samples of " + bytesPerSample + " bytes per pixel");
+
+		this.file = file;
+		this.width = width;
+		this.height = height;
+		this.bytesPerPixel = bytesPerSample;
+		this.samplesPerPixel = samplesPerPixel;
+		this.planeBytes = (long) width * height * bytesPerSample * samplesPerPixel;
+		this.padding = (int) (planeBytes & 1);
+
+		firstIfd = buildIfd(true);
+		ifd = buildIfd(false);
+		stripOffsetPosition = entryPosition(false, TAG_STRIP_OFFSETS) + 12;
+		firstStripOffsetPosition = entryPosition(true, TAG_STRIP_OFFSETS) + 12;
+		descriptionPosition = entryPosition(true, TAG_IMAGE_DESCRIPTION);
+
+		RandomAccessFile raf = new RandomAccessFile(file, "rw");
+		raf.setLength(0);
+		channel = raf.getChannel();
+
+		ByteBuffer header = ByteBuffer.allocate(BIGTIFF_HEADER_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+		header.put((byte) 'I').put((byte) 'I').putShort((short) 43).putShort((short) 8).putShort((short) 0);
+		// The first IFD directly follows the first strip
+		header.putLong(BIGTIFF_HEADER_SIZE + planeBytes + padding);
+		header.flip();
+		channel.write(header, 0);
+	}
+
+	private int[] tags(boolean first) {
+		return first ?
+				new int[] {254, 256, 257, 258, 259, 262, TAG_IMAGE_DESCRIPTION, TAG_STRIP_OFFSETS, 277, 278, 279, 284, 339} :
+				new int[] {254, 256, 257, 258, 259, 262, TAG_STRIP_OFFSETS, 277, 278, 279, 284, 339};
+	}
+
+	private int entryPosition(boolean first, int tag) {
+		final int[] tags = tags(first);
+		for (int i = 0; i < tags.length; i++) {
+			if (tags[i] == tag)
+				return 8 + i * ENTRY_SIZE;
+		}
+		throw new IllegalStateException("No entry for the tag " + tag);
+	}
+
+	// The IFD layout of every plane, with the offsets filled in per plane
+	private ByteBuffer buildIfd(boolean first) {
+		final int[] tags = tags(first);
+		ByteBuffer buffer = ByteBuffer.allocate(8 + tags.length * ENTRY_SIZE + 8).order(ByteOrder.LITTLE_ENDIAN);
+		buffer.putLong(tags.length);
+		for (int tag : tags) {
+			switch (tag) {
+				case 254: putEntry(buffer, tag, TYPE_LONG, 1, 0); break;
+				case 256: putEntry(buffer, tag, TYPE_LONG, 1, width); break;
+				case 257: putEntry(buffer, tag, TYPE_LONG, 1, height); break;
+				// Up to four SHORT values fit into the entry
+				case 258: putEntry(buffer, tag, TYPE_SHORT, samplesPerPixel, bytesPerPixel * 8); break;
+				// No compression
+				case 259: putEntry(buffer, tag, TYPE_SHORT, 1, 1); break;
+				// BlackIsZero or RGB
+				case 262: putEntry(buffer, tag, TYPE_SHORT, 1, samplesPerPixel == 3 ? 2 : 1); break;
+				// Filled in when the OME-XML is written
+				case TAG_IMAGE_DESCRIPTION: putEntry(buffer, tag, TYPE_ASCII, 0, 0); break;
+				case TAG_STRIP_OFFSETS: putEntry(buffer, tag, TYPE_LONG8, 1, 0); break;
+				case 277: putEntry(buffer, tag, TYPE_SHORT, 1, samplesPerPixel); break;
+				case 278: putEntry(buffer, tag, TYPE_LONG, 1, height); break;
+				case 279: putEntry(buffer, tag, TYPE_LONG8, 1, planeBytes); break;
+				// Chunky
+				case 284: putEntry(buffer, tag, TYPE_SHORT, 1, 1); break;
+				// Unsigned integer or IEEE floating point
+				case 339: putEntry(buffer, tag, TYPE_SHORT, samplesPerPixel, bytesPerPixel == 4 ? 3 : 1); break;
+			}
+		}
+		buffer.putLong(0);
+		return buffer;
+	}
+
+	private static void putEntry(ByteBuffer buffer, int tag, short type, long count, long value) {
+		buffer.putShort((short) tag).putShort(type).putLong(count);
+		// Values are left-justified in the 8 bytes of the entry, a SHORT value is repeated count times
+		final int start = buffer.position();
+		if (type == TYPE_SHORT)
+			for (long i = 0; i < Math.max(1, count); i++)
+				buffer.putShort((short) value);
+		else if (type == TYPE_LONG)
+			buffer.putInt((int) value);
+		else
+			buffer.putLong(value);
+		while (buffer.position() < start + 8)
+			buffer.put((byte) 0);
+	}
+
+	/**
+	 * Appends a plane and its IFD.
+	 *
+	 * @param pixels byte[], short[] or float[] of one plane, the RGB samples interleaved in a byte[]
+	 * @return the offset of the IFD of the plane
+	 * @throws IOException the io exception
+	 */
+	public long writePlane(Object pixels) throws IOException {
+		final ByteBuffer strip;
+		if (pixels instanceof byte[] && bytesPerPixel == 1) {
+			if (((byte[]) pixels).length != planeBytes)
+				throw new IllegalArgumentException("Expected " + planeBytes + " bytes for the plane, got " + ((byte[]) pixels).length);
+			strip = ByteBuffer.wrap((byte[]) pixels);
+		} else {
+			// One reused buffer, as the primitive arrays are not little-endian bytes
+			if (planeBuffer == null)
+				planeBuffer = ByteBuffer.allocateDirect((int) planeBytes).order(ByteOrder.LITTLE_ENDIAN);
+			planeBuffer.clear();
+			if (pixels instanceof short[] && bytesPerPixel == 2)
+				planeBuffer.asShortBuffer().put((short[]) pixels);
+			else if (pixels instanceof float[] && bytesPerPixel == 4)
+				planeBuffer.asFloatBuffer().put((float[]) pixels);
+			else
+				throw new IllegalArgumentException("Unexpected pixels " + pixels.getClass().getSimpleName() + " for " + bytesPerPixel + " bytes per pixel");
+			strip = planeBuffer;
+		}
+
+		final boolean first = ifdOffsets.isEmpty();
+		final ByteBuffer entries = first ? firstIfd : ifd;
+		final long stripOffset = position;
+		final long ifdOffset = stripOffset + planeBytes + padding;
+
+		entries.putLong(first ? firstStripOffsetPosition : stripOffsetPosition, stripOffset);
+		// The next plane is assumed to follow, the last IFD is terminated on close
+		final int nextPosition = entries.capacity() - 8;
+		entries.putLong(nextPosition, ifdOffset + entries.capacity() + planeBytes + padding);
+
+		ByteBuffer[] buffers = padding == 0 ?
+				new ByteBuffer[] {strip, (ByteBuffer) entries.duplicate().clear()} :
+				new ByteBuffer[] {strip, ByteBuffer.allocate(1), (ByteBuffer) entries.duplicate().clear()};
+		channel.position(stripOffset);
+		long remaining = planeBytes + padding + entries.capacity();
+		while (remaining > 0)
+			remaining -= channel.write(buffers);
+
+		position = ifdOffset + entries.capacity();
+		lastNextIfdPosition = ifdOffset + nextPosition;
+		ifdOffsets.add(ifdOffset);
+		return ifdOffset;
+	}
+
+	/**
+	 * @return the offsets of the IFDs in the order the planes were written
+	 */
+	public List<Long> getIfdOffsets() {
+		return new ArrayList<>(ifdOffsets);
+	}
+
+	public File getFile() {
+		return file;
+	}
+
+	/**
+	 * Appends the OME-XML, points the first IFD at it and closes the file.
+	 *
+	 * @param omeXml the OME-XML of the file
+	 * @throws IOException the io exception
+	 */
+	public void close(String omeXml) throws IOException {
+		try {
+			if (ifdOffsets.isEmpty())
+				return;
+
+			// Terminate the IFD chain
+			ByteBuffer zero = ByteBuffer.allocate(8);
+			channel.write(zero, lastNextIfdPosition);
+
+			final byte[] xml = (omeXml + "\0").getBytes(StandardCharsets.UTF_8);
+			channel.write(ByteBuffer.wrap(xml), position);
+
+			ByteBuffer description = ByteBuffer.allocate(ENTRY_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+			putEntry(description, TAG_IMAGE_DESCRIPTION, TYPE_ASCII, xml.length, position);
+			description.flip();
+			channel.write(description, ifdOffsets.get(0) + descriptionPosition);
+			position += xml.length;
+		} finally {
+			channel.close();
+		}
+	}
+}
@@ -55,6 +55,8 @@ public class OpenSPIMSinglePlaneTiffSeries implements Storage {
 	private boolean firstElement_;
 	private boolean amLoading_;
 	private HashMap<Integer, Writer> metadataStreams_;
+	// Coords, file name and metadata of the planes, see MetadataIndex
+	private MetadataIndex metadataIndex_;
 	private boolean isDatasetWritable_;
 	private SummaryMetadata summaryMetadata_ = (new DefaultSummaryMetadata.Builder()).build();
 	private ConcurrentHashMap<Coords, String> coordsToFilename_;
@@ -169,6 +171,19 @@ public class OpenSPIMSinglePlaneTiffSeries implements Storage {
 		}
 	}
 
+	@SuppressWarnings("Duplicates")
+	private void loadImage(Coords coords, String fileName) {
+		try {
+			// This will update our internal records without touching
+			// the disk, as amLoading_ is true.
+			coordsToFilename_.put(coords, fileName);
+			Image image = getImage(coords);
+			putImage(image);
+		} catch (Exception ex) {
+			ReportingUtils.showError(ex);
+		}
+	}
+
 	@Override
 	public void freeze() {
 		closeMetadataStreams();
@@ -394,20 +409,8 @@ public class OpenSPIMSinglePlaneTiffSeries implements Storage {
 	private void writeFrameMetadata(final Image image, final String metadataJSON,
 									final String fileName) {
 		try {
-			String coordsKey = "Coords-" + fileName;
-
-			// Use 0 for situations where there's no index information.
-//			int pos = Math.max(0, image.getCoords().getStagePosition());
-			int pos = 0;
-			JsonObject jo = new JsonObject();
-			NonPropertyMapJSONFormats.coords().addToGson(jo,
-					((DefaultCoords) image.getCoords()).toPropertyMap());
-			Gson gson = new GsonBuilder().disableHtmlEscaping().
-					setPrettyPrinting().create();
-			writeJSONMetadata(pos, gson.toJson(jo), coordsKey);
-
-			String mdKey = "Metadata-" + fileName;
-			writeJSONMetadata(pos, metadataJSON, mdKey);
+			// The Summary stays in the JSON, the planes go to the binary index
+			metadataIndex_.append(image.getCoords(), fileName, 0, metadataJSON);
 		} catch (Exception ex) {
 			ReportingUtils.logError(ex);
 		}
@@ -571,6 +574,7 @@ public class OpenSPIMSinglePlaneTiffSeries implements Storage {
 		Gson gson = new GsonBuilder().disableHtmlEscaping().
 				setPrettyPrinting().create();
 		writeJSONMetadata(pos, gson.toJson(jo), "Summary");
+		metadataIndex_ = MetadataIndex.create(dir_, prefix_);
 	}
 
 	@SuppressWarnings("Duplicates")
@@ -603,6 +607,8 @@ public class OpenSPIMSinglePlaneTiffSeries implements Storage {
 			throw new IOException("Unable to find dataset at " + dir_);
 		}
 
+		metadataIndex_ = MetadataIndex.open(dir_, prefix_);
+
 		for (int positionIndex = 0; positionIndex < positions.size();
 			 ++positionIndex) {
 			String position = positions.get(positionIndex);
@@ -618,6 +624,14 @@ public class OpenSPIMSinglePlaneTiffSeries implements Storage {
 									data.get(PropertyKey.SUMMARY.key())));
 				}
 
+				if (metadataIndex_ != null) {
+					// The metadata of the planes is read when they are asked for
+					for (MetadataIndex.Record record : metadataIndex_.getRecords()) {
+						loadImage(record.getCoords(), record.getFileName());
+					}
+					continue;
+				}
+
 				// We have two methods to recover the image coordinates from the
 				// metadata. The old 1.4 method uses a "FrameKey" key that holds
 				// the time, channel, and Z indices specifically, and stows all
@@ -728,6 +742,6 @@ public class OpenSPIMSinglePlaneTiffSeries implements Storage {
 
 	@Override
 	public void close() {
-		// We don't maintain any state that needs to be cleaned up.
+		if (metadataIndex_ != null) metadataIndex_.close();
 	}
 }
\ No newline at end of file
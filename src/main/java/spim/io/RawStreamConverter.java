@@ -0,0 +1,84 @@
+package spim.io;
+
+import org.micromanager.Studio;
+import org.micromanager.data.Coords;
+import org.micromanager.data.Image;
+import org.micromanager.data.Storage;
+import org.micromanager.data.internal.DefaultDatastore;
+import org.micromanager.internal.utils.ReportingUtils;
+
+import java.io.IOException;
+
+/**
+ * Description: Offline conversion of a raw stream dataset to the other formats.
+ * The planes are handed to the target storage in the order they arrived during
+ * the acquisition, which is the order the target storages expect. The
+ * conversion is offered when a raw stream dataset is opened from the toolbar.
+ *
+ * Author: HongKee Moon (moon@mpi-cbg.de), Scientific Computing Facility
+ * Organization: MPI-CBG Dresden
+ * Date: October 2026
+ */
+public class RawStreamConverter {
+	/**
+	 * Converts a raw stream dataset.
+	 *
+	 * @param studio the studio, or null when converting without the GUI
+	 * @param directory the directory of the raw stream dataset
+	 * @param prefix the prefix of the raw stream dataset
+	 * @param outputDirectory the directory of the converted dataset
+	 * @param outputPrefix the prefix of the converted dataset
+	 * @param target the storage type of the converted dataset
+	 * @param codec the compression codec for N5 and BDV format
+	 * @param codecLevel the compression level
+	 * @throws IOException the io exception
+	 */
+	public static void convert(Studio studio, String directory, String prefix, String outputDirectory, String outputPrefix,
+							   StorageType target, N5Codec codec, int codecLevel) throws IOException {
+		DefaultDatastore source = new DefaultDatastore(studio);
+		RawStreamStorage raw = new RawStreamStorage(source, directory, prefix, false);
+		source.setStorage(raw);
+
+		final int timeSeqs = Math.max(1, raw.getMaxIndex(Coords.T) + 1);
+		final int channels = Math.max(1, raw.getMaxIndex(Coords.CHANNEL) + 1);
+
+		DefaultDatastore result = new DefaultDatastore(studio);
+		Storage storage;
+		switch (target) {
+			case SinglePlaneTiff: storage = new OpenSPIMSinglePlaneTiffSeries(result, outputDirectory, outputPrefix, true);
+				break;
+			case OMETiff: storage = new OMETIFFStorage(result, outputDirectory, outputPrefix, true);
+				break;
+			case N5: storage = new N5MicroManagerStorage(result, outputDirectory, outputPrefix, timeSeqs, true, codec, codecLevel);
+				break;
+			case BDV: storage = new BDVMicroManagerStorage(result, outputDirectory, outputPrefix, channels, timeSeqs, true, false, codec, codecLevel);
+				break;
+			default:
+				throw new IllegalArgumentException("Raw stream datasets cannot be converted to " + target);
+		}
+		result.setStorage(storage);
+
+		try {
+			result.setSummaryMetadata(raw.getSummaryMetadata());
+			for (Coords coords : raw.getArrivalOrder()) {
+				Image image = raw.getImage(coords);
+				if (image != null)
+					result.putImage(image);
+			}
+			result.freeze();
+		} catch (Exception e) {
+			ReportingUtils.logError(e, "Failed to convert " + prefix + " in " + directory);
+			throw e instanceof IOException ? (IOException) e : new IOException(e);
+		} finally {
+			if (studio != null) {
+				result.close();
+				source.close();
+			} else {
+				// The datastores post their closing event to the Studio, so
+				// only the storages are closed when converting without one
+				storage.close();
+				raw.close();
+			}
+		}
+	}
+}
@@ -0,0 +1,588 @@
+package spim.io;
+
+import com.google.common.eventbus.Subscribe;
+import com.google.gson.Gson;
+import com.google.gson.GsonBuilder;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParser;
+import com.google.gson.JsonPrimitive;
+import org.micromanager.PropertyMap;
+import org.micromanager.PropertyMaps;
+import org.micromanager.data.Coords;
+import org.micromanager.data.DataProviderHasNewSummaryMetadataEvent;
+import org.micromanager.data.Image;
+import org.micromanager.data.Metadata;
+import org.micromanager.data.Storage;
+import org.micromanager.data.SummaryMetadata;
+import org.micromanager.data.internal.DefaultCoords;
+import org.micromanager.data.internal.DefaultDatastore;
+import org.micromanager.data.internal.DefaultImage;
+import org.micromanager.data.internal.DefaultMetadata;
+import org.micromanager.data.internal.DefaultSummaryMetadata;
+import org.micromanager.data.internal.PropertyKey;
+import org.micromanager.internal.propertymap.NonPropertyMapJSONFormats;
+import org.micromanager.internal.utils.ReportingUtils;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileReader;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.io.Writer;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.zip.CRC32;
+
+/**
+ * Description: Raw stream storage for the highest sustained camera throughput.
+ * The pixels of every plane are copied as they are into large preallocated
+ * segment files (prefix_raw_NNNN.dat) mapped in memory, without any conversion
+ * or compression, and the next segment is mapped in the background before it
+ * is needed. prefix_raw.idx keeps a fixed-size record per plane in arrival
+ * order, and the metadata is kept once per position and channel in
+ * prefix_raw_metadata.txt. The planes are served from the mapped segments for
+ * the live display. RawStreamConverter converts a dataset to the other formats.
+ *
+ * Author: HongKee Moon (moon@mpi-cbg.de), Scientific Computing Facility
+ * Organization: MPI-CBG Dresden
+ * Date: October 2026
+ */
+public class RawStreamStorage implements Storage {
+	private static final HashSet<String> ALLOWED_AXES = new HashSet<String>(
+			Arrays.asList(Coords.CHANNEL, Coords.T, Coords.Z,
+					Coords.STAGE_POSITION, "view"));
+	private static final String[] INDEX_AXES = new String[] {Coords.T, Coords.CHANNEL, Coords.Z, Coords.STAGE_POSITION, "view"};
+
+	private static final long SEGMENT_BYTES = 1L << 30;
+	private static final int INDEX_MAGIC = 0x52415749; // "RAWI"
+	private static final int VERSION = 1;
+	private static final int HEADER_SIZE = 64;
+	private static final int RECORD_SIZE = 64;
+
+	private static class Plane {
+		final int segment;
+		final long offset;
+		final double elapsedTimeMs;
+		final double zPositionUm;
+
+		Plane(int segment, long offset, double elapsedTimeMs, double zPositionUm) {
+			this.segment = segment;
+			this.offset = offset;
+			this.elapsedTimeMs = elapsedTimeMs;
+			this.zPositionUm = zPositionUm;
+		}
+	}
+
+	private final DefaultDatastore store_;
+	private final String dir_;
+	private final String prefix_;
+	private boolean isDatasetWritable_;
+	private SummaryMetadata summaryMetadata_ = (new DefaultSummaryMetadata.Builder()).build();
+	private final ConcurrentHashMap<Coords, Plane> planes_ = new ConcurrentHashMap<>();
+	private final List<Coords> arrivalOrder_ = new ArrayList<>();
+	private Coords maxIndices_ = new DefaultCoords.Builder().build();
+
+	private int width_;
+	private int height_;
+	private int bytesPerPixel_;
+	private int numComponents_;
+	private long planeBytes_;
+	private int planesPerSegment_;
+	private int planeCount_ = 0;
+
+	private FileChannel index_;
+	private final ConcurrentHashMap<Integer, Future<MappedByteBuffer>> segments_ = new ConcurrentHashMap<>();
+	private ExecutorService mapper_;
+
+	// "position/channel" -> metadata shared by the planes
+	private final ConcurrentHashMap<String, Metadata> templates_ = new ConcurrentHashMap<>();
+	private Writer templateWriter_;
+
+	public RawStreamStorage(DefaultDatastore store, String directory, String prefix, boolean newDataSet) throws IOException {
+		store_ = store;
+		dir_ = directory;
+		prefix_ = prefix;
+
+		store_.setSavePath(dir_);
+		store_.setName(new File(dir_).getName());
+		isDatasetWritable_ = newDataSet;
+
+		// Must be informed of events before traditional consumers, so that we
+		// can provide images on request.
+		store_.registerForEvents(this, 0);
+
+		// Note: this will throw an error if there is no existing data set
+		if (!isDatasetWritable_) {
+			openExistingDataSet();
+		}
+	}
+
+	private File segmentFile(int segment) {
+		return new File(dir_, String.format("%s_raw_%04d.dat", prefix_, segment));
+	}
+
+	private File indexFile() {
+		return new File(dir_, prefix_ + "_raw.idx");
+	}
+
+	private File templateFile() {
+		return new File(dir_, prefix_ + "_raw_metadata.txt");
+	}
+
+	private static String templateKey(Coords coords) {
+		return Math.max(0, coords.getStagePosition()) + "/" + Math.max(0, coords.getChannel());
+	}
+
+	@Override
+	public synchronized void putImage(Image image) throws IOException {
+		for (String axis : image.getCoords().getAxes()) {
+			if (!ALLOWED_AXES.contains(axis)) {
+				ReportingUtils.showError("Raw stream storage cannot handle images with axis \"" + axis + "\". Allowed axes are " + ALLOWED_AXES);
+				return;
+			}
+		}
+		if (!isDatasetWritable_) {
+			ReportingUtils.logError("Attempted to add an image to a read-only fileset");
+			return;
+		}
+
+		if (index_ == null) {
+			openNewDataSet(image);
+		} else if (image.getWidth() != width_ || image.getHeight() != height_ ||
+				image.getBytesPerPixel() != bytesPerPixel_ || image.getNumComponents() != numComponents_) {
+			throw new IllegalArgumentException("Raw stream storage requires all the images to have the same size and pixel type");
+		}
+
+		final Coords coords = image.getCoords();
+		final int slot = planeCount_;
+		final int segment = slot / planesPerSegment_;
+		final long offset = (slot % planesPerSegment_) * planeBytes_;
+
+		copyPixels(image.getRawPixels(), getSegment(segment), offset);
+
+		// Map the next segment ahead once this one is half full
+		if (slot % planesPerSegment_ == planesPerSegment_ / 2)
+			mapSegment(segment + 1);
+
+		final Metadata metadata = image.getMetadata();
+		final String key = templateKey(coords);
+		if (!templates_.containsKey(key))
+			writeTemplate(key, metadata);
+
+		final Plane plane = new Plane(segment, offset,
+				metadata.getElapsedTimeMs(0.0), metadata.getZPositionUm() == null ? Double.NaN : metadata.getZPositionUm());
+		writeRecord(slot, coords, plane);
+
+		planeCount_++;
+		planes_.put(coords, plane);
+		arrivalOrder_.add(coords);
+		updateMaxIndices(coords);
+	}
+
+	private void openNewDataSet(Image image) throws IOException {
+		width_ = image.getWidth();
+		height_ = image.getHeight();
+		bytesPerPixel_ = image.getBytesPerPixel();
+		numComponents_ = image.getNumComponents();
+		planeBytes_ = (long) width_ * height_ * bytesPerPixel_;
+		planesPerSegment_ = (int) Math.max(1, SEGMENT_BYTES / planeBytes_);
+
+		// The summary is written completely at once, so it never needs repairing
+		SummaryMetadata summary = summaryMetadata_;
+		String time = image.getMetadata().getReceivedTime();
+		if (time != null && summary.getStartDate() == null) {
+			summary = summary.copyBuilder().startDate(time.split(" ")[0]).build();
+		}
+		PropertyMap.Builder b = PropertyMaps.builder()
+				.putInteger("Width", image.getWidth())
+				.putInteger("Height", image.getHeight());
+		summary = DefaultSummaryMetadata.fromPropertyMap(((DefaultSummaryMetadata) summary).toPropertyMap().merge(b.build()));
+
+		JsonObject jo = new JsonObject();
+		NonPropertyMapJSONFormats.summaryMetadata().addToGson(jo,
+				((DefaultSummaryMetadata) summary).toPropertyMap());
+		PropertyMap formatPmap = ((DefaultImage) image).formatToPropertyMap();
+		PropertyKey.IJ_TYPE.storeInGsonObject(formatPmap, jo);
+		PropertyKey.PIXEL_TYPE.storeInGsonObject(formatPmap, jo);
+		jo.add("StorageType", new JsonPrimitive(StorageType.RawStream.name()));
+		Gson gson = new GsonBuilder().disableHtmlEscaping().
+				setPrettyPrinting().create();
+		try (Writer metadataStream = new BufferedWriter(new FileWriter(dir_ + "/" + prefix_ + "_metadata.txt"))) {
+			metadataStream.write("{\n\"Summary\": " + gson.toJson(jo) + "\n}\n");
+		}
+
+		templateWriter_ = new BufferedWriter(new FileWriter(templateFile()));
+
+		index_ = new RandomAccessFile(indexFile(), "rw").getChannel();
+		index_.truncate(0);
+		ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+		header.putInt(INDEX_MAGIC).putInt(VERSION).putInt(width_).putInt(height_)
+				.putInt(bytesPerPixel_).putInt(numComponents_).putInt(planesPerSegment_);
+		header.rewind();
+		index_.write(header, 0);
+
+		mapper_ = IOScheduler.getInstance().newLane("uOpenSPIM-raw-mapper");
+		mapSegment(0);
+	}
+
+	// Preallocates and maps a segment on the mapper lane
+	private void mapSegment(final int segment) {
+		segments_.computeIfAbsent(segment, s -> mapper_.submit(() -> {
+			try (RandomAccessFile file = new RandomAccessFile(segmentFile(s), "rw")) {
+				final long length = planesPerSegment_ * planeBytes_;
+				file.setLength(length);
+				MappedByteBuffer buffer = file.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, length);
+				buffer.order(ByteOrder.LITTLE_ENDIAN);
+				return buffer;
+			}
+		}));
+	}
+
+	private MappedByteBuffer getSegment(int segment) throws IOException {
+		if (!segments_.containsKey(segment)) {
+			if (isDatasetWritable_) {
+				mapSegment(segment);
+			} else {
+				segments_.computeIfAbsent(segment, s -> IOScheduler.getInstance().getBlockPool().submit(() -> {
+					try (RandomAccessFile file = new RandomAccessFile(segmentFile(s), "r")) {
+						MappedByteBuffer buffer = file.getChannel().map(FileChannel.MapMode.READ_ONLY, 0, file.length());
+						buffer.order(ByteOrder.LITTLE_ENDIAN);
+						return buffer;
+					}
+				}));
+			}
+		}
+		try {
+			return segments_.get(segment).get();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new IOException("Interrupted while mapping the segment " + segment, e);
+		} catch (ExecutionException e) {
+			throw new IOException("Failed to map " + segmentFile(segment), e.getCause());
+		}
+	}
+
+	private static void copyPixels(Object pixels, MappedByteBuffer segment, long offset) {
+		// The duplicate keeps the position of the shared buffer untouched
+		ByteBuffer target = segment.duplicate().order(ByteOrder.LITTLE_ENDIAN);
+		target.position((int) offset);
+		if (pixels instanceof byte[])
+			target.put((byte[]) pixels);
+		else if (pixels instanceof short[])
+			target.asShortBuffer().put((short[]) pixels);
+		else if (pixels instanceof int[])
+			target.asIntBuffer().put((int[]) pixels);
+		else
+			throw new IllegalArgumentException("Unsupported pixel array " + pixels.getClass());
+	}
+
+	private Object readPixels(Plane plane) throws IOException {
+		ByteBuffer source = getSegment(plane.segment).duplicate().order(ByteOrder.LITTLE_ENDIAN);
+		source.position((int) plane.offset);
+		final int length = width_ * height_;
+		if (bytesPerPixel_ == 1) {
+			byte[] pixels = new byte[length];
+			source.get(pixels);
+			return pixels;
+		} else if (bytesPerPixel_ == 2) {
+			short[] pixels = new short[length];
+			source.asShortBuffer().get(pixels);
+			return pixels;
+		} else {
+			// 32-bit RGB is stored as 4 bytes per pixel
+			byte[] pixels = new byte[length * bytesPerPixel_];
+			source.get(pixels);
+			return pixels;
+		}
+	}
+
+	private void writeRecord(int slot, Coords coords, Plane plane) throws IOException {
+		ByteBuffer record = ByteBuffer.allocate(RECORD_SIZE);
+		int mask = 0;
+		for (int i = 0; i < INDEX_AXES.length; i++) {
+			if (coords.hasAxis(INDEX_AXES[i]))
+				mask |= 1 << i;
+		}
+		record.putInt(mask);
+		for (String axis : INDEX_AXES)
+			record.putInt(Math.max(0, coords.getIndex(axis)));
+		record.putInt(plane.segment);
+		record.putLong(plane.offset);
+		record.putDouble(plane.elapsedTimeMs);
+		record.putDouble(plane.zPositionUm);
+		record.putInt(RECORD_SIZE - 4, crc32(record.array(), RECORD_SIZE - 4));
+		record.rewind();
+		index_.write(record, HEADER_SIZE + (long) slot * RECORD_SIZE);
+	}
+
+	private static int crc32(byte[] bytes, int length) {
+		CRC32 crc = new CRC32();
+		crc.update(bytes, 0, length);
+		return (int) crc.getValue();
+	}
+
+	private void writeTemplate(String key, Metadata metadata) throws IOException {
+		templates_.put(key, metadata);
+
+		JsonObject md = new JsonObject();
+		NonPropertyMapJSONFormats.metadata().addToGson(md, ((DefaultMetadata) metadata).toPropertyMap());
+		JsonObject jo = new JsonObject();
+		jo.addProperty("Key", key);
+		jo.add("Metadata", md);
+		templateWriter_.write(jo.toString() + "\n");
+		templateWriter_.flush();
+	}
+
+	private void openExistingDataSet() throws IOException {
+		JsonObject data = StorageOpener.readJSONMetadata(dir_, "", prefix_);
+		if (data == null || !indexFile().exists()) {
+			throw new IOException("Unable to find dataset at " + dir_);
+		}
+		if (data.has(PropertyKey.SUMMARY.key())) {
+			summaryMetadata_ = DefaultSummaryMetadata.fromPropertyMap(
+					NonPropertyMapJSONFormats.summaryMetadata().fromGson(
+							data.get(PropertyKey.SUMMARY.key())));
+		}
+
+		if (templateFile().exists()) {
+			try (BufferedReader reader = new BufferedReader(new FileReader(templateFile()))) {
+				String line;
+				while ((line = reader.readLine()) != null) {
+					if (line.trim().isEmpty())
+						continue;
+					JsonObject jo = new JsonParser().parse(line).getAsJsonObject();
+					templates_.put(jo.get("Key").getAsString(), DefaultMetadata.fromPropertyMap(
+							NonPropertyMapJSONFormats.metadata().fromJSON(jo.get("Metadata").toString())));
+				}
+			} catch (RuntimeException e) {
+				ReportingUtils.logError(e, "Failed to read " + templateFile());
+			}
+		}
+
+		try (RandomAccessFile file = new RandomAccessFile(indexFile(), "r")) {
+			FileChannel channel = file.getChannel();
+			ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+			channel.read(header, 0);
+			header.rewind();
+			if (header.getInt() != INDEX_MAGIC || header.getInt() > VERSION)
+				throw new IOException(indexFile() + " is not a raw stream index");
+			width_ = header.getInt();
+			height_ = header.getInt();
+			bytesPerPixel_ = header.getInt();
+			numComponents_ = header.getInt();
+			planesPerSegment_ = header.getInt();
+			planeBytes_ = (long) width_ * height_ * bytesPerPixel_;
+
+			// The records after a torn or corrupted one are not trusted
+			final long records = (channel.size() - HEADER_SIZE) / RECORD_SIZE;
+			ByteBuffer record = ByteBuffer.allocate(RECORD_SIZE);
+			for (int slot = 0; slot < records; slot++) {
+				record.clear();
+				channel.read(record, HEADER_SIZE + (long) slot * RECORD_SIZE);
+				if (record.getInt(RECORD_SIZE - 4) != crc32(record.array(), RECORD_SIZE - 4)) {
+					ReportingUtils.logMessage(String.format("Raw stream: %d of %d planes recovered from %s", slot, records, indexFile()));
+					break;
+				}
+				record.rewind();
+				final int mask = record.getInt();
+				DefaultCoords.Builder builder = new DefaultCoords.Builder();
+				for (int i = 0; i < INDEX_AXES.length; i++) {
+					final int index = record.getInt();
+					if ((mask & (1 << i)) != 0)
+						builder.index(INDEX_AXES[i], index);
+				}
+				final Coords coords = builder.build();
+				final Plane plane = new Plane(record.getInt(), record.getLong(), record.getDouble(), record.getDouble());
+				if (!segmentFile(plane.segment).exists() || segmentFile(plane.segment).length() < plane.offset + planeBytes_) {
+					ReportingUtils.logMessage(String.format("Raw stream: the pixels of %s are missing, %d of %d planes recovered", coords, slot, records));
+					break;
+				}
+				planes_.put(coords, plane);
+				arrivalOrder_.add(coords);
+				updateMaxIndices(coords);
+				planeCount_++;
+			}
+		}
+	}
+
+	private void updateMaxIndices(Coords coords) {
+		for (String axis : coords.getAxes()) {
+			if (coords.getIndex(axis) > maxIndices_.getIndex(axis)) {
+				maxIndices_ = maxIndices_.copyBuilder().index(
+						axis, coords.getIndex(axis)).build();
+			}
+		}
+	}
+
+	/**
+	 * @return the coords of the planes in the order they arrived
+	 */
+	public synchronized List<Coords> getArrivalOrder() {
+		return new ArrayList<>(arrivalOrder_);
+	}
+
+	@Override
+	public synchronized void freeze() throws IOException {
+		if (isDatasetWritable_ && index_ != null) {
+			for (Future<MappedByteBuffer> segment : segments_.values()) {
+				try {
+					segment.get().force();
+				} catch (InterruptedException | ExecutionException e) {
+					ReportingUtils.logError(e, "Failed to flush a raw stream segment");
+				}
+			}
+			index_.force(true);
+			index_.close();
+			templateWriter_.close();
+			mapper_.shutdown();
+
+			// Give back the preallocated space after the last plane. The file
+			// stays mapped, which some platforms do not allow to shrink.
+			final int lastSegment = planeCount_ == 0 ? 0 : (planeCount_ - 1) / planesPerSegment_;
+			final long used = (planeCount_ - (long) lastSegment * planesPerSegment_) * planeBytes_;
+			for (int segment : segments_.keySet()) {
+				if (segment < lastSegment)
+					continue;
+				try (RandomAccessFile file = new RandomAccessFile(segmentFile(segment), "rw")) {
+					file.setLength(segment == lastSegment ? used : 0);
+				} catch (IOException e) {
+					ReportingUtils.logMessage("Raw stream: could not trim " + segmentFile(segment) + ": " + e.getMessage());
+				}
+				if (segment > lastSegment || planeCount_ == 0)
+					segmentFile(segment).delete();
+			}
+		}
+		isDatasetWritable_ = false;
+	}
+
+	@Override
+	public Image getImage(Coords coords) throws IOException {
+		final Plane plane = planes_.get(coords);
+		if (plane == null) {
+			// We don't have that image.
+			ReportingUtils.logError("Asked for image at " + coords + " that we don't know about");
+			return null;
+		}
+
+		Metadata metadata = templates_.get(templateKey(coords));
+		if (metadata == null)
+			metadata = new DefaultMetadata.Builder().build();
+		Metadata.Builder builder = metadata.copyBuilderWithNewUUID().elapsedTimeMs(plane.elapsedTimeMs);
+		if (!Double.isNaN(plane.zPositionUm))
+			builder.zPositionUm(plane.zPositionUm);
+
+		return new DefaultImage(readPixels(plane), width_, height_,
+				bytesPerPixel_, numComponents_, coords, builder.build());
+	}
+
+	@Override
+	public boolean hasImage(Coords coords) {
+		return planes_.containsKey(coords);
+	}
+
+	@Override
+	public Image getAnyImage() {
+		if (planes_.isEmpty()) {
+			return null;
+		}
+		try {
+			return getImage(planes_.keys().nextElement());
+		} catch (IOException e) {
+			ReportingUtils.logError(e);
+			return null;
+		}
+	}
+
+	@Override
+	public Iterable<Coords> getUnorderedImageCoords() {
+		return planes_.keySet();
+	}
+
+	@SuppressWarnings("Duplicates")
+	@Override
+	public List<Image> getImagesMatching(Coords coords) throws IOException {
+		ArrayList<Image> result = new ArrayList<Image>();
+		for (Coords altCoords : planes_.keySet()) {
+			boolean canUse = true;
+			for (String axis : coords.getAxes()) {
+				if (coords.getIndex(axis) != altCoords.getIndex(axis)) {
+					canUse = false;
+					break;
+				}
+			}
+			if (canUse) {
+				result.add(getImage(altCoords));
+			}
+		}
+		return result;
+	}
+
+	@SuppressWarnings("Duplicates")
+	@Override
+	public List<Image> getImagesIgnoringAxes(Coords coords, String... ignoreTheseAxes) throws IOException {
+		ArrayList<Image> result = new ArrayList<Image>();
+		for (Coords altCoords : planes_.keySet()) {
+			Coords strippedAltCoords = altCoords.copyRemovingAxes(ignoreTheseAxes);
+			if (coords.equals(strippedAltCoords)) {
+				result.add(getImage(altCoords));
+			}
+		}
+		return result;
+	}
+
+	@Override
+	public int getMaxIndex(String axis) {
+		if (!getAxes().contains(axis)) {
+			return -1;
+		}
+		return maxIndices_.getIndex(axis);
+	}
+
+	@Override
+	public List<String> getAxes() {
+		List<String> axes = summaryMetadata_.getOrderedAxes();
+		axes.add("view");
+		return axes;
+	}
+
+	@Override
+	public Coords getMaxIndices() {
+		return maxIndices_;
+	}
+
+	@Override
+	public SummaryMetadata getSummaryMetadata() {
+		return summaryMetadata_;
+	}
+
+	@Subscribe
+	public void onNewSummaryMetadata(DataProviderHasNewSummaryMetadataEvent event) {
+		summaryMetadata_ = event.getSummaryMetadata();
+	}
+
+	@Override
+	public int getNumImages() {
+		return planes_.size();
+	}
+
+	@Override
+	public void close() throws IOException {
+		if (isDatasetWritable_)
+			freeze();
+		// The mapped segments are released by the garbage collector
+		segments_.clear();
+	}
+}
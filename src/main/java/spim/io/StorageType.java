@@ -1,12 +1,12 @@
 package spim.io;
 
 /**
- * Description: StorageType of SinglePlaneTiff, OMETiff and N5
+ * Description: StorageType of SinglePlaneTiff, OMETiff, N5, BDV and RawStream
  * 
  * Author: HongKee Moon (moon@mpi-cbg.de), Scientific Computing Facility
  * Organization: MPI-CBG Dresden
  * Date: June 2021
  */
 public enum StorageType {
-	SinglePlaneTiff, OMETiff, N5, BDV
+	SinglePlaneTiff, OMETiff, N5, BDV, RawStream
 }
@@ -0,0 +1,316 @@
+package spim.io;
+
+import org.micromanager.data.Coords;
+import org.micromanager.data.Storage;
+import org.micromanager.internal.utils.ReportingUtils;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Locale;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Description: Watches whether the disk keeps up with an acquisition. Every
+ * second the write bandwidth of the storage, the growth of the write-behind
+ * queue and the free disk space are sampled, and the time until the queue
+ * budget, the heap or the disk runs out is predicted. When one of them would
+ * run out within a minute, or the queue crosses its high water mark, the
+ * configured policy is applied once and the listeners are told.
+ *
+ * Author: HongKee Moon (moon@mpi-cbg.de), Scientific Computing Facility
+ * Organization: MPI-CBG Dresden
+ * Date: October 2026
+ */
+public class ThroughputMonitor implements WriteBehindStorage.Listener, AutoCloseable {
+	public enum Policy {
+		WARN("Warn only"),
+		LENGTHEN_INTERVAL("Lengthen the interval"),
+		FASTER_CODEC("Switch to a faster codec"),
+		SKIP_MIP("Skip the MIP");
+
+		private final String label;
+
+		Policy(String label) {
+			this.label = label;
+		}
+
+		@Override
+		public String toString() {
+			return label;
+		}
+	}
+
+	public interface Listener {
+		/**
+		 * Called once when the saving starts falling behind, after the policy
+		 * has been applied to the storage.
+		 *
+		 * @param policy the configured policy
+		 * @param estimate the estimate which triggered it
+		 */
+		void degraded(Policy policy, Estimate estimate);
+	}
+
+	public static final class Estimate {
+		private final double writeBytesPerSecond;
+		private final double incomingBytesPerSecond;
+		private final double queueGrowthBytesPerSecond;
+		private final double ramSecondsLeft;
+		private final double diskSecondsLeft;
+
+		Estimate(double writeBytesPerSecond, double incomingBytesPerSecond, double queueGrowthBytesPerSecond,
+				 double ramSecondsLeft, double diskSecondsLeft) {
+			this.writeBytesPerSecond = writeBytesPerSecond;
+			this.incomingBytesPerSecond = incomingBytesPerSecond;
+			this.queueGrowthBytesPerSecond = queueGrowthBytesPerSecond;
+			this.ramSecondsLeft = ramSecondsLeft;
+			this.diskSecondsLeft = diskSecondsLeft;
+		}
+
+		/**
+		 * @return the bandwidth of the storage while it is writing
+		 */
+		public double getWriteBytesPerSecond() {
+			return writeBytesPerSecond;
+		}
+
+		public double getIncomingBytesPerSecond() {
+			return incomingBytesPerSecond;
+		}
+
+		public double getQueueGrowthBytesPerSecond() {
+			return queueGrowthBytesPerSecond;
+		}
+
+		/**
+		 * @return the seconds until the queue budget or the heap is used up, infinite if the queue does not grow
+		 */
+		public double getRamSecondsLeft() {
+			return ramSecondsLeft;
+		}
+
+		/**
+		 * @return the seconds until the disk is full at the current rate, infinite if nothing is written
+		 */
+		public double getDiskSecondsLeft() {
+			return diskSecondsLeft;
+		}
+
+		@Override
+		public String toString() {
+			return String.format(Locale.ROOT, "write %.1f MB/s, incoming %.1f MB/s, queue %+.1f MB/s, RAM full in %.0f s, disk full in %.0f s",
+					writeBytesPerSecond / 1e6, incomingBytesPerSecond / 1e6, queueGrowthBytesPerSecond / 1e6,
+					ramSecondsLeft, diskSecondsLeft);
+		}
+	}
+
+	private static final long SAMPLE_MS = 1000;
+	// A resource running out within this time counts as falling behind
+	private static final double HORIZON_SECONDS = 60;
+	// Weight of a new sample in the moving averages
+	private static final double ALPHA = 0.3;
+	private static final int PREFLIGHT_CHUNK = 4 << 20;
+
+	private final WriteBehindStorage storage;
+	private final File directory;
+	private final Policy policy;
+	private final CopyOnWriteArrayList<Listener> listeners = new CopyOnWriteArrayList<>();
+	private final ScheduledExecutorService sampler;
+
+	private final LongAdder writtenBytes = new LongAdder();
+	private final LongAdder writtenNanos = new LongAdder();
+
+	// Sampler state, only touched by the sampler thread
+	private long lastSampleNs;
+	private long lastWrittenBytes;
+	private long lastWrittenNanos;
+	private long lastQueuedBytes;
+	private double writeRate;
+	private double writtenRate;
+	private double growthRate;
+
+	private volatile Estimate estimate = new Estimate(0, 0, 0, Double.POSITIVE_INFINITY, Double.POSITIVE_INFINITY);
+	private volatile boolean degraded;
+
+	public ThroughputMonitor(WriteBehindStorage storage, File directory, Policy policy) {
+		this.storage = storage;
+		this.directory = directory;
+		this.policy = policy;
+
+		lastSampleNs = System.nanoTime();
+		storage.addListener(this);
+
+		sampler = Executors.newSingleThreadScheduledExecutor(r -> {
+			Thread thread = new Thread(r, "uOpenSPIM-throughput-monitor");
+			thread.setDaemon(true);
+			return thread;
+		});
+		sampler.scheduleAtFixedRate(this::sample, SAMPLE_MS, SAMPLE_MS, TimeUnit.MILLISECONDS);
+	}
+
+	public void addListener(Listener listener) {
+		listeners.add(listener);
+	}
+
+	public void removeListener(Listener listener) {
+		listeners.remove(listener);
+	}
+
+	public Policy getPolicy() {
+		return policy;
+	}
+
+	public Estimate getEstimate() {
+		return estimate;
+	}
+
+	public boolean isDegraded() {
+		return degraded;
+	}
+
+	/**
+	 * @return the time the writer needs for the queued images once the saving
+	 * fell behind, 0 before
+	 */
+	public long getDrainNanos() {
+		final double bandwidth = estimate.getWriteBytesPerSecond();
+		if (!degraded || bandwidth <= 0)
+			return 0;
+		return (long) (storage.getQueuedBytes() / bandwidth * 1e9);
+	}
+
+	@Override
+	public void fallingBehindChanged(boolean fallingBehind, long queuedBytes, long budgetBytes) {
+		if (fallingBehind)
+			degrade();
+	}
+
+	@Override
+	public void imageWritten(Coords coords, long bytes, long nanos) {
+		writtenBytes.add(bytes);
+		writtenNanos.add(nanos);
+	}
+
+	private void sample() {
+		try {
+			final long now = System.nanoTime();
+			final double seconds = (now - lastSampleNs) / 1e9;
+			final long bytes = writtenBytes.sum();
+			final long nanos = writtenNanos.sum();
+			final long queued = storage.getQueuedBytes();
+
+			final long deltaBytes = bytes - lastWrittenBytes;
+			final long deltaNanos = nanos - lastWrittenNanos;
+			// The bandwidth is measured over the time the storage was busy
+			if (deltaNanos > 0)
+				writeRate = average(writeRate, deltaBytes / (deltaNanos / 1e9));
+			writtenRate = average(writtenRate, deltaBytes / seconds);
+			growthRate = average(growthRate, (queued - lastQueuedBytes) / seconds);
+
+			lastSampleNs = now;
+			lastWrittenBytes = bytes;
+			lastWrittenNanos = nanos;
+			lastQueuedBytes = queued;
+
+			final Runtime runtime = Runtime.getRuntime();
+			final long heapLeft = runtime.maxMemory() - (runtime.totalMemory() - runtime.freeMemory());
+			final long ramLeft = Math.min(storage.getBudgetBytes() - queued, heapLeft);
+			final double ramSeconds = growthRate > 0 ? ramLeft / growthRate : Double.POSITIVE_INFINITY;
+			// Written pixel bytes are an upper bound of what a compressed dataset takes
+			final double diskSeconds = writtenRate > 0 ? directory.getUsableSpace() / writtenRate : Double.POSITIVE_INFINITY;
+
+			estimate = new Estimate(writeRate, writtenRate + growthRate, growthRate, ramSeconds, diskSeconds);
+
+			if (ramSeconds < HORIZON_SECONDS || diskSeconds < HORIZON_SECONDS)
+				degrade();
+		} catch (RuntimeException e) {
+			ReportingUtils.logError(e, "Throughput sample failed");
+		}
+	}
+
+	private static double average(double average, double sample) {
+		return average == 0 ? sample : average + ALPHA * (sample - average);
+	}
+
+	private synchronized void degrade() {
+		if (degraded)
+			return;
+		degraded = true;
+
+		final Estimate current = estimate;
+		ReportingUtils.logMessage("Saving is falling behind (" + current + "), policy: " + policy);
+
+		if (policy == Policy.FASTER_CODEC) {
+			final Storage written = TimedStorage.unwrap(storage);
+			if (written instanceof CodecSwitchable) {
+				final CodecSwitchable switchable = (CodecSwitchable) written;
+				final N5Codec faster = fasterCodec(switchable.getCodec());
+				if (faster != null)
+					switchable.switchCodec(faster, faster.getDefaultLevel());
+			} else {
+				ReportingUtils.logMessage("The " + written.getClass().getSimpleName() + " cannot switch its codec, it keeps writing with its own");
+			}
+		}
+
+		for (Listener listener : listeners) {
+			listener.degraded(policy, current);
+		}
+	}
+
+	/**
+	 * @return a codec which compresses faster, null if there is none
+	 */
+	static N5Codec fasterCodec(N5Codec codec) {
+		switch (codec) {
+			case RAW: return null;
+			case LZ4: return N5Codec.RAW;
+			default: return N5Codec.LZ4;
+		}
+	}
+
+	@Override
+	public void close() {
+		sampler.shutdownNow();
+		storage.removeListener(this);
+	}
+
+	/**
+	 * Writes a test file into the directory and measures the bandwidth
+	 * including the flush to the disk. The file is deleted afterwards.
+	 *
+	 * @param directory the directory of the dataset
+	 * @param bytes the size of the test file
+	 * @return the write bandwidth in bytes per second
+	 */
+	public static double preflight(File directory, long bytes) throws IOException {
+		final File file = File.createTempFile("uOpenSPIM-preflight", ".tmp", directory);
+		try (RandomAccessFile raf = new RandomAccessFile(file, "rw");
+			 FileChannel channel = raf.getChannel()) {
+			final ByteBuffer chunk = ByteBuffer.allocateDirect(PREFLIGHT_CHUNK);
+			// Not all zeros, so a compressing file system cannot shortcut it
+			for (int i = 0; i < PREFLIGHT_CHUNK; i++)
+				chunk.put((byte) (i * 31 + (i >> 12)));
+
+			final long start = System.nanoTime();
+			long written = 0;
+			while (written < bytes) {
+				chunk.clear();
+				chunk.limit((int) Math.min(PREFLIGHT_CHUNK, bytes - written));
+				while (chunk.hasRemaining())
+					written += channel.write(chunk);
+			}
+			channel.force(false);
+			return written / ((System.nanoTime() - start) / 1e9);
+		} finally {
+			if (!file.delete())
+				file.deleteOnExit();
+		}
+	}
+}
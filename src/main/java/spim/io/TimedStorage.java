@@ -0,0 +1,125 @@
+package spim.io;
+
+import org.micromanager.data.Coords;
+import org.micromanager.data.Image;
+import org.micromanager.data.Storage;
+import org.micromanager.data.SummaryMetadata;
+import spim.util.AcquisitionTiming;
+
+import java.io.IOException;
+import java.util.List;
+
+/**
+ * Description: Storage decorator which records the time of every putImage()
+ * of the wrapped storage as the STORAGE_WRITE phase of the acquisition timing,
+ * by the time point and position of the image. It sits directly on the storage
+ * that writes the files, below the write-behind queue when there is one, so
+ * every saving format reports its writes the same way.
+ *
+ * Author: HongKee Moon (moon@mpi-cbg.de), Scientific Computing Facility
+ * Organization: MPI-CBG Dresden
+ * Date: October 2026
+ */
+public class TimedStorage implements Storage {
+	private final Storage storage_;
+	private final AcquisitionTiming timing_;
+
+	public TimedStorage(Storage storage, AcquisitionTiming timing) {
+		storage_ = storage;
+		timing_ = timing;
+	}
+
+	public Storage getStorage() {
+		return storage_;
+	}
+
+	/**
+	 * @return the storage below the timing and write-behind decorators
+	 */
+	public static Storage unwrap(Storage storage) {
+		while (true) {
+			if (storage instanceof TimedStorage)
+				storage = ((TimedStorage) storage).getStorage();
+			else if (storage instanceof WriteBehindStorage)
+				storage = ((WriteBehindStorage) storage).getStorage();
+			else
+				return storage;
+		}
+	}
+
+	@Override
+	public void putImage(Image image) throws IOException {
+		final long start = System.nanoTime();
+		try {
+			storage_.putImage(image);
+		} finally {
+			final Coords coords = image.getCoords();
+			timing_.recordSince(AcquisitionTiming.Phase.STORAGE_WRITE, coords.getT(), coords.getP(), start);
+		}
+	}
+
+	@Override
+	public void freeze() throws IOException {
+		storage_.freeze();
+	}
+
+	@Override
+	public Image getImage(Coords coords) throws IOException {
+		return storage_.getImage(coords);
+	}
+
+	@Override
+	public boolean hasImage(Coords coords) {
+		return storage_.hasImage(coords);
+	}
+
+	@Override
+	public Image getAnyImage() {
+		return storage_.getAnyImage();
+	}
+
+	@Override
+	public Iterable<Coords> getUnorderedImageCoords() {
+		return storage_.getUnorderedImageCoords();
+	}
+
+	@Override
+	public List<Image> getImagesMatching(Coords coords) throws IOException {
+		return storage_.getImagesMatching(coords);
+	}
+
+	@Override
+	public List<Image> getImagesIgnoringAxes(Coords coords, String... ignoreTheseAxes) throws IOException {
+		return storage_.getImagesIgnoringAxes(coords, ignoreTheseAxes);
+	}
+
+	@Override
+	public int getMaxIndex(String axis) {
+		return storage_.getMaxIndex(axis);
+	}
+
+	@Override
+	public List<String> getAxes() {
+		return storage_.getAxes();
+	}
+
+	@Override
+	public Coords getMaxIndices() {
+		return storage_.getMaxIndices();
+	}
+
+	@Override
+	public SummaryMetadata getSummaryMetadata() {
+		return storage_.getSummaryMetadata();
+	}
+
+	@Override
+	public int getNumImages() {
+		return storage_.getNumImages();
+	}
+
+	@Override
+	public void close() throws IOException {
+		storage_.close();
+	}
+}
@@ -0,0 +1,348 @@
+package spim.io;
+
+import org.micromanager.data.Coords;
+import org.micromanager.data.Image;
+import org.micromanager.data.Storage;
+import org.micromanager.data.SummaryMetadata;
+import org.micromanager.internal.utils.ReportingUtils;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Description: Write-behind storage decorator.
+ * putImage() queues the plane and returns, and a writer lane of the IOScheduler
+ * hands the planes to the wrapped storage in the same order. One lane per
+ * storage, because the storages append to their files and are not safe for
+ * concurrent putImage() calls; the N5 and BDV storages encode and write their
+ * blocks on the shared block pool of the IOScheduler behind it. The queue is
+ * bounded by a memory budget: above the high water mark the listeners are told
+ * that the disk is falling behind, and when the budget is used up putImage()
+ * blocks until the writer has caught up. Queued planes are served from memory.
+ *
+ * Author: HongKee Moon (moon@mpi-cbg.de), Scientific Computing Facility
+ * Organization: MPI-CBG Dresden
+ * Date: October 2026
+ */
+public class WriteBehindStorage implements Storage {
+	public interface Listener {
+		/**
+		 * Called when the queue crosses the high water mark in either direction.
+		 *
+		 * @param fallingBehind true if the writer is falling behind
+		 * @param queuedBytes the bytes waiting in the queue
+		 * @param budgetBytes the memory budget of the queue
+		 */
+		void fallingBehindChanged(boolean fallingBehind, long queuedBytes, long budgetBytes);
+
+		/**
+		 * Called on the writer lane after the wrapped storage has written an image.
+		 *
+		 * @param coords the coords of the image
+		 * @param bytes the pixel bytes of the image
+		 * @param nanos the time the wrapped storage took in ns
+		 */
+		default void imageWritten(Coords coords, long bytes, long nanos) {
+		}
+	}
+
+	private static final double HIGH_WATER_MARK = 0.75;
+	private static final double LOW_WATER_MARK = 0.5;
+
+	private final Storage storage_;
+	private final ExecutorService lane_;
+	private final long budgetBytes_;
+	private final Object lock_ = new Object();
+	private final ConcurrentHashMap<Coords, Image> pending_ = new ConcurrentHashMap<>();
+	private final CopyOnWriteArrayList<Listener> listeners_ = new CopyOnWriteArrayList<>();
+
+	private long queuedBytes_ = 0;
+	private boolean fallingBehind_ = false;
+	private boolean frozen_ = false;
+	private volatile IOException failure_ = null;
+
+	/**
+	 * Uses a quarter of the maximum heap as the memory budget.
+	 *
+	 * @param storage the wrapped storage
+	 */
+	public WriteBehindStorage(Storage storage) {
+		this(storage, Runtime.getRuntime().maxMemory() / 4);
+	}
+
+	public WriteBehindStorage(Storage storage, long budgetBytes) {
+		storage_ = storage;
+		budgetBytes_ = budgetBytes;
+		lane_ = IOScheduler.getInstance().newLane("uOpenSPIM-write-behind");
+	}
+
+	public Storage getStorage() {
+		return storage_;
+	}
+
+	public void addListener(Listener listener) {
+		listeners_.add(listener);
+	}
+
+	public void removeListener(Listener listener) {
+		listeners_.remove(listener);
+	}
+
+	public long getQueuedBytes() {
+		synchronized (lock_) {
+			return queuedBytes_;
+		}
+	}
+
+	public long getBudgetBytes() {
+		return budgetBytes_;
+	}
+
+	public boolean isFallingBehind() {
+		synchronized (lock_) {
+			return fallingBehind_;
+		}
+	}
+
+	private static long sizeOf(Image image) {
+		return (long) image.getWidth() * image.getHeight() * image.getBytesPerPixel() * image.getNumComponents();
+	}
+
+	@Override
+	public void putImage(Image image) throws IOException {
+		checkFailure();
+
+		final long bytes = sizeOf(image);
+
+		synchronized (lock_) {
+			// Backpressure: a single plane larger than the budget still goes
+			// through once the queue is empty.
+			while (!frozen_ && queuedBytes_ > 0 && queuedBytes_ + bytes > budgetBytes_) {
+				try {
+					lock_.wait();
+				} catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+					throw new IOException("Interrupted while waiting for the writer", e);
+				}
+				checkFailure();
+			}
+			// Checked before the plane is counted, the lane of a frozen storage takes no more planes
+			if (frozen_)
+				throw new IOException("The storage is frozen, the image at " + image.getCoords() + " is not written");
+
+			queuedBytes_ += bytes;
+			updateFallingBehind();
+
+			// Submitted with the lock held, so freeze() shuts the lane down only after it
+			pending_.put(image.getCoords(), image);
+			lane_.submit(() -> write(image, bytes));
+		}
+	}
+
+	private void write(Image image, long bytes) {
+		try {
+			if (failure_ == null) {
+				final long start = System.nanoTime();
+				storage_.putImage(image);
+				final long nanos = System.nanoTime() - start;
+				for (Listener listener : listeners_) {
+					listener.imageWritten(image.getCoords(), bytes, nanos);
+				}
+			}
+		} catch (IOException | RuntimeException e) {
+			ReportingUtils.logError(e, "Failed to write the image at " + image.getCoords());
+			failure_ = e instanceof IOException ? (IOException) e : new IOException(e);
+		} finally {
+			pending_.remove(image.getCoords(), image);
+			synchronized (lock_) {
+				queuedBytes_ -= bytes;
+				updateFallingBehind();
+				lock_.notifyAll();
+			}
+		}
+	}
+
+	// Must be called with lock_ held
+	private void updateFallingBehind() {
+		final boolean fallingBehind;
+		if (!fallingBehind_ && queuedBytes_ > budgetBytes_ * HIGH_WATER_MARK)
+			fallingBehind = true;
+		else if (fallingBehind_ && queuedBytes_ < budgetBytes_ * LOW_WATER_MARK)
+			fallingBehind = false;
+		else
+			return;
+
+		fallingBehind_ = fallingBehind;
+		if (fallingBehind)
+			ReportingUtils.logMessage(String.format("Storage is falling behind: %d MB of %d MB queued",
+					queuedBytes_ >> 20, budgetBytes_ >> 20));
+		else
+			ReportingUtils.logMessage("Storage caught up");
+
+		for (Listener listener : listeners_) {
+			listener.fallingBehindChanged(fallingBehind, queuedBytes_, budgetBytes_);
+		}
+	}
+
+	private void checkFailure() throws IOException {
+		if (failure_ != null)
+			throw failure_;
+	}
+
+	/**
+	 * Blocks until every queued plane is handed to the wrapped storage.
+	 */
+	public void flush() throws IOException {
+		synchronized (lock_) {
+			while (queuedBytes_ > 0) {
+				try {
+					lock_.wait();
+				} catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+					throw new IOException("Interrupted while flushing the writer", e);
+				}
+			}
+		}
+		checkFailure();
+	}
+
+	@Override
+	public void freeze() throws IOException {
+		synchronized (lock_) {
+			frozen_ = true;
+			lane_.shutdown();
+			lock_.notifyAll();
+		}
+		try {
+			lane_.awaitTermination(Long.MAX_VALUE, TimeUnit.MILLISECONDS);
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new IOException("Interrupted while flushing the writer", e);
+		}
+		storage_.freeze();
+		checkFailure();
+	}
+
+	@Override
+	public Image getImage(Coords coords) throws IOException {
+		Image image = pending_.get(coords);
+		if (image != null)
+			return image;
+		return storage_.getImage(coords);
+	}
+
+	@Override
+	public boolean hasImage(Coords coords) {
+		return pending_.containsKey(coords) || storage_.hasImage(coords);
+	}
+
+	@Override
+	public Image getAnyImage() {
+		Image image = storage_.getAnyImage();
+		if (image == null) {
+			for (Image pending : pending_.values())
+				return pending;
+		}
+		return image;
+	}
+
+	@Override
+	public Iterable<Coords> getUnorderedImageCoords() {
+		Set<Coords> coords = new LinkedHashSet<>();
+		for (Coords c : storage_.getUnorderedImageCoords())
+			coords.add(c);
+		coords.addAll(pending_.keySet());
+		return coords;
+	}
+
+	@Override
+	public List<Image> getImagesMatching(Coords coords) throws IOException {
+		List<Image> images = new ArrayList<>(storage_.getImagesMatching(coords));
+		for (Image image : pending_.values()) {
+			if (image.getCoords().matches(coords) && !containsCoords(images, image.getCoords()))
+				images.add(image);
+		}
+		return images;
+	}
+
+	@Override
+	public List<Image> getImagesIgnoringAxes(Coords coords, String... ignoreTheseAxes) throws IOException {
+		List<Image> images = new ArrayList<>(storage_.getImagesIgnoringAxes(coords, ignoreTheseAxes));
+		Coords reduced = coords.copyRemovingAxes(ignoreTheseAxes);
+		for (Image image : pending_.values()) {
+			if (image.getCoords().copyRemovingAxes(ignoreTheseAxes).equals(reduced) && !containsCoords(images, image.getCoords()))
+				images.add(image);
+		}
+		return images;
+	}
+
+	private static boolean containsCoords(List<Image> images, Coords coords) {
+		for (Image image : images) {
+			if (image.getCoords().equals(coords))
+				return true;
+		}
+		return false;
+	}
+
+	@Override
+	public int getMaxIndex(String axis) {
+		int max = storage_.getMaxIndex(axis);
+		for (Coords coords : pending_.keySet())
+			max = Math.max(max, coords.getIndex(axis));
+		return max;
+	}
+
+	@Override
+	public List<String> getAxes() {
+		Set<String> axes = new LinkedHashSet<>(storage_.getAxes());
+		for (Coords coords : pending_.keySet())
+			axes.addAll(coords.getAxes());
+		return new ArrayList<>(axes);
+	}
+
+	@Override
+	public Coords getMaxIndices() {
+		Coords maxIndices = storage_.getMaxIndices();
+		for (Coords coords : pending_.keySet()) {
+			for (String axis : coords.getAxes()) {
+				if (coords.getIndex(axis) > maxIndices.getIndex(axis))
+					maxIndices = maxIndices.copyBuilder().index(axis, coords.getIndex(axis)).build();
+			}
+		}
+		return maxIndices;
+	}
+
+	@Override
+	public SummaryMetadata getSummaryMetadata() {
+		return storage_.getSummaryMetadata();
+	}
+
+	@Override
+	public int getNumImages() {
+		int count = storage_.getNumImages();
+		for (Coords coords : pending_.keySet()) {
+			if (!storage_.hasImage(coords))
+				count++;
+		}
+		return count;
+	}
+
+	@Override
+	public void close() throws IOException {
+		if (!lane_.isShutdown())
+			flush();
+		synchronized (lock_) {
+			frozen_ = true;
+			lane_.shutdownNow();
+			lock_.notifyAll();
+		}
+		storage_.close();
+	}
+}
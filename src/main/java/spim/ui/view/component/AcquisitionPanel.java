@@ -52,6 +52,9 @@ import org.micromanager.internal.utils.ReportingUtils;
 import spim.hardware.Camera;
 import spim.hardware.SPIMSetup;
 import spim.hardware.VersaLase;
+import spim.io.N5Codec;
+import spim.io.N5CodecComparison;
+import spim.io.ThroughputMonitor;
 import spim.mm.MicroManager;
 import spim.model.data.AcquisitionSetting;
 import spim.model.data.ChannelItem;
@@ -143,9 +146,13 @@ public class AcquisitionPanel extends BorderPane implements SPIMSetupInjectable
 	StringProperty filename;
 	SpinnerValueFactory.IntegerSpinnerValueFactory incSpinnerValueFactory;
 	ObjectProperty savingFormat;
+	ObjectProperty<N5Codec> codec;
+	ObjectProperty<Integer> codecLevel;
+	ObjectProperty<ThroughputMonitor.Policy> throughputPolicy;
 	BooleanProperty saveMIP;
 	BooleanProperty ablationSupport;
 	BooleanProperty ablationDisabled;
+	BooleanProperty pipelined;
 	ObjectProperty roiRectangle;
 	File folderFile;
 
@@ -426,16 +433,18 @@ public class AcquisitionPanel extends BorderPane implements SPIMSetupInjectable
 
 		RadioButton centreOfMass = new RadioButton("Centre of mass");
 		RadioButton phaseCorrelation = new RadioButton("Phase correlation");
+		RadioButton subpixelPhaseCorrelation = new RadioButton("Subpixel phase correlation");
 
 		ToggleGroup antiDriftType = new ToggleGroup();
 
 		centreOfMass.setToggleGroup(antiDriftType);
 		centreOfMass.setSelected(true);
 		phaseCorrelation.setToggleGroup(antiDriftType);
+		subpixelPhaseCorrelation.setToggleGroup(antiDriftType);
 
 		antiDriftTypeToggle = antiDriftType.selectedToggleProperty();
 
-		HBox chBox = new HBox(10, new Label("Ref Ch: "), spinner, new VBox(5, centreOfMass, phaseCorrelation));
+		HBox chBox = new HBox(10, new Label("Ref Ch: "), spinner, new VBox(5, centreOfMass, phaseCorrelation, subpixelPhaseCorrelation));
 		chBox.setAlignment(Pos.CENTER_LEFT);
 
 //		Button test = new Button("Test");
@@ -768,7 +777,18 @@ public class AcquisitionPanel extends BorderPane implements SPIMSetupInjectable
 		Tab ablationTab = new Tab("Ablation", ablationHBox);
 		ablationTab.setClosable(false);
 
-		TabPane acquisitionTabPane = new TabPane( antiDriftTab, binningTab, onTheFlyTab, ablationTab, roiTab );
+		// Off by default, every stack is then saved before the stage moves on
+		CheckBox pipelinedCheckbox = new CheckBox( "Move to the next position while the previous stack is still being saved" );
+		pipelined = pipelinedCheckbox.selectedProperty();
+
+		HBox pipelinedHBox = new HBox(3, pipelinedCheckbox);
+		pipelinedHBox.setAlignment( Pos.CENTER_LEFT );
+		pipelinedHBox.setPadding(new Insets(5));
+
+		Tab pipeliningTab = new Tab("Pipelining", pipelinedHBox);
+		pipeliningTab.setClosable(false);
+
+		TabPane acquisitionTabPane = new TabPane( antiDriftTab, binningTab, onTheFlyTab, ablationTab, pipeliningTab, roiTab );
 		acquisitionTabPane.setMinHeight(120);
 
 		Button acqHelpButton = createHelpButton();
@@ -1566,7 +1586,8 @@ public class AcquisitionPanel extends BorderPane implements SPIMSetupInjectable
 						arduinoSelected, finalFolder, finalFileName,
 						positionItemTableView.getItems().filtered(p -> p.getSelected()), channelItemList, processedImages, totalImages.getValue(),
 						enabledSaveImages.get(), savingFormat.getValue(), saveMIP.getValue(), ablationSupport.getValue(), antiDrift.getValue(), experimentNote.getValue(),
-						antiDriftLog, antiDriftRefCh.get(), antiDriftTypeToggle, onTheFly.getValue(), onChannelFusion.getValue() );
+						antiDriftLog, antiDriftRefCh.get(), antiDriftTypeToggle, onTheFly.getValue(), onChannelFusion.getValue(),
+						codec.getValue(), codecLevel.getValue(), throughputPolicy.getValue(), pipelined.getValue() );
 
 				acquisitionThread = null;
 				engine = null;
@@ -1886,7 +1907,7 @@ public class AcquisitionPanel extends BorderPane implements SPIMSetupInjectable
 		gridpane.addRow(2, new Label( "Filename:" ), textArea);
 
 		ComboBox c = new ComboBox<>( FXCollections.observableArrayList(
-				"Single Plane TIFF", "OMETIFF Image stack", "BDV format", "N5 format", "On-the-fly" ) );
+				"Single Plane TIFF", "OMETIFF Image stack", "BDV format", "N5 format", "Raw stream", "On-the-fly" ) );
 
 		c.valueProperty().setValue("Single Plane TIFF");
 		c.valueProperty().addListener(new ChangeListener() {
@@ -1903,12 +1924,44 @@ public class AcquisitionPanel extends BorderPane implements SPIMSetupInjectable
 
 		gridpane.addRow( 3, new Label( "Saving format:" ), c );
 
+		ComboBox<N5Codec> codecComboBox = new ComboBox<>( FXCollections.observableArrayList( N5Codec.available() ) );
+		codecComboBox.setValue( N5Codec.GZIP );
+		codec = codecComboBox.valueProperty();
+
+		Spinner<Integer> levelSpinner = new Spinner<>( N5Codec.GZIP.getMinLevel(), N5Codec.GZIP.getMaxLevel(), N5Codec.GZIP.getDefaultLevel(), 1 );
+		levelSpinner.setMaxWidth( 60 );
+		codecLevel = levelSpinner.getValueFactory().valueProperty();
+
+		codecComboBox.valueProperty().addListener( ( observable, oldValue, newValue ) -> {
+			if(newValue == null) return;
+			levelSpinner.setValueFactory( new SpinnerValueFactory.IntegerSpinnerValueFactory(
+					newValue.getMinLevel(), newValue.getMaxLevel(), newValue.getDefaultLevel(), 1 ) );
+			levelSpinner.setDisable( !newValue.hasLevel() );
+			codecLevel = levelSpinner.getValueFactory().valueProperty();
+		} );
+
+		Button benchmarkButton = new Button( "Benchmark" );
+		benchmarkButton.setOnAction( event -> runCodecBenchmark( benchmarkButton ) );
+
+		HBox codecBox = new HBox( 5, codecComboBox, new Label( "Level:" ), levelSpinner, benchmarkButton );
+		codecBox.setAlignment( Pos.CENTER_LEFT );
+		codecBox.disableProperty().bind( savingFormat.isNotEqualTo( "BDV format" ).and( savingFormat.isNotEqualTo( "N5 format" ) ) );
+		GridPane.setConstraints( codecBox, 1, 4, 3, 1 );
+
+		gridpane.addRow( 4, new Label( "Compression:" ), codecBox );
+
 		CheckBox mip = new CheckBox( "Show/save Maximum Intensity Projection of each TP" );
-		gridpane.addRow( 4, mip );
+		gridpane.addRow( 5, mip );
 		gridpane.setColumnSpan( mip, 3 );
 
 		saveMIP = mip.selectedProperty();
 
+		ComboBox<ThroughputMonitor.Policy> policyComboBox = new ComboBox<>( FXCollections.observableArrayList( ThroughputMonitor.Policy.values() ) );
+		policyComboBox.setValue( ThroughputMonitor.Policy.WARN );
+		policyComboBox.disableProperty().bind( savingFormat.isEqualTo( "On-the-fly" ) );
+		throughputPolicy = policyComboBox.valueProperty();
+		gridpane.addRow( 6, new Label( "If saving falls behind:" ), policyComboBox );
+
 		Button helpButton = createHelpButton();
 		helpButton.setOnAction( event -> new HelpWindow().show(HelpType.SAVEIMAGE));
 
@@ -1926,13 +1979,50 @@ public class AcquisitionPanel extends BorderPane implements SPIMSetupInjectable
 		noteTab.setClosable(false);
 
 		TabPane tabPane = new TabPane(saveOptionTab, noteTab);
-		tabPane.setMinHeight(190);
+		tabPane.setMinHeight(220);
 
 		VBox vbox = new VBox( 12, tabPane );
 
 		return vbox;
 	}
 
+	private void runCodecBenchmark( Button benchmarkButton ) {
+		final int width = 512, height = 512, depth = 32;
+		benchmarkButton.setDisable( true );
+
+		Task<String> task = new Task<String>() {
+			@Override
+			protected String call() throws Exception
+			{
+				final short[][] stack = N5CodecComparison.createSampleStack( width, height, depth );
+				return N5CodecComparison.runAll( stack, width, height ).stream()
+						.map( N5CodecComparison.Result::toString ).collect( Collectors.joining( "\n" ) );
+			}
+		};
+
+		task.setOnSucceeded( event -> {
+			benchmarkButton.setDisable( false );
+
+			TextArea result = new TextArea( task.getValue() );
+			result.setEditable( false );
+			result.setFont( Font.font( "Monospaced", 12 ) );
+			result.setPrefColumnCount( 60 );
+
+			Alert alert = new Alert( Alert.AlertType.INFORMATION );
+			alert.setTitle( "Compression benchmark" );
+			alert.setHeaderText( String.format( "Sample stack of %dx%dx%d 16-bit pixels", width, height, depth ) );
+			alert.getDialogPane().setContent( result );
+			alert.show();
+		} );
+
+		task.setOnFailed( event -> {
+			benchmarkButton.setDisable( false );
+			ReportingUtils.logError( task.getException() );
+		} );
+
+		new Thread( task ).start();
+	}
+
 	private Node createChannelItemTable( TableView< ChannelItem > channelItemTableView, String camera, String laser, int exp ) {
 		channelItemTableView.setEditable( true );
 
@@ -28,6 +28,7 @@ import org.micromanager.data.DatastoreRewriteException;
 import org.micromanager.data.Image;
 import org.micromanager.data.Metadata;
 import org.micromanager.data.RewritableDatastore;
+import org.micromanager.data.Storage;
 import org.micromanager.data.internal.DefaultDatastore;
 import org.micromanager.data.internal.DefaultSummaryMetadata;
 import org.micromanager.data.internal.PropertyKey;
@@ -42,7 +43,9 @@ import org.micromanager.internal.utils.ReportingUtils;
 import spim.model.data.Row;
 import spim.algorithm.AntiDrift;
 import spim.algorithm.DefaultAntiDrift;
+import spim.algorithm.SlicePreprocessor;
 import spim.hardware.Device;
+import spim.hardware.MotionController;
 import spim.hardware.SPIMSetup;
 import spim.hardware.Stage;
 import spim.io.*;
@@ -51,10 +54,14 @@ import spim.model.data.ChannelItem;
 import spim.model.data.PositionItem;
 import spim.model.data.TimePointItem;
 import spim.ui.view.component.acquisition.AcqWrapperEngine;
+import spim.ui.view.component.acquisition.AcquisitionScheduler;
+import spim.util.AcquisitionTiming;
+import spim.util.PixelBufferPool;
 import spim.util.SystemInfo;
 
 import java.awt.*;
 import java.io.File;
+import java.io.IOException;
 import java.net.InetAddress;
 import java.util.ArrayList;
 import java.util.Date;
@@ -77,6 +84,15 @@ public class MMAcquisitionEngine
 	volatile boolean done;
 	Thread captureThread;
 	volatile boolean stopRequest = false;
+	private volatile AcquisitionScheduler scheduler_;
+	private volatile AcquisitionTiming timing_;
+	private WriteBehindStorage writeBehind_;
+	private volatile ThroughputMonitor monitor_;
+
+	// Size of the pre-flight write test
+	private static final long PREFLIGHT_BYTES = 64L << 20;
+	// Smallest subpixel anti-drift correction in um, about the step of the stages
+	private static final double MIN_CORRECTION_UM = 0.1;
 	DisplayWindow display_ = null;
 
 	static {
@@ -91,6 +107,58 @@ public class MMAcquisitionEngine
 
 	public void stop() {
 		stopRequest = true;
+		AcquisitionScheduler scheduler = scheduler_;
+		if(scheduler != null) scheduler.cancel();
+	}
+
+	/**
+	 * Wraps the storage with the write-behind queue, which posts an alert when the disk cannot keep up.
+	 *
+	 * @param studio the studio
+	 * @param storage the storage
+	 * @param timing records the time of every write
+	 * @return the write-behind storage
+	 */
+	private WriteBehindStorage writeBehind(Studio studio, Storage storage, AcquisitionTiming timing) {
+		WriteBehindStorage writeBehindStorage = new WriteBehindStorage(new TimedStorage(storage, timing));
+		writeBehindStorage.addListener(new WriteBehindStorage.Listener() {
+			@Override
+			public void fallingBehindChanged(boolean fallingBehind, long queuedBytes, long budgetBytes) {
+				if(fallingBehind)
+					studio.alerts().postAlert("Storage", MMAcquisitionEngine.class,
+							String.format("Saving is falling behind: %d MB of %d MB buffered in memory.", queuedBytes >> 20, budgetBytes >> 20));
+			}
+		});
+		writeBehind_ = writeBehindStorage;
+		return writeBehindStorage;
+	}
+
+	/**
+	 * Measures the write bandwidth of the output directory and warns when it or the free space does not suffice.
+	 *
+	 * @param studio the studio
+	 * @param output the output directory
+	 * @param totalBytes the bytes of all images
+	 * @param totalSeconds the planned duration of the acquisition
+	 */
+	private static void preflight(Studio studio, File output, long totalBytes, double totalSeconds) {
+		if(!output.isDirectory()) return;
+
+		try {
+			final double bandwidth = ThroughputMonitor.preflight( output, PREFLIGHT_BYTES );
+			final double required = totalSeconds > 0 ? totalBytes / totalSeconds : 0;
+			final String message = String.format( "Pre-flight write test: %.1f MB/s, the acquisition needs %.1f MB/s on average.",
+					bandwidth / 1e6, required / 1e6 );
+			ReportingUtils.logMessage( message );
+			if(bandwidth < required)
+				studio.alerts().postAlert( "Storage", MMAcquisitionEngine.class, "The disk may not keep up. " + message );
+
+			if(output.getUsableSpace() < totalBytes)
+				studio.alerts().postAlert( "Storage", MMAcquisitionEngine.class,
+						String.format( "Not enough disk space: %d MB free, %d MB needed.", output.getUsableSpace() >> 20, totalBytes >> 20 ) );
+		} catch (IOException e) {
+			ReportingUtils.logError( e, "Pre-flight write test failed in " + output );
+		}
 	}
 
 	/**
@@ -111,7 +179,7 @@ public class MMAcquisitionEngine
 	 * @param processedImages the processed images
 	 * @param totalImages the total images
 	 * @param bSave the b save
-	 * @param savingFormatValue the value set from { "Single Plane TIFF", "OMETIFF Image stack", "N5 format" }
+	 * @param savingFormatValue the value set from { "Single Plane TIFF", "OMETIFF Image stack", "BDV format", "N5 format", "Raw stream", "On-the-fly" }
 	 * @param saveMIP Save Maximum Intensity Projection or not
 	 * @param ablationSupport Support for ablation experiments
 	 * @param antiDrift Anti-Drift function used or not
@@ -121,242 +189,273 @@ public class MMAcquisitionEngine
 	 * @param antiDriftTypeToggle the type of anti-drift, CentreOfMass or PhaseCorrelation
 	 * @param onTheFly onTheFly is enabled or not
 	 * @param fusionChannel fuse all the channels into one
+	 * @param codec the compression codec for N5 and BDV format
+	 * @param codecLevel the compression level of the codec
+	 * @param throughputPolicy what to do when the disk cannot keep up
+	 * @param pipelined move to the next position while the last stack is still stored, otherwise every stack is finished first
 	 * @throws Exception the exception
 	 */
 	@SuppressWarnings("Duplicates")
-	public void performAcquisition(Studio studio, SPIMSetup setup, StagePanel stagePanel, Rectangle roiRectangle, int timeSeqs, ObservableList<TimePointItem> timePointItems, DoubleProperty currentTP, DoubleProperty waitSeconds, boolean arduinoSelected, File output, String acqFilenamePrefix, ObservableList<PositionItem> positionItems, List<ChannelItem> channelItems, LongProperty processedImages, long totalImages, boolean bSave, Object savingFormatValue, boolean saveMIP, boolean ablationSupport, boolean antiDrift, String experimentNote, StringProperty antiDriftLog, Integer antiDriftReferenceChannel, ReadOnlyObjectProperty<Toggle> antiDriftTypeToggle, Boolean onTheFly, Boolean fusionChannel) throws Exception
+	public void performAcquisition(Studio studio, SPIMSetup setup, StagePanel stagePanel, Rectangle roiRectangle, int timeSeqs, ObservableList<TimePointItem> timePointItems, DoubleProperty currentTP, DoubleProperty waitSeconds, boolean arduinoSelected, File output, String acqFilenamePrefix, ObservableList<PositionItem> positionItems, List<ChannelItem> channelItems, LongProperty processedImages, long totalImages, boolean bSave, Object savingFormatValue, boolean saveMIP, boolean ablationSupport, boolean antiDrift, String experimentNote, StringProperty antiDriftLog, Integer antiDriftReferenceChannel, ReadOnlyObjectProperty<Toggle> antiDriftTypeToggle, Boolean onTheFly, Boolean fusionChannel, N5Codec codec, Integer codecLevel, ThroughputMonitor.Policy throughputPolicy, boolean pipelined) throws Exception
 	{
 		final Studio frame = studio;
 
 		if(frame == null) return;
 
-		boolean liveOn = false;
-//		RewritableDatastore store = null;
-		Datastore store = null;
-
-		if(frame != null) {
-			liveOn = frame.live().getIsLiveModeOn();
-			if(liveOn)
-				frame.live().setLiveMode(false);
-
-			if(bSave) {
-				DefaultDatastore result = new DefaultDatastore(frame);
-
-				store = result;
-
-				if(savingFormatValue.equals( "Single Plane TIFF" ))
-					result.setStorage(new OpenSPIMSinglePlaneTiffSeries(result, output.getAbsolutePath(), acqFilenamePrefix, true));
-				else if(savingFormatValue.equals( "OMETIFF Image stack" ))
-					result.setStorage(new OMETIFFStorage(result, output.getAbsolutePath(), acqFilenamePrefix, true));
-				else if(savingFormatValue.equals( "BDV format" ))
-					result.setStorage(new BDVMicroManagerStorage(result, output.getAbsolutePath(), acqFilenamePrefix, channelItems.size(), timeSeqs, true, fusionChannel));
-				else if(savingFormatValue.equals( "N5 format" ))
-					result.setStorage(new N5MicroManagerStorage(result, output.getAbsolutePath(), acqFilenamePrefix, timeSeqs, true));
-				else if(savingFormatValue.equals( "On-the-fly" ))
+		// Phase timing of this acquisition, also served over JMX while it runs
+		final AcquisitionTiming timing = new AcquisitionTiming();
+		timing.register();
+		timing_ = timing;
+		try {
+
+			writeBehind_ = null;
+			monitor_ = null;
+
+			boolean liveOn = false;
+	//		RewritableDatastore store = null;
+			Datastore store = null;
+
+			if(frame != null) {
+				liveOn = frame.live().getIsLiveModeOn();
+				if(liveOn)
+					frame.live().setLiveMode(false);
+
+				if(bSave) {
+					DefaultDatastore result = new DefaultDatastore(frame);
+
+					store = result;
+
+					// The ablation support copies the last written TIFF file right after
+					// each stack, so the files have to be on disk by then.
+					if(savingFormatValue.equals( "Single Plane TIFF" ) && ablationSupport)
+						result.setStorage(new TimedStorage(new OpenSPIMSinglePlaneTiffSeries(result, output.getAbsolutePath(), acqFilenamePrefix, true), timing));
+					else if(savingFormatValue.equals( "Single Plane TIFF" ))
+						result.setStorage(writeBehind(frame, new OpenSPIMSinglePlaneTiffSeries(result, output.getAbsolutePath(), acqFilenamePrefix, true), timing));
+					else if(savingFormatValue.equals( "OMETIFF Image stack" ))
+						result.setStorage(writeBehind(frame, new OMETIFFStorage(result, output.getAbsolutePath(), acqFilenamePrefix, true), timing));
+					else if(savingFormatValue.equals( "BDV format" ))
+						result.setStorage(writeBehind(frame, new BDVMicroManagerStorage(result, output.getAbsolutePath(), acqFilenamePrefix, channelItems.size(), timeSeqs, true, fusionChannel, codec, codecLevel), timing));
+					else if(savingFormatValue.equals( "N5 format" ))
+						result.setStorage(writeBehind(frame, new N5MicroManagerStorage(result, output.getAbsolutePath(), acqFilenamePrefix, timeSeqs, true, codec, codecLevel), timing));
+					else if(savingFormatValue.equals( "Raw stream" ))
+						// Copies the pixels into mapped files, so it keeps up without a write-behind queue
+						result.setStorage(new TimedStorage(new RawStreamStorage(result, output.getAbsolutePath(), acqFilenamePrefix, true), timing));
+					else if(savingFormatValue.equals( "On-the-fly" ))
+						store = frame.data().createRewritableRAMDatastore();
+
+					if(writeBehind_ != null)
+						monitor_ = new ThroughputMonitor( writeBehind_, output, throughputPolicy );
+				} else {
 					store = frame.data().createRewritableRAMDatastore();
-			} else {
-				store = frame.data().createRewritableRAMDatastore();
+				}
+				display_ = frame.displays().createDisplay(store);
+				display_.setCustomTitle( acqFilenamePrefix );
+				frame.displays().manage(store);
 			}
-			display_ = frame.displays().createDisplay(store);
-			display_.setCustomTitle( acqFilenamePrefix );
-			frame.displays().manage(store);
-		}
 
-		final CMMCore core = frame.core();
+			final CMMCore core = frame.core();
 
-//		final AcquisitionSettings acqSettings = acqSettingsOrig;
-//
-//		// generate string for log file
-//		Gson gson = new GsonBuilder().setPrettyPrinting().create();
-//		final String acqSettingsJSON = gson.toJson(acqSettings);
+			if(bSave && !savingFormatValue.equals( "On-the-fly" ))
+				preflight( frame, output, totalImages * core.getImageBufferSize(),
+						timePointItems.stream().mapToDouble( TimePointItem::getTotalSeconds ).sum() );
 
-		final double acqBegan = System.nanoTime() / 1e9;
+	//		final AcquisitionSettings acqSettings = acqSettingsOrig;
+	//
+	//		// generate string for log file
+	//		Gson gson = new GsonBuilder().setPrettyPrinting().create();
+	//		final String acqSettingsJSON = gson.toJson(acqSettings);
 
-//		boolean autoShutter = core.getAutoShutter();
-//		core.setAutoShutter(false);
+			final double acqBegan = System.nanoTime() / 1e9;
 
-		Row[] acqRows = generateRows( positionItems );
+	//		boolean autoShutter = core.getAutoShutter();
+	//		core.setAutoShutter(false);
 
-		String currentCamera = core.getCameraDevice();
+			Row[] acqRows = generateRows( positionItems );
 
-		List<String> cameras = new ArrayList<>();
+			String currentCamera = core.getCameraDevice();
 
-		// To support multi camera
-		List<String> multis = getMultiCams(core);
+			List<String> cameras = new ArrayList<>();
 
-		int ch = 0;
+			// To support multi camera
+			List<String> multis = getMultiCams(core);
 
-		if(arduinoSelected) {
-			cameras.add(currentCamera);
-			for(ChannelItem chItem: channelItems) {
-				if(currentCamera.startsWith( "Multi" )) ch += multis.size();
-				else ch += 1;
-			}
-		} else {
-			for(ChannelItem chItem: channelItems) {
-				if(chItem.getName().startsWith( "Multi" )) ch += multis.size();
-				else ch += 1;
+			int ch = 0;
 
-				if(!cameras.contains( chItem.getName() )) {
-					cameras.add( chItem.getName() );
+			if(arduinoSelected) {
+				cameras.add(currentCamera);
+				for(ChannelItem chItem: channelItems) {
+					if(currentCamera.startsWith( "Multi" )) ch += multis.size();
+					else ch += 1;
+				}
+			} else {
+				for(ChannelItem chItem: channelItems) {
+					if(chItem.getName().startsWith( "Multi" )) ch += multis.size();
+					else ch += 1;
+
+					if(!cameras.contains( chItem.getName() )) {
+						cameras.add( chItem.getName() );
+					}
 				}
 			}
-		}
 
-		String[] channelNames = new String[ch];
+			String[] channelNames = new String[ch];
 
-		ch = 0;
+			ch = 0;
 
 
-		if(arduinoSelected) {
-			for(ChannelItem chItem: channelItems) {
-				if(currentCamera.startsWith( "Multi" )) {
-					for(String name: multis) {
-						channelNames[ ch++ ] = name + "-" + chItem.getName();
+			if(arduinoSelected) {
+				for(ChannelItem chItem: channelItems) {
+					if(currentCamera.startsWith( "Multi" )) {
+						for(String name: multis) {
+							channelNames[ ch++ ] = name + "-" + chItem.getName();
+						}
+					} else {
+						channelNames[ ch++ ] = chItem.getName();
 					}
-				} else {
-					channelNames[ ch++ ] = chItem.getName();
 				}
-			}
-		} else {
-			for(ChannelItem chItem : channelItems)
-			{
-				String cam = chItem.getName();
-				if(!cam.startsWith( "Multi" ))
-					channelNames[ ch++ ] = cam;
-				else {
-					for(String c : multis)
-						channelNames[ ch++ ] = "Multi-" + c + "-" + chItem.getName();
+			} else {
+				for(ChannelItem chItem : channelItems)
+				{
+					String cam = chItem.getName();
+					if(!cam.startsWith( "Multi" ))
+						channelNames[ ch++ ] = cam;
+					else {
+						for(String c : multis)
+							channelNames[ ch++ ] = "Multi-" + c + "-" + chItem.getName();
+					}
 				}
 			}
-		}
 
 
-		MultiStagePosition[] multiStagePositions = positionItems.stream().map( c -> new MultiStagePosition( c.toString(), c.getX(), c.getY(), c.getZString(), c.getZStart() )).toArray(MultiStagePosition[]::new);
+			MultiStagePosition[] multiStagePositions = positionItems.stream().map( c -> new MultiStagePosition( c.toString(), c.getX(), c.getY(), c.getZString(), c.getZStart() )).toArray(MultiStagePosition[]::new);
 
-		PropertyMap.Builder pm = PropertyMaps.builder();
+			PropertyMap.Builder pm = PropertyMaps.builder();
 
-		DefaultSummaryMetadata.Builder smb = new DefaultSummaryMetadata.Builder();
+			DefaultSummaryMetadata.Builder smb = new DefaultSummaryMetadata.Builder();
 
-		UserProfile profile = frame.profile();
-		smb = smb.userName( System.getProperty("user.name") )
-				.profileName( profile.getProfileName() );
-
-		try {
-			smb = smb.computerName( InetAddress.getLocalHost().getHostName());
-		}
-		catch ( Exception ignored ) {
-		}
+			UserProfile profile = frame.profile();
+			smb = smb.userName( System.getProperty("user.name") )
+					.profileName( profile.getProfileName() );
 
-		smb = smb.channelNames(channelNames).
-				zStepUm( positionItems.get(0).getZStep() ).
-				prefix( acqFilenamePrefix ).
-				stagePositions( multiStagePositions ).
-				startDate( (new Date() ).toString() );
-
-		smb = smb.intendedDimensions( Coordinates.builder().
-				channel( channelItems.size() ).
-				z( positionItems.get(0).getNumberOfSlices() ).
-				t( timeSeqs ).
-				stagePosition(acqRows.length).
-				build());
+			try {
+				smb = smb.computerName( InetAddress.getLocalHost().getHostName());
+			}
+			catch ( Exception ignored ) {
+			}
 
-		if(setup.getCamera1() != null)
-		{
-			pm.putString("Camera-1", setup.getCamera1().getLabel() );
-		}
+			smb = smb.channelNames(channelNames).
+					zStepUm( positionItems.get(0).getZStep() ).
+					prefix( acqFilenamePrefix ).
+					stagePositions( multiStagePositions ).
+					startDate( (new Date() ).toString() );
 
-		if(setup.getCamera2() != null)
-		{
-			pm.putString("Camera-2", setup.getCamera2().getLabel() );
-		}
+			smb = smb.intendedDimensions( Coordinates.builder().
+					channel( channelItems.size() ).
+					z( positionItems.get(0).getNumberOfSlices() ).
+					t( timeSeqs ).
+					stagePosition(acqRows.length).
+					build());
 
-		pm.putString("ExperimentNote", experimentNote);
+			if(setup.getCamera1() != null)
+			{
+				pm.putString("Camera-1", setup.getCamera1().getLabel() );
+			}
 
-		if(null != roiRectangle)
-		{
-			for ( String camera : cameras )
+			if(setup.getCamera2() != null)
 			{
-				frame.core().setROI( camera, roiRectangle.x, roiRectangle.y, roiRectangle.width, roiRectangle.height );
+				pm.putString("Camera-2", setup.getCamera2().getLabel() );
 			}
 
-			pm.putIntegerList("ROI", roiRectangle.x, roiRectangle.y, roiRectangle.width, roiRectangle.height );
-		}
+			pm.putString("ExperimentNote", experimentNote);
 
-		Datastore finalStore1 = store;
-		frame.events().post( new AcquisitionStartedEvent()
-		{
-			@Override public Datastore getDatastore()
+			if(null != roiRectangle)
 			{
-				return finalStore1;
+				for ( String camera : cameras )
+				{
+					frame.core().setROI( camera, roiRectangle.x, roiRectangle.y, roiRectangle.width, roiRectangle.height );
+				}
+
+				pm.putIntegerList("ROI", roiRectangle.x, roiRectangle.y, roiRectangle.width, roiRectangle.height );
 			}
 
-			@Override public Object getSource()
+			Datastore finalStore1 = store;
+			frame.events().post( new AcquisitionStartedEvent()
 			{
-				return this;
-			}
-		} );
+				@Override public Datastore getDatastore()
+				{
+					return finalStore1;
+				}
 
-		// Setting up the channel colors
-		int[] chColors = new int[channelNames.length];
+				@Override public Object getSource()
+				{
+					return this;
+				}
+			} );
 
-		for(int i = 0; i < chColors.length; i++) {
-			chColors[i] = DEFAULT_COLORS[i % 6].getRGB();
-		}
+			// Setting up the channel colors
+			int[] chColors = new int[channelNames.length];
 
-		pm.putIntegerList("ChColors", chColors);
+			for(int i = 0; i < chColors.length; i++) {
+				chColors[i] = DEFAULT_COLORS[i % 6].getRGB();
+			}
 
-		store.setSummaryMetadata(smb.userData(pm.build()).build());
+			pm.putIntegerList("ChColors", chColors);
 
-		DisplaySettings dsTmp = DefaultDisplaySettings.getStandardSettings(
-				PropertyKey.ACQUISITION_DISPLAY_SETTINGS.key());
+			store.setSummaryMetadata(smb.userData(pm.build()).build());
 
-		DisplaySettings.Builder displaySettingsBuilder
-				= dsTmp.copyBuilder();
+			DisplaySettings dsTmp = DefaultDisplaySettings.getStandardSettings(
+					PropertyKey.ACQUISITION_DISPLAY_SETTINGS.key());
 
-		final int nrChannels = chColors.length;
+			DisplaySettings.Builder displaySettingsBuilder
+					= dsTmp.copyBuilder();
 
+			final int nrChannels = chColors.length;
 
-		if (nrChannels == 1) {
-			displaySettingsBuilder.colorModeGrayscale();
-		} else {
-			displaySettingsBuilder.colorModeComposite();
-		}
-		for (int channelIndex = 0; channelIndex < nrChannels; channelIndex++) {
-			ChannelDisplaySettings channelSettings
-					= displaySettingsBuilder.getChannelSettings(channelIndex);
-			Color chColor = new Color(chColors[channelIndex]);
-			ChannelDisplaySettings.Builder csb =
-					channelSettings.copyBuilder().color(chColor);
 
-			csb.name(channelNames[channelIndex]);
+			if (nrChannels == 1) {
+				displaySettingsBuilder.colorModeGrayscale();
+			} else {
+				displaySettingsBuilder.colorModeComposite();
+			}
+			for (int channelIndex = 0; channelIndex < nrChannels; channelIndex++) {
+				ChannelDisplaySettings channelSettings
+						= displaySettingsBuilder.getChannelSettings(channelIndex);
+				Color chColor = new Color(chColors[channelIndex]);
+				ChannelDisplaySettings.Builder csb =
+						channelSettings.copyBuilder().color(chColor);
 
-			displaySettingsBuilder.channel(channelIndex, csb.build());
-		}
+				csb.name(channelNames[channelIndex]);
 
-		display_.compareAndSetDisplaySettings(display_.getDisplaySettings(), displaySettingsBuilder.build());
+				displaySettingsBuilder.channel(channelIndex, csb.build());
+			}
 
-		// For checking Max intensity projection is needed or not
-		if(!bSave) {
-			output = null;
-			saveMIP = false;
-			ablationSupport = false;
-		}
+			display_.compareAndSetDisplaySettings(display_.getDisplaySettings(), displaySettingsBuilder.build());
+
+			// For checking Max intensity projection is needed or not
+			if(!bSave) {
+				output = null;
+				saveMIP = false;
+				ablationSupport = false;
+			}
 
-		executeNormalAcquisition(setup, frame, store, stagePanel, currentCamera, cameras, output, acqFilenamePrefix, timePointItems, positionItems, channelItems, currentTP, waitSeconds, arduinoSelected, processedImages, totalImages, acqBegan, antiDrift, antiDriftLog, antiDriftReferenceChannel, antiDriftTypeToggle, saveMIP, onTheFly, ablationSupport);
+			executeNormalAcquisition(setup, frame, store, stagePanel, currentCamera, cameras, output, acqFilenamePrefix, timePointItems, positionItems, channelItems, currentTP, waitSeconds, arduinoSelected, processedImages, totalImages, acqBegan, antiDrift, antiDriftLog, antiDriftReferenceChannel, antiDriftTypeToggle, saveMIP, onTheFly, ablationSupport, pipelined);
+		} finally {
+			// Also when the acquisition fails, the next one registers its own
+			timing.unregister();
+		}
 	}
 
 	private void executeNormalAcquisition(SPIMSetup setup, final Studio frame, Datastore store,
 										  StagePanel stagePanel, String currentCamera, List<String> cameras, File outFolder, String acqFilenamePrefix,
 										  ObservableList<TimePointItem> timePointItems, ObservableList<PositionItem> positionItems, List<ChannelItem> channelItems,
 										  DoubleProperty currentTP, DoubleProperty waitSeconds, boolean arduinoSelected,
-										  LongProperty processedImages, long totalImages, final double acqBegan, final boolean antiDrift, StringProperty antiDriftLog, Integer adReferenceChannel, ReadOnlyObjectProperty<Toggle> antiDriftTypeToggle, Boolean saveMIP, Boolean onTheFly, boolean ablationSupport) throws Exception
+										  LongProperty processedImages, long totalImages, final double acqBegan, final boolean antiDrift, StringProperty antiDriftLog, Integer adReferenceChannel, ReadOnlyObjectProperty<Toggle> antiDriftTypeToggle, Boolean saveMIP, Boolean onTheFly, boolean ablationSupport, boolean pipelined) throws Exception
 	{
 
 		// Dynamic timeline
 		runNormalSmartImagingMMAcq(setup, frame, store, stagePanel, currentCamera, cameras,
 				outFolder, acqFilenamePrefix,
-				timePointItems, positionItems, channelItems, currentTP, waitSeconds, arduinoSelected, processedImages, totalImages, antiDrift, antiDriftLog, adReferenceChannel, antiDriftTypeToggle, saveMIP, onTheFly, ablationSupport);
+				timePointItems, positionItems, channelItems, currentTP, waitSeconds, arduinoSelected, processedImages, totalImages, antiDrift, antiDriftLog, adReferenceChannel, antiDriftTypeToggle, saveMIP, onTheFly, ablationSupport, pipelined);
 
 		finalize(true, setup, currentCamera, cameras, frame, 0, 0, store);
 	}
@@ -365,13 +464,12 @@ public class MMAcquisitionEngine
 											StagePanel stagePanel, String currentCamera, List<String> cameras, File outFolder, String acqFilenamePrefix,
 											ObservableList<TimePointItem> timePointItems, ObservableList<PositionItem> positionItems, List<ChannelItem> channelItems,
 											DoubleProperty currentTP, DoubleProperty waitSeconds, boolean arduinoSelected,
-											LongProperty processedImages, long totalImages, final boolean antiDrift, StringProperty antiDriftLog, Integer adReferenceChannel, ReadOnlyObjectProperty<Toggle> antiDriftTypeToggle, Boolean saveMIP, Boolean onTheFly, Boolean ablationSupport) throws Exception
+											LongProperty processedImages, long totalImages, final boolean antiDrift, StringProperty antiDriftLog, Integer adReferenceChannel, ReadOnlyObjectProperty<Toggle> antiDriftTypeToggle, Boolean saveMIP, Boolean onTheFly, Boolean ablationSupport, boolean pipelined) throws Exception
 	{
 
 		final CMMCore core = frame.core();
 
 		int timePoints = 0;
-		int  passedTimePoints = 0;
 		double totalTimePoints = timePointItems.stream().mapToDouble( TimePointItem::getTotalSeconds ).sum();
 
 		// Anti-Drift setup
@@ -387,23 +485,60 @@ public class MMAcquisitionEngine
 					driftCompMap.put(positionItem, new DefaultAntiDrift());
 				} else if(toogleGroupValue.equals("Phase correlation")) {
 					driftCompMap.put(positionItem, new DefaultAntiDrift(10));
+				} else if(toogleGroupValue.equals("Subpixel phase correlation")) {
+					driftCompMap.put(positionItem, new DefaultAntiDrift(10, AntiDrift.Type.MultiScalePhaseCorrelation));
 				}
 			}
+
+			// The binned float planes of the current camera ROI are allocated before the first stack
+			final PixelBufferPool pool = PixelBufferPool.getInstance();
+			pool.clear();
+			final SlicePreprocessor preprocessor = driftCompMap.isEmpty() ? null : driftCompMap.values().iterator().next().getPreprocessor();
+			if(preprocessor != null)
+				pool.reserve( PixelBufferPool.Type.FLOAT, preprocessor.getPlaneLength( (int) core.getImageWidth(), (int) core.getImageHeight() ), 2 );
 		}
 
 		AcqWrapperEngine engine = new AcqWrapperEngine( setup, frame, store, currentCamera, cameras, outFolder, acqFilenamePrefix, channelItems, arduinoSelected, processedImages, driftCompMap, adReferenceChannel, saveMIP, onTheFly, ablationSupport);
+		final AcquisitionTiming timing = timing_;
+		engine.setTiming( timing );
+
+		final ThroughputMonitor monitor = monitor_;
+		if(monitor != null) {
+			monitor.addListener( ( policy, estimate ) -> {
+				frame.alerts().postAlert( "Storage", MMAcquisitionEngine.class,
+						"Saving cannot keep up (" + estimate + "). " + policy + "." );
+				if(policy == ThroughputMonitor.Policy.SKIP_MIP)
+					engine.setSkipMIP( true );
+			} );
+		}
 
 		SystemInfo.dumpMemoryStatusToLog( core );
 //		EDTHangLogger.stopDefault();
 
+		// The stages are moved directly, the stage panel only shows the positions
+		final MotionController motion = new MotionController( setup );
+		if(stagePanel != null)
+			motion.addListener( stagePanel::showPosition );
+
+		final AcquisitionScheduler scheduler = new AcquisitionScheduler( totalTimePoints );
+		scheduler_ = scheduler;
+		if(stopRequest) scheduler.cancel();
+
+		// Planned start of the current TimePointItem
+		long itemStart = scheduler.now();
+
+		// Completion of the last stack of every position, its anti-drift offset may follow later
+		final HashMap< PositionItem, CompletableFuture<Void> > pending = new HashMap<>();
+
 		mainLoop:
 		for(TimePointItem tpItem : timePointItems ) {
 			if(tpItem.getType().equals( TimePointItem.Type.Acq ))
 			{
 				int timeSeqs = tpItem.getNoTimePoints();
+				final long intervalNs = (long) ( tpItem.getIntervalSeconds() * 1e9 );
 				for ( int timeSeq = 0; timeSeq < timeSeqs; ++timeSeq )
 				{
-					final double acqBegan = System.nanoTime() / 1e9;
+					final long plannedStart = itemStart + timeSeq * intervalNs;
 
 					int step = 0;
 
@@ -414,99 +549,49 @@ public class MMAcquisitionEngine
 
 //						display.setCustomTitle( acqFilenamePrefix + String.format( " t=%d, p=%d", timePoints, step ) );
 
-						// Offset change log
-						if(driftCompMap != null) {
-							int binningFactor = setup.getCamera1().getBinning();
-							Vector3D offset = driftCompMap.get(positionItem).getUpdatedOffset();
-//							double xOffset = offset.getX() < 50 ? offset.getX() * binningFactor * core.getPixelSizeUm() * -1 : 0;
-//							double yOffset = offset.getY() < 50 ? offset.getY() * binningFactor * core.getPixelSizeUm() : 0;
-//							double zOffset = offset.getZ() < 20 ? offset.getZ() * positionItem.getZStep() * -1 : 0;
-
-							double xOffset = offset.getX() * binningFactor * core.getPixelSizeUm() * -1;
-							double yOffset = offset.getY() * binningFactor * core.getPixelSizeUm() * -1;
-							double zOffset = offset.getZ() * positionItem.getZStep() * -1;
-
-							// Applying inversion status of X and Z
-							if(setup.getXStage().inversedProperty().get()) {
-								xOffset *= -1;
-							}
-							if(setup.getZStage().inversedProperty().get()) {
-								zOffset *= -1;
-							}
+						// The anti-drift of the previous stack of this position may still run while the stage moves
+						final CompletableFuture<Vector3D> driftOffset = driftCompMap == null ? null : driftCompMap.get( positionItem ).getOffset();
+						final boolean lateCorrection = driftOffset != null && !driftOffset.isDone();
 
-							// Remove double applying calibration value
-							if(driftCompMap.get(positionItem).getType().equals(AntiDrift.Type.CenterOfMass)) {
-								xOffset = xOffset / core.getPixelSizeUm();
-								yOffset = yOffset / core.getPixelSizeUm();
-							}
-
-							// Only use integer values
-							if(Math.abs(xOffset) > 1) xOffset = (int) xOffset;
-							else xOffset = 0;
-
-							if(Math.abs(yOffset) > 1) yOffset = (int) yOffset;
-							else yOffset = 0;
-
-							if(Math.abs(zOffset) > 1) zOffset = (int) zOffset;
-							else zOffset = 0;
-
-							StringBuffer sb =  new StringBuffer();
-							sb.append("PixelSizeUm = " + core.getPixelSizeUm() + "\n");
-							sb.append(driftCompMap.get(positionItem).getType() + " Anti-Drift used X:" + xOffset + " Y:" + yOffset + " Z:" + zOffset + "\n");
-							System.out.println(sb.toString());
-
-							// Logging the anti-drift values
-							sb.append(driftCompMap.get(positionItem).getType()).append("\n");
-							sb.append("Position: #").append(step).append("\n");
-							sb.append(new Date()).append("\n");
-							sb.append("X:").append(positionItem.getX()).append(" Y:").append(positionItem.getY()).append(" Z:").append(positionItem.getZString()).append("\n");
-							positionItem.setX(positionItem.getX() + xOffset);
-							positionItem.setY(positionItem.getY() + yOffset);
-							positionItem.setZStart(positionItem.getZStart() + zOffset);
-							positionItem.setZEnd(positionItem.getZEnd() + zOffset);
-							sb.append("->\nX:").append(positionItem.getX()).append(" Y:").append(positionItem.getY()).append(" Z:").append(positionItem.getZString()).append("\n");
-
-							core.logMessage(sb.toString());
+						// Offset change log
+						if(driftCompMap != null && !lateCorrection) {
+							applyAntiDrift( setup, core, driftCompMap.get(positionItem), positionItem, step );
 						}
 
 						// Move the stage
-						if(stagePanel != null)
-							stagePanel.goToPos( positionItem.getX(), positionItem.getY(), positionItem.getR() );
-						try
-						{
-							// wait until the all devices in the system stop moving
-							core.waitForSystem();
-						} catch ( Exception e ) {
-							System.err.println(e.toString());
-							core.logMessage(e.toString());
+						moveTo( motion, core, positionItem, timing, timePoints, step );
+
+						if(lateCorrection) {
+							// The anti-drift result of the previous stack is needed, the correction follows the move
+							core.logMessage("Anti-drift of position #" + step + " is not finished, the correction is applied after the move");
+							try {
+								scheduler.awaitCompletion( driftOffset );
+							} catch (InterruptedException | ExecutionException e) {
+								System.err.println(e.toString());
+								core.logMessage(e.toString());
+							} finally {
+								if (stopRequestCheck(setup, null, core, engine)) break mainLoop;
+							}
+							applyAntiDrift( setup, core, driftCompMap.get(positionItem), positionItem, step );
+							moveTo( motion, core, positionItem, timing, timePoints, step );
 						}
 
-//						core.clearCircularBuffer();
-
-//						while( core.systemBusy() ) {
-//							System.err.println("System is busy. Wait for 100ms..");
-//							core.logMessage("System is busy. Wait for 100ms..");
-//							Thread.sleep( 100 );
-//						}
-
 						core.logMessage("MMAcquisition started");
+						final long positionStart = scheduler.planPosition( step, plannedStart );
+						core.logMessage(scheduler.record( timePoints, step, positionStart, scheduler.now() ).toString());
 						engine.startAcquire( timePoints, step, positionItem );
-						CompletableFuture<Void> future = CompletableFuture.runAsync( () -> {
-							while(engine.isAcquisitionRunning()) {
-								try {
-									Thread.sleep( 10 );
-								} catch (InterruptedException e) {
-									try {
-										throw new ExecutionException(e);
-									} catch (ExecutionException ex) {
-										throw new RuntimeException(ex);
-									}
-								}
-							}
-						});
+						pending.put( positionItem, engine.getAcquisitionDone() );
 
 						try {
-							future.get();
+							if(pipelined) {
+								// The next position is approached as soon as the camera is done, the stack drains meanwhile
+								scheduler.awaitCompletion( engine.getExposureDone() );
+							} else {
+								// The stack and its anti-drift offset are finished before the stage moves on
+								scheduler.awaitCompletion( engine.getAcquisitionDone() );
+								if(driftCompMap != null)
+									scheduler.awaitCompletion( driftCompMap.get( positionItem ).getOffset() );
+							}
 						} catch (InterruptedException | ExecutionException e) {
 							System.err.println(e.toString());
 							core.logMessage(e.toString());
@@ -520,23 +605,26 @@ public class MMAcquisitionEngine
 						++step;
 					}
 
-					double elapsed = (System.nanoTime() / 1e9 - acqBegan);
-					double wait = tpItem.getIntervalSeconds() - elapsed;
+					if(monitor != null && monitor.getPolicy() == ThroughputMonitor.Policy.LENGTHEN_INTERVAL) {
+						// The following time points move back until the writer has drained its queue
+						final long drainNs = monitor.getDrainNanos();
+						if(drainNs > 0) {
+							itemStart += drainNs;
+							core.logMessage( String.format( "Interval lengthened by %.1f s for the disk to catch up", drainNs / 1e9 ) );
+						}
+					}
 
-					if(timeSeq < (timeSeqs - 1) && wait > 0D) {
-						System.err.println("Interval delay. (next seq in " + wait + "s)");
-						core.logMessage("Interval delay. (next seq in " + wait + "s)");
+					if(timeSeq < timeSeqs - 1) {
+						final long nextStart = itemStart + ( timeSeq + 1 ) * intervalNs;
+						double wait = ( nextStart - scheduler.now() ) / 1e9;
 
-						wait = tpItem.getIntervalSeconds();
-						passedTimePoints += (int) elapsed;
+						if(wait > 0D) {
+							System.err.println("Interval delay. (next seq in " + wait + "s)");
+							core.logMessage("Interval delay. (next seq in " + wait + "s)");
 
-						for(int i = (int) elapsed; i < (int) wait; i++)
-						{
-							++passedTimePoints;
-							updateTimeProperties( waitSeconds, wait - i, currentTP, 1 / totalTimePoints * passedTimePoints );
 							try
 							{
-								Thread.sleep( ( long ) ( 1e3 ) );
+								scheduler.awaitUntil( nextStart, left -> updateTimeProperties( waitSeconds, left, currentTP, scheduler.getProgress() ) );
 							}
 							catch ( InterruptedException ie )
 							{
@@ -546,20 +634,19 @@ public class MMAcquisitionEngine
 							finally {
 								if (stopRequestCheck(setup, waitSeconds, core, engine)) break mainLoop;
 							}
-						}
-						updateWaitTimeProperty( waitSeconds, -1 );
-					} else {
-						System.err.println("Behind schedule! (next seq in " + wait + "s)");
-						core.logMessage("Behind schedule! (next seq in " + wait + "s)");
-
-						if(timeSeq < timeSeqs - 1) {
-							passedTimePoints += tpItem.getIntervalSeconds();
+							updateWaitTimeProperty( waitSeconds, -1 );
+						} else {
+							System.err.println("Behind schedule! (next seq in " + wait + "s)");
+							core.logMessage("Behind schedule! (next seq in " + wait + "s)");
 						}
 					}
 					++timePoints;
 
-					updateCurrentTPProperty( currentTP, 1 / totalTimePoints * passedTimePoints );
+					updateCurrentTPProperty( currentTP, scheduler.getProgress() );
 				}
+
+				// The next item follows the last time point directly
+				itemStart = scheduler.now();
 			}
 			else if(tpItem.getType().equals( TimePointItem.Type.Wait ))
 			{
@@ -569,38 +656,146 @@ public class MMAcquisitionEngine
 					System.err.println("Wait delay. (next seq in " + wait + "s)");
 					core.logMessage("Wait delay. (next seq in " + wait + "s)");
 
-					for(int i = 0; i < (int) wait; i++)
+					final long waitEnd = itemStart + (long) ( wait * 1e9 );
+					try
 					{
-						++passedTimePoints;
-						updateTimeProperties( waitSeconds, wait - i, currentTP, 1 / totalTimePoints * passedTimePoints );
-						try
-						{
-							Thread.sleep( ( long ) ( 1e3 ) );
-						}
-						catch ( InterruptedException ie )
-						{
-							core.logMessage(ie.toString());
-							finalize( false, setup, currentCamera, cameras, frame, 0, 0, store );
-						}
-						finally {
-							if (stopRequestCheck(setup, waitSeconds, core, engine)) break mainLoop;
-						}
+						scheduler.awaitUntil( waitEnd, left -> updateTimeProperties( waitSeconds, left, currentTP, scheduler.getProgress() ) );
+					}
+					catch ( InterruptedException ie )
+					{
+						core.logMessage(ie.toString());
+						finalize( false, setup, currentCamera, cameras, frame, 0, 0, store );
+					}
+					finally {
+						if (stopRequestCheck(setup, waitSeconds, core, engine)) break mainLoop;
 					}
 					updateWaitTimeProperty( waitSeconds, -1 );
+					itemStart = waitEnd;
 				}
 			}
 		}
 
+		if(outFolder != null) {
+			try {
+				scheduler.writeRecords( new File( outFolder, acqFilenamePrefix + "_schedule.csv" ) );
+			} catch (IOException e) {
+				ReportingUtils.logError( e, "Failed to write the schedule of the acquisition" );
+			}
+		}
+
+		// The last stacks drain before the datastore is frozen
+		for( CompletableFuture<Void> done : pending.values() ) {
+			try {
+				scheduler.awaitCompletion( done );
+			} catch (InterruptedException | ExecutionException e) {
+				core.logMessage(e.toString());
+			}
+		}
+
 		SystemInfo.dumpMemoryStatusToLog(core);
 
+		motion.close();
 		engine.exit();
 		store.freeze();
+		if(monitor != null) monitor.close();
+
+		// The writes of the write-behind storage are recorded until the freeze
+		core.logMessage("Acquisition timing:\n" + timing.report());
+		core.logMessage("Pixel buffer pool: " + PixelBufferPool.getInstance());
+		if(outFolder != null) {
+			try {
+				timing.writeCsv( new File( outFolder, acqFilenamePrefix + "_timing.csv" ) );
+			} catch (IOException e) {
+				ReportingUtils.logError( e, "Failed to write the timing of the acquisition" );
+			}
+		}
 
 		processedImages.set( totalImages );
 		System.out.println("AcquisitionEngine exited.");
 		core.logMessage("AcquisitionEngine exited.");
 	}
 
+	private static void moveTo(MotionController motion, CMMCore core, PositionItem positionItem, AcquisitionTiming timing, int timePoint, int position) {
+		try
+		{
+			// wait until the moved stages stop, Z is positioned by the acquisition itself
+			final long moveStart = System.nanoTime();
+			final long waitNs = motion.moveAndWait( positionItem.getX(), positionItem.getY(), null, positionItem.getR() );
+			timing.record( AcquisitionTiming.Phase.STAGE_MOVE, timePoint, position, System.nanoTime() - moveStart - waitNs );
+			timing.record( AcquisitionTiming.Phase.WAIT_FOR_SYSTEM, timePoint, position, waitNs );
+		} catch ( Exception e ) {
+			System.err.println(e.toString());
+			core.logMessage(e.toString());
+		}
+	}
+
+	// Moves the position by the offset from the last stack of the position
+	private static void applyAntiDrift(SPIMSetup setup, CMMCore core, DefaultAntiDrift antiDrift, PositionItem positionItem, int step) {
+		int binningFactor = setup.getCamera1().getBinning();
+		Vector3D offset = antiDrift.getUpdatedOffset();
+//		double xOffset = offset.getX() < 50 ? offset.getX() * binningFactor * core.getPixelSizeUm() * -1 : 0;
+//		double yOffset = offset.getY() < 50 ? offset.getY() * binningFactor * core.getPixelSizeUm() : 0;
+//		double zOffset = offset.getZ() < 20 ? offset.getZ() * positionItem.getZStep() * -1 : 0;
+
+		double xOffset = offset.getX() * binningFactor * core.getPixelSizeUm() * -1;
+		double yOffset = offset.getY() * binningFactor * core.getPixelSizeUm() * -1;
+		double zOffset = offset.getZ() * positionItem.getZStep() * -1;
+
+		// Applying inversion status of X and Z
+		if(setup.getXStage().inversedProperty().get()) {
+			xOffset *= -1;
+		}
+		if(setup.getZStage().inversedProperty().get()) {
+			zOffset *= -1;
+		}
+
+		// Remove double applying calibration value
+		if(antiDrift.getType().equals(AntiDrift.Type.CenterOfMass)) {
+			xOffset = xOffset / core.getPixelSizeUm();
+			yOffset = yOffset / core.getPixelSizeUm();
+		}
+
+		if(antiDrift.getType().equals(AntiDrift.Type.MultiScalePhaseCorrelation)) {
+			// Subpixel estimates are applied down to the resolution of the stages
+			xOffset = roundCorrection(xOffset);
+			yOffset = roundCorrection(yOffset);
+			zOffset = roundCorrection(zOffset);
+		} else {
+			// Only use integer values
+			if(Math.abs(xOffset) > 1) xOffset = (int) xOffset;
+			else xOffset = 0;
+
+			if(Math.abs(yOffset) > 1) yOffset = (int) yOffset;
+			else yOffset = 0;
+
+			if(Math.abs(zOffset) > 1) zOffset = (int) zOffset;
+			else zOffset = 0;
+		}
+
+		StringBuffer sb =  new StringBuffer();
+		sb.append("PixelSizeUm = " + core.getPixelSizeUm() + "\n");
+		sb.append(antiDrift.getType() + " Anti-Drift used X:" + xOffset + " Y:" + yOffset + " Z:" + zOffset + "\n");
+		System.out.println(sb.toString());
+
+		// Logging the anti-drift values
+		sb.append(antiDrift.getType()).append("\n");
+		sb.append("Position: #").append(step).append("\n");
+		sb.append(new Date()).append("\n");
+		sb.append("X:").append(positionItem.getX()).append(" Y:").append(positionItem.getY()).append(" Z:").append(positionItem.getZString()).append("\n");
+		positionItem.setX(positionItem.getX() + xOffset);
+		positionItem.setY(positionItem.getY() + yOffset);
+		positionItem.setZStart(positionItem.getZStart() + zOffset);
+		positionItem.setZEnd(positionItem.getZEnd() + zOffset);
+		sb.append("->\nX:").append(positionItem.getX()).append(" Y:").append(positionItem.getY()).append(" Z:").append(positionItem.getZString()).append("\n");
+
+		core.logMessage(sb.toString());
+	}
+
+	// Rounds a subpixel correction in um to MIN_CORRECTION_UM, smaller ones are dropped
+	private static double roundCorrection(double offsetUm) {
+		return Math.round(offsetUm / MIN_CORRECTION_UM) * MIN_CORRECTION_UM;
+	}
+
 	private boolean stopRequestCheck(SPIMSetup setup, DoubleProperty waitSeconds, CMMCore core, AcqWrapperEngine engine) {
 		if (stopRequest) {
 			System.err.println("Stop requested.");
@@ -24,6 +24,7 @@ import javafx.scene.layout.VBox;
 import javafx.scene.paint.Color;
 import javafx.util.StringConverter;
 import org.micromanager.Studio;
+import spim.hardware.MotionController;
 import spim.hardware.SPIMSetup;
 import spim.ui.view.component.widgets.iconswitch.IconSwitch;
 import spim.ui.view.component.widgets.viewer.HelpType;
@@ -338,6 +339,40 @@ public class StagePanel extends BorderPane implements SPIMSetupInjectable
 		stageUnitY.setCurrentPos(y);
 	}
 
+	/**
+	 * Shows a position reached by the MotionController without commanding the stage again.
+	 *
+	 * @param axis the axis which moved
+	 * @param position the position of the device
+	 */
+	public void showPosition(MotionController.Axis axis, double position) {
+		final StageUnit.Stage stage;
+		switch ( axis ) {
+			case X: stage = StageUnit.Stage.X;
+				break;
+			case Y: stage = StageUnit.Stage.Y;
+				break;
+			case Z: stage = StageUnit.Stage.Z;
+				break;
+			default: stage = StageUnit.Stage.R;
+				break;
+		}
+
+		Platform.runLater( () -> {
+			final StageUnit unit = stageMap.get( stage );
+			if ( unit == null ) return;
+
+			final Property< Number > targetProperty = unit.targetValueProperty();
+			final ChangeListener listener = changeListenerMap.get( stage );
+			if ( listener != null ) targetProperty.removeListener( listener );
+			targetProperty.setValue( position );
+			if ( listener != null ) targetProperty.addListener( listener );
+
+			unit.deviceValueProperty().setValue( position );
+			unit.get( StageUnit.BooleanState.Ready ).set( true );
+		} );
+	}
+
 	public void goToOffset(double x, double z) {
 		stageUnitX.setCurrentPos( stageUnitX.getCurrentValue() + x );
 		stageUnitZ.setCurrentPos( stageUnitZ.getCurrentValue() + z );
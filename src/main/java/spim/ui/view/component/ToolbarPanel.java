@@ -7,6 +7,7 @@ import javafx.beans.property.SimpleDoubleProperty;
 import javafx.beans.property.SimpleObjectProperty;
 import javafx.beans.value.ChangeListener;
 import javafx.beans.value.ObservableValue;
+import javafx.concurrent.Task;
 import javafx.event.ActionEvent;
 import javafx.event.EventHandler;
 import javafx.geometry.Pos;
@@ -28,6 +29,7 @@ import org.micromanager.Studio;
 import org.micromanager.data.internal.DefaultDatastore;
 import org.micromanager.events.GUIRefreshEvent;
 import org.micromanager.internal.MMStudio;
+import org.micromanager.internal.utils.ReportingUtils;
 import spim.hardware.SPIMSetup;
 import spim.io.*;
 import spim.mm.MMUtils;
@@ -39,6 +41,9 @@ import java.awt.event.WindowAdapter;
 import java.awt.event.WindowEvent;
 import java.io.File;
 import java.io.IOException;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Optional;
 import java.util.function.Supplier;
 
 
@@ -338,9 +343,63 @@ public class ToolbarPanel extends DockNode implements SPIMSetupInjectable
 		String directory = f.getAbsolutePath();
 		lastOpenedFolder = directory;
 
+		if (storageType == StorageType.RawStream && convertRawStream(directory, prefix)) return;
+
+		openDataset(storageType, directory, prefix);
+	}
+
+	/**
+	 * Offers to convert a raw stream dataset before it is opened. The converted
+	 * dataset goes to a folder next to the raw stream and is opened when the
+	 * conversion is done.
+	 *
+	 * @return true if the dataset is being converted
+	 */
+	private boolean convertRawStream(String directory, String prefix) {
+		List<StorageType> targets = Arrays.asList(StorageType.RawStream, StorageType.OMETiff,
+				StorageType.N5, StorageType.BDV, StorageType.SinglePlaneTiff);
+		ChoiceDialog<StorageType> dialog = new ChoiceDialog<>(StorageType.RawStream, targets);
+		dialog.setTitle("Raw stream dataset");
+		dialog.setHeaderText(prefix + " is a raw stream dataset.\nChoose RawStream to open it as it is, or a format to convert it to.");
+		dialog.setContentText("Format:");
+
+		Optional<StorageType> choice = dialog.showAndWait();
+		if (!choice.isPresent() || choice.get() == StorageType.RawStream) return false;
+
+		final StorageType target = choice.get();
+		final File output = new File(directory, prefix + "_" + target.name());
+		output.mkdirs();
+
+		openDatasetButton.setDisable(true);
+		Task<Void> task = new Task<Void>() {
+			@Override
+			protected Void call() throws Exception {
+				RawStreamConverter.convert(studioProperty.get(), directory, prefix, output.getAbsolutePath(), prefix,
+						target, N5Codec.GZIP, N5Codec.GZIP.getDefaultLevel());
+				return null;
+			}
+		};
+		task.setOnSucceeded(event -> {
+			openDatasetButton.setDisable(false);
+			lastOpenedFolder = output.getAbsolutePath();
+			try {
+				openDataset(target, output.getAbsolutePath(), prefix);
+			} catch (IOException e) {
+				ReportingUtils.showError(e, "Failed to open " + output);
+			}
+		});
+		task.setOnFailed(event -> {
+			openDatasetButton.setDisable(false);
+			ReportingUtils.showError(task.getException(), "Failed to convert " + prefix + " to " + target);
+		});
+		new Thread(task).start();
+		return true;
+	}
+
+	private void openDataset(StorageType type, String directory, String prefix) throws IOException {
 		DefaultDatastore result = new DefaultDatastore(studioProperty.get());
 
-		switch (storageType) {
+		switch (type) {
 			case SinglePlaneTiff: result.setStorage(new OpenSPIMSinglePlaneTiffSeries(result, directory, prefix, false));
 			break;
 			case OMETiff: result.setStorage(new OMETIFFStorage(result, directory, prefix, false));
@@ -349,6 +408,8 @@ public class ToolbarPanel extends DockNode implements SPIMSetupInjectable
 			break;
 			case BDV: result.setStorage(new BDVMicroManagerStorage(result, directory, prefix, 1, 1, false, false));
 			break;
+			case RawStream: result.setStorage(new RawStreamStorage(result, directory, prefix, false));
+			break;
 		}
 
 		result.setSavePath(directory);
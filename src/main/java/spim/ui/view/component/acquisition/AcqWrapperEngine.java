@@ -8,6 +8,8 @@ import java.nio.file.Files;
 import java.nio.file.StandardCopyOption;
 import java.util.*;
 import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.locks.ReentrantLock;
 
 import javax.swing.JOptionPane;
@@ -53,6 +55,7 @@ import spim.io.OpenSPIMSinglePlaneTiffSeries;
 import spim.model.data.ChannelItem;
 import spim.model.data.PositionItem;
 import spim.model.event.ControlEvent;
+import spim.util.AcquisitionTiming;
 import spim.ui.view.component.MMAcquisitionEngine;
 
 /**
@@ -122,8 +125,17 @@ public class AcqWrapperEngine implements AcquisitionEngine
 	Datastore mpStore_;
 	Pipeline mpPipeline_;
 	String ablationFilePrefix_;
-	TreeMap<Integer, Image>[] mpImages_;
-	TaggedImageSink sink;
+	// Channels of the MIP, 0 without it
+	int mipChannels_ = 0;
+	// The sinks still draining with their completion futures, the next acquisition can start before they finish
+	private final Map<TaggedImageSink, CompletableFuture<Void>> sinks_ = new ConcurrentHashMap<>();
+	// Completed when the sink of the current acquisition has finished
+	private volatile CompletableFuture<Void> acquisitionDone_ = CompletableFuture.completedFuture(null);
+	// Completed when the camera has delivered the last image of the current acquisition
+	private volatile CompletableFuture<Void> exposureDone_ = CompletableFuture.completedFuture(null);
+	private AcquisitionTiming timing_;
+	// Set when the disk cannot keep up and the MIP is given up
+	private volatile boolean skipMIP_ = false;
 
 	private static final Color[] DEFAULT_COLORS = {new Color(160, 32, 240), Color.red, Color.green, Color.blue, Color.yellow, Color.pink };
 
@@ -299,10 +311,7 @@ public class AcqWrapperEngine implements AcquisitionEngine
 
 					display.setCustomTitle("MIP:" + acqFilenamePrefix);
 					frame.displays().manage(mpStore_);
-					mpImages_ = new TreeMap[currentCamera.startsWith("Multi") ? multis.size() * channels.size() : channels.size()];
-					for (int i = 0; i < mpImages_.length; i++) {
-						mpImages_[i] = new TreeMap<>();
-					}
+					mipChannels_ = nrChannels;
 				}
 			}
 		}
@@ -327,6 +336,20 @@ public class AcqWrapperEngine implements AcquisitionEngine
 		}
 	}
 
+	/**
+	 * @param timing records the phases of the following acquisitions, can be null
+	 */
+	public void setTiming(AcquisitionTiming timing) {
+		timing_ = timing;
+	}
+
+	/**
+	 * @param skipMIP true to leave out the MIP of the following acquisitions
+	 */
+	public void setSkipMIP(boolean skipMIP) {
+		skipMIP_ = skipMIP;
+	}
+
 	public void startAcquire(int t, int angle, PositionItem positionItem) throws MMException
 	{
 		t_ = t;
@@ -379,15 +402,30 @@ public class AcqWrapperEngine implements AcquisitionEngine
 	}
 
 	protected Datastore runAcquisition(SequenceSettings acquisitionSettings) {
+		final CompletableFuture<Void> acquisitionDone = new CompletableFuture<>();
+		final CompletableFuture<Void> exposureDone = new CompletableFuture<>();
+		acquisitionDone_ = acquisitionDone;
+		exposureDone_ = exposureDone;
+
+		// The state of this acquisition, the engine moves on to the next one while the sink drains
+		final int t = t_;
+		final int angle = angle_;
+		final MIPAccumulator mip = skipMIP_ ? null : newMIP();
+
 		try {
 			studio_.events().registerForEvents(this);
 			// Start up the acquisition engine
+			final long sequenceStart = System.nanoTime();
 			BlockingQueue<TaggedImage> engineOutputQueue = getAcquisitionEngine2010().run(
 					acquisitionSettings, true, posList_,
 					studio_.getAutofocusManager().getAutofocusMethod());
+			if (timing_ != null) timing_.recordSince(AcquisitionTiming.Phase.SEQUENCE_START, t, angle, sequenceStart);
 			summaryMetadata_ = getAcquisitionEngine2010().getSummaryMetadata();
 
-			curStore_.registerForEvents(this);
+			synchronized (sinks_) {
+				// Registered once for the sinks that overlap
+				if (sinks_.isEmpty()) curStore_.registerForEvents(this);
+			}
 			curPipeline_ = studio_.data().copyApplicationPipeline(curStore_, false);
 
 			studio_.events().post(new DefaultAcquisitionStartedEvent(curStore_,
@@ -398,34 +436,50 @@ public class AcqWrapperEngine implements AcquisitionEngine
 			double theta = spimSetup_.getAngle();
 
 			// Start pumping images through the pipeline and into the datastore.
-			sink = new TaggedImageSink(
+			final TaggedImageSink sink = new TaggedImageSink(
 					engineOutputQueue, curPipeline_, curStore_, this, studio_.events(),
-					t_, angle_, cameras_, x, y, theta, mpImages_, processedImages_, currentAntiDrift_, antiDriftReferenceChannel_, dirName_, onTheFly_ );
+					t, angle, cameras_, x, y, theta, mip, processedImages_, currentAntiDrift_, antiDriftReferenceChannel_, dirName_, onTheFly_ );
+			sink.getImagesReceived().thenRun(() -> exposureDone.complete(null));
+			sink.setTiming(timing_);
+			sinks_.put(sink, acquisitionDone);
 
 			sink.start(() -> getAcquisitionEngine2010().stop(), () -> {
-				rlock.lock();
-				if(ablationSupport_) {
-					List<String> multis = MMAcquisitionEngine.getMultiCams(core_);
-					for( int i = 0; i < multis.size(); i++ ) {
-						File latestFile = new File(outFolder_, getLatestFile(i, t_, angle_));
-						if (latestFile.exists()) {
-							File ablationFile = new File(outFolder_, getAblationFilename(i, angle_));
-							try {
-								Files.copy(latestFile.toPath(), ablationFile.toPath(), StandardCopyOption.REPLACE_EXISTING);
-							} catch (IOException e) {
-								e.printStackTrace();
+				try {
+					rlock.lock();
+					if(ablationSupport_) {
+						List<String> multis = MMAcquisitionEngine.getMultiCams(core_);
+						for( int i = 0; i < multis.size(); i++ ) {
+							File latestFile = new File(outFolder_, getLatestFile(i, t, angle));
+							if (latestFile.exists()) {
+								File ablationFile = new File(outFolder_, getAblationFilename(i, angle));
+								try {
+									Files.copy(latestFile.toPath(), ablationFile.toPath(), StandardCopyOption.REPLACE_EXISTING);
+								} catch (IOException e) {
+									e.printStackTrace();
+								}
 							}
 						}
 					}
-				}
-				generateMIP();
-				rlock.unlock();
-				curStore_.unregisterForEvents(AcqWrapperEngine.this);
-				if (mpStore_ != null) {
-					studio_.events().post(new DefaultAcquisitionEndedEvent(
-							mpStore_, this));
+					rlock.unlock();
+					// The complete channels are already in the MIP store, only the stacks which ended early are left
+					final long mipStart = System.nanoTime();
+					if (mip != null) {
+						mip.finish();
+						if (timing_ != null) timing_.recordSince(AcquisitionTiming.Phase.MIP, t, angle, mipStart);
+					}
+					if (mpStore_ != null) {
+						studio_.events().post(new DefaultAcquisitionEndedEvent(
+								mpStore_, this));
 
-					mpStore_.unregisterForEvents(this);
+						mpStore_.unregisterForEvents(this);
+					}
+				} finally {
+					synchronized (sinks_) {
+						sinks_.remove(sink);
+						if (sinks_.isEmpty()) curStore_.unregisterForEvents(AcqWrapperEngine.this);
+					}
+					exposureDone.complete(null);
+					acquisitionDone.complete(null);
 				}
 			});
 
@@ -435,120 +489,27 @@ public class AcqWrapperEngine implements AcquisitionEngine
 			ReportingUtils.showError(ex);
 			studio_.events().post(new DefaultAcquisitionEndedEvent(
 					curStore_, this));
+			exposureDone.complete(null);
+			acquisitionDone.complete(null);
 			return null;
 		}
 	}
 
-	private void generateMIP() {
-		if(null != mpImages_) {
-			for (TreeMap<Integer, Image> stack : mpImages_) {
-				// Could be moved outside processImage() ?
-				Image img = stack.get(0);
-				if (img == null) continue;
-
-				int bitDepth = img.getMetadata().getBitDepth();
-				int width = img.getWidth();
-				int height = img.getHeight();
-				int bytesPerPixel = img.getBytesPerPixel();
-				int numComponents = img.getNumComponents();
-				Coords coords = img.getCoords();
-				Metadata metadata = img.getMetadata();
-
-				Object resultPixels = null;
-
-				if (bytesPerPixel == 1) {
-
-					// Create new array
-					float[] newPixels = new float[width * height];
-					byte[] newPixelsFinal = new byte[width * height];
-
-					float currentValue;
-					float actualValue;
-
-					// Init the new array
-					for (int i = 0; i < newPixels.length; i++) {
-						newPixels[i] = 0;
-					}
-
-					// Iterate over all frames
-					for (int i = 0; i < stack.size(); i++) {
-
-						// Get current frame pixels
-						img = stack.get(i);
-						byte[] imgPixels = (byte[]) img.getRawPixels();
-
-						// Iterate over all pixels
-						for (int index = 0; index < newPixels.length; index++) {
-							currentValue = (float) (int) (imgPixels[index] & 0xffff);
-							actualValue = (float) newPixels[index];
-							newPixels[index] = (float) Math.max(currentValue, actualValue);
-						}
-					}
-
-					// Convert to short
-					for (int index = 0; index < newPixels.length; index++) {
-						newPixelsFinal[index] = (byte) newPixels[index];
-					}
-
-					resultPixels = newPixelsFinal;
-
-				} else if (bytesPerPixel == 2) {
-
-					// Create new array
-					float[] newPixels = new float[width * height];
-					short[] newPixelsFinal = new short[width * height];
-
-					float currentValue;
-					float actualValue;
-
-					// Init the new array
-					for (int i = 0; i < newPixels.length; i++) {
-						newPixels[i] = 0;
-					}
-
-
-					// Iterate over all frames
-					for (int i = 0; i < stack.size(); i++) {
-
-						// Get current frame pixels
-						img = stack.get(i);
-						short[] imgPixels = (short[]) img.getRawPixels();
-
-						// Iterate over all pixels
-						for (int index = 0; index < newPixels.length; index++) {
-							currentValue = (float) (int) (imgPixels[index] & 0xffff);
-							actualValue = (float) newPixels[index];
-							newPixels[index] = (float) Math.max(currentValue, actualValue);
-						}
-					}
-
-					// Convert to short
-					for (int index = 0; index < newPixels.length; index++) {
-						newPixelsFinal[index] = (short) newPixels[index];
-					}
-
-					resultPixels = newPixelsFinal;
-
-				}
-
-				// Create the processed image
-				Image processedImage_ = studio_.data().createImage(resultPixels, width, height,
-						bytesPerPixel, numComponents, coords, metadata);
+	// A fresh projection of one acquisition, which inserts each channel into the MIP store as soon as it is complete
+	private MIPAccumulator newMIP() {
+		if(0 == mipChannels_) return null;
 
+		return new MIPAccumulator(studio_.data(), mipChannels_, mip -> {
+			rlock.lock();
+			try {
 				if (null != mpStore_ && !mpStore_.isFrozen())
-					try {
-						mpPipeline_.insertImage(processedImage_);
-					} catch (IOException e) {
-						e.printStackTrace();
-					} catch (PipelineErrorException e) {
-						e.printStackTrace();
-					}
-			}
-
-			for(int i = 0; i < mpImages_.length; i++) {
-				mpImages_[i] = new TreeMap<>();
+					mpPipeline_.insertImage(mip);
+			} catch (IOException | PipelineErrorException e) {
+				e.printStackTrace();
+			} finally {
+				rlock.unlock();
 			}
-		}
+		});
 	}
 
 	private String getLatestFile(int c, int t, int p) {
@@ -814,8 +775,10 @@ public class AcqWrapperEngine implements AcquisitionEngine
 	@Override
 	public void stop(boolean interrupted) {
 		try {
-			if (null != sink) sink.stop();
-			sink = null;
+			sinks_.forEach((sink, done) -> {
+				sink.stop();
+				done.complete(null);
+			});
 
 			if (acquisitionEngine2010_ != null) {
 				acquisitionEngine2010_.stop();
@@ -823,6 +786,9 @@ public class AcqWrapperEngine implements AcquisitionEngine
 			acquisitionEngine2010_ = null;
 		} catch (Exception ex) {
 			ReportingUtils.showError(ex, "Acquisition engine stop request failed");
+		} finally {
+			exposureDone_.complete(null);
+			acquisitionDone_.complete(null);
 		}
 	}
 
@@ -867,6 +833,22 @@ public class AcqWrapperEngine implements AcquisitionEngine
 	}
 
 	//// State Queries /////////////////////////////////////////////////////
+	/**
+	 * @return the future completed when the images of the current acquisition
+	 * are stored and its MIP is generated
+	 */
+	public CompletableFuture<Void> getAcquisitionDone() {
+		return acquisitionDone_;
+	}
+
+	/**
+	 * @return the future completed when the camera has delivered the last image
+	 * of the current acquisition, the stage can move on while the images drain
+	 */
+	public CompletableFuture<Void> getExposureDone() {
+		return exposureDone_;
+	}
+
 	@Override
 	public boolean isAcquisitionRunning() {
 		// Even after the acquisition finishes, if the pipeline is still "live",
@@ -0,0 +1,205 @@
+package spim.ui.view.component.acquisition;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.function.DoubleConsumer;
+
+/**
+ * Description: Schedule of the time points of an acquisition on the monotonic
+ * clock. Time points are planned from the start of their TimePointItem, so a
+ * late time point does not shift the following ones. The waits end on their
+ * deadline or on cancel(), whichever comes first, and the planned and actual
+ * start of every time point and position is recorded. The positions of a time
+ * point are planned after its first one with the offsets they had in the first
+ * time point, so a position which falls behind shows its own delay.
+ *
+ * Author: HongKee Moon (moon@mpi-cbg.de), Scientific Computing Facility
+ * Organization: MPI-CBG Dresden
+ * Date: October 2026
+ */
+public class AcquisitionScheduler {
+	private static final long TICK_NS = TimeUnit.SECONDS.toNanos(1);
+
+	public static class Record {
+		private final int timePoint;
+		private final int position;
+		private final double plannedMs;
+		private final double actualMs;
+
+		Record(int timePoint, int position, double plannedMs, double actualMs) {
+			this.timePoint = timePoint;
+			this.position = position;
+			this.plannedMs = plannedMs;
+			this.actualMs = actualMs;
+		}
+
+		public int getTimePoint() {
+			return timePoint;
+		}
+
+		public int getPosition() {
+			return position;
+		}
+
+		/**
+		 * @return the planned start in ms after the start of the acquisition
+		 */
+		public double getPlannedMs() {
+			return plannedMs;
+		}
+
+		/**
+		 * @return the actual start in ms after the start of the acquisition
+		 */
+		public double getActualMs() {
+			return actualMs;
+		}
+
+		@Override
+		public String toString() {
+			return String.format("t=%d p=%d planned %.1f ms, started %.1f ms (%+.1f ms)",
+					timePoint, position, plannedMs, actualMs, actualMs - plannedMs);
+		}
+	}
+
+	private final long originNs = System.nanoTime();
+	private final double totalSeconds;
+	private final CompletableFuture<Void> cancelled = new CompletableFuture<>();
+	private final List<Record> records = new CopyOnWriteArrayList<>();
+	// Offset of every position from the first position of its time point, taken from the first time point
+	private final Map<Integer, Long> positionOffsets = new ConcurrentHashMap<>();
+	private long firstPositionNs;
+
+	/**
+	 * @param totalSeconds the planned duration of the acquisition for the progress
+	 */
+	public AcquisitionScheduler(double totalSeconds) {
+		this.totalSeconds = totalSeconds;
+	}
+
+	public long now() {
+		return System.nanoTime();
+	}
+
+	public double toMs(long ns) {
+		return (ns - originNs) / 1e6;
+	}
+
+	/**
+	 * @return the elapsed part of the planned duration between 0 and 1
+	 */
+	public double getProgress() {
+		if (totalSeconds <= 0)
+			return 0;
+		return Math.min(1, (now() - originNs) / 1e9 / totalSeconds);
+	}
+
+	/**
+	 * Ends the waits immediately, also the ones that start afterwards.
+	 */
+	public void cancel() {
+		cancelled.complete(null);
+	}
+
+	public boolean isCancelled() {
+		return cancelled.isDone();
+	}
+
+	/**
+	 * Waits until the deadline on the monotonic clock.
+	 *
+	 * @param deadlineNs the deadline in System.nanoTime()
+	 * @param secondsLeft called with the remaining seconds on every whole second, can be null
+	 * @return false if the wait was cancelled
+	 */
+	public boolean awaitUntil(long deadlineNs, DoubleConsumer secondsLeft) throws InterruptedException {
+		while (true) {
+			final long remaining = deadlineNs - now();
+			if (remaining <= 0)
+				return true;
+			if (secondsLeft != null)
+				secondsLeft.accept(Math.ceil(remaining / 1e9));
+
+			// Sleeps to the next whole second before the deadline, the last sleep ends on it
+			final long slice = remaining % TICK_NS == 0 ? TICK_NS : remaining % TICK_NS;
+			try {
+				cancelled.get(slice, TimeUnit.NANOSECONDS);
+				return false;
+			} catch (TimeoutException e) {
+				// Next second
+			} catch (ExecutionException e) {
+				return false;
+			}
+		}
+	}
+
+	/**
+	 * Waits for an acquisition to finish.
+	 *
+	 * @param done the completion future of the acquisition
+	 * @return false if the wait was cancelled
+	 * @throws ExecutionException if the acquisition failed
+	 */
+	public boolean awaitCompletion(CompletableFuture<?> done) throws InterruptedException, ExecutionException {
+		CompletableFuture.anyOf(done, cancelled).get();
+		if (!done.isDone())
+			return false;
+		done.get();
+		return true;
+	}
+
+	/**
+	 * Plans the start of a position which is about to start. It is called for
+	 * the positions of a time point in order, starting with position 0.
+	 *
+	 * @param position the index of the position in its time point
+	 * @param timePointNs the planned start of the time point in System.nanoTime()
+	 * @return the planned start of the position in System.nanoTime()
+	 */
+	public long planPosition(int position, long timePointNs) {
+		final long now = now();
+		if (position == 0)
+			firstPositionNs = now;
+		final Long offset = positionOffsets.putIfAbsent(position, now - firstPositionNs);
+		return timePointNs + (offset == null ? now - firstPositionNs : offset);
+	}
+
+	/**
+	 * @param plannedNs the planned start of the position, see planPosition()
+	 * @param actualNs the actual start of the position
+	 */
+	public Record record(int timePoint, int position, long plannedNs, long actualNs) {
+		final Record record = new Record(timePoint, position, toMs(plannedNs), toMs(actualNs));
+		records.add(record);
+		return record;
+	}
+
+	public List<Record> getRecords() {
+		return new ArrayList<>(records);
+	}
+
+	/**
+	 * Writes the records as CSV.
+	 */
+	public void writeRecords(File file) throws IOException {
+		try (Writer writer = new FileWriter(file)) {
+			writer.write("TimePoint,Position,PlannedMs,ActualMs,DelayMs\n");
+			for (Record r : records) {
+				writer.write(String.format(Locale.ROOT, "%d,%d,%.3f,%.3f,%.3f\n", r.timePoint, r.position,
+						r.plannedMs, r.actualMs, r.actualMs - r.plannedMs));
+			}
+		}
+	}
+}
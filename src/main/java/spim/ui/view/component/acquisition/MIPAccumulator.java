@@ -0,0 +1,227 @@
+package spim.ui.view.component.acquisition;
+
+import org.micromanager.data.Coords;
+import org.micromanager.data.DataManager;
+import org.micromanager.data.Image;
+import org.micromanager.data.Metadata;
+import org.micromanager.internal.utils.ReportingUtils;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Description: Streaming maximum intensity projection of the stacks of one
+ * acquisition. Every slice is folded into a running maximum of its channel in
+ * a primitive array as soon as it arrives. The plane is split into row bands
+ * which are folded in parallel on a shared pool, so the channels and the bands
+ * of a plane proceed concurrently and no slice is kept after it was folded.
+ * The projection of a channel is emitted the moment its last slice is folded.
+ * Stacks which end early or miss slices are emitted by finish(), with the
+ * missing slices logged. A stack without its first slice takes the coords of
+ * its lowest slice, at slice 0.
+ *
+ * Author: HongKee Moon (moon@mpi-cbg.de), Scientific Computing Facility
+ * Organization: MPI-CBG Dresden
+ * Date: October 2026
+ */
+public class MIPAccumulator {
+	public interface Emitter {
+		/**
+		 * Called on a pool thread with the projection of one channel.
+		 *
+		 * @param mip the projection with the coords and metadata of the lowest slice, at slice 0
+		 */
+		void emit(Image mip);
+	}
+
+	// Slices being folded at the same time, the caller waits beyond that
+	private static final int MAX_SLICES_IN_FLIGHT = 8;
+	private static final int MIN_ROWS_PER_BAND = 64;
+
+	private static ExecutorService pool;
+
+	private static synchronized ExecutorService pool() {
+		if (pool == null) {
+			final AtomicInteger count = new AtomicInteger();
+			pool = Executors.newFixedThreadPool(Math.max(2, Runtime.getRuntime().availableProcessors()), r -> {
+				Thread thread = new Thread(r, "uOpenSPIM-mip-" + count.incrementAndGet());
+				thread.setDaemon(true);
+				return thread;
+			});
+		}
+		return pool;
+	}
+
+	private static final class Channel {
+		// byte[] or short[], compared unsigned
+		Object max;
+		int width;
+		int height;
+		int bytesPerPixel;
+		Object[] bandLocks;
+		int rowsPerBand;
+
+		Coords coords;
+		Metadata metadata;
+		int lowestSlice = Integer.MAX_VALUE;
+		int depth;
+		int added;
+		CompletableFuture<Void> folded = CompletableFuture.completedFuture(null);
+		CompletableFuture<Void> emitted;
+	}
+
+	private final DataManager data;
+	private final Emitter emitter;
+	private final Channel[] channels;
+	private final Semaphore inFlight = new Semaphore(MAX_SLICES_IN_FLIGHT);
+
+	public MIPAccumulator(DataManager data, int channels, Emitter emitter) {
+		this.data = data;
+		this.emitter = emitter;
+		this.channels = new Channel[channels];
+		for (int i = 0; i < channels; i++)
+			this.channels[i] = new Channel();
+	}
+
+	public int getChannels() {
+		return channels.length;
+	}
+
+	/**
+	 * Folds a slice into the projection of its channel without waiting for it,
+	 * unless too many slices are in flight.
+	 *
+	 * @param ch the channel index of the slice
+	 * @param slice the slice index
+	 * @param depth the number of slices of the stack
+	 * @param image the slice, which is only read
+	 */
+	public void add(int ch, int slice, int depth, Image image) throws InterruptedException {
+		if (ch < 0 || ch >= channels.length)
+			return;
+
+		final int bytesPerPixel = image.getBytesPerPixel();
+		if (image.getNumComponents() != 1 || (bytesPerPixel != 1 && bytesPerPixel != 2)) {
+			ReportingUtils.logError("The MIP supports only 8-bit and 16-bit images, channel " + ch + " is skipped");
+			return;
+		}
+
+		final Channel channel = channels[ch];
+		inFlight.acquire();
+		final CompletableFuture<Void> sliceFolded;
+		synchronized (channel) {
+			if (channel.emitted != null || !prepare(channel, image)) {
+				inFlight.release();
+				return;
+			}
+
+			if (slice < channel.lowestSlice) {
+				channel.lowestSlice = slice;
+				channel.coords = image.getCoords().copyBuilder().z(0).build();
+				channel.metadata = image.getMetadata();
+			}
+			channel.depth = depth;
+
+			sliceFolded = fold(channel, image.getRawPixels());
+			channel.folded = CompletableFuture.allOf(channel.folded, sliceFolded);
+			if (++channel.added == depth)
+				channel.emitted = channel.folded.thenRun(() -> emit(channel));
+		}
+		sliceFolded.whenComplete((v, e) -> inFlight.release());
+	}
+
+	private static boolean prepare(Channel channel, Image image) {
+		final int width = image.getWidth();
+		final int height = image.getHeight();
+		if (channel.max == null) {
+			channel.width = width;
+			channel.height = height;
+			channel.bytesPerPixel = image.getBytesPerPixel();
+			channel.max = channel.bytesPerPixel == 1 ? new byte[width * height] : new short[width * height];
+
+			final int bands = Math.max(1, Math.min(Runtime.getRuntime().availableProcessors(), height / MIN_ROWS_PER_BAND));
+			channel.rowsPerBand = (height + bands - 1) / bands;
+			channel.bandLocks = new Object[bands];
+			for (int b = 0; b < bands; b++)
+				channel.bandLocks[b] = new Object();
+			return true;
+		}
+
+		if (width != channel.width || height != channel.height || image.getBytesPerPixel() != channel.bytesPerPixel) {
+			ReportingUtils.logError("The slice " + width + "x" + height + " does not fit the MIP of "
+					+ channel.width + "x" + channel.height + ", it is skipped");
+			return false;
+		}
+		return true;
+	}
+
+	private static CompletableFuture<Void> fold(Channel channel, Object pixels) {
+		final List<CompletableFuture<Void>> bands = new ArrayList<>(channel.bandLocks.length);
+		for (int b = 0; b < channel.bandLocks.length; b++) {
+			final Object lock = channel.bandLocks[b];
+			final int from = b * channel.rowsPerBand * channel.width;
+			final int to = Math.min(channel.height, (b + 1) * channel.rowsPerBand) * channel.width;
+			bands.add(CompletableFuture.runAsync(() -> {
+				// Slices of one channel may be folded concurrently, a band only by one of them
+				synchronized (lock) {
+					if (pixels instanceof short[])
+						max((short[]) pixels, (short[]) channel.max, from, to);
+					else
+						max((byte[]) pixels, (byte[]) channel.max, from, to);
+				}
+			}, pool()));
+		}
+		return CompletableFuture.allOf(bands.toArray(new CompletableFuture[0]));
+	}
+
+	static void max(short[] src, short[] dst, int from, int to) {
+		for (int i = from; i < to; i++)
+			dst[i] = (short) Math.max(src[i] & 0xffff, dst[i] & 0xffff);
+	}
+
+	static void max(byte[] src, byte[] dst, int from, int to) {
+		for (int i = from; i < to; i++)
+			dst[i] = (byte) Math.max(src[i] & 0xff, dst[i] & 0xff);
+	}
+
+	private void emit(Channel channel) {
+		if (channel.added < channel.depth)
+			ReportingUtils.logError("The MIP of " + channel.coords + " misses "
+					+ (channel.depth - channel.added) + " of " + channel.depth + " slices");
+
+		try {
+			emitter.emit(data.createImage(channel.max, channel.width, channel.height,
+					channel.bytesPerPixel, 1, channel.coords, channel.metadata));
+		} catch (RuntimeException e) {
+			ReportingUtils.logError(e, "Failed to emit the MIP");
+		}
+	}
+
+	/**
+	 * Emits the channels whose stacks ended early and waits until every
+	 * projection has been emitted.
+	 */
+	public void finish() {
+		final List<CompletableFuture<Void>> emitted = new ArrayList<>(channels.length);
+		for (Channel channel : channels) {
+			synchronized (channel) {
+				if (channel.added == 0)
+					continue;
+				if (channel.emitted == null)
+					channel.emitted = channel.folded.thenRun(() -> emit(channel));
+				emitted.add(channel.emitted);
+			}
+		}
+
+		try {
+			CompletableFuture.allOf(emitted.toArray(new CompletableFuture[0])).join();
+		} catch (RuntimeException e) {
+			ReportingUtils.logError(e, "Failed to finish the MIP");
+		}
+	}
+}
@@ -0,0 +1,158 @@
+package spim.ui.view.component.acquisition;
+
+import org.micromanager.internal.utils.ReportingUtils;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Description: One stage of the TaggedImageSink with its own thread and
+ * bounded queue. Items are processed in the order they were queued.
+ * The datastore path queues with put(), which waits for room. The side stages
+ * are fed with the timed offer(), which waits a bounded time for room and then
+ * drops the item with a logged error instead of holding up the datastore path
+ * for good when the stage cannot keep up.
+ *
+ * Author: HongKee Moon (moon@mpi-cbg.de), Scientific Computing Facility
+ * Organization: MPI-CBG Dresden
+ * Date: October 2026
+ */
+public class SinkStage<T> {
+	public interface Work<T> {
+		/**
+		 * @return false to stop the stage, the queued items are discarded
+		 */
+		boolean process(T item) throws Exception;
+	}
+
+	private static final class Entry<T> {
+		final T item;
+		final long queuedAtNs;
+
+		Entry(T item) {
+			this.item = item;
+			this.queuedAtNs = System.nanoTime();
+		}
+	}
+
+	// Queued by finish() after the last item
+	private final Entry<T> end = new Entry<>(null);
+
+	private final BlockingQueue<Entry<T>> queue;
+	private final StageMetrics metrics;
+	private final Work<T> work;
+	private final Thread thread;
+	private volatile boolean stopped;
+
+	public SinkStage(String name, int capacity, Work<T> work, ClassLoader contextClassLoader) {
+		this.queue = new ArrayBlockingQueue<>(capacity);
+		this.metrics = new StageMetrics(name, queue::size);
+		this.work = work;
+		this.thread = new Thread(this::run, "TaggedImage sink " + name + " stage");
+		if (contextClassLoader != null)
+			thread.setContextClassLoader(contextClassLoader);
+		thread.start();
+	}
+
+	private void run() {
+		try {
+			while (true) {
+				final Entry<T> entry = queue.take();
+				if (entry == end)
+					break;
+				boolean carryOn = true;
+				try {
+					carryOn = work.process(entry.item);
+				} catch (InterruptedException e) {
+					throw e;
+				} catch (Exception e) {
+					// One failed item does not stop the stage
+					ReportingUtils.logError(e, "The " + metrics.getName() + " stage of the image sink failed.");
+				} finally {
+					metrics.record(entry.queuedAtNs);
+				}
+				if (!carryOn)
+					break;
+			}
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		} finally {
+			stopped = true;
+			queue.clear();
+		}
+	}
+
+	/**
+	 * Queues the item, waiting while the queue is full.
+	 *
+	 * @return false if the stage has stopped
+	 */
+	public boolean put(T item) throws InterruptedException {
+		final Entry<T> entry = new Entry<>(item);
+		while (!stopped) {
+			if (queue.offer(entry, 100, TimeUnit.MILLISECONDS)) {
+				metrics.sampleQueueDepth();
+				return true;
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * Queues the item unless the queue is full.
+	 *
+	 * @return false if the item was dropped
+	 */
+	public boolean offer(T item) {
+		if (!stopped && queue.offer(new Entry<>(item))) {
+			metrics.sampleQueueDepth();
+			return true;
+		}
+		metrics.drop();
+		return false;
+	}
+
+	/**
+	 * Queues the item, waiting up to the timeout while the queue is full. A
+	 * dropped item is counted and logged.
+	 *
+	 * @return false if the item was dropped
+	 */
+	public boolean offer(T item, long timeout, TimeUnit unit) throws InterruptedException {
+		if (!stopped && queue.offer(new Entry<>(item), timeout, unit)) {
+			metrics.sampleQueueDepth();
+			return true;
+		}
+		metrics.drop();
+		if (!stopped)
+			ReportingUtils.logError("The " + metrics.getName() + " stage of the image sink is full for "
+					+ unit.toMillis(timeout) + " ms, an image is dropped (" + metrics.getDropped() + " so far).");
+		return false;
+	}
+
+	public boolean isStopped() {
+		return stopped;
+	}
+
+	/**
+	 * Lets the stage process the queued items and waits for its thread.
+	 */
+	public void finish() throws InterruptedException {
+		while (!stopped && !queue.offer(end, 100, TimeUnit.MILLISECONDS)) {
+			// The stage is still busy with a full queue
+		}
+		thread.join();
+	}
+
+	/**
+	 * Stops the stage without processing the queued items.
+	 */
+	public void abort() {
+		thread.interrupt();
+	}
+
+	public StageMetrics getMetrics() {
+		return metrics;
+	}
+}
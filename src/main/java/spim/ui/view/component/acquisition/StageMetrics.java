@@ -0,0 +1,81 @@
+package spim.ui.view.component.acquisition;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.IntSupplier;
+
+/**
+ * Description: Queue depth and latency of one stage of the TaggedImageSink.
+ * The latency of an item is measured from the moment it is queued for the
+ * stage until the stage has finished with it.
+ *
+ * Author: HongKee Moon (moon@mpi-cbg.de), Scientific Computing Facility
+ * Organization: MPI-CBG Dresden
+ * Date: October 2026
+ */
+public class StageMetrics {
+	private final String name;
+	private final IntSupplier queueDepth;
+
+	private final AtomicLong processed = new AtomicLong();
+	private final AtomicLong dropped = new AtomicLong();
+	private final AtomicLong totalLatencyNs = new AtomicLong();
+	private final AtomicLong maxLatencyNs = new AtomicLong();
+	private volatile int maxQueueDepth;
+
+	public StageMetrics(String name, IntSupplier queueDepth) {
+		this.name = name;
+		this.queueDepth = queueDepth;
+	}
+
+	void record(long queuedAtNs) {
+		final long latency = System.nanoTime() - queuedAtNs;
+		processed.incrementAndGet();
+		totalLatencyNs.addAndGet(latency);
+		maxLatencyNs.accumulateAndGet(latency, Math::max);
+	}
+
+	void drop() {
+		dropped.incrementAndGet();
+	}
+
+	void sampleQueueDepth() {
+		final int depth = queueDepth.getAsInt();
+		if (depth > maxQueueDepth)
+			maxQueueDepth = depth;
+	}
+
+	public String getName() {
+		return name;
+	}
+
+	public int getQueueDepth() {
+		return queueDepth.getAsInt();
+	}
+
+	public int getMaxQueueDepth() {
+		return maxQueueDepth;
+	}
+
+	public long getProcessed() {
+		return processed.get();
+	}
+
+	public long getDropped() {
+		return dropped.get();
+	}
+
+	public double getMeanLatencyMs() {
+		final long n = processed.get();
+		return n == 0 ? 0 : totalLatencyNs.get() / 1e6 / n;
+	}
+
+	public double getMaxLatencyMs() {
+		return maxLatencyNs.get() / 1e6;
+	}
+
+	@Override
+	public String toString() {
+		return String.format("%s: %d processed, %d dropped, queue %d (max %d), latency mean %.2f ms, max %.2f ms",
+				name, getProcessed(), getDropped(), getQueueDepth(), getMaxQueueDepth(), getMeanLatencyMs(), getMaxLatencyMs());
+	}
+}
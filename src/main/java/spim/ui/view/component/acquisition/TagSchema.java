@@ -0,0 +1,150 @@
+package spim.ui.view.component.acquisition;
+
+import mmcorej.TaggedImage;
+import mmcorej.org.json.JSONException;
+import mmcorej.org.json.JSONObject;
+import org.micromanager.PropertyMap;
+import org.micromanager.data.Coordinates;
+import org.micromanager.data.Coords;
+import org.micromanager.data.Image;
+import org.micromanager.data.Metadata;
+import org.micromanager.data.internal.DefaultImage;
+
+import java.util.HashMap;
+import java.util.List;
+
+/**
+ * Description: Tag schema of one TaggedImageSink, resolved from the first
+ * frame. The summary values, the camera to view index and the metadata of
+ * every channel of a camera are looked up once, the Coords of the stack are
+ * built once and reused. A frame then only reads its own tags and copies the
+ * metadata template of its camera and channel with its positions and exposure.
+ * The scope data of a template is that of the first frame of its channel, so
+ * the settings which change between the channels are kept.
+ *
+ * Author: HongKee Moon (moon@mpi-cbg.de), Scientific Computing Facility
+ * Organization: MPI-CBG Dresden
+ * Date: October 2026
+ */
+public class TagSchema {
+	private final int t;
+	private final int angle;
+	private final int slices;
+	private final int channels;
+	private final double zStep;
+	private final String positionName;
+
+	private final HashMap<String, Integer> views = new HashMap<>();
+	private final int viewCount;
+
+	// [t slot][view + 1][channel][slice], the t slots are the time point and 0
+	private final Coords[][][][] coords;
+	// [view + 1][channel]
+	private final Metadata[][] templates;
+	// [view + 1] width, height, bytes per pixel and components
+	private final int[][] geometries;
+
+	public TagSchema(JSONObject summary, List<String> cameras, int angle, int t) throws JSONException {
+		this.t = t;
+		this.angle = angle;
+		this.slices = summary.getInt( "Slices" );
+		this.channels = summary.getInt( "Channels" );
+		this.zStep = summary.getDouble( "z-step_um" );
+		this.positionName = angle + "";
+
+		for (int i = 0; i < cameras.size(); i++)
+			views.putIfAbsent( cameras.get( i ), i );
+		viewCount = cameras.size();
+
+		coords = new Coords[2][viewCount + 1][][];
+		templates = new Metadata[viewCount + 1][channels];
+		geometries = new int[viewCount + 1][];
+	}
+
+	public int getSlices() {
+		return slices;
+	}
+
+	public int getChannels() {
+		return channels;
+	}
+
+	public double getZStep() {
+		return zStep;
+	}
+
+	/**
+	 * @return the view index of the camera, -1 for an unknown camera
+	 */
+	public int viewOf(String camera) {
+		final Integer view = views.get( camera );
+		return view == null ? -1 : view;
+	}
+
+	/**
+	 * @param time the time point of the sink or 0 for the on-the-fly store
+	 */
+	public Coords coords(int time, int view, int channel, int slice) {
+		final int slot = time == t ? 0 : time == 0 ? 1 : -1;
+		if (slot < 0 || channel < 0 || channel >= channels || slice < 0 || slice >= slices)
+			return build(time, view, channel, slice);
+
+		Coords[][] stack = coords[slot][view + 1];
+		if (stack == null) {
+			stack = new Coords[channels][slices];
+			coords[slot][view + 1] = stack;
+		}
+		Coords c = stack[channel][slice];
+		if (c == null) {
+			c = build(time, view, channel, slice);
+			stack[channel][slice] = c;
+		}
+		return c;
+	}
+
+	private Coords build(int time, int view, int channel, int slice) {
+		return Coordinates.builder().p( angle ).t( time ).c( channel ).z( slice ).index( "view", view ).build();
+	}
+
+	/**
+	 * Makes the image of a frame. The first frame of a camera and channel is
+	 * parsed completely and becomes the metadata template of the pair. A
+	 * channel outside of the summary is parsed for every frame.
+	 */
+	public Image makeImage(TaggedImage tagged, int view, Coords coords,
+						   double xPos, double yPos, double zPos, double exposure) {
+		final int channel = coords.getC();
+		final boolean cached = channel >= 0 && channel < channels;
+		Metadata template = cached ? templates[view + 1][channel] : null;
+		if (template == null) {
+			DefaultImage image = new DefaultImage( tagged );
+			if (geometries[view + 1] == null)
+				geometries[view + 1] = new int[] { image.getWidth(), image.getHeight(),
+						image.getBytesPerPixel(), image.getNumComponents() };
+
+			Metadata md = image.getMetadata();
+			PropertyMap ud = md.getUserData().copyBuilder()
+					.putDouble( "Z-Step-um", zStep )
+					.putInteger( "Slices", slices )
+					.putInteger( "Channels", channels ).build();
+			template = md.copyBuilderPreservingUUID().positionName( positionName ).userData( ud ).build();
+			if (cached)
+				templates[view + 1][channel] = template;
+		}
+
+		Metadata.Builder mdb = template.copyBuilderWithNewUUID()
+				.xPositionUm( xPos ).yPositionUm( yPos ).zPositionUm( zPos ).elapsedTimeMs( exposure );
+
+		final JSONObject tags = tagged.tags;
+		// The exposure may change within a channel
+		if (tags.has( "Exposure-ms" ))
+			mdb = mdb.exposureMs( tags.optDouble( "Exposure-ms" ) );
+		if (tags.has( "ImageNumber" ))
+			mdb = mdb.imageNumber( tags.optLong( "ImageNumber" ) );
+		if (tags.has( "ReceivedTime" ))
+			mdb = mdb.receivedTime( tags.optString( "ReceivedTime" ) );
+
+		final int[] g = geometries[view + 1];
+		return new DefaultImage( tagged.pix, g[0], g[1], g[2], g[3], coords, mdb.build() );
+	}
+}
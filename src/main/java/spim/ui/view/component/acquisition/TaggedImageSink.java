@@ -1,42 +1,45 @@
 package spim.ui.view.component.acquisition;
 
-import java.util.HashMap;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
 import java.util.List;
-import java.util.TreeMap;
 import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CopyOnWriteArrayList;
 import java.util.concurrent.TimeUnit;
-import java.util.function.Function;
-import java.util.stream.Collectors;
+import java.util.concurrent.atomic.AtomicLong;
 
 import javax.swing.JOptionPane;
 import javax.swing.SwingUtilities;
 
-import ij.process.ImageProcessor;
 import javafx.beans.property.LongProperty;
 import mmcorej.TaggedImage;
-import org.micromanager.PropertyMap;
+import mmcorej.org.json.JSONObject;
 import org.micromanager.acquisition.internal.TaggedImageQueue;
-import org.micromanager.data.Coordinates;
 import org.micromanager.data.Coords;
 import org.micromanager.data.Datastore;
 import org.micromanager.data.DatastoreFrozenException;
 import org.micromanager.data.Image;
-import org.micromanager.data.Metadata;
 import org.micromanager.data.Pipeline;
 import org.micromanager.data.PipelineErrorException;
 import org.micromanager.data.RewritableDatastore;
-import org.micromanager.data.internal.DefaultImage;
 import org.micromanager.events.EventManager;
 import org.micromanager.acquisition.internal.DefaultAcquisitionEndedEvent;
 import org.micromanager.internal.utils.ReportingUtils;
 import org.micromanager.internal.utils.imageanalysis.ImageUtils;
+import org.apache.commons.math3.geometry.euclidean.threed.Vector3D;
 import spim.algorithm.DefaultAntiDrift;
 import spim.mm.MicroManager;
+import spim.util.AcquisitionTiming;
 import spim.ui.view.component.HalcyonMain;
 
 /**
  * This object spawns a new thread that receives images from the acquisition
- * engine and runs them through a Pipeline to the Datastore. It's also
+ * engine and runs them through a Pipeline to the Datastore. The decoded images
+ * are handed to stages with their own threads and bounded queues: storage,
+ * projection, anti-drift, on-the-fly and UI notification. It's also
  * responsible for posting the AcquisitionEndedEvent, which it recognizes when
  * it receives the TaggedImageQueue.POISON object.
  * Functionally this is just glue code between the old acquisition engine and
@@ -57,9 +60,11 @@ public class TaggedImageSink {
 	private final int t_;
 	private final int angle_;
 	private final List<String> cameras_;
-	private final HashMap<String, Integer> camChannels_;
+	// Next channel of every camera, by view index
+	private final int[] camChannels_;
+	private TagSchema schema_;
 	private final double x_, y_, theta_;
-	private final TreeMap<Integer, Image>[] mpImages_;
+	private final MIPAccumulator mip_;
 	private final LongProperty processedImages_;
 	private final DefaultAntiDrift antiDrift_;
 	private final Integer antiDriftRefChannel_;
@@ -67,6 +72,19 @@ public class TaggedImageSink {
 	private final Boolean onTheFly_;
 	Thread savingThread;
 
+	// Capacities of the stage queues in images
+	private static final int STORAGE_QUEUE_SIZE = 64;
+	private static final int SIDE_QUEUE_SIZE = 256;
+	// Time a full side stage may hold up the datastore path for one image before the image is dropped
+	private static final long SIDE_QUEUE_TIMEOUT_MS = 500;
+
+	private final List<StageMetrics> stageMetrics_ = new CopyOnWriteArrayList<>();
+	private final AtomicLong pendingNotifications_ = new AtomicLong();
+	private volatile List<SinkStage<?>> stages_ = Collections.emptyList();
+	// Completed when the engine has delivered its last image, the stages may still be busy
+	private final CompletableFuture<Void> received_ = new CompletableFuture<>();
+	private volatile AcquisitionTiming timing_;
+
 	public TaggedImageSink(BlockingQueue<TaggedImage> queue,
 						   Pipeline pipeline,
 						   Datastore store,
@@ -74,7 +92,7 @@ public class TaggedImageSink {
 						   EventManager studioEvents,
 						   int t, int angle,
 						   List<String> cameras, double x, double y, double theta,
-						   TreeMap<Integer, Image>[] mpImages,
+						   MIPAccumulator mip,
 						   LongProperty processedImages,
 						   DefaultAntiDrift antiDrift,
 						   Integer antiDriftReferenceChannel, String dirName, Boolean onTheFly) {
@@ -86,15 +104,14 @@ public class TaggedImageSink {
 		t_ = t;
 		angle_ = angle;
 		cameras_ = cameras;
-		mpImages_ = mpImages;
+		mip_ = mip;
 		processedImages_ = processedImages;
 		antiDrift_ = antiDrift;
 		antiDriftRefChannel_ = antiDriftReferenceChannel - 1;
 		dirName_ = dirName;
 		onTheFly_ = onTheFly;
 
-		camChannels_ = new HashMap<>( cameras_
-				.stream().collect( Collectors.toMap( Function.identity(), c -> 0 ) ) );
+		camChannels_ = new int[ cameras_.size() ];
 
 		x_ = x;
 		y_ = y;
@@ -105,7 +122,16 @@ public class TaggedImageSink {
 		start(null, null);
 	}
 
+	/**
+	 * @param timing records the frame gaps, pipeline inserts and anti-drift, can be null
+	 */
+	public void setTiming(AcquisitionTiming timing) {
+		timing_ = timing;
+	}
+
 	public void stop() {
+		received_.complete(null);
+		stages_.forEach(SinkStage::abort);
 		if(savingThread != null) {
 			try {
 				savingThread.interrupt();
@@ -118,20 +144,133 @@ public class TaggedImageSink {
 		savingThread = null;
 	}
 
+	// A decoded image on its way through the stages
+	private static final class Decoded {
+		final TaggedImage tagged;
+		final Image image;
+		// Coords before the on-the-fly rewrite
+		final Coords acquiredCoords;
+		final int ch;
+		final int slice;
+		final boolean clearStore;
+
+		Decoded(TaggedImage tagged, Image image, Coords acquiredCoords, int ch, int slice, boolean clearStore) {
+			this.tagged = tagged;
+			this.image = image;
+			this.acquiredCoords = acquiredCoords;
+			this.ch = ch;
+			this.slice = slice;
+			this.clearStore = clearStore;
+		}
+	}
+
+	/**
+	 * @return the future completed when the acquisition engine has delivered
+	 * all images, before they are stored and projected
+	 */
+	public CompletableFuture<Void> getImagesReceived() {
+		return received_;
+	}
+
+	/**
+	 * @return the metrics of the decode stage and the stages started after it
+	 */
+	public List<StageMetrics> getStageMetrics() {
+		return stageMetrics_;
+	}
+
+	private void adoptStage(List<SinkStage<?>> stages, SinkStage<?> stage) {
+		stages.add(stage);
+		stageMetrics_.add(stage.getMetrics());
+	}
+
+	// Hands the number of stored images over to the UI in one update
+	private void notifyProcessedImages() {
+		final long n = pendingNotifications_.getAndSet(0);
+		if(n > 0) {
+			processedImages_.set(processedImages_.get() + n);
+		}
+	}
+
 	// sinkFullCallback is a way to stop production of images when/if the sink
 	// can no longer accept images.
 	public void start(final Runnable sinkFullCallback, final Runnable processMIP) {
+		final ClassLoader classLoader = MicroManager.getMMStudio().getClass().getClassLoader();
+		final StageMetrics decodeMetrics = new StageMetrics("decode", imageProducingQueue_::size);
+		stageMetrics_.clear();
+		stageMetrics_.add(decodeMetrics);
+
+		// The stages in the order they are finished, the storage stage feeds the notification stage
+		final List<SinkStage<?>> stages = new ArrayList<>();
+
+		final SinkStage<Boolean> notification = new SinkStage<>("notification", SIDE_QUEUE_SIZE, b -> {
+			notifyProcessedImages();
+			return true;
+		}, classLoader);
+
+		final AcquisitionTiming timing = timing_;
+
+		final SinkStage<Decoded> storage = new SinkStage<>("storage", STORAGE_QUEUE_SIZE, d -> {
+			try {
+				if(d.clearStore) ((RewritableDatastore)store_).deleteAllImages();
+				final long insertStart = System.nanoTime();
+				pipeline_.insertImage(d.image);
+				if(timing != null) timing.recordSince(AcquisitionTiming.Phase.PIPELINE_INSERT, t_, angle_, insertStart);
+			}
+			catch (PipelineErrorException e) {
+				ReportingUtils.logError(e,"There was an error in processing images.");
+				pipeline_.clearExceptions();
+			}
+			catch (OutOfMemoryError e) {
+				handleOutOfMemory(e, sinkFullCallback);
+				return false;
+			}
+			catch (DatastoreFrozenException ex) {
+				pipeline_.clearExceptions();
+				return false;
+			}
+			catch (RuntimeException | IOException e) {
+				ReportingUtils.logError(e, "Runtime exception");
+				pipeline_.clearExceptions();
+				return false;
+			}
+
+			pendingNotifications_.incrementAndGet();
+			notification.offer(Boolean.TRUE);
+			return true;
+		}, classLoader);
+		adoptStage(stages, storage);
+
+		final SinkStage<Decoded> projection = null == mip_ ? null :
+				new SinkStage<>("projection", SIDE_QUEUE_SIZE, d -> {
+					mip_.add(d.ch, d.slice, schema_.getSlices(), d.image);
+					return true;
+				}, classLoader);
+		if(projection != null) adoptStage(stages, projection);
+
+		// The anti-drift runs in the background of its position, the offset arrives through its future
+		if(antiDrift_ != null) {
+			antiDrift_.submitNewStack();
+		}
+
+		final SinkStage<Decoded> onTheFly = !onTheFly_ ? null :
+				new SinkStage<>("on-the-fly", SIDE_QUEUE_SIZE, d -> {
+					engine_.onImageReceived(dirName_, d.acquiredCoords, d.tagged);
+					return true;
+				}, classLoader);
+		if(onTheFly != null) adoptStage(stages, onTheFly);
+
+		adoptStage(stages, notification);
+		stages_ = stages;
+
 		savingThread = new Thread("TaggedImage sink thread") {
 
 			@Override
 			public void run() {
 				long t1 = System.currentTimeMillis();
 				int imageCount = 0;
+				long lastFrameNs = 0;
 				try {
-					if(antiDrift_ != null) {
-						antiDrift_.startNewStack();
-					}
-
 					while (true) {
 						TaggedImage tagged = imageProducingQueue_.poll(1, TimeUnit.SECONDS);
 						if (tagged != null) {
@@ -140,6 +279,10 @@ public class TaggedImageSink {
 //								System.out.println("IsPoison");
 								break;
 							}
+							final long decodeStart = System.nanoTime();
+							if(timing != null && lastFrameNs != 0)
+								timing.record(AcquisitionTiming.Phase.FRAME_GAP, t_, angle_, decodeStart - lastFrameNs);
+							lastFrameNs = decodeStart;
 							try {
 								++imageCount;
 
@@ -148,117 +291,122 @@ public class TaggedImageSink {
 //								System.out.println(tagged.tags.getJSONObject( "Summary" ).toString( 2 ));
 //								System.out.println(imageCount);
 
-								int slice = tagged.tags.getInt("SliceIndex");
-								double exp = tagged.tags.getInt( "Exposure-ms" );
-								double zPos = tagged.tags.getDouble( "ZPositionUm" );
-								double xPos = tagged.tags.getDouble( "XPositionUm" );
-								double yPos = tagged.tags.getDouble( "YPositionUm" );
-								int ch = tagged.tags.getInt( "ChannelIndex" );
-								String cam = tagged.tags.getString( "Camera" );
-								String coreCam = tagged.tags.getString( "Core-Camera" );
-								double zStep = tagged.tags.getJSONObject( "Summary" ).getDouble( "z-step_um" );
-								int slices = tagged.tags.getJSONObject( "Summary" ).getInt( "Slices" );
-
-								// Check which information is correct for choosing the number of total channels
-								int channels = tagged.tags.getJSONObject( "Summary" ).getInt( "Channels" );
-//								int channels = camChannels_.size();
+								// Summary values are resolved once per acquisition
+								final JSONObject tags = tagged.tags;
+								if(schema_ == null) {
+									schema_ = new TagSchema( tags.getJSONObject( "Summary" ), cameras_, angle_, t_ );
+								}
+
+								int slice = tags.getInt("SliceIndex");
+								double exp = tags.getInt( "Exposure-ms" );
+								double zPos = tags.getDouble( "ZPositionUm" );
+								double xPos = tags.getDouble( "XPositionUm" );
+								double yPos = tags.getDouble( "YPositionUm" );
+								int ch = tags.getInt( "ChannelIndex" );
+								String cam = tags.getString( "Camera" );
+								final int view = schema_.viewOf( cam );
 
 								if(ch == 0) {
 									// initialize cam channels
-									camChannels_.keySet().forEach( d -> camChannels_.put(d, 0) );
+									Arrays.fill( camChannels_, 0 );
 								}
 
-//								System.out.println(ch);
 								int channel = ch;
 
-								if(camChannels_.containsKey( cam ))
+								if(view >= 0)
 								{
-									channel = camChannels_.get( cam );
+									channel = camChannels_[ view ];
 								}
 
-								DefaultImage image = new DefaultImage(tagged);
-
-								Coords.Builder cb = Coordinates.builder();
-								Coords coord = cb.p(angle_).t(t_).c(channel).z(slice).index("view", cameras_.indexOf( cam )).build();
+								final Coords acquiredCoord = schema_.coords( t_, view, channel, slice );
+								Coords coord = acquiredCoord;
+								boolean clearStore = false;
 
-								// Calling the OnTheFly processor
+								// The OnTheFly processor is called from its own stage
 								if(onTheFly_) {
-									engine_.onImageReceived(dirName_, coord, tagged);
 									if(store_ instanceof RewritableDatastore) {
-										if (slice == 0) ((RewritableDatastore)store_).deleteAllImages();
-										coord = cb.p(angle_).t(0).c(channel).z(slice).index("view", cameras_.indexOf( cam )).build();
+										clearStore = slice == 0;
+										coord = schema_.coords( 0, view, channel, slice );
 									}
 								}
 
-								Image img = image;
-								Metadata md = img.getMetadata();
-								Metadata.Builder mdb = md.copyBuilderPreservingUUID();
-								PropertyMap ud = md.getUserData();
-								ud = ud.copyBuilder().putDouble("Z-Step-um", zStep).putInteger("Slices", slices).putInteger("Channels", channels).build();
-								String posName = angle_ + "";
-								mdb = mdb.xPositionUm(xPos).yPositionUm(yPos).zPositionUm(zPos).elapsedTimeMs( exp );
-
-								md = mdb.positionName(posName).userData(ud).build();
-								img = img.copyWith(coord, md);
-
-								try {
-									pipeline_.insertImage(img);
-									if(null != mpImages_ && mpImages_.length > ch)
-										mpImages_[ch].put(slice, img);
-								}
-								catch (PipelineErrorException e) {
-									ReportingUtils.logError(e,"There was an error in processing images.");
-									pipeline_.clearExceptions();
-								}
-
-								ImageProcessor ip = ImageUtils.makeProcessor( tagged );
+								Image img = schema_.makeImage( tagged, view, coord, xPos, yPos, zPos, exp );
 
-								if(camChannels_.containsKey( cam ))
+								if(view >= 0)
 								{
-									camChannels_.put( cam, channel + 1 );
+									camChannels_[ view ] = channel + 1;
 								}
 
-								if(antiDriftRefChannel_ == ch && antiDrift_ != null) {
-									antiDrift_.addXYSlice( ip );
-								}
+								final Decoded decoded = new Decoded(tagged, img, acquiredCoord, ch, slice, clearStore);
+								decodeMetrics.record(decodeStart);
 
-								processedImages_.set(processedImages_.get() + 1);
+								// The datastore path waits for room, the side stages hold it up only for a bounded time
+								if(!storage.put(decoded)) {
+									break;
+								}
+								if(projection != null && mip_.getChannels() > ch)
+									projection.offer(decoded, SIDE_QUEUE_TIMEOUT_MS, TimeUnit.MILLISECONDS);
+								if(antiDrift_ != null && antiDriftRefChannel_ == ch)
+									antiDrift_.offerXYSlice( ImageUtils.makeProcessor( tagged ) );
+								if(onTheFly != null)
+									onTheFly.offer(decoded, SIDE_QUEUE_TIMEOUT_MS, TimeUnit.MILLISECONDS);
 							}
 							catch (OutOfMemoryError e) {
 								handleOutOfMemory(e, sinkFullCallback);
 								break;
 							}
-							catch (DatastoreFrozenException ex) {
-								pipeline_.clearExceptions();
-								break;
-							}
 							catch (RuntimeException e) {
 								ReportingUtils.logError("Runtime exception");
-								pipeline_.clearExceptions();
 								break;
 							}
 						}
+						else if(storage.isStopped()) {
+							break;
+						}
 					}
 				} catch (Exception ex2) {
 					ReportingUtils.logError(ex2);
 				} finally {
+					received_.complete(null);
+					finishStages(stages);
 					pipeline_.halt();
 					studioEvents_.post(
 							new DefaultAcquisitionEndedEvent(store_, engine_));
 				}
 				long t2 = System.currentTimeMillis();
 				ReportingUtils.logMessage(imageCount + " images stored in " + (t2 - t1) + " ms.");
+				for(StageMetrics metrics : stageMetrics_) {
+					ReportingUtils.logMessage("Image sink stage " + metrics);
+				}
 //				System.out.println("Total Images: " + processedImages_.get());
 				if(antiDrift_ != null) {
-					antiDrift_.updateOffset( antiDrift_.finishStack() );
+					// Not waited for, the acquisition engine waits when it needs the next offset
+					final long antiDriftStart = System.nanoTime();
+					final CompletableFuture<Vector3D> offset = antiDrift_.submitFinishStack();
+					if(timing != null) offset.thenRun(() -> timing.recordSince(AcquisitionTiming.Phase.ANTI_DRIFT, t_, angle_, antiDriftStart));
 				}
 				processMIP.run();
 			}
 		};
-		savingThread.setContextClassLoader( MicroManager.getMMStudio().getClass().getClassLoader()  );
+		savingThread.setContextClassLoader( classLoader );
 		savingThread.start();
 	}
 
+	// Lets every stage drain before the acquisition is reported as ended
+	private void finishStages(List<SinkStage<?>> stages) {
+		for(SinkStage<?> stage : stages) {
+			try {
+				stage.finish();
+			} catch (InterruptedException e) {
+				stages.forEach(SinkStage::abort);
+				Thread.currentThread().interrupt();
+				break;
+			}
+		}
+		// A dropped notification is caught up here
+		notifyProcessedImages();
+	}
+
 	// Never called from EDT
 	private void handleOutOfMemory(final OutOfMemoryError e,
 			Runnable sinkFullCallback)
@@ -0,0 +1,234 @@
+package spim.util;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.Writer;
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.EnumMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.ToDoubleFunction;
+
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+import org.HdrHistogram.ConcurrentHistogram;
+import org.HdrHistogram.Histogram;
+import org.micromanager.internal.utils.ReportingUtils;
+
+/**
+ * Description: Latency histograms of the phases of an acquisition. Every
+ * phase keeps one histogram over the whole acquisition and one for each time
+ * point and position, recorded in microseconds with two significant digits.
+ * Recording is lock-free, so it can stay on in the hot paths. The histograms
+ * are written as CSV next to the dataset and the totals are served over JMX
+ * while the acquisition runs.
+ *
+ * Author: HongKee Moon (moon@mpi-cbg.de), Scientific Computing Facility
+ * Organization: MPI-CBG Dresden
+ * Date: October 2026
+ */
+public class AcquisitionTiming implements AcquisitionTimingMXBean {
+	public enum Phase {
+		STAGE_MOVE,
+		WAIT_FOR_SYSTEM,
+		SEQUENCE_START,
+		FRAME_GAP,
+		PIPELINE_INSERT,
+		STORAGE_WRITE,
+		MIP,
+		ANTI_DRIFT
+	}
+
+	public static final String OBJECT_NAME = "spim:type=AcquisitionTiming";
+
+	private static final int SIGNIFICANT_DIGITS = 2;
+
+	private final EnumMap<Phase, Histogram> totals = new EnumMap<>(Phase.class);
+	private final EnumMap<Phase, LongAdder> totalNs = new EnumMap<>(Phase.class);
+	// Time point in the upper and position in the lower 32 bits
+	private final EnumMap<Phase, ConcurrentHashMap<Long, Histogram>> stacks = new EnumMap<>(Phase.class);
+
+	private ObjectName objectName;
+
+	public AcquisitionTiming() {
+		for (Phase phase : Phase.values()) {
+			totals.put(phase, new ConcurrentHistogram(SIGNIFICANT_DIGITS));
+			totalNs.put(phase, new LongAdder());
+			stacks.put(phase, new ConcurrentHashMap<>());
+		}
+	}
+
+	private static long key(int timePoint, int position) {
+		return ((long) timePoint << 32) | (position & 0xffffffffL);
+	}
+
+	/**
+	 * Records the duration of a phase.
+	 *
+	 * @param phase the phase
+	 * @param timePoint the time point of the stack
+	 * @param position the position of the stack
+	 * @param nanos the duration in ns
+	 */
+	public void record(Phase phase, int timePoint, int position, long nanos) {
+		final long micros = Math.max(0, nanos / 1000);
+		totals.get(phase).recordValue(micros);
+		totalNs.get(phase).add(nanos);
+		stacks.get(phase).computeIfAbsent(key(timePoint, position), k -> new ConcurrentHistogram(SIGNIFICANT_DIGITS))
+				.recordValue(micros);
+	}
+
+	/**
+	 * Records the time since the start of a phase.
+	 *
+	 * @param startNs the start in System.nanoTime()
+	 */
+	public void recordSince(Phase phase, int timePoint, int position, long startNs) {
+		record(phase, timePoint, position, System.nanoTime() - startNs);
+	}
+
+	/**
+	 * Registers the timing with the platform MBean server, replacing the one of
+	 * the previous acquisition.
+	 */
+	public void register() {
+		try {
+			final MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+			final ObjectName name = new ObjectName(OBJECT_NAME);
+			if (server.isRegistered(name))
+				server.unregisterMBean(name);
+			server.registerMBean(this, name);
+			objectName = name;
+		} catch (Exception e) {
+			ReportingUtils.logError(e, "Failed to register the acquisition timing with JMX");
+		}
+	}
+
+	public void unregister() {
+		if (objectName == null)
+			return;
+		try {
+			final MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+			if (server.isRegistered(objectName))
+				server.unregisterMBean(objectName);
+		} catch (Exception e) {
+			ReportingUtils.logError(e, "Failed to unregister the acquisition timing from JMX");
+		}
+		objectName = null;
+	}
+
+	/**
+	 * Writes the histograms as CSV, one row per phase, time point and position.
+	 * The rows of the whole acquisition have -1 as time point and position.
+	 */
+	public void writeCsv(File file) throws IOException {
+		try (Writer writer = new FileWriter(file)) {
+			writer.write("Phase,TimePoint,Position,Count,MinMs,MeanMs,P50Ms,P90Ms,P99Ms,MaxMs\n");
+			for (Phase phase : Phase.values()) {
+				writeRow(writer, phase, -1, -1, totals.get(phase));
+
+				final List<Long> keys = new ArrayList<>(stacks.get(phase).keySet());
+				Collections.sort(keys);
+				for (Long key : keys)
+					writeRow(writer, phase, (int) (key >> 32), (int) (long) key, stacks.get(phase).get(key));
+			}
+		}
+	}
+
+	private static void writeRow(Writer writer, Phase phase, int timePoint, int position, Histogram histogram) throws IOException {
+		// A copy does not change while the row is written
+		final Histogram h = histogram.copy();
+		if (h.getTotalCount() == 0)
+			return;
+
+		writer.write(String.format(Locale.ROOT, "%s,%d,%d,%d,%.3f,%.3f,%.3f,%.3f,%.3f,%.3f\n",
+				phase, timePoint, position, h.getTotalCount(),
+				h.getMinValue() / 1e3, h.getMean() / 1e3, h.getValueAtPercentile(50) / 1e3,
+				h.getValueAtPercentile(90) / 1e3, h.getValueAtPercentile(99) / 1e3, h.getMaxValue() / 1e3));
+	}
+
+	/**
+	 * @return one line per recorded phase with its count, median, 99th percentile and sum
+	 */
+	public String report() {
+		final StringBuilder sb = new StringBuilder();
+		for (Phase phase : Phase.values()) {
+			final Histogram h = totals.get(phase).copy();
+			if (h.getTotalCount() == 0)
+				continue;
+			sb.append(String.format(Locale.ROOT, "%s: %d, median %.2f ms, p99 %.2f ms, max %.2f ms, total %.1f ms%n",
+					phase, h.getTotalCount(), h.getValueAtPercentile(50) / 1e3, h.getValueAtPercentile(99) / 1e3,
+					h.getMaxValue() / 1e3, totalNs.get(phase).sum() / 1e6));
+		}
+		return sb.toString();
+	}
+
+	private Map<String, Double> perPhase(ToDoubleFunction<Histogram> value) {
+		final Map<String, Double> map = new LinkedHashMap<>();
+		for (Phase phase : Phase.values())
+			map.put(phase.name(), value.applyAsDouble(totals.get(phase).copy()));
+		return map;
+	}
+
+	@Override
+	public Map<String, Long> getCounts() {
+		final Map<String, Long> map = new LinkedHashMap<>();
+		for (Phase phase : Phase.values())
+			map.put(phase.name(), totals.get(phase).getTotalCount());
+		return map;
+	}
+
+	@Override
+	public Map<String, Double> getMeanMs() {
+		return perPhase(h -> h.getTotalCount() == 0 ? 0 : h.getMean() / 1e3);
+	}
+
+	@Override
+	public Map<String, Double> getMedianMs() {
+		return perPhase(h -> h.getValueAtPercentile(50) / 1e3);
+	}
+
+	@Override
+	public Map<String, Double> getP99Ms() {
+		return perPhase(h -> h.getValueAtPercentile(99) / 1e3);
+	}
+
+	@Override
+	public Map<String, Double> getMaxMs() {
+		return perPhase(h -> h.getMaxValue() / 1e3);
+	}
+
+	@Override
+	public Map<String, Double> getTotalMs() {
+		final Map<String, Double> map = new LinkedHashMap<>();
+		for (Phase phase : Phase.values())
+			map.put(phase.name(), totalNs.get(phase).sum() / 1e6);
+		return map;
+	}
+
+	@Override
+	public double percentileMs(String phase, double percentile) {
+		try {
+			return totals.get(Phase.valueOf(phase)).copy().getValueAtPercentile(percentile) / 1e3;
+		} catch (IllegalArgumentException e) {
+			return Double.NaN;
+		}
+	}
+
+	@Override
+	public void reset() {
+		for (Phase phase : Phase.values()) {
+			totals.get(phase).reset();
+			totalNs.get(phase).reset();
+			stacks.get(phase).clear();
+		}
+	}
+}
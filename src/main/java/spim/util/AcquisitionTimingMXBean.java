@@ -0,0 +1,34 @@
+package spim.util;
+
+import java.util.Map;
+
+/**
+ * Description: JMX view of the AcquisitionTiming of the running acquisition.
+ * The maps are keyed by phase and cover all time points and positions.
+ *
+ * Author: HongKee Moon (moon@mpi-cbg.de), Scientific Computing Facility
+ * Organization: MPI-CBG Dresden
+ * Date: October 2026
+ */
+public interface AcquisitionTimingMXBean {
+	Map<String, Long> getCounts();
+
+	Map<String, Double> getMeanMs();
+
+	Map<String, Double> getMedianMs();
+
+	Map<String, Double> getP99Ms();
+
+	Map<String, Double> getMaxMs();
+
+	Map<String, Double> getTotalMs();
+
+	/**
+	 * @param phase the name of the phase
+	 * @param percentile the percentile between 0 and 100
+	 * @return the value at the percentile in ms, NaN for an unknown phase
+	 */
+	double percentileMs(String phase, double percentile);
+
+	void reset();
+}
@@ -0,0 +1,261 @@
+package spim.util;
+
+import ij.process.ByteProcessor;
+import ij.process.FloatProcessor;
+import ij.process.ImageProcessor;
+import ij.process.ShortProcessor;
+
+import java.util.Deque;
+import java.util.Locale;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedDeque;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Description: Pool of reusable pixel arrays for the acquisition path. The
+ * arrays are kept by type and length, so planes of the camera ROI and blocks
+ * of a storage share the pool without mixing. A borrowed buffer has a single
+ * holder, which returns the array to the pool with release() or close() once
+ * it is done with it. The arrays are on the heap, as
+ * the ImageJ processors and the N5 data blocks wrap primitive arrays. Idle
+ * arrays are bounded by bytes, a returned array over the bound is left to GC.
+ *
+ * Author: HongKee Moon (moon@mpi-cbg.de), Scientific Computing Facility
+ * Organization: MPI-CBG Dresden
+ * Date: October 2026
+ */
+public class PixelBufferPool {
+	private static PixelBufferPool instance;
+
+	public enum Type {
+		BYTE(1), SHORT(2), FLOAT(4);
+
+		private final int bytesPerPixel;
+
+		Type(int bytesPerPixel) {
+			this.bytesPerPixel = bytesPerPixel;
+		}
+
+		public int getBytesPerPixel() {
+			return bytesPerPixel;
+		}
+
+		Object allocate(int length) {
+			switch (this) {
+				case BYTE: return new byte[length];
+				case SHORT: return new short[length];
+				default: return new float[length];
+			}
+		}
+
+		/**
+		 * @return the type of the pixels of the processor, null if it is not pooled
+		 */
+		public static Type of(ImageProcessor ip) {
+			final Object pixels = ip.getPixels();
+			if (pixels instanceof byte[]) return BYTE;
+			if (pixels instanceof short[]) return SHORT;
+			if (pixels instanceof float[]) return FLOAT;
+			return null;
+		}
+	}
+
+	/**
+	 * A pooled array. It is returned to the pool when its holder releases it
+	 * and must not be touched afterwards.
+	 */
+	public final class Buffer implements AutoCloseable {
+		private final Type type;
+		private final int length;
+		private final Object pixels;
+		private final AtomicBoolean inUse = new AtomicBoolean();
+
+		private Buffer(Type type, int length) {
+			this.type = type;
+			this.length = length;
+			this.pixels = type.allocate(length);
+		}
+
+		public Type getType() {
+			return type;
+		}
+
+		public int getLength() {
+			return length;
+		}
+
+		/**
+		 * @return the array, which may hold the values of its previous use
+		 */
+		public Object getPixels() {
+			return pixels;
+		}
+
+		/**
+		 * Wraps the array without copying it.
+		 *
+		 * @param width the width of the plane
+		 * @param height the height of the plane
+		 * @return the processor over the array
+		 */
+		public ImageProcessor toProcessor(int width, int height) {
+			if (width * height != length)
+				throw new IllegalArgumentException(width + "x" + height + " does not fit a buffer of " + length + " pixels");
+
+			switch (type) {
+				case BYTE: return new ByteProcessor(width, height, (byte[]) pixels);
+				case SHORT: return new ShortProcessor(width, height, (short[]) pixels, null);
+				default: return new FloatProcessor(width, height, (float[]) pixels);
+			}
+		}
+
+		/**
+		 * Returns the buffer to the pool.
+		 */
+		public void release() {
+			if (!inUse.compareAndSet(true, false))
+				throw new IllegalStateException("The buffer was already returned to the pool");
+			recycle(this);
+		}
+
+		@Override
+		public void close() {
+			release();
+		}
+	}
+
+	private final long maxIdleBytes;
+	private final AtomicLong idleBytes = new AtomicLong();
+	private final ConcurrentHashMap<Long, Deque<Buffer>> idle = new ConcurrentHashMap<>();
+
+	private final LongAdder borrowed = new LongAdder();
+	private final LongAdder allocated = new LongAdder();
+
+	public PixelBufferPool(long maxIdleBytes) {
+		this.maxIdleBytes = maxIdleBytes;
+	}
+
+	/**
+	 * The pool shared by the acquisition, bounded by a sixteenth of the maximum heap.
+	 *
+	 * @return the shared pool
+	 */
+	public static synchronized PixelBufferPool getInstance() {
+		if (instance == null)
+			instance = new PixelBufferPool(Runtime.getRuntime().maxMemory() / 16);
+		return instance;
+	}
+
+	private static long key(Type type, int length) {
+		return ((long) type.ordinal() << 32) | (length & 0xffffffffL);
+	}
+
+	private Deque<Buffer> idle(Type type, int length) {
+		return idle.computeIfAbsent(key(type, length), k -> new ConcurrentLinkedDeque<>());
+	}
+
+	/**
+	 * Borrows a buffer, which the caller releases.
+	 *
+	 * @param type the pixel type
+	 * @param length the number of pixels
+	 * @return the buffer
+	 */
+	public Buffer borrow(Type type, int length) {
+		borrowed.increment();
+		Buffer buffer = idle(type, length).pollFirst();
+		if (buffer != null) {
+			idleBytes.addAndGet(-sizeOf(buffer));
+		} else {
+			allocated.increment();
+			buffer = new Buffer(type, length);
+		}
+		buffer.inUse.set(true);
+		return buffer;
+	}
+
+	/**
+	 * Allocates idle buffers ahead of an acquisition, for instance for the
+	 * planes of the camera ROI, as far as the bound allows.
+	 *
+	 * @param type the pixel type
+	 * @param length the number of pixels
+	 * @param count the number of buffers which should be idle
+	 */
+	public void reserve(Type type, int length, int count) {
+		final Deque<Buffer> deque = idle(type, length);
+		final long size = (long) length * type.getBytesPerPixel();
+		for (int i = deque.size(); i < count; i++) {
+			if (idleBytes.addAndGet(size) > maxIdleBytes) {
+				idleBytes.addAndGet(-size);
+				return;
+			}
+			deque.offerFirst(new Buffer(type, length));
+		}
+	}
+
+	private void recycle(Buffer buffer) {
+		final long size = sizeOf(buffer);
+		if (idleBytes.addAndGet(size) > maxIdleBytes) {
+			idleBytes.addAndGet(-size);
+			return;
+		}
+		// The most recently used array is handed out first, it is likely still in the cache
+		idle(buffer.type, buffer.length).offerFirst(buffer);
+	}
+
+	/**
+	 * Drops all idle buffers, for instance when the camera ROI changed.
+	 */
+	public void clear() {
+		for (Deque<Buffer> deque : idle.values()) {
+			Buffer buffer;
+			while ((buffer = deque.pollFirst()) != null)
+				idleBytes.addAndGet(-sizeOf(buffer));
+		}
+	}
+
+	private static long sizeOf(Buffer buffer) {
+		return (long) buffer.length * buffer.type.getBytesPerPixel();
+	}
+
+	public long getIdleBytes() {
+		return idleBytes.get();
+	}
+
+	@Override
+	public String toString() {
+		final long b = borrowed.sum();
+		return String.format(Locale.ROOT, "%d borrowed, %d allocated (%.1f%% reused), %.1f MB idle",
+				b, allocated.sum(), b == 0 ? 0 : 100.0 * (b - allocated.sum()) / b, idleBytes.get() / 1e6);
+	}
+
+	/**
+	 * Converts the pixels of an 8-bit, 16-bit or float processor into the array
+	 * without allocating, unsigned like ImageProcessor.convertToFloat().
+	 *
+	 * @param ip the processor
+	 * @param out the array of at least width * height values
+	 * @return false if the processor has another type
+	 */
+	public static boolean copyToFloat(ImageProcessor ip, float[] out) {
+		final Object pixels = ip.getPixels();
+		final int n = ip.getWidth() * ip.getHeight();
+		if (pixels instanceof short[]) {
+			final short[] in = (short[]) pixels;
+			for (int i = 0; i < n; i++)
+				out[i] = in[i] & 0xffff;
+		} else if (pixels instanceof byte[]) {
+			final byte[] in = (byte[]) pixels;
+			for (int i = 0; i < n; i++)
+				out[i] = in[i] & 0xff;
+		} else if (pixels instanceof float[]) {
+			System.arraycopy(pixels, 0, out, 0, n);
+		} else {
+			return false;
+		}
+		return true;
+	}
+}
@@ -0,0 +1,127 @@
+package spim.algorithm;
+
+import ij.process.ByteProcessor;
+import ij.process.FloatProcessor;
+import ij.process.ImageProcessor;
+import ij.process.ShortProcessor;
+import org.apache.commons.math3.geometry.euclidean.threed.Vector3D;
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+/**
+ * Description: Centre of mass of the CentroidAccumulator on a 3D gaussian
+ * blob rendered at a known subpixel position. The blob lies well inside the
+ * stack, so its centre of mass is its centre.
+ *
+ * Author: HongKee Moon (moon@mpi-cbg.de), Scientific Computing Facility
+ * Organization: MPI-CBG Dresden
+ * Date: October 2026
+ */
+public class CentroidAccumulatorTest {
+	private static final int WIDTH = 96;
+	// Several row bands per slice
+	private static final int HEIGHT = 160;
+	private static final int DEPTH = 40;
+
+	private static final Vector3D CENTRE = new Vector3D(40.3, 77.6, 18.25);
+	private static final double SIGMA_XY = 6;
+	private static final double SIGMA_Z = 3;
+	private static final double TOLERANCE = 0.01;
+
+	private interface SliceFactory {
+		ImageProcessor create(float[] values);
+	}
+
+	private static float[] blob(int z, double amplitude, double offset) {
+		final float[] values = new float[WIDTH * HEIGHT];
+		final double dz = z - CENTRE.getZ();
+		for (int y = 0; y < HEIGHT; y++) {
+			final double dy = y - CENTRE.getY();
+			for (int x = 0; x < WIDTH; x++) {
+				final double dx = x - CENTRE.getX();
+				values[x + y * WIDTH] = (float) (offset + amplitude * Math.exp(
+						-(dx * dx + dy * dy) / (2 * SIGMA_XY * SIGMA_XY) - dz * dz / (2 * SIGMA_Z * SIGMA_Z)));
+			}
+		}
+		return values;
+	}
+
+	private static ImageProcessor shortSlice(float[] values) {
+		final short[] pixels = new short[values.length];
+		for (int i = 0; i < pixels.length; i++)
+			pixels[i] = (short) Math.round(values[i]);
+		return new ShortProcessor(WIDTH, HEIGHT, pixels, null);
+	}
+
+	private static ImageProcessor byteSlice(float[] values) {
+		final byte[] pixels = new byte[values.length];
+		for (int i = 0; i < pixels.length; i++)
+			pixels[i] = (byte) Math.round(values[i]);
+		return new ByteProcessor(WIDTH, HEIGHT, pixels);
+	}
+
+	private static Vector3D centroid(CentroidAccumulator accumulator, SliceFactory factory, double amplitude, double offset) {
+		for (int z = 0; z < DEPTH; z++)
+			accumulator.addSlice(factory.create(blob(z, amplitude, offset)));
+		assertEquals(DEPTH, accumulator.getDepth());
+		return accumulator.getCentroid();
+	}
+
+	private static void assertCentre(Vector3D centroid, double tolerance) {
+		assertNotNull(centroid);
+		assertEquals(CENTRE.getX(), centroid.getX(), tolerance);
+		assertEquals(CENTRE.getY(), centroid.getY(), tolerance);
+		assertEquals(CENTRE.getZ(), centroid.getZ(), tolerance);
+	}
+
+	@Test
+	public void shortBlob() {
+		assertCentre(centroid(new CentroidAccumulator(), CentroidAccumulatorTest::shortSlice, 30000, 0), TOLERANCE);
+	}
+
+	@Test
+	public void floatBlob() {
+		assertCentre(centroid(new CentroidAccumulator(), v -> new FloatProcessor(WIDTH, HEIGHT, v), 1, 0), TOLERANCE);
+	}
+
+	@Test
+	public void byteBlob() {
+		// Rounding to 8 bits costs some accuracy
+		assertCentre(centroid(new CentroidAccumulator(), CentroidAccumulatorTest::byteSlice, 250, 0), 0.05);
+	}
+
+	@Test
+	public void backgroundIsSubtracted() {
+		// Without its background the centroid is pulled towards the centre of the stack
+		final Vector3D biased = centroid(new CentroidAccumulator(), CentroidAccumulatorTest::shortSlice, 30000, 100);
+		assertTrue(Math.abs(biased.getY() - CENTRE.getY()) > 0.5);
+
+		assertCentre(centroid(new CentroidAccumulator(100), CentroidAccumulatorTest::shortSlice, 30000, 100), TOLERANCE);
+	}
+
+	@Test
+	public void resetStartsANewStack() {
+		final CentroidAccumulator accumulator = new CentroidAccumulator();
+		centroid(accumulator, CentroidAccumulatorTest::shortSlice, 30000, 100);
+		accumulator.reset();
+		assertEquals(0, accumulator.getDepth());
+		assertNull(accumulator.getCentroid());
+		assertCentre(centroid(accumulator, CentroidAccumulatorTest::shortSlice, 30000, 0), TOLERANCE);
+	}
+
+	@Test
+	public void blackStackHasNoCentroid() {
+		final CentroidAccumulator accumulator = new CentroidAccumulator();
+		for (int z = 0; z < 3; z++)
+			accumulator.addSlice(new ShortProcessor(WIDTH, HEIGHT));
+		assertNull(accumulator.getCentroid());
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void rejectsSlicesOfAnotherSize() {
+		final CentroidAccumulator accumulator = new CentroidAccumulator();
+		accumulator.addSlice(new ShortProcessor(WIDTH, HEIGHT));
+		accumulator.addSlice(new ShortProcessor(WIDTH, HEIGHT / 2));
+	}
+}
@@ -0,0 +1,73 @@
+package spim.algorithm;
+
+import ij.process.FloatProcessor;
+import org.junit.Test;
+
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+/**
+ * Description: Accuracy of MultiScalePhaseCorrelation on synthetic drifts.
+ * The projections are gaussian blobs with noise, rendered at subpixel
+ * positions, so the drift between two of them is known exactly, and every
+ * estimate has to be within a tenth of a pixel of it.
+ *
+ * Author: HongKee Moon (moon@mpi-cbg.de), Scientific Computing Facility
+ * Organization: MPI-CBG Dresden
+ * Date: October 2026
+ */
+public class MultiScalePhaseCorrelationTest {
+	private static final int DRIFTS = 8;
+	private static final double MAX_ERROR = 0.1;
+
+	private static FloatProcessor blobs(int w, int h, double dx, double dy, long seed) {
+		final Random random = new Random(seed);
+		final float[] pixels = new float[w * h];
+		for (int b = 0; b < 200; b++) {
+			final double cx = w * (0.25 + random.nextDouble() * 0.5) + dx;
+			final double cy = h * (0.25 + random.nextDouble() * 0.5) + dy;
+			final double sigma = 3 + random.nextDouble() * 8;
+			final double amplitude = 100 + random.nextDouble() * 1000;
+			final int r = (int) Math.ceil(4 * sigma);
+			for (int y = Math.max(0, (int) cy - r); y <= Math.min(h - 1, (int) cy + r); y++)
+				for (int x = Math.max(0, (int) cx - r); x <= Math.min(w - 1, (int) cx + r); x++)
+					pixels[x + y * w] += amplitude * Math.exp(-((x - cx) * (x - cx) + (y - cy) * (y - cy)) / (2 * sigma * sigma));
+		}
+
+		final Random noise = new Random(seed + Double.doubleToLongBits(dx) * 31 + Double.doubleToLongBits(dy));
+		for (int i = 0; i < pixels.length; i++)
+			pixels[i] += 100 + noise.nextGaussian() * 10;
+		return new FloatProcessor(w, h, pixels);
+	}
+
+	private static void assertDrifts(int w, int h, double maxDrift) {
+		final Random random = new Random(42);
+		final FloatProcessor reference = blobs(w, h, 0, 0, 7);
+		for (int i = 0; i < DRIFTS; i++) {
+			final double dx = (random.nextDouble() - 0.5) * 2 * maxDrift;
+			final double dy = (random.nextDouble() - 0.5) * 2 * Math.min(maxDrift, h / 8.0);
+			final FloatProcessor moved = blobs(w, h, dx, dy, 7);
+
+			final double[] shift = MultiScalePhaseCorrelation.getShift(moved, reference);
+			assertNotNull(shift);
+			final double error = Math.hypot(shift[0] - dx, shift[1] - dy);
+			assertTrue(w + "x" + h + " drift " + dx + "," + dy + ": error " + error + " px", error < MAX_ERROR);
+		}
+	}
+
+	@Test
+	public void subpixelDriftXY() {
+		assertDrifts(1024, 1024, 30);
+	}
+
+	@Test
+	public void subpixelDriftXZ() {
+		assertDrifts(1024, 160, 30);
+	}
+
+	@Test
+	public void tooSmall() {
+		assertNull(MultiScalePhaseCorrelation.getShift(new FloatProcessor(4, 64), new FloatProcessor(4, 64)));
+	}
+}
@@ -0,0 +1,181 @@
+package spim.algorithm;
+
+import ij.ImagePlus;
+import ij.process.FloatProcessor;
+import ij.process.ShortProcessor;
+import net.imglib2.img.ImagePlusAdapter;
+import net.imglib2.img.Img;
+import net.imglib2.type.numeric.real.FloatType;
+import org.apache.commons.math3.geometry.euclidean.threed.Vector3D;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.lang.reflect.Field;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Description: Wall time of one anti-drift correction, the phase correlation
+ * of the XY, XZ and ZY projections of a stack against those of the first
+ * stack. The uncached benchmark transforms both projections of every pair as
+ * before, the cached one reuses the spectra of the reference projections,
+ * the multi-scale one estimates on binned projections and refines in a window.
+ * The projections are blurred noise with a known shift. The correction
+ * benchmarks run the whole correlateAndAverage() of projected 16-bit noise
+ * stacks, with the cached spectra of the reference stack or with the spectra
+ * dropped before every correction.
+ *
+ * Run it with
+ * mvn test-compile exec:java -Dexec.classpathScope=test -Dexec.mainClass=spim.algorithm.PhaseCorrelationBenchmark
+ *
+ * Author: HongKee Moon (moon@mpi-cbg.de), Scientific Computing Facility
+ * Organization: MPI-CBG Dresden
+ * Date: October 2026
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2, time = 10)
+@Measurement(iterations = 5, time = 10)
+@Fork(value = 1, jvmArgs = {"-Xmx8g"})
+public class PhaseCorrelationBenchmark {
+	@Param({"2048"})
+	public int size;
+
+	@Param({"300"})
+	public int depth;
+
+	private FloatProcessor[] reference;
+	private FloatProcessor[] moving;
+	private PhaseCorrelation.Reference<FloatType>[] spectra;
+
+	private Projections referenceStack;
+	private Projections movingStack;
+	private Field referencesField;
+
+	@Setup(Level.Trial)
+	@SuppressWarnings("unchecked")
+	public void setup() {
+		final Random random = new Random(42);
+		final int[][] dims = {{size, size}, {size, depth}, {depth, size}};
+		reference = new FloatProcessor[3];
+		moving = new FloatProcessor[3];
+		spectra = new PhaseCorrelation.Reference[3];
+		for (int i = 0; i < 3; i++) {
+			final int w = dims[i][0];
+			final int h = dims[i][1];
+			final FloatProcessor noise = new FloatProcessor(w + 16, h + 16);
+			final float[] pixels = (float[]) noise.getPixels();
+			for (int p = 0; p < pixels.length; p++)
+				pixels[p] = random.nextFloat() * 1000;
+			noise.blurGaussian(3);
+
+			reference[i] = crop(noise, 8, 8, w, h);
+			moving[i] = crop(noise, 11, 6, w, h);
+			spectra[i] = PhaseCorrelation.prepareReference(wrap(reference[i]));
+		}
+
+		projectStacks();
+		try {
+			referencesField = Projections.class.getDeclaredField("references");
+		} catch (NoSuchFieldException e) {
+			throw new IllegalStateException(e);
+		}
+		referencesField.setAccessible(true);
+		// The spectra of the reference stack are kept from now on
+		movingStack.correlateAndAverage(referenceStack);
+	}
+
+	// The moving stack is shifted by 3 and -2 pixels in X and Y and by 1 slice against the reference stack
+	private void projectStacks() {
+		referenceStack = new Projections(depth);
+		movingStack = new Projections(depth);
+		final int padded = size + 16;
+		for (int z = 0; z <= depth; z++) {
+			final Random random = new Random(z);
+			final short[] noise = new short[padded * padded];
+			for (int p = 0; p < noise.length; p++)
+				noise[p] = (short) (100 + random.nextInt(4000));
+
+			if (z < depth)
+				referenceStack.addXYSlice(crop(noise, padded, 8, 8));
+			if (z > 0)
+				movingStack.addXYSlice(crop(noise, padded, 11, 6));
+		}
+	}
+
+	private ShortProcessor crop(short[] noise, int padded, int x, int y) {
+		final short[] pixels = new short[size * size];
+		for (int row = 0; row < size; row++)
+			System.arraycopy(noise, x + (y + row) * padded, pixels, row * size, size);
+		return new ShortProcessor(size, size, pixels, null);
+	}
+
+	private static FloatProcessor crop(FloatProcessor fp, int x, int y, int w, int h) {
+		fp.setRoi(x, y, w, h);
+		return (FloatProcessor) fp.crop();
+	}
+
+	private static Img<FloatType> wrap(FloatProcessor fp) {
+		return ImagePlusAdapter.wrapFloat(new ImagePlus("", fp));
+	}
+
+	@Benchmark
+	public long uncached() {
+		long sum = 0;
+		for (int i = 0; i < 3; i++) {
+			final PhaseCorrelation<FloatType, FloatType> pc = new PhaseCorrelation<>(wrap(moving[i]), wrap(reference[i]));
+			pc.process();
+			sum += pc.getShift().getPosition()[0];
+		}
+		return sum;
+	}
+
+	@Benchmark
+	public long cached() {
+		long sum = 0;
+		for (int i = 0; i < 3; i++) {
+			final PhaseCorrelation<FloatType, FloatType> pc = new PhaseCorrelation<>(wrap(moving[i]), spectra[i]);
+			pc.process();
+			sum += pc.getShift().getPosition()[0];
+		}
+		return sum;
+	}
+
+	@Benchmark
+	public double multiScale() {
+		double sum = 0;
+		for (int i = 0; i < 3; i++)
+			sum += MultiScalePhaseCorrelation.getShift(moving[i], reference[i])[0];
+		return sum;
+	}
+
+	@Benchmark
+	public Vector3D uncachedCorrection() throws IllegalAccessException {
+		// The spectra of the reference are computed again for every correction
+		referencesField.set(referenceStack, null);
+		return movingStack.correlateAndAverage(referenceStack);
+	}
+
+	@Benchmark
+	public Vector3D cachedCorrection() {
+		return movingStack.correlateAndAverage(referenceStack);
+	}
+
+	public static void main(String[] args) throws RunnerException {
+		new Runner(new OptionsBuilder().include(PhaseCorrelationBenchmark.class.getSimpleName()).build()).run();
+	}
+}
@@ -0,0 +1,201 @@
+package spim.algorithm;
+
+import ij.process.Blitter;
+import ij.process.FloatBlitter;
+import ij.process.FloatProcessor;
+import ij.process.ImageProcessor;
+import ij.process.ShortProcessor;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+import spim.util.PixelBufferPool;
+
+import java.util.EnumSet;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Description: Time to project one 16-bit stack, before and after the
+ * StackProjector. The legacy benchmarks are the former per-slice code of
+ * Projections, which converted every slice to float and extended the XZ and ZY
+ * views by one row on every slice, and of MaxProjections, which converted
+ * every slice as well. The anti-drift benchmarks compare the blur of every
+ * slice at full resolution with the SlicePreprocessor, which bins first.
+ *
+ * Run it with
+ * mvn test-compile exec:java -Dexec.classpathScope=test -Dexec.mainClass=spim.algorithm.ProjectionBenchmark
+ *
+ * Author: HongKee Moon (moon@mpi-cbg.de), Scientific Computing Facility
+ * Organization: MPI-CBG Dresden
+ * Date: October 2026
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2, time = 5)
+@Measurement(iterations = 5, time = 5)
+@Fork(value = 1, jvmArgs = {"-Xmx8g"})
+public class ProjectionBenchmark {
+	@Param({"512", "2048"})
+	public int size;
+
+	@Param({"100", "300"})
+	public int depth;
+
+	// The sigma of the phase correlation anti-drift
+	private static final double ANTI_DRIFT_SIGMA = 10;
+
+	private ShortProcessor[] slices;
+
+	@Setup(Level.Trial)
+	public void setup() {
+		final Random random = new Random(42);
+		slices = new ShortProcessor[depth];
+		for (int z = 0; z < depth; z++) {
+			final short[] pixels = new short[size * size];
+			for (int i = 0; i < pixels.length; i++)
+				pixels[i] = (short) (100 + random.nextInt(4000));
+			slices[z] = new ShortProcessor(size, size, pixels, null);
+		}
+	}
+
+	@Benchmark
+	public void legacyProjections(Blackhole blackhole) {
+		FloatProcessor xy = null, xz = null, zy = null;
+		for (ShortProcessor slice : slices) {
+			final ImageProcessor ip = slice.convertToFloat();
+			final int w = ip.getWidth();
+			final int h = ip.getHeight();
+			final int d;
+			final float[] pixels = (float[]) ip.getPixels();
+
+			if (xy == null) {
+				d = 1;
+				xy = (FloatProcessor) ip.duplicate();
+				xz = new FloatProcessor(w, 1);
+				zy = new FloatProcessor(1, h);
+			} else {
+				xz = extend(xz, 0, 1);
+				zy = extend(zy, 1, 0);
+				d = xz.getHeight();
+
+				final float[] xyPixels = (float[]) xy.getPixels();
+				for (int i = 0; i < w * h; i++)
+					xyPixels[i] = (xyPixels[i] * (d - 1) + pixels[i]) / d;
+			}
+
+			final float[] xzPixels = (float[]) xz.getPixels();
+			for (int x = 0; x < w; x++) {
+				float sum = 0;
+				for (int y = 0; y < h; y++)
+					sum += pixels[x + y * w];
+				xzPixels[x + (d - 1) * w] = sum / h;
+			}
+
+			final float[] zyPixels = (float[]) zy.getPixels();
+			for (int y = 0; y < h; y++) {
+				float sum = 0;
+				for (int x = 0; x < w; x++)
+					sum += pixels[x + y * w];
+				zyPixels[(d - 1) + y * d] = sum / w;
+			}
+		}
+		blackhole.consume(xy);
+		blackhole.consume(xz);
+		blackhole.consume(zy);
+	}
+
+	private static FloatProcessor extend(final FloatProcessor fp, int dx, int dy) {
+		final FloatProcessor result = new FloatProcessor(fp.getWidth() + dx, fp.getHeight() + dy);
+		new FloatBlitter(result).copyBits(fp, 0, 0, Blitter.COPY);
+		return result;
+	}
+
+	@Benchmark
+	public void legacyMaxProjections(Blackhole blackhole) {
+		FloatProcessor xy = null;
+		int d = 0;
+		for (ShortProcessor slice : slices) {
+			final float[] pixels = (float[]) slice.convertToFloat().getPixels();
+			if (xy == null) {
+				d = 1;
+				xy = new FloatProcessor(size, size, pixels.clone());
+			} else {
+				d++;
+				final float[] xyPixels = (float[]) xy.getPixels();
+				for (int i = 0; i < pixels.length; i++)
+					xyPixels[i] = (xyPixels[i] * (d - 1) + pixels[i]) / d;
+			}
+		}
+		blackhole.consume(xy);
+	}
+
+	@Benchmark
+	public void projectorMeanOrthogonal(Blackhole blackhole) {
+		final StackProjector projector = new StackProjector(size, size, depth, EnumSet.of(StackProjector.Type.MEAN), true);
+		for (ShortProcessor slice : slices)
+			projector.addSlice(slice);
+		blackhole.consume(projector.getProcessor(StackProjector.Type.MEAN));
+		blackhole.consume(projector.getXZ());
+		blackhole.consume(projector.getZY());
+	}
+
+	@Benchmark
+	public void projectorMax(Blackhole blackhole) {
+		final StackProjector projector = new StackProjector(size, size, depth, StackProjector.Type.MAX);
+		for (ShortProcessor slice : slices)
+			projector.addSlice(slice);
+		blackhole.consume(projector.getProcessor(StackProjector.Type.MAX));
+	}
+
+	@Benchmark
+	public void projectorAll(Blackhole blackhole) {
+		final StackProjector projector = new StackProjector(size, size, depth, EnumSet.allOf(StackProjector.Type.class), true);
+		for (ShortProcessor slice : slices)
+			projector.addSlice(slice);
+		for (StackProjector.Type type : StackProjector.Type.values())
+			blackhole.consume(projector.getProcessor(type));
+	}
+
+	@Benchmark
+	public void legacyAntiDriftSlices(Blackhole blackhole) {
+		final Projections projections = new Projections(depth);
+		final float[] plane = new float[size * size];
+		for (ShortProcessor slice : slices) {
+			PixelBufferPool.copyToFloat(slice, plane);
+			final FloatProcessor blurred = new FloatProcessor(size, size, plane);
+			blurred.blurGaussian(ANTI_DRIFT_SIGMA);
+			projections.addXYSlice(blurred);
+		}
+		blackhole.consume(projections.getXZ());
+	}
+
+	@Benchmark
+	public void preprocessedAntiDriftSlices(Blackhole blackhole) {
+		final SlicePreprocessor preprocessor = new SlicePreprocessor(SlicePreprocessor.defaultBinning(ANTI_DRIFT_SIGMA), ANTI_DRIFT_SIGMA);
+		final Projections projections = new Projections(depth);
+		for (ShortProcessor slice : slices) {
+			try (PixelBufferPool.Buffer buffer = preprocessor.process(slice)) {
+				projections.addXYSlice(buffer.toProcessor(preprocessor.getWidth(size), preprocessor.getHeight(size)));
+			}
+		}
+		blackhole.consume(projections.getXZ());
+	}
+
+	public static void main(String[] args) throws RunnerException {
+		new Runner(new OptionsBuilder().include(ProjectionBenchmark.class.getSimpleName()).build()).run();
+	}
+}
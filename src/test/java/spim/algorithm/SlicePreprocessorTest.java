@@ -0,0 +1,159 @@
+package spim.algorithm;
+
+import ij.process.ByteProcessor;
+import ij.process.FloatProcessor;
+import ij.process.ImageProcessor;
+import ij.process.ShortProcessor;
+import org.junit.Test;
+import spim.util.PixelBufferPool;
+
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+/**
+ * Description: SlicePreprocessor against ImageJ's blurGaussian of the same
+ * slice, binned by plain block averages when the preprocessor bins. The kernel
+ * of the preprocessor ends at 3.5 sigma, so the blurred planes are compared
+ * within a fraction of a percent of their range, away from the borders.
+ *
+ * Author: HongKee Moon (moon@mpi-cbg.de), Scientific Computing Facility
+ * Organization: MPI-CBG Dresden
+ * Date: October 2026
+ */
+public class SlicePreprocessorTest {
+	// Not a multiple of the binnings, so the remainders are dropped
+	private static final int WIDTH = 130;
+	private static final int HEIGHT = 101;
+	// ImageJ downscales above a sigma of 4.5, which costs it accuracy
+	private static final double SIGMA = 3;
+	private static final double RANGE = 4000;
+	private static final double TOLERANCE = 2e-3 * RANGE;
+
+	private static float[] slice(long seed) {
+		final Random random = new Random(seed);
+		final float[] values = new float[WIDTH * HEIGHT];
+		for (int y = 0; y < HEIGHT; y++)
+			for (int x = 0; x < WIDTH; x++)
+				values[x + y * WIDTH] = (float) Math.round(RANGE / 2
+						+ RANGE / 4 * Math.sin(x / 7.0) * Math.cos(y / 11.0)
+						+ RANGE / 4 * (random.nextDouble() - 0.5));
+		return values;
+	}
+
+	private static ImageProcessor shortSlice(float[] values) {
+		final short[] pixels = new short[values.length];
+		for (int i = 0; i < pixels.length; i++)
+			pixels[i] = (short) values[i];
+		return new ShortProcessor(WIDTH, HEIGHT, pixels, null);
+	}
+
+	private static ImageProcessor byteSlice(float[] values) {
+		final byte[] pixels = new byte[values.length];
+		for (int i = 0; i < pixels.length; i++)
+			pixels[i] = (byte) (values[i] * 255 / RANGE);
+		return new ByteProcessor(WIDTH, HEIGHT, pixels);
+	}
+
+	private static float[] binned(float[] values, int binning) {
+		final int w = WIDTH / binning;
+		final int h = HEIGHT / binning;
+		final float[] binned = new float[w * h];
+		for (int y = 0; y < h; y++)
+			for (int x = 0; x < w; x++) {
+				double sum = 0;
+				for (int dy = 0; dy < binning; dy++)
+					for (int dx = 0; dx < binning; dx++)
+						sum += values[x * binning + dx + (y * binning + dy) * WIDTH];
+				binned[x + y * w] = (float) (sum / (binning * binning));
+			}
+		return binned;
+	}
+
+	private static float[] reference(float[] values, int binning, double sigma) {
+		final float[] binned = binned(values, binning);
+		if (sigma > 0)
+			new FloatProcessor(WIDTH / binning, HEIGHT / binning, binned).blurGaussian(sigma / binning);
+		return binned;
+	}
+
+	private static void assertProcessed(SlicePreprocessor preprocessor, ImageProcessor slice, float[] expected, int border, double tolerance) {
+		final int w = preprocessor.getWidth(WIDTH);
+		final int h = preprocessor.getHeight(HEIGHT);
+		assertEquals(expected.length, preprocessor.getPlaneLength(WIDTH, HEIGHT));
+		try (PixelBufferPool.Buffer buffer = preprocessor.process(slice)) {
+			final float[] actual = (float[]) buffer.getPixels();
+			for (int y = border; y < h - border; y++)
+				for (int x = border; x < w - border; x++)
+					assertEquals("at " + x + "," + y, expected[x + y * w], actual[x + y * w], tolerance);
+		}
+	}
+
+	private static int border(int binning, double sigma) {
+		return (int) Math.ceil(3.5 * sigma / binning) + 1;
+	}
+
+	@Test
+	public void binsBlockAverages() {
+		final float[] values = slice(1);
+		for (int binning = 1; binning <= 4; binning++)
+			assertProcessed(new SlicePreprocessor(binning, 0), shortSlice(values), binned(values, binning), 0, 1e-3);
+	}
+
+	@Test
+	public void blurMatchesBlurGaussian() {
+		final float[] values = slice(2);
+		assertProcessed(new SlicePreprocessor(1, SIGMA), shortSlice(values), reference(values, 1, SIGMA), border(1, SIGMA), TOLERANCE);
+	}
+
+	@Test
+	public void floatBlurMatchesBlurGaussian() {
+		final float[] values = slice(3);
+		assertProcessed(new SlicePreprocessor(1, SIGMA), new FloatProcessor(WIDTH, HEIGHT, values.clone()),
+				reference(values, 1, SIGMA), border(1, SIGMA), TOLERANCE);
+	}
+
+	@Test
+	public void byteBlurMatchesBlurGaussian() {
+		final ImageProcessor slice = byteSlice(slice(4));
+		final float[] values = new float[WIDTH * HEIGHT];
+		final byte[] pixels = (byte[]) slice.getPixels();
+		for (int i = 0; i < values.length; i++)
+			values[i] = pixels[i] & 0xff;
+		assertProcessed(new SlicePreprocessor(1, SIGMA), slice, reference(values, 1, SIGMA), border(1, SIGMA), TOLERANCE * 255 / RANGE);
+	}
+
+	@Test
+	public void binnedBlurMatchesBlurGaussianOfTheBinnedSlice() {
+		// The sigma is scaled to the binned pixels
+		for (int binning = 2; binning <= 3; binning++) {
+			final float[] values = slice(4 + binning);
+			final double sigma = SIGMA * binning;
+			assertProcessed(new SlicePreprocessor(binning, sigma), shortSlice(values), reference(values, binning, sigma),
+					border(binning, sigma), TOLERANCE);
+		}
+	}
+
+	@Test
+	public void defaultBinningKeepsPixelsPerSigma() {
+		assertEquals(1, SlicePreprocessor.defaultBinning(2));
+		assertEquals(2, SlicePreprocessor.defaultBinning(5));
+		assertEquals(4, SlicePreprocessor.defaultBinning(10));
+	}
+
+	@Test
+	public void onlyTheSubpixelCorrelationBins() {
+		assertEquals(1, DefaultAntiDrift.defaultBinning(10, AntiDrift.Type.PhaseCorrelation));
+		assertEquals(4, DefaultAntiDrift.defaultBinning(10, AntiDrift.Type.MultiScalePhaseCorrelation));
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void rejectsSlicesSmallerThanTheBinning() {
+		new SlicePreprocessor(4, 0).process(new ShortProcessor(3, 3));
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void rejectsBinningBelowOne() {
+		new SlicePreprocessor(0, SIGMA);
+	}
+}
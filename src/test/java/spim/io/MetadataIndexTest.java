@@ -0,0 +1,245 @@
+package spim.io;
+
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParser;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.micromanager.PropertyMaps;
+import org.micromanager.data.Coordinates;
+import org.micromanager.data.Coords;
+import org.micromanager.data.Image;
+import org.micromanager.data.Metadata;
+import org.micromanager.data.internal.DefaultCoords;
+import org.micromanager.data.internal.DefaultDatastore;
+import org.micromanager.data.internal.DefaultImage;
+import org.micromanager.data.internal.DefaultMetadata;
+import org.micromanager.data.internal.DefaultSummaryMetadata;
+import org.micromanager.internal.propertymap.NonPropertyMapJSONFormats;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.io.StringWriter;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.Assert.*;
+
+/**
+ * Description: Recovery and legacy export of the MetadataIndex. A torn or
+ * corrupted tail of the index is dropped on open, and the exported JSON is
+ * loaded back by the single plane TIFF series reader.
+ *
+ * Author: HongKee Moon (moon@mpi-cbg.de), Scientific Computing Facility
+ * Organization: MPI-CBG Dresden
+ * Date: October 2026
+ */
+public class MetadataIndexTest {
+	private static final String PREFIX = "test";
+
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+
+	private static Coords coords(int t, int z) {
+		return Coordinates.builder().p(0).t(t).c(0).z(z).build();
+	}
+
+	private static String metadata(int t, int z) {
+		// The scope data is large enough to be shared between the planes
+		StringBuilder scope = new StringBuilder("{");
+		for (int i = 0; i < 40; i++)
+			scope.append(i == 0 ? "" : ",").append("\"Device-").append(i).append("\":\"Value-").append(i).append('"');
+		scope.append('}');
+		return "{\"ElapsedTime-ms\":" + (t * 1000 + z) + ",\"ScopeData\":" + scope + "}";
+	}
+
+	private MetadataIndex write(File directory, int planes, boolean singlePlaneFiles) throws IOException {
+		final MetadataIndex index = MetadataIndex.create(directory.getAbsolutePath(), PREFIX);
+		for (int z = 0; z < planes; z++) {
+			final String fileName = singlePlaneFiles ? String.format("plane_z%03d.tif", z) : "stack_TL0000.tiff";
+			index.append(coords(0, z), fileName, z, metadata(0, z));
+		}
+		return index;
+	}
+
+	private static void assertMetadata(MetadataIndex index, int t, int z) {
+		assertEquals(new JsonParser().parse(metadata(t, z)), new JsonParser().parse(index.readMetadata(coords(t, z))));
+	}
+
+	@Test
+	public void recordsSurviveReopening() throws IOException {
+		final File directory = folder.newFolder();
+		write(directory, 5, false).close();
+
+		final MetadataIndex index = MetadataIndex.open(directory.getAbsolutePath(), PREFIX);
+		try {
+			final List<MetadataIndex.Record> records = index.getRecords();
+			assertEquals(5, records.size());
+			for (int z = 0; z < 5; z++) {
+				assertEquals(coords(0, z), records.get(z).getCoords());
+				assertEquals("stack_TL0000.tiff", records.get(z).getFileName());
+				assertEquals(z, records.get(z).getOffset());
+				assertMetadata(index, 0, z);
+			}
+		} finally {
+			index.close();
+		}
+	}
+
+	@Test
+	public void tornTailIsDropped() throws IOException {
+		final File directory = folder.newFolder();
+		write(directory, 5, false).close();
+
+		// A crash in the middle of the last record
+		final File indexFile = MetadataIndex.indexFile(directory.getAbsolutePath(), PREFIX);
+		try (RandomAccessFile file = new RandomAccessFile(indexFile, "rw")) {
+			file.setLength(file.length() - 3);
+		}
+
+		MetadataIndex index = MetadataIndex.open(directory.getAbsolutePath(), PREFIX);
+		final long repaired = indexFile.length();
+		try {
+			assertEquals(4, index.getRecords().size());
+			assertFalse(index.contains(coords(0, 4)));
+			for (int z = 0; z < 4; z++)
+				assertMetadata(index, 0, z);
+		} finally {
+			index.close();
+		}
+
+		// The tail is cut off, so the index opens cleanly again
+		index = MetadataIndex.open(directory.getAbsolutePath(), PREFIX);
+		try {
+			assertEquals(4, index.getRecords().size());
+			assertEquals(repaired, indexFile.length());
+		} finally {
+			index.close();
+		}
+	}
+
+	@Test
+	public void corruptedRecordIsDropped() throws IOException {
+		final File directory = folder.newFolder();
+		write(directory, 3, false).close();
+
+		// Flip a byte in front of the CRC of the last record
+		final File indexFile = MetadataIndex.indexFile(directory.getAbsolutePath(), PREFIX);
+		try (RandomAccessFile file = new RandomAccessFile(indexFile, "rw")) {
+			file.seek(file.length() - 5);
+			final int b = file.read();
+			file.seek(file.length() - 5);
+			file.write(b ^ 0xff);
+		}
+
+		final MetadataIndex index = MetadataIndex.open(directory.getAbsolutePath(), PREFIX);
+		try {
+			assertEquals(2, index.getRecords().size());
+		} finally {
+			index.close();
+		}
+	}
+
+	@Test
+	public void stacksAreExportedWithTheirFileName() throws IOException {
+		final File directory = folder.newFolder();
+		final MetadataIndex index = write(directory, 3, false);
+		final StringWriter out = new StringWriter();
+		try {
+			index.exportLegacyJson(out, new JsonObject());
+		} finally {
+			index.close();
+		}
+
+		// Read the entries as the stack storages do, each Metadata entry follows its Coords entry
+		final JsonObject data = new JsonParser().parse(out.toString()).getAsJsonObject();
+		final List<Coords> coords = new ArrayList<>();
+		Coords last = null;
+		for (Map.Entry<String, JsonElement> entry : data.entrySet()) {
+			if (entry.getKey().startsWith("Coords-")) {
+				final JsonObject jo = entry.getValue().getAsJsonObject();
+				assertEquals("stack_TL0000.tiff", jo.get("FileName").getAsString());
+				jo.remove("FileName");
+				last = DefaultCoords.fromPropertyMap(NonPropertyMapJSONFormats.coords().fromGson(jo));
+				coords.add(last);
+			} else if (entry.getKey().startsWith("Metadata-")) {
+				assertNotNull(last);
+				assertEquals(new JsonParser().parse(metadata(0, last.getZ())), entry.getValue());
+			}
+		}
+		assertEquals(3, coords.size());
+		for (int z = 0; z < 3; z++)
+			assertEquals(coords(0, z), coords.get(z));
+	}
+
+	@Test
+	public void singlePlaneFilesAreExportedByFileName() throws IOException {
+		final File directory = folder.newFolder();
+		final MetadataIndex index = write(directory, 3, true);
+		final StringWriter out = new StringWriter();
+		try {
+			index.exportLegacyJson(out, new JsonObject());
+		} finally {
+			index.close();
+		}
+
+		final JsonObject data = new JsonParser().parse(out.toString()).getAsJsonObject();
+		for (int z = 0; z < 3; z++) {
+			final String fileName = String.format("plane_z%03d.tif", z);
+			assertTrue(data.has("Coords-" + fileName));
+			assertEquals(new JsonParser().parse(metadata(0, z)), data.get("Metadata-" + fileName));
+		}
+	}
+
+	@Test
+	public void exportIsLoadedByTheSinglePlaneReader() throws IOException {
+		final File directory = folder.newFolder();
+		final String dir = directory.getAbsolutePath();
+		final int slices = 3;
+
+		DefaultDatastore store = new DefaultDatastore(null);
+		OpenSPIMSinglePlaneTiffSeries storage = new OpenSPIMSinglePlaneTiffSeries(store, dir, PREFIX, true);
+		store.setStorage(storage);
+		store.setSummaryMetadata(new DefaultSummaryMetadata.Builder()
+				.prefix(PREFIX)
+				.channelNames(new String[] {"Channel-0"})
+				.intendedDimensions(Coordinates.builder().p(1).t(1).c(1).z(slices).build())
+				.build());
+		for (int z = 0; z < slices; z++) {
+			final short[] pixels = new short[16 * 16];
+			for (int i = 0; i < pixels.length; i++)
+				pixels[i] = (short) (z * 100 + i);
+			final Metadata metadata = new DefaultMetadata.Builder()
+					.positionName("")
+					.zPositionUm((double) z)
+					.userData(PropertyMaps.builder().putInteger("Slices", slices).build())
+					.build();
+			storage.putImage(new DefaultImage(pixels, 16, 16, 2, 1, coords(0, z), metadata));
+		}
+		storage.freeze();
+		storage.close();
+
+		// Replace the index by the legacy JSON only
+		final File json = new File(dir, PREFIX + "_metadata.txt");
+		MetadataIndex.exportLegacyMetadata(dir, PREFIX, json);
+		assertTrue(MetadataIndex.indexFile(dir, PREFIX).delete());
+		assertTrue(MetadataIndex.dataFile(dir, PREFIX).delete());
+
+		store = new DefaultDatastore(null);
+		storage = new OpenSPIMSinglePlaneTiffSeries(store, dir, PREFIX, false);
+		try {
+			assertEquals(slices, storage.getNumImages());
+			for (int z = 0; z < slices; z++) {
+				final Image image = storage.getImage(coords(0, z));
+				assertNotNull(image);
+				assertEquals(z * 100 + 5, ((short[]) image.getRawPixels())[5]);
+				assertEquals(z, image.getMetadata().getZPositionUm(), 1e-9);
+			}
+		} finally {
+			storage.close();
+		}
+	}
+}
@@ -0,0 +1,109 @@
+package spim.io;
+
+import org.janelia.saalfeldlab.n5.DataType;
+import org.janelia.saalfeldlab.n5.DatasetAttributes;
+import org.janelia.saalfeldlab.n5.DefaultBlockWriter;
+import org.janelia.saalfeldlab.n5.ShortArrayDataBlock;
+import org.openjdk.jmh.annotations.AuxCounters;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Description: JMH benchmark of the N5 compression codecs. The sample stack of
+ * N5CodecComparison is compressed as one block in the same way the N5 writer
+ * does. The auxiliary counters give the raw and compressed MB per second, their
+ * ratio is the compression ratio of the codec.
+ *
+ * Run it with
+ * mvn test-compile exec:java -Dexec.classpathScope=test -Dexec.mainClass=spim.io.N5CodecBenchmark
+ *
+ * Author: HongKee Moon (moon@mpi-cbg.de), Scientific Computing Facility
+ * Organization: MPI-CBG Dresden
+ * Date: October 2026
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 2, time = 5)
+@Measurement(iterations = 5, time = 5)
+@Fork(1)
+public class N5CodecBenchmark {
+	@Param({"RAW", "GZIP", "BZIP2", "LZ4", "XZ", "ZSTD", "BLOSC"})
+	public N5Codec codec;
+
+	@Param({"512"})
+	public int planeSize;
+
+	@Param({"32"})
+	public int slices;
+
+	private DatasetAttributes attributes;
+	private ShortArrayDataBlock block;
+
+	private static class CountingOutputStream extends OutputStream {
+		long count = 0;
+
+		@Override
+		public void write(int b) {
+			count++;
+		}
+
+		@Override
+		public void write(byte[] b, int off, int len) {
+			count += len;
+		}
+	}
+
+	@AuxCounters(AuxCounters.Type.EVENTS)
+	@State(Scope.Thread)
+	public static class Counters {
+		public double rawMB;
+		public double compressedMB;
+	}
+
+	@Setup(Level.Trial)
+	public void setup() {
+		if (!codec.isAvailable())
+			throw new IllegalStateException(codec + " is not on the classpath");
+
+		final short[][] planes = N5CodecComparison.createSampleStack(planeSize, planeSize, slices);
+		final int planeLength = planeSize * planeSize;
+		final short[] data = new short[planeLength * slices];
+		for (int z = 0; z < slices; z++)
+			System.arraycopy(planes[z], 0, data, z * planeLength, planeLength);
+
+		final int[] blockSize = {planeSize, planeSize, slices};
+		attributes = new DatasetAttributes(new long[] {planeSize, planeSize, slices}, blockSize, DataType.UINT16, codec.create());
+		block = new ShortArrayDataBlock(blockSize, new long[] {0, 0, 0}, data);
+	}
+
+	@Benchmark
+	public long compress(Counters counters) throws IOException {
+		final CountingOutputStream out = new CountingOutputStream();
+		DefaultBlockWriter.writeBlock(out, attributes, block);
+		counters.rawMB += block.getNumElements() * 2 / 1e6;
+		counters.compressedMB += out.count / 1e6;
+		return out.count;
+	}
+
+	public static void main(String[] args) throws RunnerException {
+		new Runner(new OptionsBuilder().include(N5CodecBenchmark.class.getSimpleName()).build()).run();
+	}
+}
@@ -0,0 +1,51 @@
+package spim.io;
+
+import org.janelia.saalfeldlab.n5.DataBlock;
+import org.janelia.saalfeldlab.n5.DataType;
+import org.janelia.saalfeldlab.n5.DatasetAttributes;
+import org.janelia.saalfeldlab.n5.N5FSWriter;
+import org.janelia.saalfeldlab.n5.ShortArrayDataBlock;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.IOException;
+
+import static org.junit.Assert.*;
+
+/**
+ * Description: Every available codec writes and reads back a block at its
+ * lowest, default and highest level.
+ *
+ * Author: HongKee Moon (moon@mpi-cbg.de), Scientific Computing Facility
+ * Organization: MPI-CBG Dresden
+ * Date: October 2026
+ */
+public class N5CodecTest {
+	private static final int[] BLOCK_SIZE = {64, 32};
+
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+
+	@Test
+	public void blocksRoundTrip() throws IOException {
+		final short[] pixels = new short[BLOCK_SIZE[0] * BLOCK_SIZE[1]];
+		for (int i = 0; i < pixels.length; i++)
+			pixels[i] = (short) (i % 97 * 300 + i / 64);
+
+		final N5FSWriter writer = new N5FSWriter(folder.newFolder("test.n5").getAbsolutePath());
+		for (N5Codec codec : N5Codec.available()) {
+			for (int level : new int[] {codec.getMinLevel(), codec.getDefaultLevel(), codec.getMaxLevel()}) {
+				final String dataset = codec.name() + "-" + level;
+				final DatasetAttributes attributes = new DatasetAttributes(
+						new long[] {BLOCK_SIZE[0], BLOCK_SIZE[1]}, BLOCK_SIZE, DataType.UINT16, codec.create(level));
+				writer.createDataset(dataset, attributes);
+				writer.writeBlock(dataset, attributes, new ShortArrayDataBlock(BLOCK_SIZE, new long[] {0, 0}, pixels));
+
+				final DataBlock<?> block = writer.readBlock(dataset, writer.getDatasetAttributes(dataset), 0, 0);
+				assertNotNull(dataset, block);
+				assertArrayEquals(dataset, pixels, (short[]) block.getData());
+			}
+		}
+	}
+}
@@ -0,0 +1,109 @@
+package spim.io;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.micromanager.PropertyMaps;
+import org.micromanager.data.Coordinates;
+import org.micromanager.data.Coords;
+import org.micromanager.data.Image;
+import org.micromanager.data.Metadata;
+import org.micromanager.data.internal.DefaultDatastore;
+import org.micromanager.data.internal.DefaultImage;
+import org.micromanager.data.internal.DefaultMetadata;
+
+import java.io.File;
+import java.io.IOException;
+
+import static org.junit.Assert.*;
+
+/**
+ * Description: Round trip of the N5 storage, whose slabs are written behind
+ * the acquisition. Every plane reads back the same while its slab is pending,
+ * once the storage is frozen and after the dataset is opened again. Two
+ * positions share the time points, so the planes of one position are still
+ * cached while the slabs of the other one land.
+ *
+ * Author: HongKee Moon (moon@mpi-cbg.de), Scientific Computing Facility
+ * Organization: MPI-CBG Dresden
+ * Date: October 2026
+ */
+public class N5MicroManagerStorageTest {
+	private static final int SIZE = 64;
+	private static final int POSITIONS = 2;
+	private static final int TIME_POINTS = 2;
+	// Several channels and slices, so that z=1,c=12 and z=11,c=2 would both exist
+	private static final int CHANNELS = 13;
+	private static final int SLICES = 12;
+
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+
+	private static short value(int p, int t, int c, int z, int i) {
+		return (short) (p * 20000 + t * 10000 + c * 500 + z * 30 + i % 29);
+	}
+
+	private static Coords coords(int p, int t, int c, int z) {
+		return Coordinates.builder().p(p).t(t).c(c).z(z).build();
+	}
+
+	private static Image image(int p, int t, int c, int z) {
+		final short[] pixels = new short[SIZE * SIZE];
+		for (int i = 0; i < pixels.length; i++)
+			pixels[i] = value(p, t, c, z, i);
+		final Metadata metadata = new DefaultMetadata.Builder()
+				.positionName("Pos" + p)
+				.elapsedTimeMs((double) t * 1000)
+				.zPositionUm((double) z)
+				.userData(PropertyMaps.builder()
+						.putInteger("Slices", SLICES)
+						.putInteger("Channels", CHANNELS)
+						.build())
+				.build();
+		return new DefaultImage(pixels, SIZE, SIZE, 2, 1, coords(p, t, c, z), metadata);
+	}
+
+	private static void assertPlane(N5MicroManagerStorage storage, int p, int t, int c, int z) {
+		final Image image = storage.getImage(coords(p, t, c, z));
+		assertNotNull("p=" + p + " t=" + t + " c=" + c + " z=" + z, image);
+		final short[] pixels = (short[]) image.getRawPixels();
+		assertEquals(SIZE * SIZE, pixels.length);
+		for (int i = 0; i < pixels.length; i++)
+			assertEquals("p=" + p + " t=" + t + " c=" + c + " z=" + z, value(p, t, c, z, i), pixels[i]);
+	}
+
+	// All planes of the time points before t, and those of the positions before p at t
+	private static void assertPlanesUpTo(N5MicroManagerStorage storage, int time, int position) {
+		for (int t = 0; t <= time; t++)
+			for (int p = 0; p < (t < time ? POSITIONS : position + 1); p++)
+				for (int c = 0; c < CHANNELS; c++)
+					for (int z = 0; z < SLICES; z++)
+						assertPlane(storage, p, t, c, z);
+	}
+
+	@Test
+	public void planesRoundTrip() throws IOException {
+		final File directory = folder.newFolder("n5");
+		final N5MicroManagerStorage storage = new N5MicroManagerStorage(new DefaultDatastore(null),
+				directory.getAbsolutePath(), "test", TIME_POINTS, true);
+
+		for (int t = 0; t < TIME_POINTS; t++)
+			for (int p = 0; p < POSITIONS; p++) {
+				for (int c = 0; c < CHANNELS; c++)
+					for (int z = 0; z < SLICES; z++)
+						storage.putImage(image(p, t, c, z));
+				// The slabs of this stack are most likely still being written
+				assertPlanesUpTo(storage, t, p);
+			}
+
+		storage.freeze();
+		assertPlanesUpTo(storage, TIME_POINTS - 1, POSITIONS - 1);
+		storage.close();
+
+		final N5MicroManagerStorage reopened = new N5MicroManagerStorage(new DefaultDatastore(null),
+				directory.getAbsolutePath(), "test", TIME_POINTS, false);
+		assertEquals(POSITIONS * TIME_POINTS * CHANNELS * SLICES, reopened.getNumImages());
+		assertPlanesUpTo(reopened, TIME_POINTS - 1, POSITIONS - 1);
+		reopened.close();
+	}
+}
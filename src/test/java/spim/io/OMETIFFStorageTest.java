@@ -0,0 +1,175 @@
+package spim.io;
+
+import loci.common.DataTools;
+import loci.formats.FormatException;
+import loci.formats.ImageReader;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.micromanager.PropertyMaps;
+import org.micromanager.data.Coordinates;
+import org.micromanager.data.Coords;
+import org.micromanager.data.Image;
+import org.micromanager.data.Metadata;
+import org.micromanager.data.internal.DefaultDatastore;
+import org.micromanager.data.internal.DefaultImage;
+import org.micromanager.data.internal.DefaultMetadata;
+import org.micromanager.data.internal.DefaultSummaryMetadata;
+
+import java.io.File;
+import java.io.IOException;
+
+import static org.junit.Assert.*;
+
+/**
+ * Description: Reads an OME-TIFF dataset of several time points back with
+ * Bio-Formats. Every time point has its own file, the companion file written
+ * on freeze ties them together into one series.
+ *
+ * Author: HongKee Moon (moon@mpi-cbg.de), Scientific Computing Facility
+ * Organization: MPI-CBG Dresden
+ * Date: October 2026
+ */
+public class OMETIFFStorageTest {
+	private static final int SIZE = 32;
+	private static final int TIME_POINTS = 3;
+	private static final int CHANNELS = 2;
+	private static final int SLICES = 4;
+
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+
+	private static short value(int t, int c, int z, int i) {
+		return (short) (t * 1000 + c * 100 + z * 10 + i % 7);
+	}
+
+	private static Metadata metadata(int t, int z) {
+		// Without a Studio the JSON formats need the position name to be set
+		return new DefaultMetadata.Builder()
+				.positionName("")
+				.elapsedTimeMs((double) t * 1000)
+				.zPositionUm((double) z)
+				.userData(PropertyMaps.builder()
+						.putDouble("Z-Step-um", 1.0)
+						.putInteger("Slices", SLICES)
+						.putInteger("Channels", CHANNELS)
+						.build())
+				.build();
+	}
+
+	private static Image shortImage(int t, int c, int z) {
+		final short[] pixels = new short[SIZE * SIZE];
+		for (int i = 0; i < pixels.length; i++)
+			pixels[i] = value(t, c, z, i);
+		final Coords coords = Coordinates.builder().p(0).t(t).c(c).z(z).build();
+		return new DefaultImage(pixels, SIZE, SIZE, 2, 1, coords, metadata(t, z));
+	}
+
+	private static Image rgbImage(int t, int c, int z) {
+		// Micro-Manager keeps RGB as BGRA bytes
+		final byte[] pixels = new byte[SIZE * SIZE * 4];
+		for (int i = 0; i < SIZE * SIZE; i++) {
+			pixels[4 * i] = (byte) (z + i);
+			pixels[4 * i + 1] = (byte) (c * 50 + i);
+			pixels[4 * i + 2] = (byte) (t * 80 + i);
+		}
+		final Coords coords = Coordinates.builder().p(0).t(t).c(c).z(z).build();
+		return new DefaultImage(pixels, SIZE, SIZE, 4, 3, coords, metadata(t, z));
+	}
+
+	private interface ImageFactory {
+		Image create(int t, int c, int z);
+	}
+
+	private OMETIFFStorage write(File directory, ImageFactory factory) throws IOException {
+		final DefaultDatastore store = new DefaultDatastore(null);
+		final OMETIFFStorage storage = new OMETIFFStorage(store, directory.getAbsolutePath(), "test", true);
+		store.setStorage(storage);
+		store.setSummaryMetadata(new DefaultSummaryMetadata.Builder()
+				.prefix("test")
+				.channelNames(new String[] {"Channel-0", "Channel-1"})
+				.zStepUm(1.0)
+				.intendedDimensions(Coordinates.builder().p(1).t(TIME_POINTS).c(CHANNELS).z(SLICES).build())
+				.build());
+
+		for (int t = 0; t < TIME_POINTS; t++)
+			for (int c = 0; c < CHANNELS; c++)
+				for (int z = 0; z < SLICES; z++)
+					storage.putImage(factory.create(t, c, z));
+		storage.freeze();
+		return storage;
+	}
+
+	private static void assertDimensions(ImageReader reader) {
+		assertEquals(1, reader.getSeriesCount());
+		assertEquals(SIZE, reader.getSizeX());
+		assertEquals(SIZE, reader.getSizeY());
+		assertEquals(TIME_POINTS, reader.getSizeT());
+		assertEquals(SLICES, reader.getSizeZ());
+		// The TIFF file of every time point and the companion file
+		assertEquals(TIME_POINTS + 1, reader.getUsedFiles().length);
+	}
+
+	@Test
+	public void timePointsFormOneSeries() throws IOException, FormatException {
+		final File directory = folder.newFolder("short");
+		write(directory, OMETIFFStorageTest::shortImage).close();
+
+		assertTrue(new File(directory, "test.companion.ome").exists());
+
+		// The companion file and any of the TIFF files give the whole dataset
+		for (String id : new String[] {"test.companion.ome", "test_TL0001_Pos00.tiff"}) {
+			try (ImageReader reader = new ImageReader()) {
+				reader.setId(new File(directory, id).getAbsolutePath());
+				assertDimensions(reader);
+				assertEquals(CHANNELS, reader.getSizeC());
+
+				for (int t = 0; t < TIME_POINTS; t++)
+					for (int c = 0; c < CHANNELS; c++)
+						for (int z = 0; z < SLICES; z++) {
+							final short[] pixels = (short[]) DataTools.makeDataArray(
+									reader.openBytes(reader.getIndex(z, c, t)), 2, false, reader.isLittleEndian());
+							for (int i = 0; i < pixels.length; i++)
+								assertEquals("t=" + t + " c=" + c + " z=" + z, value(t, c, z, i), pixels[i]);
+						}
+			}
+		}
+	}
+
+	@Test
+	public void planesAreReadThroughTheIndex() throws IOException {
+		final File directory = folder.newFolder("index");
+		final OMETIFFStorage storage = write(directory, OMETIFFStorageTest::shortImage);
+		try {
+			for (int t = 0; t < TIME_POINTS; t++) {
+				final Coords coords = Coordinates.builder().p(0).t(t).c(1).z(2).build();
+				assertArrayEquals((short[]) shortImage(t, 1, 2).getRawPixels(), (short[]) storage.getImage(coords).getRawPixels());
+			}
+		} finally {
+			storage.close();
+		}
+	}
+
+	@Test
+	public void rgbPlanesAreKept() throws IOException, FormatException {
+		final File directory = folder.newFolder("rgb");
+		write(directory, OMETIFFStorageTest::rgbImage).close();
+
+		try (ImageReader reader = new ImageReader()) {
+			reader.setId(new File(directory, "test.companion.ome").getAbsolutePath());
+			assertDimensions(reader);
+			assertEquals(3, reader.getRGBChannelCount());
+			assertEquals(CHANNELS, reader.getEffectiveSizeC());
+
+			final int t = 2, c = 1, z = 3;
+			final byte[] bytes = reader.openBytes(reader.getIndex(z, c, t));
+			final byte[] bgra = (byte[]) rgbImage(t, c, z).getRawPixels();
+			for (int i = 0; i < SIZE * SIZE; i++) {
+				for (int s = 0; s < 3; s++) {
+					final byte sample = reader.isInterleaved() ? bytes[3 * i + s] : bytes[s * SIZE * SIZE + i];
+					assertEquals(bgra[4 * i + 2 - s], sample);
+				}
+			}
+		}
+	}
+}
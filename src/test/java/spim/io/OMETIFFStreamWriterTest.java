@@ -0,0 +1,248 @@
+package spim.io;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.Assert.*;
+
+/**
+ * Description: Round trip of the OMETIFFStreamWriter. The written BigTIFF is
+ * parsed back by following the IFD chain, and the strips and tags of every
+ * plane are checked against what was written.
+ *
+ * Author: HongKee Moon (moon@mpi-cbg.de), Scientific Computing Facility
+ * Organization: MPI-CBG Dresden
+ * Date: October 2026
+ */
+public class OMETIFFStreamWriterTest {
+	private static final int WIDTH = 7;
+	private static final int HEIGHT = 5;
+
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+
+	// The tags of one IFD, a value is the first of its values
+	private static class Ifd {
+		final long offset;
+		final Map<Integer, long[]> tags = new HashMap<>();
+		long next;
+
+		Ifd(long offset) {
+			this.offset = offset;
+		}
+
+		long get(int tag) {
+			assertTrue("missing tag " + tag, tags.containsKey(tag));
+			return tags.get(tag)[0];
+		}
+	}
+
+	private static ByteBuffer read(File file) throws IOException {
+		return ByteBuffer.wrap(Files.readAllBytes(file.toPath())).order(ByteOrder.LITTLE_ENDIAN);
+	}
+
+	private static Ifd parseIfd(ByteBuffer buffer, long offset) {
+		final Ifd ifd = new Ifd(offset);
+		final int count = (int) buffer.getLong((int) offset);
+		for (int i = 0; i < count; i++) {
+			final int entry = (int) offset + 8 + i * 20;
+			final int tag = buffer.getShort(entry) & 0xffff;
+			final int type = buffer.getShort(entry + 2);
+			final int n = (int) buffer.getLong(entry + 4);
+			final long[] values = new long[Math.max(1, n)];
+			for (int v = 0; v < values.length; v++) {
+				switch (type) {
+					case 3: values[v] = buffer.getShort(entry + 12 + 2 * v) & 0xffff; break;
+					case 4: values[v] = buffer.getInt(entry + 12) & 0xffffffffL; break;
+					default: values[v] = buffer.getLong(entry + 12); break;
+				}
+			}
+			if (type == 2)
+				values[0] = n;
+			ifd.tags.put(tag, values);
+		}
+		ifd.next = buffer.getLong((int) offset + 8 + count * 20);
+		return ifd;
+	}
+
+	private static Ifd[] parse(ByteBuffer buffer, int planes) {
+		assertEquals('I', buffer.get(0));
+		assertEquals('I', buffer.get(1));
+		assertEquals(43, buffer.getShort(2));
+		assertEquals(8, buffer.getShort(4));
+
+		final Ifd[] ifds = new Ifd[planes];
+		long offset = buffer.getLong(8);
+		for (int i = 0; i < planes; i++) {
+			assertTrue("the IFD chain ends after " + i + " planes", offset != 0);
+			assertEquals("IFDs are on a word boundary", 0, offset & 1);
+			ifds[i] = parseIfd(buffer, offset);
+			offset = ifds[i].next;
+		}
+		assertEquals("the IFD chain is terminated", 0, offset);
+		return ifds;
+	}
+
+	private static String description(ByteBuffer buffer, Ifd ifd) {
+		// The ASCII entry keeps the count, the offset of the text follows it
+		final long length = ifd.get(270);
+		final int start = (int) buffer.getLong(entryPosition(buffer, ifd.offset, 270) + 12);
+		final byte[] text = new byte[(int) length - 1];
+		buffer.position(start);
+		buffer.get(text);
+		assertEquals("the description is NUL terminated", 0, buffer.get(start + (int) length - 1));
+		return new String(text, StandardCharsets.UTF_8);
+	}
+
+	private static int entryPosition(ByteBuffer buffer, long offset, int tag) {
+		final int count = (int) buffer.getLong((int) offset);
+		for (int i = 0; i < count; i++) {
+			final int entry = (int) offset + 8 + i * 20;
+			if ((buffer.getShort(entry) & 0xffff) == tag)
+				return entry;
+		}
+		fail("no entry for the tag " + tag);
+		return -1;
+	}
+
+	private static void assertPlaneTags(Ifd ifd, int bitsPerSample, int samplesPerPixel, int sampleFormat) {
+		assertEquals(WIDTH, ifd.get(256));
+		assertEquals(HEIGHT, ifd.get(257));
+		assertEquals(samplesPerPixel, ifd.tags.get(258).length);
+		for (long bits : ifd.tags.get(258))
+			assertEquals(bitsPerSample, bits);
+		assertEquals(1, ifd.get(259));
+		assertEquals(samplesPerPixel == 3 ? 2 : 1, ifd.get(262));
+		assertEquals(samplesPerPixel, ifd.get(277));
+		assertEquals(HEIGHT, ifd.get(278));
+		assertEquals((long) WIDTH * HEIGHT * samplesPerPixel * bitsPerSample / 8, ifd.get(279));
+		assertEquals(1, ifd.get(284));
+		assertEquals(sampleFormat, ifd.get(339));
+	}
+
+	@Test
+	public void shortPlanesRoundTrip() throws IOException {
+		final File file = folder.newFile("short.ome.tiff");
+		final OMETIFFStreamWriter writer = new OMETIFFStreamWriter(file, WIDTH, HEIGHT, 2);
+		final short[][] planes = new short[3][WIDTH * HEIGHT];
+		for (int p = 0; p < planes.length; p++) {
+			for (int i = 0; i < WIDTH * HEIGHT; i++)
+				planes[p][i] = (short) (p * 1000 + i * 31 + 40000);
+			writer.writePlane(planes[p]);
+		}
+		final List<Long> offsets = writer.getIfdOffsets();
+		writer.close("<OME/>");
+
+		final ByteBuffer buffer = read(file);
+		final Ifd[] ifds = parse(buffer, planes.length);
+		for (int p = 0; p < planes.length; p++) {
+			assertEquals((long) offsets.get(p), ifds[p].offset);
+			assertPlaneTags(ifds[p], 16, 1, 1);
+			final int strip = (int) ifds[p].get(273);
+			for (int i = 0; i < WIDTH * HEIGHT; i++)
+				assertEquals(planes[p][i], buffer.getShort(strip + 2 * i));
+		}
+		assertEquals("<OME/>", description(buffer, ifds[0]));
+		assertFalse("only the first IFD has a description", ifds[1].tags.containsKey(270));
+	}
+
+	@Test
+	public void bytePlanesArePadded() throws IOException {
+		// An odd plane size needs the padding byte to keep the IFDs aligned
+		final File file = folder.newFile("byte.ome.tiff");
+		final OMETIFFStreamWriter writer = new OMETIFFStreamWriter(file, WIDTH, HEIGHT, 1);
+		final byte[][] planes = new byte[2][WIDTH * HEIGHT];
+		for (int p = 0; p < planes.length; p++) {
+			for (int i = 0; i < WIDTH * HEIGHT; i++)
+				planes[p][i] = (byte) (p * 100 + i);
+			writer.writePlane(planes[p]);
+		}
+		writer.close("<OME/>");
+
+		final ByteBuffer buffer = read(file);
+		final Ifd[] ifds = parse(buffer, planes.length);
+		for (int p = 0; p < planes.length; p++) {
+			assertPlaneTags(ifds[p], 8, 1, 1);
+			final int strip = (int) ifds[p].get(273);
+			for (int i = 0; i < WIDTH * HEIGHT; i++)
+				assertEquals(planes[p][i], buffer.get(strip + i));
+		}
+	}
+
+	@Test
+	public void floatPlanesRoundTrip() throws IOException {
+		final File file = folder.newFile("float.ome.tiff");
+		final OMETIFFStreamWriter writer = new OMETIFFStreamWriter(file, WIDTH, HEIGHT, 4);
+		final float[] plane = new float[WIDTH * HEIGHT];
+		for (int i = 0; i < plane.length; i++)
+			plane[i] = i * 0.5f - 3;
+		writer.writePlane(plane);
+		writer.close("<OME/>");
+
+		final ByteBuffer buffer = read(file);
+		final Ifd ifd = parse(buffer, 1)[0];
+		assertPlaneTags(ifd, 32, 1, 3);
+		final int strip = (int) ifd.get(273);
+		for (int i = 0; i < plane.length; i++)
+			assertEquals(plane[i], buffer.getFloat(strip + 4 * i), 0);
+	}
+
+	@Test
+	public void rgbPlanesRoundTrip() throws IOException {
+		final File file = folder.newFile("rgb.ome.tiff");
+		final OMETIFFStreamWriter writer = new OMETIFFStreamWriter(file, WIDTH, HEIGHT, 1, 3);
+		final byte[] plane = new byte[WIDTH * HEIGHT * 3];
+		for (int i = 0; i < plane.length; i++)
+			plane[i] = (byte) (i * 7);
+		writer.writePlane(plane);
+		writer.writePlane(plane);
+		writer.close("<OME/>");
+
+		final ByteBuffer buffer = read(file);
+		final Ifd[] ifds = parse(buffer, 2);
+		for (Ifd ifd : ifds) {
+			assertPlaneTags(ifd, 8, 3, 1);
+			final int strip = (int) ifd.get(273);
+			for (int i = 0; i < plane.length; i++)
+				assertEquals(plane[i], buffer.get(strip + i));
+		}
+	}
+
+	@Test
+	public void descriptionKeepsNonAsciiText() throws IOException {
+		final File file = folder.newFile("description.ome.tiff");
+		final OMETIFFStreamWriter writer = new OMETIFFStreamWriter(file, WIDTH, HEIGHT, 2);
+		writer.writePlane(new short[WIDTH * HEIGHT]);
+		final String xml = "<OME><Experimenter FirstName=\"Zoë\"/></OME>";
+		writer.close(xml);
+
+		final ByteBuffer buffer = read(file);
+		assertEquals(xml, description(buffer, parse(buffer, 1)[0]));
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void rejectsPlanesOfTheWrongType() throws IOException {
+		final OMETIFFStreamWriter writer = new OMETIFFStreamWriter(folder.newFile("wrong.ome.tiff"), WIDTH, HEIGHT, 2);
+		try {
+			writer.writePlane(new float[WIDTH * HEIGHT]);
+		} finally {
+			writer.close("<OME/>");
+		}
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void rejectsWideRgbSamples() throws IOException {
+		new OMETIFFStreamWriter(folder.newFile("rgb16.ome.tiff"), WIDTH, HEIGHT, 2, 3);
+	}
+}
@@ -0,0 +1,175 @@
+package spim.io;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.micromanager.PropertyMaps;
+import org.micromanager.data.Coordinates;
+import org.micromanager.data.Coords;
+import org.micromanager.data.Image;
+import org.micromanager.data.Metadata;
+import org.micromanager.data.internal.DefaultDatastore;
+import org.micromanager.data.internal.DefaultImage;
+import org.micromanager.data.internal.DefaultMetadata;
+import org.micromanager.data.internal.DefaultSummaryMetadata;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+/**
+ * Description: Round trip of the RawStreamStorage, its recovery from a torn
+ * index, and the conversion of a raw stream dataset to OME-TIFF.
+ *
+ * Author: HongKee Moon (moon@mpi-cbg.de), Scientific Computing Facility
+ * Organization: MPI-CBG Dresden
+ * Date: October 2026
+ */
+public class RawStreamStorageTest {
+	private static final String PREFIX = "raw";
+	private static final int WIDTH = 24;
+	private static final int HEIGHT = 16;
+	private static final int TIME_POINTS = 2;
+	private static final int CHANNELS = 2;
+	private static final int SLICES = 3;
+
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+
+	private static Image image(int t, int c, int z) {
+		final short[] pixels = new short[WIDTH * HEIGHT];
+		for (int i = 0; i < pixels.length; i++)
+			pixels[i] = (short) (t * 1000 + c * 100 + z * 10 + i % 9);
+		// Without a Studio the JSON formats need the position and file name to be set
+		final Metadata metadata = new DefaultMetadata.Builder()
+				.positionName("")
+				.fileName(PREFIX)
+				.elapsedTimeMs(t * 1000.0 + z)
+				.zPositionUm(z * 2.0)
+				.exposureMs(10.0 + c)
+				.userData(PropertyMaps.builder()
+						.putDouble("Z-Step-um", 2.0)
+						.putInteger("Slices", SLICES)
+						.putInteger("Channels", CHANNELS)
+						.build())
+				.build();
+		return new DefaultImage(pixels, WIDTH, HEIGHT, 2, 1, Coordinates.builder().p(0).t(t).c(c).z(z).build(), metadata);
+	}
+
+	private static List<Coords> acquisitionOrder() {
+		List<Coords> order = new ArrayList<>();
+		for (int t = 0; t < TIME_POINTS; t++)
+			for (int c = 0; c < CHANNELS; c++)
+				for (int z = 0; z < SLICES; z++)
+					order.add(Coordinates.builder().p(0).t(t).c(c).z(z).build());
+		return order;
+	}
+
+	private static void write(File directory) throws IOException {
+		final DefaultDatastore store = new DefaultDatastore(null);
+		final RawStreamStorage storage = new RawStreamStorage(store, directory.getAbsolutePath(), PREFIX, true);
+		store.setStorage(storage);
+		store.setSummaryMetadata(new DefaultSummaryMetadata.Builder()
+				.prefix(PREFIX)
+				.channelNames(new String[] {"Channel-0", "Channel-1"})
+				.zStepUm(2.0)
+				.intendedDimensions(Coordinates.builder().p(1).t(TIME_POINTS).c(CHANNELS).z(SLICES).build())
+				.build());
+		for (Coords coords : acquisitionOrder())
+			storage.putImage(image(coords.getT(), coords.getC(), coords.getZ()));
+		storage.freeze();
+		storage.close();
+	}
+
+	private static RawStreamStorage open(File directory) throws IOException {
+		return new RawStreamStorage(new DefaultDatastore(null), directory.getAbsolutePath(), PREFIX, false);
+	}
+
+	private static void assertPlane(Image expected, Image actual) {
+		assertNotNull(actual);
+		assertEquals(expected.getCoords(), actual.getCoords());
+		assertArrayEquals((short[]) expected.getRawPixels(), (short[]) actual.getRawPixels());
+		assertEquals(expected.getMetadata().getElapsedTimeMs(0.0), actual.getMetadata().getElapsedTimeMs(0.0), 1e-9);
+		assertEquals(expected.getMetadata().getZPositionUm(), actual.getMetadata().getZPositionUm(), 1e-9);
+		assertEquals(expected.getMetadata().getExposureMs(), actual.getMetadata().getExposureMs(), 1e-9);
+	}
+
+	@Test
+	public void planesSurviveReopening() throws IOException {
+		final File directory = folder.newFolder();
+		write(directory);
+
+		final RawStreamStorage storage = open(directory);
+		try {
+			assertEquals(TIME_POINTS * CHANNELS * SLICES, storage.getNumImages());
+			assertEquals(acquisitionOrder(), storage.getArrivalOrder());
+			for (Coords coords : acquisitionOrder())
+				assertPlane(image(coords.getT(), coords.getC(), coords.getZ()), storage.getImage(coords));
+		} finally {
+			storage.close();
+		}
+	}
+
+	@Test
+	public void tornIndexTailIsDropped() throws IOException {
+		final File directory = folder.newFolder();
+		write(directory);
+
+		// A crash in the middle of the record of the last plane
+		try (RandomAccessFile file = new RandomAccessFile(new File(directory, PREFIX + "_raw.idx"), "rw")) {
+			file.setLength(file.length() - 10);
+		}
+
+		final RawStreamStorage storage = open(directory);
+		try {
+			final List<Coords> order = acquisitionOrder();
+			assertEquals(order.size() - 1, storage.getNumImages());
+			assertFalse(storage.hasImage(order.get(order.size() - 1)));
+			assertPlane(image(1, 1, 1), storage.getImage(order.get(order.size() - 2)));
+		} finally {
+			storage.close();
+		}
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void rejectsPlanesOfAnotherSize() throws IOException {
+		final DefaultDatastore store = new DefaultDatastore(null);
+		final RawStreamStorage storage = new RawStreamStorage(store, folder.newFolder().getAbsolutePath(), PREFIX, true);
+		try {
+			storage.putImage(image(0, 0, 0));
+			storage.putImage(new DefaultImage(new short[8 * 8], 8, 8, 2, 1,
+					Coordinates.builder().p(0).t(0).c(0).z(1).build(), image(0, 0, 1).getMetadata()));
+		} finally {
+			storage.close();
+		}
+	}
+
+	@Test
+	public void convertsToOMETIFF() throws IOException {
+		final File directory = folder.newFolder();
+		write(directory);
+		final File output = folder.newFolder("converted");
+
+		RawStreamConverter.convert(null, directory.getAbsolutePath(), PREFIX, output.getAbsolutePath(), "converted",
+				StorageType.OMETiff, N5Codec.GZIP, N5Codec.GZIP.getDefaultLevel());
+
+		assertEquals(StorageType.OMETiff, StorageOpener.checkStorageType(output.getAbsolutePath(), "converted"));
+		final OMETIFFStorage storage = new OMETIFFStorage(new DefaultDatastore(null), output.getAbsolutePath(), "converted", false);
+		try {
+			assertEquals(TIME_POINTS * CHANNELS * SLICES, storage.getNumImages());
+			for (Coords coords : acquisitionOrder()) {
+				final Image expected = image(coords.getT(), coords.getC(), coords.getZ());
+				final Image actual = storage.getImage(coords);
+				assertNotNull(actual);
+				assertArrayEquals((short[]) expected.getRawPixels(), (short[]) actual.getRawPixels());
+				assertEquals(expected.getMetadata().getZPositionUm(), actual.getMetadata().getZPositionUm(), 1e-9);
+			}
+		} finally {
+			storage.close();
+		}
+	}
+}
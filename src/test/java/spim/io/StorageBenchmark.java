@@ -0,0 +1,357 @@
+package spim.io;
+
+import ij.ImagePlus;
+import ij.process.ImageProcessor;
+import org.apache.commons.io.FileUtils;
+import org.micromanager.PropertyMaps;
+import org.micromanager.data.Coordinates;
+import org.micromanager.data.Coords;
+import org.micromanager.data.Image;
+import org.micromanager.data.Metadata;
+import org.micromanager.data.Storage;
+import org.micromanager.data.SummaryMetadata;
+import org.micromanager.data.internal.DefaultDatastore;
+import org.micromanager.data.internal.DefaultImage;
+import org.micromanager.data.internal.DefaultMetadata;
+import org.micromanager.data.internal.DefaultSummaryMetadata;
+import org.openjdk.jmh.annotations.AuxCounters;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.ChainedOptionsBuilder;
+import org.openjdk.jmh.runner.options.CommandLineOptionException;
+import org.openjdk.jmh.runner.options.CommandLineOptions;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+import utils.ImageGenerator;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Description: JMH benchmark of the storage backends.
+ * Gaussian blobs are written through a DefaultDatastore in the order of the
+ * acquisition and read back sequentially or randomly. Throughput gives planes/s
+ * and MB/s through the auxiliary counters, SampleTime gives the p99 latency of
+ * a single putImage or getImage and the GC profiler adds the allocation rate.
+ *
+ * Run it with
+ * mvn test-compile exec:java -Dexec.classpathScope=test -Dexec.mainClass=spim.io.StorageBenchmark
+ * or pass JMH options, e.g. -Dexec.args="StorageBenchmark -p storageType=N5 -prof gc", to run a subset.
+ *
+ * Author: HongKee Moon (moon@mpi-cbg.de), Scientific Computing Facility
+ * Organization: MPI-CBG Dresden
+ * Date: October 2026
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2, time = 5)
+@Measurement(iterations = 5, time = 10)
+@Fork(value = 1, jvmArgsAppend = {"-Xms4g", "-Xmx8g"})
+public class StorageBenchmark {
+	@Param({"SinglePlaneTiff", "OMETiff", "N5", "BDV", "RawStream"})
+	public StorageType storageType;
+
+	@Param({"512", "2048"})
+	public int planeSize;
+
+	@Param({"8", "16"})
+	public int bitDepth;
+
+	@Param({"1", "2"})
+	public int channels;
+
+	@Param({"RAW", "GZIP", "LZ4"})
+	public N5Codec codec;
+
+	@Param({"16"})
+	public int slices;
+
+	@Param({"4"})
+	public int timePoints;
+
+	// One stack per channel, shared by all time points
+	private Object[][] planes;
+
+	@Setup(Level.Trial)
+	public void generatePlanes() {
+		planes = new Object[channels][slices];
+		for (int c = 0; c < channels; c++) {
+			for (int z = 0; z < slices; z++) {
+				// The blob moves with the channel and fades out along z
+				final float amplitude = (float) Math.exp(-Math.pow(z - slices / 2.0, 2) / (2 * Math.pow(slices / 4.0, 2)));
+				final float center = planeSize * (c + 1) / (channels + 1f);
+				if (bitDepth == 8) {
+					ImagePlus imp = ImageGenerator.generateByteBlob(planeSize, planeSize, 1, center, planeSize / 2f, 0,
+							planeSize / 8f, planeSize / 8f, 1);
+					ImageProcessor ip = imp.getProcessor();
+					ip.multiply(amplitude);
+					planes[c][z] = ip.getPixels();
+				} else {
+					ImagePlus imp = ImageGenerator.generateFloatBlob(planeSize, planeSize, 1, center, planeSize / 2f, 0,
+							planeSize / 8f, planeSize / 8f, 1);
+					final float[] pixels = (float[]) imp.getProcessor().getPixels();
+					final short[] shorts = new short[pixels.length];
+					for (int i = 0; i < pixels.length; i++)
+						shorts[i] = (short) (pixels[i] * amplitude * 65535);
+					planes[c][z] = shorts;
+				}
+			}
+		}
+	}
+
+	long planeBytes() {
+		return (long) planeSize * planeSize * (bitDepth / 8);
+	}
+
+	int planesPerDataset() {
+		return timePoints * channels * slices;
+	}
+
+	/**
+	 * @return the coords of the planes in the order of the acquisition
+	 */
+	List<Coords> acquisitionOrder() {
+		List<Coords> order = new ArrayList<>(planesPerDataset());
+		for (int t = 0; t < timePoints; t++)
+			for (int c = 0; c < channels; c++)
+				for (int z = 0; z < slices; z++)
+					order.add(Coordinates.builder().p(0).t(t).c(c).z(z).index("view", 0).build());
+		return order;
+	}
+
+	Image makeImage(Coords coords) {
+		Metadata metadata = new DefaultMetadata.Builder()
+				.bitDepth(bitDepth)
+				.elapsedTimeMs((double) coords.getT() * 1000)
+				.zPositionUm((double) coords.getZ())
+				.userData(PropertyMaps.builder()
+						.putDouble("Z-Step-um", 1.0)
+						.putInteger("Slices", slices)
+						.putInteger("Channels", channels)
+						.build())
+				.build();
+		return new DefaultImage(planes[coords.getC()][coords.getZ()], planeSize, planeSize, bitDepth / 8, 1, coords, metadata);
+	}
+
+	SummaryMetadata makeSummary(String prefix) {
+		String[] channelNames = new String[channels];
+		for (int c = 0; c < channels; c++)
+			channelNames[c] = "Channel-" + c;
+
+		return new DefaultSummaryMetadata.Builder()
+				.prefix(prefix)
+				.channelNames(channelNames)
+				.zStepUm(1.0)
+				.intendedDimensions(Coordinates.builder().p(1).t(timePoints).c(channels).z(slices).build())
+				.build();
+	}
+
+	Storage createStorage(DefaultDatastore store, String directory, String prefix, boolean newDataSet) throws IOException {
+		switch (storageType) {
+			case SinglePlaneTiff: return new OpenSPIMSinglePlaneTiffSeries(store, directory, prefix, newDataSet);
+			case OMETiff: return new OMETIFFStorage(store, directory, prefix, newDataSet);
+			case N5: return new N5MicroManagerStorage(store, directory, prefix, timePoints, newDataSet, codec, codec.getDefaultLevel());
+			case BDV: return new BDVMicroManagerStorage(store, directory, prefix, channels, timePoints, newDataSet, false, codec, codec.getDefaultLevel());
+			case RawStream: return new RawStreamStorage(store, directory, prefix, newDataSet);
+			default: throw new IllegalArgumentException("Unknown storage type " + storageType);
+		}
+	}
+
+	/**
+	 * A dataset opened through a DefaultDatastore without a Studio. The
+	 * datastore posts its closing event to the Studio, so only the storage is
+	 * closed.
+	 */
+	static class Dataset {
+		final File directory;
+		final DefaultDatastore store;
+		final Storage storage;
+
+		Dataset(StorageBenchmark config, File directory, boolean newDataSet) throws IOException {
+			this.directory = directory;
+			store = new DefaultDatastore(null);
+			storage = config.createStorage(store, directory.getAbsolutePath(), "bench", newDataSet);
+			store.setStorage(storage);
+			if (newDataSet)
+				store.setSummaryMetadata(config.makeSummary("bench"));
+		}
+
+		void close() throws IOException {
+			storage.close();
+		}
+	}
+
+	@AuxCounters(AuxCounters.Type.OPERATIONS)
+	@State(Scope.Thread)
+	public static class Counters {
+		public long planes;
+		public double megabytes;
+
+		@Setup(Level.Iteration)
+		public void reset() {
+			planes = 0;
+			megabytes = 0;
+		}
+
+		void count(long bytes) {
+			planes++;
+			megabytes += bytes / 1e6;
+		}
+	}
+
+	@State(Scope.Thread)
+	public static class WriteState {
+		StorageBenchmark config;
+		List<Coords> order;
+		List<Image> images;
+		Dataset dataset;
+		int next;
+
+		@Setup(Level.Trial)
+		public void setup(StorageBenchmark config) {
+			this.config = config;
+			order = config.acquisitionOrder();
+			images = new ArrayList<>(order.size());
+			for (Coords coords : order)
+				images.add(config.makeImage(coords));
+		}
+
+		// A full dataset is frozen and a new one is started outside of the measurement
+		@Setup(Level.Invocation)
+		public void rollOver() throws IOException {
+			if (dataset == null || next == images.size()) {
+				finish();
+				dataset = new Dataset(config, Files.createTempDirectory("storage-bench").toFile(), true);
+				next = 0;
+			}
+		}
+
+		@TearDown(Level.Trial)
+		public void finish() throws IOException {
+			if (dataset != null) {
+				dataset.store.freeze();
+				dataset.close();
+				FileUtils.deleteDirectory(dataset.directory);
+				dataset = null;
+			}
+		}
+	}
+
+	@State(Scope.Thread)
+	public static class ReadState {
+		@Param({"sequential", "random"})
+		public String access;
+
+		StorageBenchmark config;
+		Dataset dataset;
+		Coords[] order;
+		int next;
+
+		// The dataset is written once and opened again, as it would be for a review
+		@Setup(Level.Trial)
+		public void setup(StorageBenchmark config) throws IOException {
+			this.config = config;
+			File directory = Files.createTempDirectory("storage-bench").toFile();
+			Dataset written = new Dataset(config, directory, true);
+			for (Coords coords : config.acquisitionOrder())
+				written.store.putImage(config.makeImage(coords));
+			written.store.freeze();
+			written.close();
+
+			dataset = new Dataset(config, directory, false);
+
+			List<Coords> coords = config.acquisitionOrder();
+			if ("random".equals(access))
+				Collections.shuffle(coords, new Random(42));
+			order = coords.toArray(new Coords[0]);
+		}
+
+		@TearDown(Level.Trial)
+		public void tearDown() throws IOException {
+			dataset.close();
+			FileUtils.deleteDirectory(dataset.directory);
+		}
+	}
+
+	@Benchmark
+	public void putImage(WriteState state, Counters counters) throws IOException {
+		state.dataset.store.putImage(state.images.get(state.next++));
+		counters.count(planeBytes());
+	}
+
+	@Benchmark
+	public Image getImage(ReadState state, Counters counters) throws IOException {
+		final Image image = state.dataset.storage.getImage(state.order[state.next]);
+		state.next = (state.next + 1) % state.order.length;
+		counters.count(planeBytes());
+		return image;
+	}
+
+	/**
+	 * Writes a whole dataset and freezes it, which includes the work the
+	 * storages defer to the end, e.g. the BDV mipmap levels and the XML.
+	 */
+	@Benchmark
+	@BenchmarkMode(Mode.SingleShotTime)
+	@Warmup(iterations = 1, batchSize = 1)
+	@Measurement(iterations = 5, batchSize = 1)
+	public void writeDataset(Counters counters) throws IOException {
+		File directory = Files.createTempDirectory("storage-bench").toFile();
+		try {
+			Dataset dataset = new Dataset(this, directory, true);
+			for (Coords coords : acquisitionOrder()) {
+				dataset.store.putImage(makeImage(coords));
+				counters.count(planeBytes());
+			}
+			dataset.store.freeze();
+			dataset.close();
+		} finally {
+			FileUtils.deleteDirectory(directory);
+		}
+	}
+
+	/**
+	 * Without arguments, runs the TIFF and raw storages uncompressed and N5 and
+	 * BDV with every codec, with the GC profiler for the allocation rate.
+	 * Otherwise the arguments are taken as JMH command line options.
+	 */
+	public static void main(String[] args) throws RunnerException, CommandLineOptionException {
+		if (args.length > 0) {
+			new Runner(new CommandLineOptions(args)).run();
+			return;
+		}
+
+		ChainedOptionsBuilder uncompressed = new OptionsBuilder()
+				.include(StorageBenchmark.class.getSimpleName())
+				.addProfiler(GCProfiler.class)
+				.param("storageType", StorageType.SinglePlaneTiff.name(), StorageType.OMETiff.name(), StorageType.RawStream.name())
+				.param("codec", N5Codec.RAW.name());
+		new Runner(uncompressed.build()).run();
+
+		ChainedOptionsBuilder compressed = new OptionsBuilder()
+				.include(StorageBenchmark.class.getSimpleName())
+				.addProfiler(GCProfiler.class)
+				.param("storageType", StorageType.N5.name(), StorageType.BDV.name());
+		new Runner(compressed.build()).run();
+	}
+}
@@ -0,0 +1,238 @@
+package spim.io;
+
+import org.junit.Test;
+import org.micromanager.data.Coordinates;
+import org.micromanager.data.Coords;
+import org.micromanager.data.Image;
+import org.micromanager.data.Storage;
+import org.micromanager.data.SummaryMetadata;
+import org.micromanager.data.internal.DefaultImage;
+import org.micromanager.data.internal.DefaultMetadata;
+import org.micromanager.data.internal.DefaultSummaryMetadata;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.junit.Assert.*;
+
+/**
+ * Description: Order, backpressure and freeze of the WriteBehindStorage on an
+ * in-memory storage whose writes can be held back.
+ *
+ * Author: HongKee Moon (moon@mpi-cbg.de), Scientific Computing Facility
+ * Organization: MPI-CBG Dresden
+ * Date: October 2026
+ */
+public class WriteBehindStorageTest {
+	private static final int SIZE = 16;
+	private static final long PLANE_BYTES = SIZE * SIZE * 2;
+
+	// Keeps the written images, every write waits for the gate
+	private static class GatedStorage implements Storage {
+		final List<Image> written = new CopyOnWriteArrayList<>();
+		final CountDownLatch gate;
+		volatile boolean failing = false;
+		volatile boolean frozen = false;
+
+		GatedStorage(boolean open) {
+			gate = new CountDownLatch(open ? 0 : 1);
+		}
+
+		@Override
+		public void putImage(Image image) throws IOException {
+			try {
+				gate.await();
+			} catch (InterruptedException e) {
+				throw new IOException(e);
+			}
+			if (failing)
+				throw new IOException("Disk full");
+			written.add(image);
+		}
+
+		@Override
+		public void freeze() {
+			frozen = true;
+		}
+
+		@Override
+		public Image getImage(Coords coords) {
+			for (Image image : written)
+				if (image.getCoords().equals(coords))
+					return image;
+			return null;
+		}
+
+		@Override
+		public boolean hasImage(Coords coords) {
+			return getImage(coords) != null;
+		}
+
+		@Override
+		public Image getAnyImage() {
+			return written.isEmpty() ? null : written.get(0);
+		}
+
+		@Override
+		public Iterable<Coords> getUnorderedImageCoords() {
+			List<Coords> coords = new ArrayList<>();
+			for (Image image : written)
+				coords.add(image.getCoords());
+			return coords;
+		}
+
+		@Override
+		public List<Image> getImagesMatching(Coords coords) {
+			return Collections.emptyList();
+		}
+
+		@Override
+		public List<Image> getImagesIgnoringAxes(Coords coords, String... ignoreTheseAxes) {
+			return Collections.emptyList();
+		}
+
+		@Override
+		public int getMaxIndex(String axis) {
+			return -1;
+		}
+
+		@Override
+		public List<String> getAxes() {
+			return Collections.emptyList();
+		}
+
+		@Override
+		public Coords getMaxIndices() {
+			return Coordinates.builder().build();
+		}
+
+		@Override
+		public SummaryMetadata getSummaryMetadata() {
+			return new DefaultSummaryMetadata.Builder().build();
+		}
+
+		@Override
+		public int getNumImages() {
+			return written.size();
+		}
+
+		@Override
+		public void close() {
+		}
+	}
+
+	private static Image plane(int z) {
+		return new DefaultImage(new short[SIZE * SIZE], SIZE, SIZE, 2, 1,
+				Coordinates.builder().t(0).z(z).build(), new DefaultMetadata.Builder().build());
+	}
+
+	@Test
+	public void writesInOrder() throws IOException {
+		final GatedStorage storage = new GatedStorage(true);
+		final WriteBehindStorage writeBehind = new WriteBehindStorage(storage, 64 * PLANE_BYTES);
+		for (int z = 0; z < 32; z++)
+			writeBehind.putImage(plane(z));
+		writeBehind.freeze();
+
+		assertTrue(storage.frozen);
+		assertEquals(32, storage.written.size());
+		for (int z = 0; z < 32; z++)
+			assertEquals(z, storage.written.get(z).getCoords().getZ());
+		assertEquals(0, writeBehind.getQueuedBytes());
+	}
+
+	@Test
+	public void queuedImagesAreServedFromMemory() throws IOException {
+		final GatedStorage storage = new GatedStorage(false);
+		final WriteBehindStorage writeBehind = new WriteBehindStorage(storage, 64 * PLANE_BYTES);
+		final Image image = plane(3);
+		writeBehind.putImage(image);
+
+		assertTrue(writeBehind.hasImage(image.getCoords()));
+		assertSame(image, writeBehind.getImage(image.getCoords()));
+		assertEquals(1, writeBehind.getNumImages());
+		assertEquals(PLANE_BYTES, writeBehind.getQueuedBytes());
+
+		storage.gate.countDown();
+		writeBehind.flush();
+		assertEquals(0, writeBehind.getQueuedBytes());
+		assertEquals(1, storage.written.size());
+		writeBehind.freeze();
+	}
+
+	@Test
+	public void blocksWhenTheBudgetIsUsedUp() throws Exception {
+		final GatedStorage storage = new GatedStorage(false);
+		final WriteBehindStorage writeBehind = new WriteBehindStorage(storage, 2 * PLANE_BYTES);
+		final List<Boolean> fallingBehind = new CopyOnWriteArrayList<>();
+		writeBehind.addListener((behind, queued, budget) -> fallingBehind.add(behind));
+
+		writeBehind.putImage(plane(0));
+		writeBehind.putImage(plane(1));
+		assertTrue(writeBehind.isFallingBehind());
+
+		final AtomicReference<Throwable> error = new AtomicReference<>();
+		final Thread producer = new Thread(() -> {
+			try {
+				writeBehind.putImage(plane(2));
+			} catch (Throwable t) {
+				error.set(t);
+			}
+		});
+		producer.start();
+		producer.join(200);
+		assertTrue("the third plane must wait for the writer", producer.isAlive());
+		assertTrue(writeBehind.getQueuedBytes() <= writeBehind.getBudgetBytes());
+
+		storage.gate.countDown();
+		producer.join(TimeUnit.SECONDS.toMillis(10));
+		assertFalse(producer.isAlive());
+		assertNull(error.get());
+
+		writeBehind.freeze();
+		assertEquals(3, storage.written.size());
+		assertFalse(writeBehind.isFallingBehind());
+		assertEquals(Boolean.TRUE, fallingBehind.get(0));
+		assertEquals(Boolean.FALSE, fallingBehind.get(fallingBehind.size() - 1));
+	}
+
+	@Test
+	public void rejectsImagesAfterFreeze() throws IOException {
+		final GatedStorage storage = new GatedStorage(true);
+		final WriteBehindStorage writeBehind = new WriteBehindStorage(storage, 64 * PLANE_BYTES);
+		writeBehind.putImage(plane(0));
+		writeBehind.freeze();
+
+		try {
+			writeBehind.putImage(plane(1));
+			fail("putImage after freeze must fail");
+		} catch (IOException e) {
+			// expected
+		}
+		assertEquals(0, writeBehind.getQueuedBytes());
+		assertFalse(writeBehind.hasImage(plane(1).getCoords()));
+		assertEquals(1, storage.written.size());
+	}
+
+	@Test
+	public void reportsWriteFailures() throws IOException {
+		final GatedStorage storage = new GatedStorage(true);
+		storage.failing = true;
+		final WriteBehindStorage writeBehind = new WriteBehindStorage(storage, 64 * PLANE_BYTES);
+		writeBehind.putImage(plane(0));
+
+		try {
+			writeBehind.flush();
+			fail("the failure of the writer must be reported");
+		} catch (IOException e) {
+			assertEquals("Disk full", e.getMessage());
+		}
+		assertEquals(0, writeBehind.getQueuedBytes());
+	}
+}
@@ -0,0 +1,97 @@
+package spim.ui.view.component.acquisition;
+
+import org.junit.Test;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+/**
+ * Description: Planning and waits of the AcquisitionScheduler. The planning is
+ * checked on a manual clock, the waits on the monotonic clock.
+ *
+ * Author: HongKee Moon (moon@mpi-cbg.de), Scientific Computing Facility
+ * Organization: MPI-CBG Dresden
+ * Date: October 2026
+ */
+public class AcquisitionSchedulerTest {
+	private static final long MS = TimeUnit.MILLISECONDS.toNanos(1);
+
+	private static class ManualScheduler extends AcquisitionScheduler {
+		long time = System.nanoTime();
+
+		ManualScheduler() {
+			super(10);
+		}
+
+		@Override
+		public long now() {
+			return time;
+		}
+	}
+
+	private static double delay(AcquisitionScheduler.Record record) {
+		return record.getActualMs() - record.getPlannedMs();
+	}
+
+	@Test
+	public void positionsArePlannedWithTheirOwnStart() {
+		final ManualScheduler scheduler = new ManualScheduler();
+		final long start = scheduler.now();
+
+		// First time point, position 1 starts 100 ms after position 0
+		scheduler.time = start + 5 * MS;
+		final AcquisitionScheduler.Record t0p0 = scheduler.record(0, 0, scheduler.planPosition(0, start), scheduler.now());
+		scheduler.time = start + 105 * MS;
+		final AcquisitionScheduler.Record t0p1 = scheduler.record(0, 1, scheduler.planPosition(1, start), scheduler.now());
+		assertEquals(5, delay(t0p0), 1e-6);
+		assertEquals(5, delay(t0p1), 1e-6);
+
+		// Second time point, position 0 is on time and position 1 is 200 ms late
+		scheduler.time = start + 1000 * MS;
+		final AcquisitionScheduler.Record t1p0 = scheduler.record(1, 0, scheduler.planPosition(0, start + 1000 * MS), scheduler.now());
+		scheduler.time = start + 1300 * MS;
+		final AcquisitionScheduler.Record t1p1 = scheduler.record(1, 1, scheduler.planPosition(1, start + 1000 * MS), scheduler.now());
+		assertEquals(0, delay(t1p0), 1e-6);
+		assertEquals(200, delay(t1p1), 1e-6);
+
+		assertEquals(4, scheduler.getRecords().size());
+	}
+
+	@Test
+	public void waitEndsOnTheDeadline() throws InterruptedException {
+		final AcquisitionScheduler scheduler = new AcquisitionScheduler(10);
+		final long deadline = scheduler.now() + 50 * MS;
+		assertTrue(scheduler.awaitUntil(deadline, null));
+		assertTrue(scheduler.now() >= deadline);
+	}
+
+	@Test
+	public void cancelEndsTheWaits() throws InterruptedException, ExecutionException {
+		final AcquisitionScheduler scheduler = new AcquisitionScheduler(10);
+		scheduler.cancel();
+		assertTrue(scheduler.isCancelled());
+
+		final long start = scheduler.now();
+		assertFalse(scheduler.awaitUntil(start + TimeUnit.SECONDS.toNanos(30), null));
+		assertFalse(scheduler.awaitCompletion(new CompletableFuture<Void>()));
+		assertTrue(scheduler.now() - start < TimeUnit.SECONDS.toNanos(5));
+	}
+
+	@Test
+	public void completionIsAwaited() throws InterruptedException, ExecutionException {
+		final AcquisitionScheduler scheduler = new AcquisitionScheduler(10);
+		final CompletableFuture<Void> done = CompletableFuture.runAsync(() -> {});
+		assertTrue(scheduler.awaitCompletion(done));
+	}
+
+	@Test(expected = ExecutionException.class)
+	public void failedAcquisitionIsReported() throws InterruptedException, ExecutionException {
+		final AcquisitionScheduler scheduler = new AcquisitionScheduler(10);
+		final CompletableFuture<Void> failed = new CompletableFuture<>();
+		failed.completeExceptionally(new IllegalStateException("camera"));
+		scheduler.awaitCompletion(failed);
+	}
+}
@@ -0,0 +1,134 @@
+package spim.ui.view.component.acquisition;
+
+import org.junit.Test;
+import org.micromanager.data.Coordinates;
+import org.micromanager.data.Coords;
+import org.micromanager.data.DataManager;
+import org.micromanager.data.Image;
+import org.micromanager.data.Metadata;
+import org.micromanager.data.internal.DefaultImage;
+import org.micromanager.data.internal.DefaultMetadata;
+
+import java.lang.reflect.Proxy;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+import static org.junit.Assert.*;
+
+/**
+ * Description: Projections of the MIPAccumulator. Slices arriving out of
+ * order give the same projection, and a stack which lost slices, its first
+ * slice among them, is still emitted by finish() with the coords of slice 0.
+ *
+ * Author: HongKee Moon (moon@mpi-cbg.de), Scientific Computing Facility
+ * Organization: MPI-CBG Dresden
+ * Date: October 2026
+ */
+public class MIPAccumulatorTest {
+	private static final int WIDTH = 32;
+	// Several row bands per plane
+	private static final int HEIGHT = 200;
+	private static final int SLICES = 6;
+
+	// Only createImage is used by the accumulator
+	private static final DataManager DATA = (DataManager) Proxy.newProxyInstance(
+			MIPAccumulatorTest.class.getClassLoader(), new Class<?>[] {DataManager.class}, (proxy, method, args) -> {
+				if (!method.getName().equals("createImage") || args.length != 7)
+					throw new UnsupportedOperationException(method.getName());
+				return new DefaultImage(args[0], (Integer) args[1], (Integer) args[2], (Integer) args[3],
+						(Integer) args[4], (Coords) args[5], (Metadata) args[6]);
+			});
+
+	private static int value(int c, int z, int i) {
+		// The maximum of every pixel is in another slice, some values need the unsigned compare
+		return (i * 7 + z * 13 + c * 101) % 60000 + (z == (i % SLICES) ? 5000 : 0);
+	}
+
+	private static Image slice(int c, int z) {
+		final short[] pixels = new short[WIDTH * HEIGHT];
+		for (int i = 0; i < pixels.length; i++)
+			pixels[i] = (short) value(c, z, i);
+		return new DefaultImage(pixels, WIDTH, HEIGHT, 2, 1, Coordinates.builder().t(3).c(c).z(z).build(),
+				new DefaultMetadata.Builder().zPositionUm((double) z).build());
+	}
+
+	private static short[] expected(int c, int... slices) {
+		final short[] max = new short[WIDTH * HEIGHT];
+		for (int z : slices)
+			for (int i = 0; i < max.length; i++)
+				max[i] = (short) Math.max(max[i] & 0xffff, value(c, z, i));
+		return max;
+	}
+
+	@Test
+	public void outOfOrderSlicesGiveTheProjection() throws InterruptedException {
+		final List<Image> emitted = new CopyOnWriteArrayList<>();
+		final MIPAccumulator mip = new MIPAccumulator(DATA, 2, emitted::add);
+
+		final int[] order = {3, 0, 5, 1, 4, 2};
+		for (int z : order) {
+			mip.add(0, z, SLICES, slice(0, z));
+			mip.add(1, z, SLICES, slice(1, z));
+		}
+		mip.finish();
+
+		assertEquals(2, emitted.size());
+		for (Image image : emitted) {
+			final int c = image.getCoords().getC();
+			assertEquals(Coordinates.builder().t(3).c(c).z(0).build(), image.getCoords());
+			assertEquals(0, image.getMetadata().getZPositionUm(), 0);
+			assertArrayEquals(expected(c, 0, 1, 2, 3, 4, 5), (short[]) image.getRawPixels());
+		}
+	}
+
+	@Test
+	public void completeStackIsEmittedWithoutFinish() throws InterruptedException {
+		final List<Image> emitted = new CopyOnWriteArrayList<>();
+		final MIPAccumulator mip = new MIPAccumulator(DATA, 1, emitted::add);
+
+		for (int z = 0; z < SLICES; z++)
+			mip.add(0, z, SLICES, slice(0, z));
+
+		final long deadline = System.currentTimeMillis() + 10000;
+		while (emitted.isEmpty() && System.currentTimeMillis() < deadline)
+			Thread.sleep(1);
+		assertEquals(1, emitted.size());
+		assertArrayEquals(expected(0, 0, 1, 2, 3, 4, 5), (short[]) emitted.get(0).getRawPixels());
+
+		// Later slices of the emitted stack are ignored
+		mip.add(0, 0, SLICES, slice(0, 0));
+		mip.finish();
+		assertEquals(1, emitted.size());
+	}
+
+	@Test
+	public void stackWithoutItsFirstSliceIsEmitted() throws InterruptedException {
+		final List<Image> emitted = new CopyOnWriteArrayList<>();
+		final MIPAccumulator mip = new MIPAccumulator(DATA, 1, emitted::add);
+
+		// Slices 0 and 3 were dropped by the sink
+		for (int z : new int[] {1, 2, 4, 5})
+			mip.add(0, z, SLICES, slice(0, z));
+		assertTrue(emitted.isEmpty());
+		mip.finish();
+
+		assertEquals(1, emitted.size());
+		final Image image = emitted.get(0);
+		assertEquals(Coordinates.builder().t(3).c(0).z(0).build(), image.getCoords());
+		assertEquals(1, image.getMetadata().getZPositionUm(), 0);
+		assertArrayEquals(expected(0, 1, 2, 4, 5), (short[]) image.getRawPixels());
+	}
+
+	@Test
+	public void channelWithoutSlicesIsNotEmitted() throws InterruptedException {
+		final List<Image> emitted = new CopyOnWriteArrayList<>();
+		final MIPAccumulator mip = new MIPAccumulator(DATA, 2, emitted::add);
+
+		for (int z = 0; z < SLICES; z++)
+			mip.add(1, z, SLICES, slice(1, z));
+		mip.finish();
+
+		assertEquals(1, emitted.size());
+		assertEquals(1, emitted.get(0).getCoords().getC());
+	}
+}
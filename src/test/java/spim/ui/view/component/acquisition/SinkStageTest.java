@@ -0,0 +1,116 @@
+package spim.ui.view.component.acquisition;
+
+import org.junit.Test;
+
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+/**
+ * Description: Ordering and drops of a SinkStage. A stage held up by a latch
+ * shows how the timed offer waits for room and drops the item when none comes.
+ *
+ * Author: HongKee Moon (moon@mpi-cbg.de), Scientific Computing Facility
+ * Organization: MPI-CBG Dresden
+ * Date: October 2026
+ */
+public class SinkStageTest {
+	@Test
+	public void itemsAreProcessedInOrder() throws InterruptedException {
+		final List<Integer> processed = new CopyOnWriteArrayList<>();
+		final SinkStage<Integer> stage = new SinkStage<>("test", 4, i -> {
+			processed.add(i);
+			return true;
+		}, null);
+
+		for (int i = 0; i < 100; i++)
+			assertTrue(stage.put(i));
+		stage.finish();
+
+		assertEquals(100, processed.size());
+		for (int i = 0; i < 100; i++)
+			assertEquals(i, (int) processed.get(i));
+		assertEquals(100, stage.getMetrics().getProcessed());
+		assertEquals(0, stage.getMetrics().getDropped());
+	}
+
+	@Test
+	public void timedOfferWaitsForRoom() throws InterruptedException {
+		final CountDownLatch release = new CountDownLatch(1);
+		final List<Integer> processed = new CopyOnWriteArrayList<>();
+		final SinkStage<Integer> stage = new SinkStage<>("test", 1, i -> {
+			release.await();
+			processed.add(i);
+			return true;
+		}, null);
+
+		// The first item is taken by the stage, the second fills the queue
+		assertTrue(stage.offer(0, 1, TimeUnit.SECONDS));
+		while (stage.getMetrics().getQueueDepth() != 0)
+			Thread.sleep(1);
+		assertTrue(stage.offer(1, 1, TimeUnit.SECONDS));
+
+		// Room comes while the third item waits
+		final Thread releaser = new Thread(() -> {
+			try {
+				Thread.sleep(50);
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			}
+			release.countDown();
+		});
+		releaser.start();
+		assertTrue(stage.offer(2, 10, TimeUnit.SECONDS));
+		stage.finish();
+		releaser.join();
+
+		assertEquals(3, processed.size());
+		for (int i = 0; i < 3; i++)
+			assertEquals(i, (int) processed.get(i));
+		assertEquals(0, stage.getMetrics().getDropped());
+	}
+
+	@Test
+	public void timedOfferDropsWhenTheStageIsStuck() throws InterruptedException {
+		final CountDownLatch release = new CountDownLatch(1);
+		final List<Integer> processed = new CopyOnWriteArrayList<>();
+		final SinkStage<Integer> stage = new SinkStage<>("test", 1, i -> {
+			release.await();
+			processed.add(i);
+			return true;
+		}, null);
+
+		assertTrue(stage.offer(0, 1, TimeUnit.SECONDS));
+		while (stage.getMetrics().getQueueDepth() != 0)
+			Thread.sleep(1);
+		assertTrue(stage.offer(1, 1, TimeUnit.SECONDS));
+
+		final long start = System.nanoTime();
+		assertFalse(stage.offer(2, 20, TimeUnit.MILLISECONDS));
+		assertTrue(System.nanoTime() - start >= TimeUnit.MILLISECONDS.toNanos(20));
+		assertFalse(stage.offer(3));
+		assertEquals(2, stage.getMetrics().getDropped());
+
+		release.countDown();
+		stage.finish();
+		assertEquals(2, processed.size());
+		assertEquals(0, (int) processed.get(0));
+		assertEquals(1, (int) processed.get(1));
+	}
+
+	@Test
+	public void stoppedStageRejectsItems() throws InterruptedException {
+		final SinkStage<Integer> stage = new SinkStage<>("test", 4, i -> false, null);
+		assertTrue(stage.put(0));
+		while (!stage.isStopped())
+			Thread.sleep(1);
+
+		assertFalse(stage.put(1));
+		assertFalse(stage.offer(2, 10, TimeUnit.MILLISECONDS));
+		stage.finish();
+		assertEquals(1, stage.getMetrics().getProcessed());
+	}
+}
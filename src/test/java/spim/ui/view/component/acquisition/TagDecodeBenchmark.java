@@ -0,0 +1,204 @@
+package spim.ui.view.component.acquisition;
+
+import mmcorej.TaggedImage;
+import mmcorej.org.json.JSONException;
+import mmcorej.org.json.JSONObject;
+import org.micromanager.PropertyMap;
+import org.micromanager.data.Coordinates;
+import org.micromanager.data.Coords;
+import org.micromanager.data.Image;
+import org.micromanager.data.Metadata;
+import org.micromanager.data.internal.DefaultImage;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Function;
+import java.util.stream.Collectors;
+
+/**
+ * Description: Frames/s of the tag decoding of the TaggedImageSink, before
+ * and after the TagSchema. The legacy benchmark is the former per-frame code,
+ * which parsed the whole tags through DefaultImage and looked up the summary
+ * for every frame.
+ *
+ * Run it with
+ * mvn test-compile exec:java -Dexec.classpathScope=test -Dexec.mainClass=spim.ui.view.component.acquisition.TagDecodeBenchmark
+ *
+ * Author: HongKee Moon (moon@mpi-cbg.de), Scientific Computing Facility
+ * Organization: MPI-CBG Dresden
+ * Date: October 2026
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class TagDecodeBenchmark {
+	@Param({"1", "2"})
+	public int cameras;
+
+	@Param({"100"})
+	public int slices;
+
+	// Device properties in the tags of every frame, as in the scope data of a SPIM setup
+	@Param({"60"})
+	public int deviceProperties;
+
+	private static final int T = 3;
+	private static final int ANGLE = 1;
+
+	private List<String> cameraNames;
+	private TaggedImage[] frames;
+	private int next;
+
+	// State of the former decoding
+	private HashMap<String, Integer> camChannels;
+	// State of the schema decoding
+	private int[] camChannelArray;
+	private TagSchema schema;
+
+	@Setup(Level.Trial)
+	public void setup() throws JSONException {
+		cameraNames = Arrays.asList("Camera-1", "Camera-2").subList(0, cameras);
+
+		JSONObject summary = new JSONObject();
+		summary.put("Slices", slices);
+		summary.put("Channels", cameras);
+		summary.put("Frames", 10);
+		summary.put("Positions", 4);
+		summary.put("z-step_um", 1.5);
+		summary.put("Prefix", "spim");
+		summary.put("Width", 512);
+		summary.put("Height", 512);
+		summary.put("PixelType", "GRAY16");
+
+		final short[] pixels = new short[512 * 512];
+		frames = new TaggedImage[slices * cameras];
+		int i = 0;
+		for (int z = 0; z < slices; z++) {
+			for (int c = 0; c < cameras; c++) {
+				JSONObject tags = new JSONObject();
+				tags.put("Summary", summary);
+				tags.put("Width", 512);
+				tags.put("Height", 512);
+				tags.put("PixelType", "GRAY16");
+				tags.put("BitDepth", 16);
+				tags.put("Binning", 1);
+				tags.put("SliceIndex", z);
+				tags.put("ChannelIndex", c);
+				tags.put("FrameIndex", T);
+				tags.put("PositionIndex", ANGLE);
+				tags.put("Camera", cameraNames.get(c));
+				tags.put("Core-Camera", cameraNames.get(c));
+				tags.put("Exposure-ms", 20);
+				tags.put("XPositionUm", 100.0);
+				tags.put("YPositionUm", 200.0);
+				tags.put("ZPositionUm", 300.0 + z * 1.5);
+				tags.put("ElapsedTime-ms", 20.0 * i);
+				tags.put("ImageNumber", i);
+				tags.put("ReceivedTime", "2026-10-17 10:00:00.000 +0200");
+				for (int p = 0; p < deviceProperties; p++)
+					tags.put("Device" + (p % 8) + "-Property" + p, Integer.toString(p * 7));
+				frames[i++] = new TaggedImage(pixels, tags);
+			}
+		}
+
+		camChannels = new HashMap<>(cameraNames.stream().collect(Collectors.toMap(Function.identity(), c -> 0)));
+		camChannelArray = new int[cameras];
+	}
+
+	private TaggedImage nextFrame() {
+		final TaggedImage tagged = frames[next];
+		next = (next + 1) % frames.length;
+		return tagged;
+	}
+
+	@Benchmark
+	public Image legacy() throws JSONException {
+		final TaggedImage tagged = nextFrame();
+
+		int slice = tagged.tags.getInt("SliceIndex");
+		double exp = tagged.tags.getInt("Exposure-ms");
+		double zPos = tagged.tags.getDouble("ZPositionUm");
+		double xPos = tagged.tags.getDouble("XPositionUm");
+		double yPos = tagged.tags.getDouble("YPositionUm");
+		int ch = tagged.tags.getInt("ChannelIndex");
+		String cam = tagged.tags.getString("Camera");
+		double zStep = tagged.tags.getJSONObject("Summary").getDouble("z-step_um");
+		int slices = tagged.tags.getJSONObject("Summary").getInt("Slices");
+		int channels = tagged.tags.getJSONObject("Summary").getInt("Channels");
+
+		if (ch == 0)
+			camChannels.keySet().forEach(d -> camChannels.put(d, 0));
+		int channel = ch;
+		if (camChannels.containsKey(cam))
+			channel = camChannels.get(cam);
+
+		DefaultImage image = new DefaultImage(tagged);
+		Coords.Builder cb = Coordinates.builder();
+		Coords coord = cb.p(ANGLE).t(T).c(channel).z(slice).index("view", cameraNames.indexOf(cam)).build();
+
+		Metadata md = image.getMetadata();
+		Metadata.Builder mdb = md.copyBuilderPreservingUUID();
+		PropertyMap ud = md.getUserData();
+		ud = ud.copyBuilder().putDouble("Z-Step-um", zStep).putInteger("Slices", slices).putInteger("Channels", channels).build();
+		mdb = mdb.xPositionUm(xPos).yPositionUm(yPos).zPositionUm(zPos).elapsedTimeMs(exp);
+		md = mdb.positionName(ANGLE + "").userData(ud).build();
+		Image img = image.copyWith(coord, md);
+
+		if (camChannels.containsKey(cam))
+			camChannels.put(cam, channel + 1);
+		return img;
+	}
+
+	@Benchmark
+	public Image schema() throws JSONException {
+		final TaggedImage tagged = nextFrame();
+		final JSONObject tags = tagged.tags;
+		if (schema == null)
+			schema = new TagSchema(tags.getJSONObject("Summary"), cameraNames, ANGLE, T);
+
+		int slice = tags.getInt("SliceIndex");
+		double exp = tags.getInt("Exposure-ms");
+		double zPos = tags.getDouble("ZPositionUm");
+		double xPos = tags.getDouble("XPositionUm");
+		double yPos = tags.getDouble("YPositionUm");
+		int ch = tags.getInt("ChannelIndex");
+		String cam = tags.getString("Camera");
+		final int view = schema.viewOf(cam);
+
+		if (ch == 0)
+			Arrays.fill(camChannelArray, 0);
+		int channel = ch;
+		if (view >= 0)
+			channel = camChannelArray[view];
+
+		Image img = schema.makeImage(tagged, view, schema.coords(T, view, channel, slice), xPos, yPos, zPos, exp);
+
+		if (view >= 0)
+			camChannelArray[view] = channel + 1;
+		return img;
+	}
+
+	public static void main(String[] args) throws RunnerException {
+		new Runner(new OptionsBuilder().include(TagDecodeBenchmark.class.getSimpleName()).build()).run();
+	}
+}